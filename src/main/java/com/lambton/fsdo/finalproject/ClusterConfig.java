@@ -0,0 +1,104 @@
+package com.lambton.fsdo.finalproject;
+
+import com.hazelcast.config.Config;
+import com.hazelcast.config.EvictionConfig;
+import com.hazelcast.config.EvictionPolicy;
+import com.hazelcast.config.InMemoryFormat;
+import com.hazelcast.config.JoinConfig;
+import com.hazelcast.config.MapConfig;
+import com.hazelcast.config.MaxSizePolicy;
+import com.hazelcast.config.NearCacheConfig;
+import com.hazelcast.core.HazelcastInstance;
+import com.lambton.fsdo.finalproject.cluster.FavoriteEventsBridge;
+import com.lambton.fsdo.finalproject.cluster.HazelcastTMDbSnapshotStore;
+import com.lambton.fsdo.finalproject.services.LocalTMDbSnapshotStore;
+import com.lambton.fsdo.finalproject.services.TMDbSnapshotStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Single-node mode (the default) keeps TMDb snapshots in this JVM. Clustered mode ({@code cluster.enabled=true},
+ * see application-cluster.properties) starts an embedded Hazelcast member that shares snapshots and relays
+ * favorites changes between nodes; favorites themselves live in the shared database.
+ */
+@Configuration
+public class ClusterConfig {
+
+    static final String SNAPSHOTS_MAP = "tmdb-snapshots";
+    static final String FAVORITES_TOPIC = "favorites-changed";
+
+    @Bean
+    @ConditionalOnProperty(name = "cluster.enabled", havingValue = "false", matchIfMissing = true)
+    public TMDbSnapshotStore localSnapshotStore(@Value("${tmdb.cache.max-entries:1000}") int maxEntries) {
+        return new LocalTMDbSnapshotStore(maxEntries);
+    }
+
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnProperty(name = "cluster.enabled", havingValue = "true")
+    static class Clustered {
+
+        /**
+         * Member configuration, picked up by Spring Boot to create the HazelcastInstance.
+         * Members find each other through the configured address list, not multicast.
+         */
+        @Bean
+        public Config hazelcastConfig(@Value("${cluster.name}") String clusterName,
+                                      @Value("${cluster.port:5701}") int port,
+                                      @Value("${cluster.members}") List<String> members,
+                                      @Value("${tmdb.cache.max-entries:1000}") int maxEntries) {
+            Config config = new Config();
+            config.setClusterName(clusterName);
+            config.setProperty("hazelcast.phone.home.enabled", "false");
+            // Spring shuts the instance down after the beans that use it
+            config.setProperty("hazelcast.shutdownhook.enabled", "false");
+            // Send near cache invalidations right away instead of in batches, so other nodes see a refresh at once
+            config.setProperty("hazelcast.map.invalidation.batch.enabled", "false");
+
+            config.getNetworkConfig().setPort(port).setPortAutoIncrement(true);
+            JoinConfig join = config.getNetworkConfig().getJoin();
+            join.getMulticastConfig().setEnabled(false);
+            join.getAutoDetectionConfig().setEnabled(false);
+            join.getTcpIpConfig().setEnabled(true).setMembers(members);
+
+            // Snapshots are stored once in the cluster and read as objects from each node's near cache
+            config.addMapConfig(new MapConfig(SNAPSHOTS_MAP)
+                    .setEvictionConfig(new EvictionConfig()
+                            .setEvictionPolicy(EvictionPolicy.LRU)
+                            .setMaxSizePolicy(MaxSizePolicy.PER_NODE)
+                            .setSize(maxEntries))
+                    .setNearCacheConfig(new NearCacheConfig(SNAPSHOTS_MAP)
+                            .setInMemoryFormat(InMemoryFormat.OBJECT)
+                            .setInvalidateOnChange(true)
+                            .setCacheLocalEntries(true)
+                            .setEvictionConfig(new EvictionConfig()
+                                    .setEvictionPolicy(EvictionPolicy.LRU)
+                                    .setMaxSizePolicy(MaxSizePolicy.ENTRY_COUNT)
+                                    .setSize(maxEntries))));
+            return config;
+        }
+
+        @Bean
+        public TMDbSnapshotStore clusterSnapshotStore(HazelcastInstance hazelcast,
+                                                      @Value("${cluster.snapshot-lock-wait:PT5S}") Duration lockWait,
+                                                      @Value("${cluster.snapshot-lock-lease:PT30S}") Duration lockLease) {
+            return new HazelcastTMDbSnapshotStore(hazelcast.getMap(SNAPSHOTS_MAP), lockWait, lockLease);
+        }
+
+        /**
+         * Eager so that the node starts receiving other nodes' changes as soon as it is up
+         */
+        @Bean
+        @Lazy(false)
+        public FavoriteEventsBridge favoriteEventsBridge(HazelcastInstance hazelcast,
+                                                         ApplicationEventPublisher eventPublisher) {
+            return new FavoriteEventsBridge(hazelcast.getTopic(FAVORITES_TOPIC), eventPublisher);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.lambton.fsdo.finalproject;
+
+import com.lambton.fsdo.finalproject.diagnostics.JdbcTimingListener;
+import com.lambton.fsdo.finalproject.entities.FavoriteMovie;
+import com.lambton.fsdo.finalproject.entities.FavoriteMovieId;
+import com.lambton.fsdo.finalproject.entities.Movie;
+import com.lambton.fsdo.finalproject.entities.TMDbMovieDto;
+import com.lambton.fsdo.finalproject.entities.TMDbMovieResponse;
+import com.lambton.fsdo.finalproject.logging.RedactingJsonMembersCustomizer;
+import com.lambton.fsdo.finalproject.logging.RedactingMessageConverter;
+import com.lambton.fsdo.finalproject.logging.RedactingThrowableConverter;
+import com.lambton.fsdo.finalproject.repositories.FavoriteFeatureRow;
+import com.lambton.fsdo.finalproject.repositories.FavoriteStatsRow;
+import org.springframework.aop.SpringProxy;
+import org.springframework.aot.hint.BindingReflectionHintsRegistrar;
+import org.springframework.aot.hint.MemberCategory;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.RuntimeHintsRegistrar;
+import org.springframework.core.DecoratingProxy;
+import org.springframework.data.projection.TargetAware;
+
+/**
+ * Reflection, proxy and resource hints for the native image (mvn -Pnative native:compile) that Spring's
+ * AOT processing cannot infer on its own: types bound by Jackson outside of controller signatures,
+ * classes instantiated by name from configuration files, and resources loaded by path.
+ */
+public class NativeHints implements RuntimeHintsRegistrar {
+
+    @Override
+    public void registerHints(RuntimeHints hints, ClassLoader classLoader) {
+        // TMDb responses are bound by RestTemplate, which AOT does not see
+        new BindingReflectionHintsRegistrar()
+                .registerReflectionHints(hints.reflection(), TMDbMovieDto.class, TMDbMovieResponse.class);
+
+        // Hibernate reads and writes entity fields and instantiates entities and IDs reflectively
+        for (Class<?> entity : new Class<?>[]{Movie.class, FavoriteMovie.class, FavoriteMovieId.class}) {
+            hints.reflection().registerType(entity, MemberCategory.DECLARED_FIELDS,
+                    MemberCategory.INVOKE_DECLARED_CONSTRUCTORS, MemberCategory.INVOKE_DECLARED_METHODS);
+        }
+
+        // Interface projections are JDK proxies created by Spring Data
+        for (Class<?> projection : new Class<?>[]{FavoriteStatsRow.class, FavoriteFeatureRow.class}) {
+            hints.proxies().registerJdkProxy(projection, TargetAware.class, SpringProxy.class, DecoratingProxy.class);
+            hints.reflection().registerType(projection, MemberCategory.INVOKE_PUBLIC_METHODS);
+        }
+
+        // Instantiated by name from logback-spring.xml, logging.structured.json.customizer and
+        // hibernate.session.events.auto
+        for (Class<?> type : new Class<?>[]{RedactingMessageConverter.class, RedactingThrowableConverter.class,
+                RedactingJsonMembersCustomizer.class, JdbcTimingListener.class}) {
+            hints.reflection().registerType(type, MemberCategory.INVOKE_PUBLIC_CONSTRUCTORS);
+        }
+
+        hints.resources()
+                .registerPattern("templates/*.html")
+                .registerPattern("templates/fragments/*.html")
+                .registerPattern("ehcache.xml")
+                .registerPattern("logback-spring.xml");
+    }
+}
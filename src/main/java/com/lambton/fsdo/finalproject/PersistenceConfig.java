@@ -0,0 +1,33 @@
+package com.lambton.fsdo.finalproject;
+
+import com.lambton.fsdo.finalproject.diagnostics.JdbcTimingListener;
+import com.lambton.fsdo.finalproject.repositories.SampledSqlLogger;
+import org.hibernate.cfg.AvailableSettings;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class PersistenceConfig {
+
+    /**
+     * Route SQL logging through a sampling logger instead of show-sql when a sample rate is configured
+     */
+    @Bean
+    @ConditionalOnProperty(name = "persistence.sql-log.sample-rate")
+    public HibernatePropertiesCustomizer sampledSqlLogging(@Value("${persistence.sql-log.sample-rate}") long sampleRate) {
+        SampledSqlLogger sqlLogger = new SampledSqlLogger(sampleRate);
+        return properties -> properties.put(AvailableSettings.STATEMENT_INSPECTOR, sqlLogger);
+    }
+
+    /**
+     * Report statement execution as the db stage of Server-Timing and the slow request log
+     */
+    @Bean
+    public HibernatePropertiesCustomizer jdbcTiming() {
+        return properties -> properties.put(AvailableSettings.AUTO_SESSION_EVENTS_LISTENER,
+                JdbcTimingListener.class.getName());
+    }
+}
@@ -1,54 +1,114 @@
 package com.lambton.fsdo.finalproject;
 
+import com.lambton.fsdo.finalproject.interceptors.BulkheadInterceptor;
+import com.lambton.fsdo.finalproject.interceptors.ServerTimingInterceptor;
+import com.lambton.fsdo.finalproject.interceptors.TemplateRenderTimingInterceptor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.ResourceChainRegistration;
+import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistration;
 import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import org.springframework.web.servlet.resource.EncodedResourceResolver;
+import org.springframework.web.servlet.resource.VersionResourceResolver;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
 
 @Configuration
 public class WebConfig implements WebMvcConfigurer {
 
+    private final TemplateRenderTimingInterceptor templateRenderTimingInterceptor;
+    private final ServerTimingInterceptor serverTimingInterceptor;
+    private final BulkheadInterceptor bulkheadInterceptor;
+
+    public WebConfig(TemplateRenderTimingInterceptor templateRenderTimingInterceptor,
+                     ServerTimingInterceptor serverTimingInterceptor,
+                     BulkheadInterceptor bulkheadInterceptor) {
+        this.templateRenderTimingInterceptor = templateRenderTimingInterceptor;
+        this.serverTimingInterceptor = serverTimingInterceptor;
+        this.bulkheadInterceptor = bulkheadInterceptor;
+    }
+
     /**
-     * RestTemplate bean for making HTTP requests to TMDb API
+     * RestTemplate bean for making HTTP requests to TMDb API, with timeouts so a hanging TMDb
+     * releases request threads
      */
     @Bean
-    public RestTemplate restTemplate() {
-        return new RestTemplate();
+    public RestTemplate restTemplate(@Value("${tmdb.api.connect-timeout:PT2S}") Duration connectTimeout,
+                                     @Value("${tmdb.api.read-timeout:PT5S}") Duration readTimeout) {
+        SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+        requestFactory.setConnectTimeout(connectTimeout);
+        requestFactory.setReadTimeout(readTimeout);
+        return new RestTemplate(requestFactory);
     }
 
     /**
-     * Configure CORS for AJAX requests
+     * Configure CORS for AJAX requests. Pages on other origins may not send X-User-Id, so they can only
+     * act as the anonymous user their request is given.
      */
     @Override
     public void addCorsMappings(CorsRegistry registry) {
         registry.addMapping("/**")
                 .allowedOrigins("*")
                 .allowedMethods("GET", "POST", "PUT", "DELETE", "OPTIONS")
-                .allowedHeaders("*")
+                .allowedHeaders(HttpHeaders.ACCEPT, HttpHeaders.CONTENT_TYPE, HttpHeaders.IF_NONE_MATCH,
+                        HttpHeaders.IF_MODIFIED_SINCE)
                 .allowCredentials(false);
     }
 
     /**
-     * Configure static resource handling
+     * Admit requests through their bulkhead before anything else runs, record render time per template,
+     * and send the Server-Timing header before rendering starts
      */
     @Override
-    public void addResourceHandlers(ResourceHandlerRegistry registry) {
-        registry.addResourceHandler("/static/**")
-                .addResourceLocations("classpath:/static/")
-                .setCachePeriod(3600);
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(bulkheadInterceptor);
+        registry.addInterceptor(templateRenderTimingInterceptor);
+        registry.addInterceptor(serverTimingInterceptor);
+    }
 
-        registry.addResourceHandler("/css/**")
-                .addResourceLocations("classpath:/static/css/")
-                .setCachePeriod(3600);
+    /**
+     * Configure static resource handling.
+     * URLs built with @{...} in templates carry a content hash (app-<md5>.css), so those can be cached
+     * as immutable for a year. The same files stay reachable under their plain names (app.css), whose content
+     * changes with a deploy; those are revalidated on every use instead. Precompressed .br/.gz siblings are
+     * served when the client accepts them.
+     */
+    @Override
+    public void addResourceHandlers(ResourceHandlerRegistry registry) {
+        addAssets(registry, "/static/", "classpath:/static/", true);
+        addAssets(registry, "/css/", "classpath:/static/css/", true);
+        addAssets(registry, "/js/", "classpath:/static/js/", true);
+        addAssets(registry, "/images/", "classpath:/static/images/", false);
+    }
 
-        registry.addResourceHandler("/js/**")
-                .addResourceLocations("classpath:/static/js/")
-                .setCachePeriod(3600);
+    private static void addAssets(ResourceHandlerRegistry registry, String urlPrefix, String location,
+                                  boolean precompressed) {
+        // A file name ending in -<md5> before the extension, as VersionResourceResolver's content strategy
+        // writes it; the more specific pattern wins over the ** one
+        addAssetHandler(registry.addResourceHandler(urlPrefix + "{file:.+-[0-9a-f]{32}\\.\\w+}"), location,
+                precompressed, CacheControl.maxAge(365, TimeUnit.DAYS).cachePublic().immutable());
+        addAssetHandler(registry.addResourceHandler(urlPrefix + "**"), location, precompressed,
+                CacheControl.noCache().cachePublic());
+    }
 
-        registry.addResourceHandler("/images/**")
-                .addResourceLocations("classpath:/static/images/")
-                .setCachePeriod(3600);
+    private static void addAssetHandler(ResourceHandlerRegistration registration, String location,
+                                        boolean precompressed, CacheControl cacheControl) {
+        ResourceChainRegistration chain = registration
+                .addResourceLocations(location)
+                .setCacheControl(cacheControl)
+                .resourceChain(true);
+        if (precompressed) {
+            chain.addResolver(new EncodedResourceResolver());
+        }
+        chain.addResolver(new VersionResourceResolver().addContentVersionStrategy("/**"));
     }
 }
@@ -0,0 +1,35 @@
+package com.lambton.fsdo.finalproject.bulkheads;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Puts a handler method (or every handler of a controller) in a bulkhead: a compartment with its own limit on
+ * concurrent requests, so routes waiting on a slow dependency cannot take the worker threads of the others.
+ * Limits are configured per compartment under {@code bulkheads.<name>.*}, see {@link Bulkheads}.
+ */
+@Target({ElementType.TYPE, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface Bulkhead {
+
+    /**
+     * Pages and API calls that may call TMDb
+     */
+    String TMDB = "tmdb";
+
+    /**
+     * Reads answered from the local database and in-memory indexes only
+     */
+    String DATABASE = "db";
+
+    /**
+     * Favorite toggles from the AJAX buttons; adding a movie nobody has favorited yet calls TMDb once
+     */
+    String TOGGLE = "toggle";
+
+    String value();
+}
@@ -0,0 +1,71 @@
+package com.lambton.fsdo.finalproject.bulkheads;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The bulkhead compartments, with limits read from {@code bulkheads.<name>.max-concurrent}, {@code .queue},
+ * {@code .max-wait} and {@code .retry-after}. Active and waiting requests per compartment are published as
+ * gauges, shed requests as the bulkhead.rejected counter.
+ */
+@Component
+public class Bulkheads {
+
+    private static final List<String> NAMES = List.of(Bulkhead.TMDB, Bulkhead.DATABASE, Bulkhead.TOGGLE);
+
+    private final Map<String, Compartment> compartments = new HashMap<>();
+    private final Map<String, Counter> rejections = new HashMap<>();
+
+    public Bulkheads(Environment environment, MeterRegistry meterRegistry) {
+        for (String name : NAMES) {
+            String prefix = "bulkheads." + name + ".";
+            Compartment compartment = new Compartment(name,
+                    environment.getProperty(prefix + "max-concurrent", Integer.class, 40),
+                    environment.getProperty(prefix + "queue", Integer.class, 40),
+                    environment.getProperty(prefix + "max-wait", Duration.class, Duration.ofMillis(500)),
+                    environment.getProperty(prefix + "retry-after", Duration.class, Duration.ofSeconds(1)));
+            compartments.put(name, compartment);
+
+            Gauge.builder("bulkhead.active", compartment, Compartment::getActive)
+                    .description("Requests running in the bulkhead")
+                    .tag("bulkhead", name)
+                    .register(meterRegistry);
+            Gauge.builder("bulkhead.waiting", compartment, Compartment::getWaiting)
+                    .description("Requests waiting for a slot in the bulkhead")
+                    .tag("bulkhead", name)
+                    .register(meterRegistry);
+            rejections.put(name, Counter.builder("bulkhead.rejected")
+                    .description("Requests shed with 503 because the bulkhead and its queue were full")
+                    .tag("bulkhead", name)
+                    .register(meterRegistry));
+        }
+    }
+
+    /**
+     * The compartment for a {@link Bulkhead} name
+     *
+     * @throws IllegalArgumentException for a name that is not configured
+     */
+    public Compartment get(String name) {
+        Compartment compartment = compartments.get(name);
+        if (compartment == null) {
+            throw new IllegalArgumentException("Unknown bulkhead: " + name);
+        }
+        return compartment;
+    }
+
+    /**
+     * Count a request shed because the compartment and its queue were full
+     */
+    public void rejected(Compartment compartment) {
+        rejections.get(compartment.getName()).increment();
+    }
+}
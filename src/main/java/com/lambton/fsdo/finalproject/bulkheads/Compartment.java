@@ -0,0 +1,85 @@
+package com.lambton.fsdo.finalproject.bulkheads;
+
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Admission control for one bulkhead: up to {@code maxConcurrent} requests run, up to {@code queueSize} more
+ * wait at most {@code maxWait} for a slot, and anything beyond that is turned away at once.
+ * Waiting requests still hold a worker thread, so concurrency plus queue is the most threads the compartment
+ * can take from the server.
+ */
+public final class Compartment {
+
+    private final String name;
+    private final int maxConcurrent;
+    private final int queueSize;
+    private final long maxWaitNanos;
+    private final Duration retryAfter;
+    private final Semaphore permits;
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    public Compartment(String name, int maxConcurrent, int queueSize, Duration maxWait, Duration retryAfter) {
+        if (maxConcurrent <= 0 || queueSize < 0) {
+            throw new IllegalArgumentException("Bulkhead " + name + " needs max-concurrent > 0 and queue >= 0");
+        }
+        this.name = name;
+        this.maxConcurrent = maxConcurrent;
+        this.queueSize = queueSize;
+        this.maxWaitNanos = maxWait.toNanos();
+        this.retryAfter = retryAfter;
+        this.permits = new Semaphore(maxConcurrent);
+    }
+
+    /**
+     * Take a slot, waiting in the queue if there is room in it; every successful call must be paired with
+     * {@link #exit()}
+     *
+     * @return false when the request should be shed
+     */
+    public boolean tryEnter() {
+        if (permits.tryAcquire()) {
+            return true;
+        }
+        if (maxWaitNanos <= 0) {
+            return false;
+        }
+        if (waiting.incrementAndGet() > queueSize) {
+            waiting.decrementAndGet();
+            return false;
+        }
+        try {
+            return permits.tryAcquire(maxWaitNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            waiting.decrementAndGet();
+        }
+    }
+
+    public void exit() {
+        permits.release();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getActive() {
+        return maxConcurrent - permits.availablePermits();
+    }
+
+    public int getWaiting() {
+        return waiting.get();
+    }
+
+    /**
+     * How long a shed client should wait before trying again
+     */
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+}
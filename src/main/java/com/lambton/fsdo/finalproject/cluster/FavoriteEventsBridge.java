@@ -0,0 +1,52 @@
+package com.lambton.fsdo.finalproject.cluster;
+
+import com.hazelcast.topic.ITopic;
+import com.hazelcast.topic.Message;
+import com.hazelcast.topic.MessageListener;
+import com.lambton.fsdo.finalproject.services.FavoriteChangedEvent;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.UUID;
+
+/**
+ * Relays favorites changes between nodes: every change committed on this node is published to a
+ * Hazelcast topic, and every change received from another node is published locally as a remote
+ * {@link FavoriteChangedEvent}, so the membership index, statistics and favorites versions of all nodes follow it.
+ * Messages from one node arrive in the order that node sent them, but messages from different nodes may
+ * arrive in another order than their changes committed in; the membership index therefore reads a relayed
+ * favorite's row from the shared database rather than applying the change as sent.
+ */
+public class FavoriteEventsBridge implements MessageListener<FavoriteChangedEvent>, DisposableBean {
+
+    private final ITopic<FavoriteChangedEvent> topic;
+    private final ApplicationEventPublisher eventPublisher;
+    private final UUID registration;
+
+    public FavoriteEventsBridge(ITopic<FavoriteChangedEvent> topic, ApplicationEventPublisher eventPublisher) {
+        this.topic = topic;
+        this.eventPublisher = eventPublisher;
+        this.registration = topic.addMessageListener(this);
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onFavoriteChanged(FavoriteChangedEvent event) {
+        if (!event.remote()) {
+            topic.publish(event);
+        }
+    }
+
+    @Override
+    public void onMessage(Message<FavoriteChangedEvent> message) {
+        if (message.getPublishingMember() != null && message.getPublishingMember().localMember()) {
+            return;
+        }
+        eventPublisher.publishEvent(message.getMessageObject().asRemote());
+    }
+
+    @Override
+    public void destroy() {
+        topic.removeMessageListener(registration);
+    }
+}
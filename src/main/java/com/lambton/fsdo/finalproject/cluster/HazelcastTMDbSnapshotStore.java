@@ -0,0 +1,67 @@
+package com.lambton.fsdo.finalproject.cluster;
+
+import com.hazelcast.map.IMap;
+import com.lambton.fsdo.finalproject.entities.TMDbSnapshot;
+import com.lambton.fsdo.finalproject.services.TMDbSnapshotStore;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Snapshots in a Hazelcast map shared by all nodes. Reads are served from each node's near cache,
+ * which is invalidated when any node stores a new snapshot for the key.
+ * A refresh holds the map's lock for the key, so when a snapshot expires one node fetches it
+ * and the others wait for that result instead of calling TMDb themselves.
+ */
+public class HazelcastTMDbSnapshotStore implements TMDbSnapshotStore {
+
+    private final IMap<String, TMDbSnapshot> snapshots;
+    private final long lockWaitMillis;
+    private final long lockLeaseMillis;
+
+    public HazelcastTMDbSnapshotStore(IMap<String, TMDbSnapshot> snapshots, Duration lockWait, Duration lockLease) {
+        this.snapshots = snapshots;
+        this.lockWaitMillis = lockWait.toMillis();
+        this.lockLeaseMillis = lockLease.toMillis();
+    }
+
+    @Override
+    public TMDbSnapshot get(String key) {
+        return snapshots.get(key);
+    }
+
+    @Override
+    public void put(String key, TMDbSnapshot snapshot) {
+        snapshots.set(key, snapshot);
+    }
+
+    @Override
+    public Map<String, TMDbSnapshot> entries() {
+        return snapshots.getAll(snapshots.localKeySet());
+    }
+
+    /**
+     * Refresh under the cluster-wide lock of the key. A node that cannot get the lock in time
+     * (the owner is slow or gone) refreshes anyway rather than failing the request; the lease
+     * releases a lock whose holder never returns.
+     */
+    @Override
+    public TMDbSnapshot refresh(String key, Supplier<TMDbSnapshot> refresh) {
+        boolean locked;
+        try {
+            locked = snapshots.tryLock(key, lockWaitMillis, TimeUnit.MILLISECONDS, lockLeaseMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            locked = false;
+        }
+        try {
+            return refresh.get();
+        } finally {
+            if (locked) {
+                snapshots.unlock(key);
+            }
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.lambton.fsdo.finalproject.controllers;
+
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.util.DigestUtils;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Conditional GET for the page and API controllers: a response's ETag is derived from the versions of the data
+ * it was built from, so a match is answered with 304 before any of that data is read.
+ */
+final class ConditionalRequests {
+
+    private ConditionalRequests() {
+    }
+
+    /**
+     * Set the Cache-Control header and answer a conditional GET from the response's version parts.
+     * Returns true when a 304 has been prepared, in which case the handler must return without a body.
+     */
+    static boolean isNotModified(ServletWebRequest webRequest, CacheControl cacheControl, String... versionParts) {
+        if (webRequest.getResponse() != null) {
+            webRequest.getResponse().setHeader(HttpHeaders.CACHE_CONTROL, cacheControl.getHeaderValue());
+        }
+        String etag = DigestUtils.md5DigestAsHex(Arrays.toString(versionParts).getBytes(StandardCharsets.UTF_8));
+        // Weak, because the same response is sent both gzip-compressed and uncompressed
+        return webRequest.checkNotModified("W/\"" + etag + "\"");
+    }
+}
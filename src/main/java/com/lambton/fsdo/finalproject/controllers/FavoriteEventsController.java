@@ -0,0 +1,37 @@
+package com.lambton.fsdo.finalproject.controllers;
+
+import com.lambton.fsdo.finalproject.filters.CurrentUserFilter;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestAttribute;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * Server-sent events of the current user's favorites changes, used by the pages to keep favorite buttons current
+ */
+@RestController
+public class FavoriteEventsController {
+
+    private final FavoriteEventsHub favoriteEventsHub;
+
+    public FavoriteEventsController(FavoriteEventsHub favoriteEventsHub) {
+        this.favoriteEventsHub = favoriteEventsHub;
+    }
+
+    /**
+     * Event stream: "favorite" events carry {"id": tmdbId, "favorite": true|false}; "resync" means changes were
+     * dropped and the page should reload its favorite state. 503 when this node holds its maximum of streams;
+     * EventSource does not retry a non-200 response, so app.js reopens the stream itself, with backoff.
+     */
+    @GetMapping(value = "/favorites/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter favoriteEvents(@RequestAttribute(CurrentUserFilter.USER_ID_ATTRIBUTE) Long userId) {
+        SseEmitter emitter = favoriteEventsHub.subscribe(userId);
+        if (emitter == null) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many event streams");
+        }
+        return emitter;
+    }
+}
@@ -0,0 +1,248 @@
+package com.lambton.fsdo.finalproject.controllers;
+
+import com.lambton.fsdo.finalproject.services.FavoriteChangedEvent;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pushes each user's favorites changes to their open pages as server-sent events.
+ * Changes arrive as committed {@link FavoriteChangedEvent}s, including those relayed from other nodes in clustered mode.
+ * <p>
+ * An idle connection is an async request parked in Tomcat plus a small bounded queue; no thread is held.
+ * Tomcat keeps its request and response buffers (about 95 KB) for each open stream, which is what limits
+ * the number of streams per node; the limit must stay below Tomcat's max-connections, which also counts
+ * ordinary requests.
+ * Events are queued per connection and written by a few sender threads, so a slow client never holds up
+ * the request that changed the favorites. When a connection's queue overflows, its pending events are
+ * replaced by one {@code resync} event telling the page to reload its state.
+ */
+@Component
+public class FavoriteEventsHub implements SmartLifecycle, DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(FavoriteEventsHub.class);
+
+    private static final Message HEARTBEAT = new Message(null, null);
+    private static final Message RESYNC = new Message("resync", "{}");
+
+    private final Map<Long, Set<Connection>> connectionsByUser = new ConcurrentHashMap<>();
+    private final AtomicInteger connectionCount = new AtomicInteger();
+    private final ExecutorService sender;
+    private final Counter overflows;
+    private volatile boolean running;
+
+    @Value("${favorites.events.buffer-size:16}")
+    private int bufferSize;
+
+    @Value("${favorites.events.max-connections:4000}")
+    private int maxConnections;
+
+    @Value("${favorites.events.timeout:PT30M}")
+    private Duration timeout;
+
+    @Value("${favorites.events.reconnect-delay:PT5S}")
+    private Duration reconnectDelay;
+
+    public FavoriteEventsHub(@Value("${favorites.events.sender-threads:2}") int senderThreads,
+                             MeterRegistry meterRegistry) {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("favorite-events-");
+        threadFactory.setDaemon(true);
+        this.sender = Executors.newFixedThreadPool(senderThreads, threadFactory);
+        Gauge.builder("favorites.events.connections", connectionCount, AtomicInteger::get)
+                .description("Open favorites event streams")
+                .register(meterRegistry);
+        this.overflows = Counter.builder("favorites.events.overflows")
+                .description("Event streams whose buffer overflowed and were told to resync")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Open an event stream for a user, or return null when this node already holds the maximum number of streams
+     * or is shutting down
+     */
+    public SseEmitter subscribe(Long userId) {
+        if (!running) {
+            return null;
+        }
+        if (connectionCount.incrementAndGet() > maxConnections) {
+            connectionCount.decrementAndGet();
+            return null;
+        }
+
+        SseEmitter emitter = new SseEmitter(timeout.toMillis());
+        Connection connection = new Connection(userId, emitter, bufferSize);
+        connectionsByUser.compute(userId, (id, connections) -> {
+            Set<Connection> registered = connections != null ? connections : ConcurrentHashMap.newKeySet();
+            registered.add(connection);
+            return registered;
+        });
+        emitter.onCompletion(connection::close);
+        emitter.onTimeout(emitter::complete);
+        emitter.onError(error -> connection.close());
+
+        // Sends the headers right away and tells the browser how soon to reconnect after a drop
+        connection.enqueue(new Message("connected", "{}"));
+        return emitter;
+    }
+
+    /**
+     * Queue the change on every stream of the user. Without a surrounding transaction the event is sent immediately.
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onFavoriteChanged(FavoriteChangedEvent event) {
+        Set<Connection> connections = connectionsByUser.get(event.userId());
+        if (connections == null) {
+            return;
+        }
+        Message message = new Message("favorite",
+                "{\"id\":" + event.tmdbId() + ",\"favorite\":" + event.added() + "}");
+        for (Connection connection : connections) {
+            connection.enqueue(message);
+        }
+    }
+
+    /**
+     * Comment line on every stream, so proxies keep idle streams open and closed clients are noticed
+     */
+    @Scheduled(fixedDelayString = "${favorites.events.heartbeat-interval:PT30S}")
+    public void sendHeartbeats() {
+        for (Set<Connection> connections : connectionsByUser.values()) {
+            for (Connection connection : connections) {
+                connection.enqueue(HEARTBEAT);
+            }
+        }
+    }
+
+    public int getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    @Override
+    public void start() {
+        running = true;
+    }
+
+    /**
+     * Close every stream before the web server's graceful shutdown, which would otherwise wait for them as
+     * active requests; browsers reconnect to another node
+     */
+    @Override
+    public void stop() {
+        running = false;
+        connectionsByUser.values().forEach(connections -> connections.forEach(connection -> connection.emitter.complete()));
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public void destroy() {
+        sender.shutdownNow();
+    }
+
+    /**
+     * An event name and JSON data; no name means a heartbeat comment
+     */
+    private record Message(String name, String data) {
+    }
+
+    private final class Connection implements Runnable {
+
+        private final Long userId;
+        private final SseEmitter emitter;
+        private final ArrayBlockingQueue<Message> queue;
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private volatile boolean overflowed;
+
+        private Connection(Long userId, SseEmitter emitter, int capacity) {
+            this.userId = userId;
+            this.emitter = emitter;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+        }
+
+        void enqueue(Message message) {
+            if (closed.get()) {
+                return;
+            }
+            if (!queue.offer(message)) {
+                // The client is not keeping up: the queued changes are superseded by a full resync
+                overflowed = true;
+                queue.clear();
+                overflows.increment();
+            }
+            if (scheduled.compareAndSet(false, true)) {
+                sender.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (overflowed) {
+                    overflowed = false;
+                    send(RESYNC);
+                }
+                Message message;
+                while ((message = queue.poll()) != null) {
+                    send(message);
+                }
+            } catch (IOException | IllegalStateException e) {
+                // The client went away; the container reports it through onError/onCompletion as well
+                logger.debug("Favorite events stream of user {} closed: {}", userId, e.getMessage());
+                close();
+            } finally {
+                scheduled.set(false);
+                if ((!queue.isEmpty() || overflowed) && !closed.get() && scheduled.compareAndSet(false, true)) {
+                    sender.execute(this);
+                }
+            }
+        }
+
+        private void send(Message message) throws IOException {
+            if (message.name() == null) {
+                emitter.send(SseEmitter.event().comment(""));
+            } else {
+                emitter.send(SseEmitter.event()
+                        .name(message.name())
+                        .reconnectTime(reconnectDelay.toMillis())
+                        .data(message.data(), MediaType.APPLICATION_JSON));
+            }
+        }
+
+        void close() {
+            if (closed.compareAndSet(false, true)) {
+                connectionCount.decrementAndGet();
+                connectionsByUser.computeIfPresent(userId, (id, connections) -> {
+                    connections.remove(this);
+                    return connections.isEmpty() ? null : connections;
+                });
+                queue.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,436 @@
+package com.lambton.fsdo.finalproject.controllers;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.lambton.fsdo.finalproject.bulkheads.Bulkhead;
+import com.lambton.fsdo.finalproject.entities.Genre;
+import com.lambton.fsdo.finalproject.entities.Movie;
+import com.lambton.fsdo.finalproject.entities.TMDbMovieDto;
+import com.lambton.fsdo.finalproject.entities.TMDbSnapshot;
+import com.lambton.fsdo.finalproject.filters.CurrentUserFilter;
+import com.lambton.fsdo.finalproject.services.FavoritesBulkResult;
+import com.lambton.fsdo.finalproject.services.FavoritesFilter;
+import com.lambton.fsdo.finalproject.services.FavoritesStats;
+import com.lambton.fsdo.finalproject.services.MovieService;
+import com.lambton.fsdo.finalproject.services.RankHistory;
+import com.lambton.fsdo.finalproject.services.RankMovers;
+import org.springframework.data.domain.Page;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static com.lambton.fsdo.finalproject.controllers.ConditionalRequests.isNotModified;
+
+/**
+ * JSON API over MovieService for machine clients.
+ * Every list endpoint accepts page/size, and every endpoint accepts fields=a,b,c to trim items;
+ * null fields are never serialized. Favorites belong to the user resolved by CurrentUserFilter.
+ */
+@RestController
+@RequestMapping("/api/v1")
+public class MovieApiController {
+
+    private static final int DEFAULT_PAGE_SIZE = 20;
+    private static final int MAX_PAGE_SIZE = 100;
+    private static final int MAX_BULK_SIZE = 1000;
+
+    private static final CacheControl API_CACHE_CONTROL = CacheControl.noCache().cachePrivate();
+
+    private final MovieService movieService;
+    private final ObjectMapper objectMapper;
+
+    public MovieApiController(MovieService movieService, ObjectMapper objectMapper) {
+        this.movieService = movieService;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Trending movies
+     */
+    @GetMapping("/movies/trending")
+    @Bulkhead(Bulkhead.TMDB)
+    public JsonNode trending(@RequestParam(defaultValue = "0") int page,
+                             @RequestParam(defaultValue = "20") int size,
+                             @RequestParam(required = false) String fields,
+                             ServletWebRequest webRequest) {
+        return movieList(movieService.getTrendingSnapshot(), page, size, fields, webRequest);
+    }
+
+    /**
+     * Popular movies
+     */
+    @GetMapping("/movies/popular")
+    @Bulkhead(Bulkhead.TMDB)
+    public JsonNode popular(@RequestParam(defaultValue = "0") int page,
+                            @RequestParam(defaultValue = "20") int size,
+                            @RequestParam(required = false) String fields,
+                            ServletWebRequest webRequest) {
+        return movieList(movieService.getPopularSnapshot(), page, size, fields, webRequest);
+    }
+
+    /**
+     * What climbed, entered, fell and dropped out between the latest two rankings of the trending or popular
+     * list. Served from memory: no TMDb call, so outside the tmdb bulkhead.
+     */
+    @GetMapping("/movies/{list:trending|popular}/movers")
+    public JsonNode movers(@PathVariable String list,
+                           @RequestParam(required = false) String fields,
+                           ServletWebRequest webRequest) {
+        RankMovers movers = movieService.getMovers(list);
+        if (isNotModified(webRequest, API_CACHE_CONTROL, list, String.valueOf(movers.fetchedAt()), fields)) {
+            return null;
+        }
+        Set<String> selectedFields = parseFields(fields);
+        ObjectNode body = objectMapper.createObjectNode();
+        body.put("list", list);
+        body.put("fetched_at", movers.fetchedAt());
+        body.put("previous_fetched_at", movers.previousFetchedAt());
+        putMovers(body.putArray("climbing"), movers.climbing(), selectedFields);
+        putMovers(body.putArray("entered"), movers.entered(), selectedFields);
+        putMovers(body.putArray("falling"), movers.falling(), selectedFields);
+        putMovers(body.putArray("dropped"), movers.dropped(), selectedFields);
+        return body;
+    }
+
+    /**
+     * A movie's rank in each kept ranking of the trending or popular list, oldest first; 0 where it was not listed
+     */
+    @GetMapping("/movies/{list:trending|popular}/ranks/{id}")
+    public JsonNode rankTrajectory(@PathVariable String list, @PathVariable Long id) {
+        RankHistory.RankTrajectory trajectory = movieService.getRankTrajectory(list, id);
+        ObjectNode body = objectMapper.createObjectNode();
+        body.put("list", list);
+        body.put("id", id);
+        ArrayNode rankings = body.putArray("rankings");
+        for (int i = 0; i < trajectory.ranks().length; i++) {
+            rankings.addObject()
+                    .put("fetched_at", trajectory.fetchedAt()[i])
+                    .put("rank", trajectory.ranks()[i]);
+        }
+        return body;
+    }
+
+    /**
+     * Now playing movies
+     */
+    @GetMapping("/movies/now-playing")
+    @Bulkhead(Bulkhead.TMDB)
+    public JsonNode nowPlaying(@RequestParam(defaultValue = "0") int page,
+                               @RequestParam(defaultValue = "20") int size,
+                               @RequestParam(required = false) String fields,
+                               ServletWebRequest webRequest) {
+        return movieList(movieService.getNowPlayingSnapshot(), page, size, fields, webRequest);
+    }
+
+    /**
+     * Search movies
+     */
+    @GetMapping("/movies/search")
+    @Bulkhead(Bulkhead.TMDB)
+    public JsonNode search(@RequestParam("q") String query,
+                           @RequestParam(defaultValue = "0") int page,
+                           @RequestParam(defaultValue = "20") int size,
+                           @RequestParam(required = false) String fields,
+                           ServletWebRequest webRequest) {
+        return movieList(movieService.getSearchSnapshot(query), page, size, fields, webRequest);
+    }
+
+    /**
+     * Movies recommended from the user's favorites, best first; size caps the number returned
+     */
+    @GetMapping("/movies/recommended")
+    @Bulkhead(Bulkhead.TMDB)
+    public JsonNode recommended(@RequestParam(defaultValue = "20") int size,
+                                @RequestParam(required = false) String fields,
+                                ServletWebRequest webRequest,
+                                @RequestAttribute(CurrentUserFilter.USER_ID_ATTRIBUTE) Long userId) {
+        int pageSize = clampPageSize(size);
+        if (isNotModified(webRequest, API_CACHE_CONTROL, movieService.getRecommendationCandidatesVersion(),
+                movieService.getFavoritesVersion(userId), String.valueOf(pageSize), fields)) {
+            return null;
+        }
+        List<TMDbMovieDto> movies = movieService.getRecommendedMovies(userId, pageSize);
+        return pageJson(movies, 0, pageSize, movies.size(), parseFields(fields));
+    }
+
+    /**
+     * Movie details
+     */
+    @GetMapping("/movies/{id}")
+    @Bulkhead(Bulkhead.TMDB)
+    public JsonNode movie(@PathVariable Long id,
+                          @RequestParam(required = false) String fields,
+                          ServletWebRequest webRequest) {
+        TMDbSnapshot snapshot = movieService.getMovieDetailsSnapshot(id);
+        if (snapshot.getMovie() == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Movie not found: " + id);
+        }
+        if (isNotModified(webRequest, API_CACHE_CONTROL, snapshot.getVersion(), fields)) {
+            return null;
+        }
+        return toJson(snapshot.getMovie(), parseFields(fields));
+    }
+
+    /**
+     * Favorite movies, sorted by rating (default) or release date, optionally filtered by title,
+     * or by original language, release year range, TMDb genre ID and minimum rating
+     */
+    @GetMapping("/favorites")
+    @Bulkhead(Bulkhead.DATABASE)
+    public JsonNode favorites(@RequestParam(defaultValue = "rating") String sort,
+                              @RequestParam(required = false) String search,
+                              @RequestParam(required = false) String language,
+                              @RequestParam(required = false) Integer yearFrom,
+                              @RequestParam(required = false) Integer yearTo,
+                              @RequestParam(required = false) Integer genre,
+                              @RequestParam(required = false) Double minRating,
+                              @RequestParam(defaultValue = "0") int page,
+                              @RequestParam(defaultValue = "20") int size,
+                              @RequestParam(required = false) String fields,
+                              ServletWebRequest webRequest,
+                              @RequestAttribute(CurrentUserFilter.USER_ID_ATTRIBUTE) Long userId) {
+        FavoritesFilter filter = parseFilter(language, yearFrom, yearTo, genre, minRating);
+        if (isNotModified(webRequest, API_CACHE_CONTROL, movieService.getFavoritesVersion(userId), sort, search,
+                filter.toString(), String.valueOf(page), String.valueOf(size), fields)) {
+            return null;
+        }
+
+        Set<String> selectedFields = parseFields(fields);
+        int pageSize = clampPageSize(size);
+        int pageNumber = Math.max(page, 0);
+
+        Page<Movie> favorites;
+        if (search != null && !search.trim().isEmpty()) {
+            favorites = movieService.searchFavoriteMoviesPage(userId, search.trim(), sort, pageNumber, pageSize);
+        } else if (filter.isEmpty()) {
+            favorites = movieService.getFavoriteMoviesPage(userId, sort, pageNumber, pageSize);
+        } else {
+            favorites = movieService.filterFavoriteMovies(userId, filter, sort, pageNumber, pageSize);
+        }
+        List<TMDbMovieDto> items = favorites.getContent().stream()
+                .map(this::toDto)
+                .toList();
+        return pageJson(items, pageNumber, pageSize, favorites.getTotalElements(), selectedFields);
+    }
+
+    /**
+     * Favorites statistics: count, average rating, and counts per language, release year and rating bucket
+     */
+    @GetMapping("/favorites/stats")
+    @Bulkhead(Bulkhead.DATABASE)
+    public FavoritesStats favoritesStats(ServletWebRequest webRequest,
+                                         @RequestAttribute(CurrentUserFilter.USER_ID_ATTRIBUTE) Long userId) {
+        if (isNotModified(webRequest, API_CACHE_CONTROL, movieService.getFavoritesVersion(userId), "stats")) {
+            return null;
+        }
+        return movieService.getFavoritesStats(userId);
+    }
+
+    /**
+     * Whether a movie is in favorites
+     */
+    @GetMapping("/favorites/{id}")
+    @Bulkhead(Bulkhead.DATABASE)
+    public Map<String, Object> favoriteStatus(@PathVariable Long id,
+                                              @RequestAttribute(CurrentUserFilter.USER_ID_ATTRIBUTE) Long userId) {
+        return Map.of("id", id, "favorite", movieService.isInFavorites(userId, id));
+    }
+
+    /**
+     * Add a movie to favorites: 201 when added, 200 when it already was a favorite
+     */
+    @PostMapping("/favorites/{id}")
+    @Bulkhead(Bulkhead.TOGGLE)
+    public ResponseEntity<Map<String, Object>> addFavorite(@PathVariable Long id,
+                                                           @RequestAttribute(CurrentUserFilter.USER_ID_ATTRIBUTE) Long userId) {
+        return switch (movieService.addFavorite(userId, id)) {
+            case ADDED -> ResponseEntity.status(HttpStatus.CREATED).body(Map.of("id", id, "status", "added"));
+            case UNCHANGED -> ResponseEntity.ok(Map.of("id", id, "status", "already_exists"));
+            default -> throw new ResponseStatusException(HttpStatus.BAD_GATEWAY,
+                    "Could not add movie to favorites: " + id);
+        };
+    }
+
+    /**
+     * Remove a movie from favorites: 204 when removed, 404 when it was not a favorite
+     */
+    @DeleteMapping("/favorites/{id}")
+    @Bulkhead(Bulkhead.TOGGLE)
+    public ResponseEntity<Void> removeFavorite(@PathVariable Long id,
+                                               @RequestAttribute(CurrentUserFilter.USER_ID_ATTRIBUTE) Long userId) {
+        if (!movieService.removeFromFavorites(userId, id)) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Movie not in favorites: " + id);
+        }
+        return ResponseEntity.noContent().build();
+    }
+
+    /**
+     * Add several movies to favorites; body is a JSON array of TMDb IDs
+     */
+    @PostMapping("/favorites")
+    @Bulkhead(Bulkhead.TOGGLE)
+    public Map<String, Object> addFavorites(@RequestBody List<Long> ids,
+                                            @RequestAttribute(CurrentUserFilter.USER_ID_ATTRIBUTE) Long userId) {
+        checkBulkSize(ids);
+        FavoritesBulkResult result = movieService.addAllToFavorites(userId, ids);
+        return Map.of("added", result.added(),
+                "already_exists", result.alreadyExisting(),
+                "failed", result.failed());
+    }
+
+    /**
+     * Remove several movies from favorites: DELETE /api/v1/favorites?ids=1,2,3
+     */
+    @DeleteMapping("/favorites")
+    @Bulkhead(Bulkhead.TOGGLE)
+    public Map<String, Object> removeFavorites(@RequestParam List<Long> ids,
+                                               @RequestAttribute(CurrentUserFilter.USER_ID_ATTRIBUTE) Long userId) {
+        checkBulkSize(ids);
+        List<Long> removed = movieService.removeAllFromFavorites(userId, ids);
+        Set<Long> removedIds = new HashSet<>(removed);
+        List<Long> notFound = ids.stream()
+                .filter(id -> id != null && !removedIds.contains(id))
+                .distinct()
+                .toList();
+        return Map.of("removed", removed, "not_found", notFound);
+    }
+
+    private JsonNode movieList(TMDbSnapshot snapshot, int page, int size, String fields,
+                               ServletWebRequest webRequest) {
+        int pageSize = clampPageSize(size);
+        int pageNumber = Math.max(page, 0);
+        if (isNotModified(webRequest, API_CACHE_CONTROL, snapshot.getVersion(), String.valueOf(pageNumber),
+                String.valueOf(pageSize), fields)) {
+            return null;
+        }
+        List<TMDbMovieDto> movies = snapshot.getMovies();
+        return pageJson(pageSlice(movies, pageNumber, pageSize), pageNumber, pageSize, movies.size(),
+                parseFields(fields));
+    }
+
+    private void putMovers(ArrayNode array, List<RankMovers.Mover> movers, Set<String> fields) {
+        for (RankMovers.Mover mover : movers) {
+            ObjectNode node = toJson(mover.movie(), fields);
+            if (mover.rank() != null) {
+                node.put("rank", mover.rank());
+            }
+            if (mover.previousRank() != null) {
+                node.put("previous_rank", mover.previousRank());
+            }
+            if (mover.change() != null) {
+                node.put("change", mover.change());
+            }
+            array.add(node);
+        }
+    }
+
+    private JsonNode pageJson(List<TMDbMovieDto> items, int page, int size, long total, Set<String> fields) {
+        ObjectNode body = objectMapper.createObjectNode();
+        body.put("page", page);
+        body.put("size", size);
+        body.put("total", total);
+        ArrayNode results = body.putArray("results");
+        for (TMDbMovieDto item : items) {
+            results.add(toJson(item, fields));
+        }
+        return body;
+    }
+
+    /**
+     * Serialize a movie, dropping null values and, when a field selection is given, every other field
+     */
+    private ObjectNode toJson(TMDbMovieDto movie, Set<String> fields) {
+        ObjectNode node = objectMapper.valueToTree(movie);
+        List<String> excluded = new ArrayList<>();
+        for (Map.Entry<String, JsonNode> field : node.properties()) {
+            if (field.getValue().isNull() || (fields != null && !fields.contains(field.getKey()))) {
+                excluded.add(field.getKey());
+            }
+        }
+        node.remove(excluded);
+        return node;
+    }
+
+    /**
+     * Favorites share the TMDb movie shape so clients handle a single item schema
+     */
+    private TMDbMovieDto toDto(Movie movie) {
+        TMDbMovieDto dto = new TMDbMovieDto();
+        dto.setId(movie.getTmdbId());
+        dto.setTitle(movie.getTitle());
+        dto.setOverview(movie.getOverview());
+        dto.setPosterPath(movie.getPosterPath());
+        dto.setBackdropPath(movie.getBackdropPath());
+        dto.setReleaseDate(movie.getReleaseDate());
+        dto.setVoteAverage(movie.getVoteAverage());
+        dto.setVoteCount(movie.getVoteCount());
+        dto.setOriginalLanguage(movie.getLanguage());
+        dto.setOriginalTitle(movie.getOriginalTitle());
+        dto.setAdult(movie.getAdult());
+        dto.setPopularity(movie.getPopularity());
+        dto.setGenreIds(Genre.toTmdbIds(movie.getGenreMask()));
+        return dto;
+    }
+
+    /**
+     * A page of a TMDb list. The snapshot already holds the whole list (one TMDb result page), so this is a view
+     * of it, not a copy; favorites are paged by the database instead.
+     */
+    private static <T> List<T> pageSlice(List<T> items, int page, int size) {
+        long from = (long) page * size;
+        if (from >= items.size()) {
+            return List.of();
+        }
+        return items.subList((int) from, (int) Math.min(from + size, items.size()));
+    }
+
+    private static FavoritesFilter parseFilter(String language, Integer yearFrom, Integer yearTo, Integer genreId,
+                                               Double minRating) {
+        Genre genre = null;
+        if (genreId != null) {
+            genre = Genre.fromTmdbId(genreId);
+            if (genre == null) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown genre: " + genreId);
+            }
+        }
+        String normalizedLanguage = language == null || language.isBlank() ? null : language.trim().toLowerCase();
+        return new FavoritesFilter(normalizedLanguage, yearFrom, yearTo, genre, minRating);
+    }
+
+    private static void checkBulkSize(List<Long> ids) {
+        if (ids.size() > MAX_BULK_SIZE) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "At most " + MAX_BULK_SIZE + " IDs per request, got " + ids.size());
+        }
+    }
+
+    private static int clampPageSize(int size) {
+        if (size <= 0) {
+            return DEFAULT_PAGE_SIZE;
+        }
+        return Math.min(size, MAX_PAGE_SIZE);
+    }
+
+    private static Set<String> parseFields(String fields) {
+        if (fields == null || fields.isBlank()) {
+            return null;
+        }
+        return Arrays.stream(fields.split(","))
+                .map(String::trim)
+                .filter(field -> !field.isEmpty())
+                .collect(Collectors.toSet());
+    }
+}
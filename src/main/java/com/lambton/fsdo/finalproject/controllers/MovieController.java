@@ -3,17 +3,31 @@ package com.lambton.fsdo.finalproject.controllers;
 
 
 
+import com.lambton.fsdo.finalproject.bulkheads.Bulkhead;
+import com.lambton.fsdo.finalproject.entities.Genre;
 import com.lambton.fsdo.finalproject.entities.Movie;
 import com.lambton.fsdo.finalproject.entities.TMDbMovieDto;
+import com.lambton.fsdo.finalproject.entities.TMDbSnapshot;
+import com.lambton.fsdo.finalproject.filters.CurrentUserFilter;
+import com.lambton.fsdo.finalproject.logging.RateLimitedLogger;
+import com.lambton.fsdo.finalproject.services.FavoritesFilter;
+import com.lambton.fsdo.finalproject.services.FavoritesStats;
 import com.lambton.fsdo.finalproject.services.MovieService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
+import java.time.Duration;
 import java.util.List;
+import java.util.Set;
+
+import static com.lambton.fsdo.finalproject.controllers.ConditionalRequests.isNotModified;
 
 @Controller
 @RequestMapping("/")
@@ -21,22 +35,42 @@ public class MovieController {
 
     private static final Logger logger = LoggerFactory.getLogger(MovieController.class);
 
+    // Pages show the visitor's favorite state, so they may only be stored by the browser
+    // and must be revalidated with the ETag on every visit
+    private static final CacheControl PAGE_CACHE_CONTROL = CacheControl.noCache().cachePrivate();
+
+    private static final int RECOMMENDATIONS_LIMIT = 20;
+    private static final int FILTERED_FAVORITES_LIMIT = 500;
+
     private final MovieService movieService;
+    private final RateLimitedLogger unexpectedErrors;
+
+    @Value("${favorites.streaming.enabled:true}")
+    private boolean favoritesStreamingEnabled;
 
-    public MovieController(MovieService movieService) {
+    public MovieController(MovieService movieService,
+                           @Value("${logging.error-rate-limit:PT1M}") Duration errorLogInterval) {
         this.movieService = movieService;
+        this.unexpectedErrors = new RateLimitedLogger(logger, errorLogInterval, true);
     }
 
     /**
      * Home page - Display trending movies
      */
     @GetMapping
-    public String home(Model model) {
-        logger.info("Loading home page with trending movies");
-
-        List<TMDbMovieDto> trendingMovies = movieService.getTrendingMovies();
+    @Bulkhead(Bulkhead.TMDB)
+    public String home(Model model, ServletWebRequest webRequest,
+                       @RequestAttribute(CurrentUserFilter.USER_ID_ATTRIBUTE) Long userId) {
+        logger.debug("Loading home page with trending movies");
+
+        TMDbSnapshot snapshot = movieService.getTrendingSnapshot();
+        if (isNotModified(webRequest, PAGE_CACHE_CONTROL, "trending", snapshot.getVersion(),
+                movieService.getFavoritesVersion(userId))) {
+            return null;
+        }
 
-        model.addAttribute("movies", trendingMovies);
+        model.addAttribute("movies", snapshot.getMovies());
+        model.addAttribute("favoriteIds", movieService.getFavoriteIds(userId, snapshot.getMovies()));
         model.addAttribute("pageTitle", "Trending Movies");
         model.addAttribute("imageBaseUrl", movieService.getImageBaseUrl());
         model.addAttribute("currentSection", "trending");
@@ -48,12 +82,19 @@ public class MovieController {
      * Popular movies page
      */
     @GetMapping("/popular")
-    public String popular(Model model) {
-        logger.info("Loading popular movies page");
-
-        List<TMDbMovieDto> popularMovies = movieService.getPopularMovies();
+    @Bulkhead(Bulkhead.TMDB)
+    public String popular(Model model, ServletWebRequest webRequest,
+                          @RequestAttribute(CurrentUserFilter.USER_ID_ATTRIBUTE) Long userId) {
+        logger.debug("Loading popular movies page");
+
+        TMDbSnapshot snapshot = movieService.getPopularSnapshot();
+        if (isNotModified(webRequest, PAGE_CACHE_CONTROL, "popular", snapshot.getVersion(),
+                movieService.getFavoritesVersion(userId))) {
+            return null;
+        }
 
-        model.addAttribute("movies", popularMovies);
+        model.addAttribute("movies", snapshot.getMovies());
+        model.addAttribute("favoriteIds", movieService.getFavoriteIds(userId, snapshot.getMovies()));
         model.addAttribute("pageTitle", "Popular Movies");
         model.addAttribute("imageBaseUrl", movieService.getImageBaseUrl());
         model.addAttribute("currentSection", "popular");
@@ -65,12 +106,19 @@ public class MovieController {
      * Now playing movies page
      */
     @GetMapping("/now-playing")
-    public String nowPlaying(Model model) {
-        logger.info("Loading now playing movies page");
-
-        List<TMDbMovieDto> nowPlayingMovies = movieService.getNowPlayingMovies();
+    @Bulkhead(Bulkhead.TMDB)
+    public String nowPlaying(Model model, ServletWebRequest webRequest,
+                             @RequestAttribute(CurrentUserFilter.USER_ID_ATTRIBUTE) Long userId) {
+        logger.debug("Loading now playing movies page");
+
+        TMDbSnapshot snapshot = movieService.getNowPlayingSnapshot();
+        if (isNotModified(webRequest, PAGE_CACHE_CONTROL, "now-playing", snapshot.getVersion(),
+                movieService.getFavoritesVersion(userId))) {
+            return null;
+        }
 
-        model.addAttribute("movies", nowPlayingMovies);
+        model.addAttribute("movies", snapshot.getMovies());
+        model.addAttribute("favoriteIds", movieService.getFavoriteIds(userId, snapshot.getMovies()));
         model.addAttribute("pageTitle", "Now Playing");
         model.addAttribute("imageBaseUrl", movieService.getImageBaseUrl());
         model.addAttribute("currentSection", "now-playing");
@@ -78,22 +126,55 @@ public class MovieController {
         return "index";
     }
 
+    /**
+     * Movies recommended from the user's favorites
+     */
+    @GetMapping("/recommended")
+    @Bulkhead(Bulkhead.TMDB)
+    public String recommended(Model model, ServletWebRequest webRequest,
+                              @RequestAttribute(CurrentUserFilter.USER_ID_ATTRIBUTE) Long userId) {
+        logger.debug("Loading recommended movies page");
+
+        if (isNotModified(webRequest, PAGE_CACHE_CONTROL, "recommended",
+                movieService.getRecommendationCandidatesVersion(), movieService.getFavoritesVersion(userId))) {
+            return null;
+        }
+
+        // Favorites are never recommended, so no card needs the favorited state
+        model.addAttribute("movies", movieService.getRecommendedMovies(userId, RECOMMENDATIONS_LIMIT));
+        model.addAttribute("favoriteIds", Set.of());
+        model.addAttribute("pageTitle", "Recommended for You");
+        model.addAttribute("imageBaseUrl", movieService.getImageBaseUrl());
+        model.addAttribute("currentSection", "recommended");
+
+        return "index";
+    }
+
     /**
      * Search movies
      */
     @GetMapping("/search")
-    public String search(@RequestParam(value = "q", required = false) String query, Model model) {
-        logger.info("Searching movies with query: {}", query);
+    @Bulkhead(Bulkhead.TMDB)
+    public String search(@RequestParam(value = "q", required = false) String query, Model model,
+                         ServletWebRequest webRequest,
+                         @RequestAttribute(CurrentUserFilter.USER_ID_ATTRIBUTE) Long userId) {
+        logger.debug("Searching movies with query: {}", query);
+
+        TMDbSnapshot snapshot = movieService.getSearchSnapshot(query);
+        if (isNotModified(webRequest, PAGE_CACHE_CONTROL, "search", query, snapshot.getVersion(),
+                movieService.getFavoritesVersion(userId))) {
+            return null;
+        }
 
-        List<TMDbMovieDto> searchResults = List.of();
+        List<TMDbMovieDto> searchResults = snapshot.getMovies();
         String pageTitle = "Search Movies";
 
         if (query != null && !query.trim().isEmpty()) {
-            searchResults = movieService.searchMovies(query);
             pageTitle = "Search Results for: " + query;
         }
 
         model.addAttribute("movies", searchResults);
+        model.addAttribute("favoriteIds", movieService.getFavoriteIds(userId, searchResults));
         model.addAttribute("pageTitle", pageTitle);
         model.addAttribute("searchQuery", query);
         model.addAttribute("imageBaseUrl", movieService.getImageBaseUrl());
@@ -106,16 +187,24 @@ public class MovieController {
      * Movie detail page
      */
     @GetMapping("/movie/{id}")
-    public String movieDetail(@PathVariable Long id, Model model) {
-        logger.info("Loading movie details for ID: {}", id);
+    @Bulkhead(Bulkhead.TMDB)
+    public String movieDetail(@PathVariable Long id, Model model, ServletWebRequest webRequest,
+                              @RequestAttribute(CurrentUserFilter.USER_ID_ATTRIBUTE) Long userId) {
+        logger.debug("Loading movie details for ID: {}", id);
 
-        TMDbMovieDto movie = movieService.getMovieDetails(id);
+        TMDbSnapshot snapshot = movieService.getMovieDetailsSnapshot(id);
+        TMDbMovieDto movie = snapshot.getMovie();
         if (movie == null) {
             logger.warn("Movie not found with ID: {}", id);
             return "redirect:/";
         }
 
-        boolean isInFavorites = movieService.isInFavorites(id);
+        if (isNotModified(webRequest, PAGE_CACHE_CONTROL, "movie", snapshot.getVersion(),
+                movieService.getFavoritesVersion(userId))) {
+            return null;
+        }
+
+        boolean isInFavorites = movieService.isInFavorites(userId, id);
 
         model.addAttribute("movie", movie);
         model.addAttribute("isInFavorites", isInFavorites);
@@ -128,32 +217,66 @@ public class MovieController {
      * Favorites page
      */
     @GetMapping("/favorites")
+    @Bulkhead(Bulkhead.DATABASE)
     public String favorites(
             @RequestParam(value = "sort", defaultValue = "rating") String sortBy,
             @RequestParam(value = "search", required = false) String searchQuery,
-            Model model) {
-
-        logger.info("Loading favorites page with sort: {} and search: {}", sortBy, searchQuery);
+            @RequestParam(value = "language", required = false) String language,
+            @RequestParam(value = "yearFrom", required = false) Integer yearFrom,
+            @RequestParam(value = "yearTo", required = false) Integer yearTo,
+            @RequestParam(value = "genre", required = false) Integer genreId,
+            Model model,
+            ServletWebRequest webRequest,
+            @RequestAttribute(CurrentUserFilter.USER_ID_ATTRIBUTE) Long userId) {
+
+        logger.debug("Loading favorites page with sort: {} and search: {}", sortBy, searchQuery);
+
+        String filterLanguage = language == null || language.isBlank() ? null : language.trim().toLowerCase();
+        FavoritesFilter filter = new FavoritesFilter(filterLanguage, yearFrom, yearTo, Genre.fromTmdbId(genreId), null);
+
+        if (isNotModified(webRequest, PAGE_CACHE_CONTROL, "favorites", movieService.getFavoritesVersion(userId),
+                sortBy, searchQuery, filter.toString())) {
+            return null;
+        }
 
-        List<Movie> favoriteMovies;
+        FavoritesStats stats = movieService.getFavoritesStats(userId);
+        long totalFavorites = stats.count();
+        Iterable<Movie> favoriteMovies;
+        boolean hasFavorites;
 
         if (searchQuery != null && !searchQuery.trim().isEmpty()) {
-            favoriteMovies = movieService.searchFavoriteMovies(searchQuery.trim());
+            List<Movie> searchResults = movieService.searchFavoriteMovies(userId, searchQuery.trim());
+            favoriteMovies = searchResults;
+            hasFavorites = !searchResults.isEmpty();
+        } else if (!filter.isEmpty()) {
+            List<Movie> filteredMovies = movieService.filterFavoriteMovies(userId, filter, sortBy, 0,
+                    FILTERED_FAVORITES_LIMIT).getContent();
+            favoriteMovies = filteredMovies;
+            hasFavorites = !filteredMovies.isEmpty();
+        } else if (favoritesStreamingEnabled) {
+            // Cards are loaded page by page while the template renders them
+            favoriteMovies = movieService.streamFavoriteMovies(userId, sortBy);
+            hasFavorites = totalFavorites > 0;
         } else {
-            favoriteMovies = switch (sortBy) {
-                case "date" -> movieService.getFavoriteMoviesByReleaseDate();
-                case "rating" -> movieService.getFavoriteMovies();
-                default -> movieService.getFavoriteMovies();
+            List<Movie> sortedMovies = switch (sortBy) {
+                case "date" -> movieService.getFavoriteMoviesByReleaseDate(userId);
+                case "rating" -> movieService.getFavoriteMovies(userId);
+                default -> movieService.getFavoriteMovies(userId);
             };
+            favoriteMovies = sortedMovies;
+            hasFavorites = !sortedMovies.isEmpty();
         }
 
-        long totalFavorites = movieService.getFavoriteMoviesCount();
-
         model.addAttribute("favoriteMovies", favoriteMovies);
+        model.addAttribute("hasFavorites", hasFavorites);
         model.addAttribute("totalFavorites", totalFavorites);
+        model.addAttribute("favoritesStats", stats);
         model.addAttribute("sortBy", sortBy);
         model.addAttribute("searchQuery", searchQuery);
+        model.addAttribute("filter", filter);
+        model.addAttribute("genres", Genre.values());
         model.addAttribute("imageBaseUrl", movieService.getImageBaseUrl());
+        model.addAttribute("responseFlusher", new ResponseFlusher(webRequest.getResponse()));
 
         return "favorites";
     }
@@ -162,11 +285,12 @@ public class MovieController {
      * Add movie to favorites (AJAX)
      */
     @PostMapping("/favorites/add/{id}")
+    @Bulkhead(Bulkhead.TOGGLE)
     @ResponseBody
-    public String addToFavorites(@PathVariable Long id) {
-        logger.info("Adding movie to favorites with ID: {}", id);
+    public String addToFavorites(@PathVariable Long id, @RequestAttribute(CurrentUserFilter.USER_ID_ATTRIBUTE) Long userId) {
+        logger.debug("Adding movie to favorites with ID: {} for user {}", id, userId);
 
-        boolean success = movieService.addToFavorites(id);
+        boolean success = movieService.addToFavorites(userId, id);
         return success ? "success" : "already_exists";
     }
 
@@ -174,11 +298,12 @@ public class MovieController {
      * Remove movie from favorites (AJAX)
      */
     @DeleteMapping("/favorites/remove/{id}")
+    @Bulkhead(Bulkhead.TOGGLE)
     @ResponseBody
-    public String removeFromFavorites(@PathVariable Long id) {
-        logger.info("Removing movie from favorites with ID: {}", id);
+    public String removeFromFavorites(@PathVariable Long id, @RequestAttribute(CurrentUserFilter.USER_ID_ATTRIBUTE) Long userId) {
+        logger.debug("Removing movie from favorites with ID: {}", id);
 
-        boolean success = movieService.removeFromFavorites(id);
+        boolean success = movieService.removeFromFavorites(userId, id);
         return success ? "success" : "not_found";
     }
 
@@ -186,26 +311,26 @@ public class MovieController {
      * Toggle favorite status (AJAX)
      */
     @PostMapping("/favorites/toggle/{id}")
+    @Bulkhead(Bulkhead.TOGGLE)
     @ResponseBody
-    public String toggleFavorite(@PathVariable Long id) {
-        logger.info("Toggling favorite status for movie ID: {}", id);
-
-        if (movieService.isInFavorites(id)) {
-            boolean removed = movieService.removeFromFavorites(id);
-            return removed ? "removed" : "error";
-        } else {
-            boolean added = movieService.addToFavorites(id);
-            return added ? "added" : "error";
-        }
+    public String toggleFavorite(@PathVariable Long id, @RequestAttribute(CurrentUserFilter.USER_ID_ATTRIBUTE) Long userId) {
+        logger.debug("Toggling favorite status for movie ID: {}", id);
+
+        return switch (movieService.toggleFavorite(userId, id)) {
+            case ADDED -> "added";
+            case REMOVED -> "removed";
+            default -> "error";
+        };
     }
 
     /**
      * Check if movie is in favorites (AJAX)
      */
     @GetMapping("/favorites/check/{id}")
+    @Bulkhead(Bulkhead.DATABASE)
     @ResponseBody
-    public boolean checkFavoriteStatus(@PathVariable Long id) {
-        return movieService.isInFavorites(id);
+    public boolean checkFavoriteStatus(@PathVariable Long id, @RequestAttribute(CurrentUserFilter.USER_ID_ATTRIBUTE) Long userId) {
+        return movieService.isInFavorites(userId, id);
     }
 
     /**
@@ -222,7 +347,7 @@ public class MovieController {
      */
     @ExceptionHandler(Exception.class)
     public String handleException(Exception e, Model model, RedirectAttributes redirectAttributes) {
-        logger.error("Unexpected error occurred", e);
+        unexpectedErrors.error(e.getClass().getName(), e, "Unexpected error occurred");
         redirectAttributes.addFlashAttribute("errorMessage", "An unexpected error occurred. Please try again.");
         return "redirect:/";
     }
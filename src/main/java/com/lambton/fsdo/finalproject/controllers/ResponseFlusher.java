@@ -0,0 +1,34 @@
+package com.lambton.fsdo.finalproject.controllers;
+
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+
+/**
+ * Exposed to streamed templates as {@code ${responseFlusher.flush()}}: sends everything
+ * rendered so far to the client, so the browser can paint the page head while the rest is produced.
+ */
+public class ResponseFlusher {
+
+    private static final Logger logger = LoggerFactory.getLogger(ResponseFlusher.class);
+
+    private final HttpServletResponse response;
+
+    public ResponseFlusher(HttpServletResponse response) {
+        this.response = response;
+    }
+
+    /**
+     * Flush the response and return an empty string, so the call can sit in a th:utext
+     */
+    public String flush() {
+        try {
+            response.getWriter().flush();
+        } catch (IOException e) {
+            logger.debug("Could not flush streamed response", e);
+        }
+        return "";
+    }
+}
@@ -0,0 +1,36 @@
+package com.lambton.fsdo.finalproject.diagnostics;
+
+import org.hibernate.SessionEventListener;
+
+/**
+ * Records the time Hibernate spends executing statements and batches as the {@code db} stage of the current
+ * request; waits for a pooled connection are in the hikaricp.connections.acquire metric. Hibernate creates
+ * one listener per session, so the start times need no synchronization.
+ */
+public class JdbcTimingListener implements SessionEventListener {
+
+    public static final String STAGE = "db";
+
+    private long statementStart;
+    private long batchStart;
+
+    @Override
+    public void jdbcExecuteStatementStart() {
+        statementStart = System.nanoTime();
+    }
+
+    @Override
+    public void jdbcExecuteStatementEnd() {
+        RequestTimings.record(STAGE, statementStart, System.nanoTime());
+    }
+
+    @Override
+    public void jdbcExecuteBatchStart() {
+        batchStart = System.nanoTime();
+    }
+
+    @Override
+    public void jdbcExecuteBatchEnd() {
+        RequestTimings.record(STAGE, batchStart, System.nanoTime());
+    }
+}
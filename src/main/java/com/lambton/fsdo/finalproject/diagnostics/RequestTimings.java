@@ -0,0 +1,198 @@
+package com.lambton.fsdo.finalproject.diagnostics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Time spent in each stage of the request served by the current thread (TMDb calls, database statements,
+ * favorites lookups, template rendering), for the Server-Timing header and the slow request log.
+ * Repeated stages are summed by name, and stages may nest (database time spent inside a favorites lookup
+ * counts for both). A traced request also keeps every span with its start offset.
+ * <p>
+ * Code running outside a request, such as background refreshes and scheduled jobs, records nothing.
+ */
+public final class RequestTimings {
+
+    private static final ThreadLocal<RequestTimings> CURRENT = new ThreadLocal<>();
+
+    private static final int MAX_STAGES = 8;
+    private static final int MAX_SPANS = 64;
+
+    private final long startNanos = System.nanoTime();
+    private final String[] names = new String[MAX_STAGES];
+    private final long[] nanos = new long[MAX_STAGES];
+    private final int[] counts = new int[MAX_STAGES];
+    private int stages;
+    private final List<Span> spans;
+    private int droppedSpans;
+    // A stage that is still running, e.g. rendering while the first part of the page is flushed
+    private String runningStage;
+    private long runningStart;
+
+    private RequestTimings(boolean traced) {
+        this.spans = traced ? new ArrayList<>() : null;
+    }
+
+    /**
+     * Start collecting for the request served by this thread
+     *
+     * @param traced keep each span, not just the total per stage
+     */
+    public static RequestTimings begin(boolean traced) {
+        RequestTimings timings = new RequestTimings(traced);
+        CURRENT.set(timings);
+        return timings;
+    }
+
+    public static void end() {
+        CURRENT.remove();
+    }
+
+    /**
+     * Timings of the request served by this thread, or null outside a request
+     */
+    public static RequestTimings current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Record a stage that ran from {@code startNanos} to {@code endNanos} (System.nanoTime)
+     */
+    public static void record(String stage, long startNanos, long endNanos) {
+        RequestTimings timings = CURRENT.get();
+        if (timings != null) {
+            timings.add(stage, startNanos, endNanos);
+        }
+    }
+
+    /**
+     * Mark a stage as running from {@code startNanos} until it is recorded, so a Server-Timing header
+     * written in the meantime includes it so far
+     */
+    public static void running(String stage, long startNanos) {
+        RequestTimings timings = CURRENT.get();
+        if (timings != null) {
+            timings.runningStage = stage;
+            timings.runningStart = startNanos;
+        }
+    }
+
+    /**
+     * Run {@code work} as a stage of the current request
+     */
+    public static <T> T time(String stage, Supplier<T> work) {
+        RequestTimings timings = CURRENT.get();
+        if (timings == null) {
+            return work.get();
+        }
+        long start = System.nanoTime();
+        try {
+            return work.get();
+        } finally {
+            timings.add(stage, start, System.nanoTime());
+        }
+    }
+
+    public long getStartNanos() {
+        return startNanos;
+    }
+
+    public boolean isTraced() {
+        return spans != null;
+    }
+
+    /**
+     * Total milliseconds and count per stage, in the order the stages first ran
+     */
+    public Map<String, Stage> getStages() {
+        Map<String, Stage> result = new LinkedHashMap<>();
+        for (int i = 0; i < stages; i++) {
+            result.put(names[i], new Stage(millis(nanos[i]), counts[i]));
+        }
+        return result;
+    }
+
+    /**
+     * Spans in the order they ended, or an empty list when the request is not traced
+     */
+    public List<Span> getSpans() {
+        return spans == null ? List.of() : Collections.unmodifiableList(spans);
+    }
+
+    public int getDroppedSpans() {
+        return droppedSpans;
+    }
+
+    /**
+     * Server-Timing header value with every stage so far, including a running one, and the time since the
+     * request started
+     */
+    public String toServerTiming(long nowNanos) {
+        StringBuilder header = new StringBuilder(24 * (stages + 2));
+        for (int i = 0; i < stages; i++) {
+            appendMetric(header, names[i], nanos[i]);
+            if (counts[i] > 1) {
+                header.append(";desc=\"").append(counts[i]).append(" calls\"");
+            }
+            header.append(", ");
+        }
+        if (runningStage != null) {
+            appendMetric(header, runningStage, nowNanos - runningStart);
+            header.append(", ");
+        }
+        appendMetric(header, "total", nowNanos - startNanos);
+        return header.toString();
+    }
+
+    private void add(String stage, long start, long end) {
+        if (stage.equals(runningStage)) {
+            runningStage = null;
+        }
+        long duration = end - start;
+        int i = 0;
+        while (i < stages && !names[i].equals(stage)) {
+            i++;
+        }
+        if (i == stages) {
+            if (stages == MAX_STAGES) {
+                return;
+            }
+            names[stages++] = stage;
+        }
+        nanos[i] += duration;
+        counts[i]++;
+
+        if (spans != null) {
+            if (spans.size() < MAX_SPANS) {
+                spans.add(new Span(stage, millis(start - startNanos), millis(duration)));
+            } else {
+                droppedSpans++;
+            }
+        }
+    }
+
+    private static void appendMetric(StringBuilder header, String name, long nanos) {
+        long tenths = nanos / 100_000;
+        header.append(name).append(";dur=").append(tenths / 10).append('.').append(tenths % 10);
+    }
+
+    static double millis(long nanos) {
+        return Math.round(nanos / 1e4) / 100.0;
+    }
+
+    /**
+     * Total time in a stage and how many times it ran
+     */
+    public record Stage(double millis, int count) {
+    }
+
+    /**
+     * One run of a stage, with its start relative to the start of the request
+     */
+    public record Span(String stage, double startMillis, double durationMillis) {
+    }
+}
@@ -0,0 +1,125 @@
+package com.lambton.fsdo.finalproject.diagnostics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The most recent requests that took longer than the latency budget of their route, with the time spent
+ * per stage (see {@link RequestTimings}) and, for the sampled share of requests, a trace of every stage.
+ * Entries live in a fixed-size ring, so the log costs the same memory however many requests are slow.
+ * Served at /actuator/slowrequests.
+ * <p>
+ * Budgets are configured per route pattern, e.g. {@code /movie/{id}=PT0.5S}; other routes use the default budget.
+ */
+@Component
+public class SlowRequestLog {
+
+    private final Duration defaultBudget;
+    private final Map<String, Duration> routeBudgets = new HashMap<>();
+    private final double traceSampleRate;
+    private final AtomicReferenceArray<SlowRequest> ring;
+    private final AtomicLong captured = new AtomicLong();
+    private final Counter slowRequests;
+
+    public SlowRequestLog(@Value("${diagnostics.slow-requests.budget:PT1S}") Duration defaultBudget,
+                          @Value("${diagnostics.slow-requests.route-budgets:}") List<String> routeBudgets,
+                          @Value("${diagnostics.slow-requests.capacity:100}") int capacity,
+                          @Value("${diagnostics.slow-requests.trace-sample-rate:0.1}") double traceSampleRate,
+                          MeterRegistry meterRegistry) {
+        this.defaultBudget = defaultBudget;
+        for (String entry : routeBudgets) {
+            int separator = entry.lastIndexOf('=');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Route budget must look like /route=PT0.5S: " + entry);
+            }
+            this.routeBudgets.put(entry.substring(0, separator).trim(),
+                    Duration.parse(entry.substring(separator + 1).trim()));
+        }
+        this.ring = new AtomicReferenceArray<>(capacity);
+        this.traceSampleRate = traceSampleRate;
+        this.slowRequests = Counter.builder("http.server.requests.slow")
+                .description("Requests that took longer than the latency budget of their route")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Whether a request starting now should keep a trace of its stages
+     */
+    public boolean shouldTrace() {
+        return traceSampleRate > 0 && ThreadLocalRandom.current().nextDouble() < traceSampleRate;
+    }
+
+    public Duration getBudget(String route) {
+        return route == null ? defaultBudget : routeBudgets.getOrDefault(route, defaultBudget);
+    }
+
+    /**
+     * Keep the request if it went over the budget of its route
+     *
+     * @param route the matched route pattern, or null when no handler matched
+     */
+    public void record(String requestId, String method, String route, String path, int status,
+                       RequestTimings timings, long endNanos) {
+        long elapsed = endNanos - timings.getStartNanos();
+        Duration budget = getBudget(route);
+        if (elapsed <= budget.toNanos()) {
+            return;
+        }
+        slowRequests.increment();
+        SlowRequest request = new SlowRequest(Instant.now(), requestId, method, route, path, status,
+                RequestTimings.millis(elapsed), budget.toMillis(), timings.getStages(),
+                timings.isTraced() ? List.copyOf(timings.getSpans()) : null, timings.getDroppedSpans());
+        long sequence = captured.getAndIncrement();
+        ring.set((int) (sequence % ring.length()), request);
+    }
+
+    /**
+     * Captured requests, most recent first
+     */
+    public List<SlowRequest> getRecent() {
+        long end = captured.get();
+        List<SlowRequest> recent = new ArrayList<>(ring.length());
+        for (long sequence = end - 1; sequence >= 0 && sequence >= end - ring.length(); sequence--) {
+            SlowRequest request = ring.get((int) (sequence % ring.length()));
+            if (request != null) {
+                recent.add(request);
+            }
+        }
+        return recent;
+    }
+
+    /**
+     * Number of slow requests since startup, including those that have left the ring
+     */
+    public long getCapturedCount() {
+        return captured.get();
+    }
+
+    public Duration getDefaultBudget() {
+        return defaultBudget;
+    }
+
+    public Map<String, Duration> getRouteBudgets() {
+        return Map.copyOf(routeBudgets);
+    }
+
+    /**
+     * @param trace every stage with its start offset, or null when the request was not sampled for tracing
+     */
+    public record SlowRequest(Instant time, String requestId, String method, String route, String path, int status,
+                              double totalMillis, long budgetMillis, Map<String, RequestTimings.Stage> stages,
+                              List<RequestTimings.Span> trace, int droppedSpans) {
+    }
+}
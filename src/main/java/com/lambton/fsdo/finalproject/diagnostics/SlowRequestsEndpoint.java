@@ -0,0 +1,33 @@
+package com.lambton.fsdo.finalproject.diagnostics;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * /actuator/slowrequests: the budgets in force and the most recent requests that went over them
+ */
+@Component
+@Endpoint(id = "slowrequests")
+public class SlowRequestsEndpoint {
+
+    private final SlowRequestLog slowRequestLog;
+
+    public SlowRequestsEndpoint(SlowRequestLog slowRequestLog) {
+        this.slowRequestLog = slowRequestLog;
+    }
+
+    @ReadOperation
+    public Report slowRequests() {
+        return new Report(slowRequestLog.getDefaultBudget(), slowRequestLog.getRouteBudgets(),
+                slowRequestLog.getCapturedCount(), slowRequestLog.getRecent());
+    }
+
+    public record Report(Duration defaultBudget, Map<String, Duration> routeBudgets, long captured,
+                         List<SlowRequestLog.SlowRequest> requests) {
+    }
+}
@@ -0,0 +1,155 @@
+package com.lambton.fsdo.finalproject.entities;
+
+import jakarta.persistence.*;
+import org.hibernate.annotations.ColumnDefault;
+import org.springframework.data.domain.Persistable;
+
+import java.time.Instant;
+import java.time.LocalDate;
+
+/**
+ * A user's favorite. Movie metadata is stored once in {@link Movie} and shared by all users;
+ * the sort and filter keys are copied here so per-user indexes can serve the favorites pages and filters.
+ * The key is assigned, so the entity reports itself as new until it is persisted or loaded;
+ * otherwise every save would be a merge with a SELECT in front of the INSERT, which also defeats batching.
+ */
+@Entity
+@Table(name = "favorite_movies", indexes = {
+        @Index(name = "idx_favorite_movies_user_rating", columnList = "user_id, vote_average DESC, tmdb_id"),
+        @Index(name = "idx_favorite_movies_user_release", columnList = "user_id, release_date DESC, tmdb_id"),
+        @Index(name = "idx_favorite_movies_user_language_year", columnList = "user_id, language, release_year"),
+        @Index(name = "idx_favorite_movies_user_year", columnList = "user_id, release_year")
+})
+public class FavoriteMovie implements Persistable<FavoriteMovieId> {
+
+    @EmbeddedId
+    private FavoriteMovieId id;
+
+    @MapsId("tmdbId")
+    @ManyToOne(fetch = FetchType.LAZY, optional = false)
+    @JoinColumn(name = "tmdb_id")
+    private Movie movie;
+
+    @Column(name = "vote_average")
+    private Double voteAverage;
+
+    @Column(name = "release_date")
+    private LocalDate releaseDate;
+
+    @Column(length = 10)
+    private String language;
+
+    @Column(name = "release_year")
+    private Integer releaseYear;
+
+    // Bitmask of Genre ordinals, as on Movie
+    @Column(name = "genre_mask", nullable = false)
+    @ColumnDefault("0")
+    private long genreMask;
+
+    @Column(name = "added_at", nullable = false)
+    private Instant addedAt;
+
+    @Transient
+    private boolean isNew = true;
+
+    // Constructors
+    public FavoriteMovie() {}
+
+    public FavoriteMovie(Long userId, Movie movie) {
+        this.id = new FavoriteMovieId(userId, movie.getTmdbId());
+        this.movie = movie;
+        this.voteAverage = movie.getVoteAverage();
+        this.releaseDate = movie.getReleaseDate();
+        this.language = movie.getLanguage();
+        this.releaseYear = movie.getReleaseDate() != null ? movie.getReleaseDate().getYear() : null;
+        this.genreMask = movie.getGenreMask();
+        this.addedAt = Instant.now();
+    }
+
+    // Getters and Setters
+    @Override
+    public FavoriteMovieId getId() {
+        return id;
+    }
+
+    public void setId(FavoriteMovieId id) {
+        this.id = id;
+    }
+
+    public Movie getMovie() {
+        return movie;
+    }
+
+    public void setMovie(Movie movie) {
+        this.movie = movie;
+    }
+
+    public Double getVoteAverage() {
+        return voteAverage;
+    }
+
+    public void setVoteAverage(Double voteAverage) {
+        this.voteAverage = voteAverage;
+    }
+
+    public LocalDate getReleaseDate() {
+        return releaseDate;
+    }
+
+    public void setReleaseDate(LocalDate releaseDate) {
+        this.releaseDate = releaseDate;
+    }
+
+    public String getLanguage() {
+        return language;
+    }
+
+    public void setLanguage(String language) {
+        this.language = language;
+    }
+
+    public Integer getReleaseYear() {
+        return releaseYear;
+    }
+
+    public void setReleaseYear(Integer releaseYear) {
+        this.releaseYear = releaseYear;
+    }
+
+    public long getGenreMask() {
+        return genreMask;
+    }
+
+    public void setGenreMask(long genreMask) {
+        this.genreMask = genreMask;
+    }
+
+    public Instant getAddedAt() {
+        return addedAt;
+    }
+
+    public void setAddedAt(Instant addedAt) {
+        this.addedAt = addedAt;
+    }
+
+    @Override
+    public boolean isNew() {
+        return isNew;
+    }
+
+    @PostLoad
+    @PostPersist
+    void markNotNew() {
+        this.isNew = false;
+    }
+
+    @Override
+    public String toString() {
+        return "FavoriteMovie{" +
+                "id=" + id +
+                ", voteAverage=" + voteAverage +
+                ", releaseDate=" + releaseDate +
+                '}';
+    }
+}
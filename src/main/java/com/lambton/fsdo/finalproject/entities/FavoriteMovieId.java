@@ -0,0 +1,70 @@
+package com.lambton.fsdo.finalproject.entities;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Embeddable;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * Composite key of a favorite: (user, movie). Membership checks are point lookups on both columns;
+ * per-user range scans go through the user_id-led indexes declared on {@link FavoriteMovie}.
+ */
+@Embeddable
+public class FavoriteMovieId implements Serializable {
+
+    @Column(name = "user_id", nullable = false)
+    private Long userId;
+
+    @Column(name = "tmdb_id", nullable = false)
+    private Long tmdbId;
+
+    // Constructors
+    public FavoriteMovieId() {}
+
+    public FavoriteMovieId(Long userId, Long tmdbId) {
+        this.userId = userId;
+        this.tmdbId = tmdbId;
+    }
+
+    // Getters and Setters
+    public Long getUserId() {
+        return userId;
+    }
+
+    public void setUserId(Long userId) {
+        this.userId = userId;
+    }
+
+    public Long getTmdbId() {
+        return tmdbId;
+    }
+
+    public void setTmdbId(Long tmdbId) {
+        this.tmdbId = tmdbId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof FavoriteMovieId that)) {
+            return false;
+        }
+        return Objects.equals(userId, that.userId) && Objects.equals(tmdbId, that.tmdbId);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(userId, tmdbId);
+    }
+
+    @Override
+    public String toString() {
+        return "FavoriteMovieId{" +
+                "userId=" + userId +
+                ", tmdbId=" + tmdbId +
+                '}';
+    }
+}
@@ -0,0 +1,98 @@
+package com.lambton.fsdo.finalproject.entities;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * TMDb movie genres. A set of genres is stored as a bitmask over the enum ordinals,
+ * so the order of the constants must never change; new genres go at the end.
+ */
+public enum Genre {
+
+    ACTION(28, "Action"),
+    ADVENTURE(12, "Adventure"),
+    ANIMATION(16, "Animation"),
+    COMEDY(35, "Comedy"),
+    CRIME(80, "Crime"),
+    DOCUMENTARY(99, "Documentary"),
+    DRAMA(18, "Drama"),
+    FAMILY(10751, "Family"),
+    FANTASY(14, "Fantasy"),
+    HISTORY(36, "History"),
+    HORROR(27, "Horror"),
+    MUSIC(10402, "Music"),
+    MYSTERY(9648, "Mystery"),
+    ROMANCE(10749, "Romance"),
+    SCIENCE_FICTION(878, "Science Fiction"),
+    TV_MOVIE(10770, "TV Movie"),
+    THRILLER(53, "Thriller"),
+    WAR(10752, "War"),
+    WESTERN(37, "Western");
+
+    private static final Map<Integer, Genre> BY_TMDB_ID = new HashMap<>();
+
+    static {
+        for (Genre genre : values()) {
+            BY_TMDB_ID.put(genre.tmdbId, genre);
+        }
+    }
+
+    private final int tmdbId;
+    private final String displayName;
+
+    Genre(int tmdbId, String displayName) {
+        this.tmdbId = tmdbId;
+        this.displayName = displayName;
+    }
+
+    public int getTmdbId() {
+        return tmdbId;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    public long bit() {
+        return 1L << ordinal();
+    }
+
+    /**
+     * Genre with the given TMDb ID, or null for genres TMDb added after this list was written
+     */
+    public static Genre fromTmdbId(Integer tmdbId) {
+        return tmdbId == null ? null : BY_TMDB_ID.get(tmdbId);
+    }
+
+    /**
+     * Bitmask of the given TMDb genre IDs; unknown IDs are ignored
+     */
+    public static long toMask(Collection<Integer> tmdbIds) {
+        long mask = 0;
+        if (tmdbIds != null) {
+            for (Integer tmdbId : tmdbIds) {
+                Genre genre = fromTmdbId(tmdbId);
+                if (genre != null) {
+                    mask |= genre.bit();
+                }
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * TMDb genre IDs of a bitmask, in enum order
+     */
+    public static List<Integer> toTmdbIds(long mask) {
+        List<Integer> tmdbIds = new ArrayList<>();
+        for (Genre genre : values()) {
+            if ((mask & genre.bit()) != 0) {
+                tmdbIds.add(genre.tmdbId);
+            }
+        }
+        return tmdbIds;
+    }
+}
@@ -1,11 +1,24 @@
 package com.lambton.fsdo.finalproject.entities;
 
 import jakarta.persistence.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.ColumnDefault;
+import org.springframework.data.domain.Persistable;
+
 import java.time.LocalDate;
 
+/**
+ * Movie metadata, stored once and shared by every user's favorites.
+ * The key is the TMDb ID, so like {@link FavoriteMovie} the entity reports itself as new until it is persisted
+ * or loaded, and saving a new movie is an INSERT that can be batched instead of a merge with a SELECT first.
+ */
 @Entity
-@Table(name = "favorite_movies")
-public class Movie {
+@Table(name = "movies", indexes = {
+        @Index(name = "idx_movies_language_release", columnList = "language, release_date")
+})
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+public class Movie implements Persistable<Long> {
 
     @Id
     private Long tmdbId;
@@ -40,6 +53,14 @@ public class Movie {
 
     private Double popularity;
 
+    // Bitmask of Genre ordinals
+    @Column(name = "genre_mask", nullable = false)
+    @ColumnDefault("0")
+    private long genreMask;
+
+    @Transient
+    private boolean isNew = true;
+
     // Constructors
     public Movie() {}
 
@@ -62,6 +83,11 @@ public class Movie {
     }
 
     // Getters and Setters
+    @Override
+    public Long getId() {
+        return tmdbId;
+    }
+
     public Long getTmdbId() {
         return tmdbId;
     }
@@ -158,6 +184,25 @@ public class Movie {
         this.popularity = popularity;
     }
 
+    public long getGenreMask() {
+        return genreMask;
+    }
+
+    public void setGenreMask(long genreMask) {
+        this.genreMask = genreMask;
+    }
+
+    @Override
+    public boolean isNew() {
+        return isNew;
+    }
+
+    @PostLoad
+    @PostPersist
+    void markNotNew() {
+        this.isNew = false;
+    }
+
     // Helper method to get full poster URL
     public String getFullPosterUrl(String baseUrl) {
         return posterPath != null ? baseUrl + "/w500" + posterPath : null;
@@ -1,10 +1,17 @@
 package com.lambton.fsdo.finalproject.entities;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonSetter;
+
+import java.io.Serializable;
 import java.time.LocalDate;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+public class TMDbMovieDto implements Serializable {
 
-public class TMDbMovieDto {
+    private static final long serialVersionUID = 1L;
 
     private Long id;
     private String title;
@@ -147,6 +154,16 @@ public class TMDbMovieDto {
         this.genreIds = genreIds;
     }
 
+    // Movie details list genres as {id, name} objects instead of genre_ids
+    @JsonSetter("genres")
+    public void setGenres(List<Map<String, Object>> genres) {
+        this.genreIds = genres == null ? null : genres.stream()
+                .map(genre -> genre.get("id"))
+                .filter(Objects::nonNull)
+                .map(id -> ((Number) id).intValue())
+                .toList();
+    }
+
     public Boolean getVideo() {
         return video;
     }
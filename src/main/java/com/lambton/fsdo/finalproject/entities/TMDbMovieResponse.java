@@ -5,7 +5,7 @@ import java.time.LocalDate;
 import java.util.List;
 
 // Response wrapper for movie lists
-class TMDbMovieResponse {
+public class TMDbMovieResponse {
     private Integer page;
 
     @JsonProperty("total_pages")
@@ -0,0 +1,99 @@
+package com.lambton.fsdo.finalproject.entities;
+
+import org.springframework.util.DigestUtils;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Immutable snapshot of a TMDb response (a movie list, or a single movie for detail lookups)
+ * together with a content-hash version that is used as the HTTP entity tag for pages built from it.
+ * Serializable so that clustered nodes can share snapshots.
+ */
+public class TMDbSnapshot implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final List<TMDbMovieDto> movies;
+    private final String version;
+    private final long fetchedAt;
+
+    public TMDbSnapshot(List<TMDbMovieDto> movies, long fetchedAt) {
+        this.movies = List.copyOf(movies);
+        this.version = computeVersion(this.movies);
+        this.fetchedAt = fetchedAt;
+    }
+
+    private TMDbSnapshot(List<TMDbMovieDto> movies, long fetchedAt, String version) {
+        this.movies = List.copyOf(movies);
+        this.version = version;
+        this.fetchedAt = fetchedAt;
+    }
+
+    /**
+     * Snapshot read back from storage together with the version computed when it was fetched
+     */
+    public static TMDbSnapshot restored(List<TMDbMovieDto> movies, long fetchedAt, String version) {
+        return new TMDbSnapshot(movies, fetchedAt, version);
+    }
+
+    public static TMDbSnapshot empty() {
+        return new TMDbSnapshot(List.of(), 0L);
+    }
+
+    // Getters
+    public List<TMDbMovieDto> getMovies() {
+        return movies;
+    }
+
+    /**
+     * Single movie of a detail snapshot, or null when the lookup found nothing
+     */
+    public TMDbMovieDto getMovie() {
+        return movies.isEmpty() ? null : movies.get(0);
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public long getFetchedAt() {
+        return fetchedAt;
+    }
+
+    public boolean isExpired(long ttlMillis, long now) {
+        return now - fetchedAt >= ttlMillis;
+    }
+
+    /**
+     * Hash every field that is rendered, so the version changes exactly when the page would
+     */
+    private static String computeVersion(List<TMDbMovieDto> movies) {
+        StringBuilder content = new StringBuilder(movies.size() * 256);
+        for (TMDbMovieDto movie : movies) {
+            content.append(movie.getId()).append('|')
+                    .append(movie.getTitle()).append('|')
+                    .append(movie.getOriginalTitle()).append('|')
+                    .append(movie.getOverview()).append('|')
+                    .append(movie.getPosterPath()).append('|')
+                    .append(movie.getBackdropPath()).append('|')
+                    .append(movie.getReleaseDate()).append('|')
+                    .append(movie.getVoteAverage()).append('|')
+                    .append(movie.getVoteCount()).append('|')
+                    .append(movie.getOriginalLanguage()).append('|')
+                    .append(movie.getAdult()).append('|')
+                    .append(movie.getPopularity()).append('\n');
+        }
+        return DigestUtils.md5DigestAsHex(content.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public String toString() {
+        return "TMDbSnapshot{" +
+                "version='" + version + '\'' +
+                ", fetchedAt=" + fetchedAt +
+                ", moviesCount=" + movies.size() +
+                '}';
+    }
+}
@@ -0,0 +1,122 @@
+package com.lambton.fsdo.finalproject.filters;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.Cookie;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseCookie;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Resolves the user that owns the favorites of a request and stores the ID in the
+ * {@value #USER_ID_ATTRIBUTE} request attribute, where controllers read it with @RequestAttribute.
+ * Machine clients (e.g. the BFF) pass the user in the X-User-Id header, which is only believed when the
+ * request comes straight from one of the users.trusted-proxies addresses: from anywhere else it would let
+ * any client read and change any user's favorites. Browsers get an anonymous random ID in a long-lived cookie
+ * on their first visit.
+ */
+@Component
+public class CurrentUserFilter extends OncePerRequestFilter {
+
+    public static final String USER_ID_ATTRIBUTE = "userId";
+    public static final String USER_ID_HEADER = "X-User-Id";
+    public static final String USER_ID_COOKIE = "movie_uid";
+
+    private static final Duration COOKIE_MAX_AGE = Duration.ofDays(365);
+
+    private final SecureRandom random = new SecureRandom();
+    private final Set<InetAddress> trustedProxies = new HashSet<>();
+
+    public CurrentUserFilter(@Value("${users.trusted-proxies:}") List<String> trustedProxies)
+            throws UnknownHostException {
+        for (String address : trustedProxies) {
+            if (!address.isBlank()) {
+                this.trustedProxies.add(InetAddress.getByName(address.trim()));
+            }
+        }
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        Long userId = isFromTrustedProxy(request) ? parseUserId(request.getHeader(USER_ID_HEADER)) : null;
+
+        if (userId == null) {
+            userId = parseUserId(readCookie(request));
+        }
+
+        if (userId == null) {
+            userId = random.nextLong() & Long.MAX_VALUE;
+            ResponseCookie cookie = ResponseCookie.from(USER_ID_COOKIE, Long.toString(userId))
+                    .path("/")
+                    .maxAge(COOKIE_MAX_AGE)
+                    .httpOnly(true)
+                    .sameSite("Lax")
+                    .build();
+            response.addHeader(HttpHeaders.SET_COOKIE, cookie.toString());
+        }
+
+        request.setAttribute(USER_ID_ATTRIBUTE, userId);
+        filterChain.doFilter(request, response);
+    }
+
+    /**
+     * Static assets and actuator endpoints have no user
+     */
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        return path.startsWith("/css/") || path.startsWith("/js/") || path.startsWith("/images/")
+                || path.startsWith("/static/") || path.startsWith("/actuator") || path.startsWith("/h2-console");
+    }
+
+    private boolean isFromTrustedProxy(HttpServletRequest request) {
+        if (trustedProxies.isEmpty()) {
+            return false;
+        }
+        try {
+            // The remote address is always a literal, so this does no lookup
+            return trustedProxies.contains(InetAddress.getByName(request.getRemoteAddr()));
+        } catch (UnknownHostException e) {
+            return false;
+        }
+    }
+
+    private static String readCookie(HttpServletRequest request) {
+        Cookie[] cookies = request.getCookies();
+        if (cookies == null) {
+            return null;
+        }
+        for (Cookie cookie : cookies) {
+            if (USER_ID_COOKIE.equals(cookie.getName())) {
+                return cookie.getValue();
+            }
+        }
+        return null;
+    }
+
+    private static Long parseUserId(String value) {
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        try {
+            long userId = Long.parseLong(value.trim());
+            return userId >= 0 ? userId : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
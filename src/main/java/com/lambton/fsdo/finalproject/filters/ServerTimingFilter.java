@@ -0,0 +1,156 @@
+package com.lambton.fsdo.finalproject.filters;
+
+import com.lambton.fsdo.finalproject.diagnostics.RequestTimings;
+import com.lambton.fsdo.finalproject.diagnostics.SlowRequestLog;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Collects the {@link RequestTimings} of every request. It reports them in the {@value #SERVER_TIMING_HEADER}
+ * response header and hands requests over their route's budget to the {@link SlowRequestLog}.
+ * <p>
+ * Headers can only be set until the response is committed, so the header is refreshed every time the body is
+ * flushed: a page that fits in the response buffer reports its whole rendering. A page that overflows the buffer
+ * is committed mid-render and keeps the header written just before rendering (see ServerTimingInterceptor).
+ * The slow request log always has every stage.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 1)
+public class ServerTimingFilter extends OncePerRequestFilter {
+
+    public static final String SERVER_TIMING_HEADER = "Server-Timing";
+
+    private final SlowRequestLog slowRequestLog;
+    private final boolean header;
+
+    public ServerTimingFilter(SlowRequestLog slowRequestLog,
+                              @Value("${diagnostics.server-timing.enabled:true}") boolean header) {
+        this.slowRequestLog = slowRequestLog;
+        this.header = header;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        RequestTimings timings = RequestTimings.begin(slowRequestLog.shouldTrace());
+        try {
+            filterChain.doFilter(request, header ? new TimedResponse(response, timings) : response);
+        } finally {
+            RequestTimings.end();
+            // Event streams stay open for minutes; their lifetime is not latency
+            if (!request.isAsyncStarted()) {
+                long now = System.nanoTime();
+                if (header && !response.isCommitted()) {
+                    response.setHeader(SERVER_TIMING_HEADER, timings.toServerTiming(now));
+                }
+                Object route = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+                slowRequestLog.record(MDC.get(RequestIdFilter.MDC_KEY), request.getMethod(),
+                        route != null ? route.toString() : null, request.getRequestURI(), response.getStatus(),
+                        timings, now);
+            }
+        }
+    }
+
+    /**
+     * Writes the Server-Timing header as it stands right before anything flushes the response
+     */
+    private static final class TimedResponse extends HttpServletResponseWrapper {
+
+        private final RequestTimings timings;
+        private PrintWriter writer;
+        private ServletOutputStream outputStream;
+
+        private TimedResponse(HttpServletResponse response, RequestTimings timings) {
+            super(response);
+            this.timings = timings;
+        }
+
+        private void beforeCommit() {
+            if (!isCommitted()) {
+                setHeader(SERVER_TIMING_HEADER, timings.toServerTiming(System.nanoTime()));
+            }
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            beforeCommit();
+            super.flushBuffer();
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (writer == null) {
+                writer = new PrintWriter(super.getWriter()) {
+                    @Override
+                    public void flush() {
+                        beforeCommit();
+                        super.flush();
+                    }
+
+                    @Override
+                    public void close() {
+                        beforeCommit();
+                        super.close();
+                    }
+                };
+            }
+            return writer;
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (outputStream == null) {
+                ServletOutputStream target = super.getOutputStream();
+                outputStream = new ServletOutputStream() {
+                    @Override
+                    public boolean isReady() {
+                        return target.isReady();
+                    }
+
+                    @Override
+                    public void setWriteListener(WriteListener writeListener) {
+                        target.setWriteListener(writeListener);
+                    }
+
+                    @Override
+                    public void write(int b) throws IOException {
+                        target.write(b);
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        target.write(b, off, len);
+                    }
+
+                    @Override
+                    public void flush() throws IOException {
+                        beforeCommit();
+                        target.flush();
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        beforeCommit();
+                        target.close();
+                    }
+                };
+            }
+            return outputStream;
+        }
+    }
+}
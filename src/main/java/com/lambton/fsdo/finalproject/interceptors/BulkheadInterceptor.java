@@ -0,0 +1,73 @@
+package com.lambton.fsdo.finalproject.interceptors;
+
+import com.lambton.fsdo.finalproject.bulkheads.Bulkhead;
+import com.lambton.fsdo.finalproject.bulkheads.Bulkheads;
+import com.lambton.fsdo.finalproject.bulkheads.Compartment;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import java.io.IOException;
+
+/**
+ * Admits requests to handlers marked with {@link Bulkhead} through their compartment, and sheds the rest
+ * with 503 and Retry-After without running the handler or rendering an error page.
+ * The slot is held until the response is complete, rendering included. Async handlers must not be marked,
+ * since afterCompletion does not run on the request thread that started them.
+ */
+@Component
+public class BulkheadInterceptor implements HandlerInterceptor {
+
+    private static final String COMPARTMENT_ATTRIBUTE = BulkheadInterceptor.class.getName() + ".compartment";
+
+    private final Bulkheads bulkheads;
+
+    public BulkheadInterceptor(Bulkheads bulkheads) {
+        this.bulkheads = bulkheads;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler)
+            throws IOException {
+        if (!(handler instanceof HandlerMethod handlerMethod)) {
+            return true;
+        }
+        Bulkhead bulkhead = handlerMethod.getMethodAnnotation(Bulkhead.class);
+        if (bulkhead == null) {
+            bulkhead = AnnotatedElementUtils.findMergedAnnotation(handlerMethod.getBeanType(), Bulkhead.class);
+        }
+        if (bulkhead == null) {
+            return true;
+        }
+
+        Compartment compartment = bulkheads.get(bulkhead.value());
+        if (compartment.tryEnter()) {
+            request.setAttribute(COMPARTMENT_ATTRIBUTE, compartment);
+            return true;
+        }
+
+        bulkheads.rejected(compartment);
+        long retryAfterSeconds = Math.max(1, (compartment.getRetryAfter().toMillis() + 999) / 1000);
+        response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(retryAfterSeconds));
+        response.setContentType(MediaType.TEXT_PLAIN_VALUE);
+        response.getWriter().write("busy");
+        return false;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+                                Exception ex) {
+        Object compartment = request.getAttribute(COMPARTMENT_ATTRIBUTE);
+        if (compartment != null) {
+            request.removeAttribute(COMPARTMENT_ATTRIBUTE);
+            ((Compartment) compartment).exit();
+        }
+    }
+}
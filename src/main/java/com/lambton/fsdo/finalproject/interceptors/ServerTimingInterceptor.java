@@ -0,0 +1,34 @@
+package com.lambton.fsdo.finalproject.interceptors;
+
+import com.lambton.fsdo.finalproject.diagnostics.RequestTimings;
+import com.lambton.fsdo.finalproject.filters.ServerTimingFilter;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.ModelAndView;
+
+/**
+ * Writes the Server-Timing header once the handler has returned and before the view renders, while the
+ * response is certainly not committed yet. {@link ServerTimingFilter} replaces it with the complete header
+ * when the rendered page still fits in the response buffer.
+ */
+@Component
+public class ServerTimingInterceptor implements HandlerInterceptor {
+
+    private final boolean enabled;
+
+    public ServerTimingInterceptor(@Value("${diagnostics.server-timing.enabled:true}") boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Override
+    public void postHandle(HttpServletRequest request, HttpServletResponse response, Object handler,
+                           ModelAndView modelAndView) {
+        RequestTimings timings = RequestTimings.current();
+        if (enabled && timings != null && !response.isCommitted()) {
+            response.setHeader(ServerTimingFilter.SERVER_TIMING_HEADER, timings.toServerTiming(System.nanoTime()));
+        }
+    }
+}
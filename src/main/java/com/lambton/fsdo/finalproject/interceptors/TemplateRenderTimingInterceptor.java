@@ -0,0 +1,61 @@
+package com.lambton.fsdo.finalproject.interceptors;
+
+import com.lambton.fsdo.finalproject.diagnostics.RequestTimings;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.ModelAndView;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures Thymeleaf rendering time per template. View rendering happens between
+ * postHandle and afterCompletion, so the gap between the two is recorded under the view name
+ * and as the render stage of the request's {@link RequestTimings}.
+ */
+@Component
+public class TemplateRenderTimingInterceptor implements HandlerInterceptor {
+
+    private static final String VIEW_NAME_ATTRIBUTE = TemplateRenderTimingInterceptor.class.getName() + ".view";
+    private static final String RENDER_START_ATTRIBUTE = TemplateRenderTimingInterceptor.class.getName() + ".start";
+
+    private final MeterRegistry meterRegistry;
+
+    public TemplateRenderTimingInterceptor(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public void postHandle(HttpServletRequest request, HttpServletResponse response, Object handler,
+                           ModelAndView modelAndView) {
+        if (modelAndView == null || modelAndView.getViewName() == null
+                || modelAndView.getViewName().startsWith("redirect:")) {
+            return;
+        }
+        long start = System.nanoTime();
+        request.setAttribute(VIEW_NAME_ATTRIBUTE, modelAndView.getViewName());
+        request.setAttribute(RENDER_START_ATTRIBUTE, start);
+        RequestTimings.running("render", start);
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+                                Exception ex) {
+        Object viewName = request.getAttribute(VIEW_NAME_ATTRIBUTE);
+        Object start = request.getAttribute(RENDER_START_ATTRIBUTE);
+        if (viewName == null || start == null) {
+            return;
+        }
+
+        long end = System.nanoTime();
+        RequestTimings.record("render", (Long) start, end);
+        Timer.builder("template.render")
+                .description("Time spent rendering a Thymeleaf page template")
+                .tag("template", viewName.toString())
+                .register(meterRegistry)
+                .record(end - (Long) start, TimeUnit.NANOSECONDS);
+    }
+}
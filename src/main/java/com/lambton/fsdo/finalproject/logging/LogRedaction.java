@@ -0,0 +1,25 @@
+package com.lambton.fsdo.finalproject.logging;
+
+import java.util.regex.Pattern;
+
+/**
+ * Masks credentials that end up in log output, typically inside request URLs quoted by HTTP client exceptions
+ */
+public final class LogRedaction {
+
+    private static final Pattern SECRET_PARAMETER =
+            Pattern.compile("(?i)\\b(api_key|apikey|access_token|session_id)=[^&\\s\"']+");
+
+    private LogRedaction() {
+    }
+
+    /**
+     * Replace the value of every secret query parameter in the text with ***
+     */
+    public static String redact(String text) {
+        if (text == null || text.indexOf('=') < 0) {
+            return text;
+        }
+        return SECRET_PARAMETER.matcher(text).replaceAll("$1=***");
+    }
+}
@@ -0,0 +1,93 @@
+package com.lambton.fsdo.finalproject.logging;
+
+import org.slf4j.Logger;
+import org.slf4j.helpers.MessageFormatter;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Logs errors at most once per interval for each key, e.g. per upstream endpoint, so an outage produces
+ * one line per endpoint per interval instead of one stack trace per request. Errors dropped in between are
+ * counted and reported with the next line that gets through. Lines carry the exception type and redacted
+ * message; the stack trace is only printed with them when requested, or at DEBUG otherwise.
+ * <p>
+ * Keys should come from a small fixed set (endpoint templates, exception types), never from request data.
+ */
+public final class RateLimitedLogger {
+
+    private final Logger logger;
+    private final long intervalNanos;
+    private final boolean stackTraces;
+    private final Map<String, Window> windows = new ConcurrentHashMap<>();
+
+    public RateLimitedLogger(Logger logger, Duration interval) {
+        this(logger, interval, false);
+    }
+
+    /**
+     * @param stackTraces print the stack trace with every line written, for errors that are not expected
+     *                    to repeat (e.g. bugs) and would be hard to diagnose without it
+     */
+    public RateLimitedLogger(Logger logger, Duration interval, boolean stackTraces) {
+        this.logger = logger;
+        this.intervalNanos = interval.toNanos();
+        this.stackTraces = stackTraces;
+    }
+
+    /**
+     * Log an error for the key unless one was already logged for it within the interval
+     *
+     * @param format SLF4J message pattern, only formatted when the line is actually written
+     */
+    public void error(String key, Throwable error, String format, Object... arguments) {
+        if (!logger.isErrorEnabled()) {
+            return;
+        }
+
+        long suppressed = windows.computeIfAbsent(key, k -> new Window()).tryAcquire(System.nanoTime(), intervalNanos);
+        if (suppressed < 0) {
+            return;
+        }
+
+        String message = MessageFormatter.arrayFormat(format, arguments).getMessage();
+        String cause = error != null
+                ? error.getClass().getSimpleName() + ": " + LogRedaction.redact(error.getMessage())
+                : null;
+        if (suppressed > 0) {
+            logger.error("{} [{}]: {} ({} similar errors suppressed)", message, key, cause, suppressed);
+        } else {
+            logger.error("{} [{}]: {}", message, key, cause);
+        }
+        if (error != null && (stackTraces || logger.isDebugEnabled())) {
+            if (stackTraces) {
+                logger.error("Stack trace of: {}", message, error);
+            } else {
+                logger.debug("Stack trace of: {}", message, error);
+            }
+        }
+    }
+
+    private static final class Window {
+
+        private long openedAt;
+        private boolean open;
+        private long suppressed;
+
+        /**
+         * @return the number of errors suppressed since the last written line, or -1 when this one is suppressed
+         */
+        private synchronized long tryAcquire(long now, long intervalNanos) {
+            if (open && now - openedAt < intervalNanos) {
+                suppressed++;
+                return -1;
+            }
+            long dropped = suppressed;
+            open = true;
+            openedAt = now;
+            suppressed = 0;
+            return dropped;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.lambton.fsdo.finalproject.logging;
+
+import ch.qos.logback.classic.pattern.MessageConverter;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+
+/**
+ * Logback %m converter that masks secrets, including in messages logged by third-party libraries
+ */
+public class RedactingMessageConverter extends MessageConverter {
+
+    @Override
+    public String convert(ILoggingEvent event) {
+        return LogRedaction.redact(super.convert(event));
+    }
+}
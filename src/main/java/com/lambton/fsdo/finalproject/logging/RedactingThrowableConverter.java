@@ -0,0 +1,15 @@
+package com.lambton.fsdo.finalproject.logging;
+
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import org.springframework.boot.logging.logback.ExtendedWhitespaceThrowableProxyConverter;
+
+/**
+ * Logback %wEx converter that masks secrets in exception messages of printed stack traces
+ */
+public class RedactingThrowableConverter extends ExtendedWhitespaceThrowableProxyConverter {
+
+    @Override
+    protected String throwableProxyToString(IThrowableProxy throwableProxy) {
+        return LogRedaction.redact(super.throwableProxyToString(throwableProxy));
+    }
+}
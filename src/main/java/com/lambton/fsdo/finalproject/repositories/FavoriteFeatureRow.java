@@ -0,0 +1,13 @@
+package com.lambton.fsdo.finalproject.repositories;
+
+/**
+ * Attributes of one favorite that the recommendation profile is built from
+ */
+public interface FavoriteFeatureRow {
+
+    long getGenreMask();
+
+    Double getPopularity();
+
+    Double getVoteAverage();
+}
@@ -0,0 +1,122 @@
+package com.lambton.fsdo.finalproject.repositories;
+
+import com.lambton.fsdo.finalproject.entities.FavoriteMovie;
+import com.lambton.fsdo.finalproject.entities.FavoriteMovieId;
+import com.lambton.fsdo.finalproject.entities.Movie;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Per-user favorites. Every query is bounded by user_id. Hibernate creates the primary key as (tmdb_id, user_id),
+ * so per-user range scans use the idx_favorite_movies_user_* indexes, which lead with user_id; cost depends on the
+ * user's own favorites rather than the table size.
+ * Sort properties refer to {@link FavoriteMovie} (voteAverage, releaseDate, id.tmdbId).
+ * The listings are not query-cached: Hibernate would drop every user's cached results on any write to favorite_movies.
+ * Filtered listings are built from {@link FavoriteMovieSpecifications}.
+ */
+@Repository
+public interface FavoriteMovieRepository extends JpaRepository<FavoriteMovie, FavoriteMovieId>,
+        JpaSpecificationExecutor<FavoriteMovie> {
+
+    /**
+     * Find a user's favorite movies in the given order
+     */
+    @Query("SELECT m FROM FavoriteMovie f JOIN f.movie m WHERE f.id.userId = :userId")
+    List<Movie> findMoviesByUserId(Long userId, Sort sort);
+
+    /**
+     * Find one page of a user's favorite movies with the total count
+     */
+    @Query(value = "SELECT m FROM FavoriteMovie f JOIN f.movie m WHERE f.id.userId = :userId",
+            countQuery = "SELECT COUNT(f) FROM FavoriteMovie f WHERE f.id.userId = :userId")
+    Page<Movie> findMoviePageByUserId(Long userId, Pageable pageable);
+
+    /**
+     * Find a user's favorite movies by title containing search term (case insensitive)
+     */
+    @Query("SELECT m FROM FavoriteMovie f JOIN f.movie m WHERE f.id.userId = :userId " +
+            "AND LOWER(m.title) LIKE LOWER(CONCAT('%', :title, '%'))")
+    List<Movie> findMoviesByUserIdAndTitleContaining(Long userId, String title);
+
+    /**
+     * Find one page of a user's favorite movies by title containing search term (case insensitive),
+     * with the total count
+     */
+    @Query(value = "SELECT m FROM FavoriteMovie f JOIN f.movie m WHERE f.id.userId = :userId " +
+            "AND LOWER(m.title) LIKE LOWER(CONCAT('%', :title, '%'))",
+            countQuery = "SELECT COUNT(f) FROM FavoriteMovie f JOIN f.movie m WHERE f.id.userId = :userId " +
+                    "AND LOWER(m.title) LIKE LOWER(CONCAT('%', :title, '%'))")
+    Page<Movie> findMoviePageByUserIdAndTitleContaining(Long userId, String title, Pageable pageable);
+
+    /**
+     * Find a user's favorite movies with vote average greater than or equal to specified rating
+     */
+    @Query("SELECT m FROM FavoriteMovie f JOIN f.movie m WHERE f.id.userId = :userId " +
+            "AND f.voteAverage >= :minRating ORDER BY f.voteAverage DESC")
+    List<Movie> findMoviesByUserIdAndMinimumRating(Long userId, Double minRating);
+
+    /**
+     * Find which of the given TMDb IDs are in a user's favorites
+     */
+    @Query("SELECT f.id.tmdbId FROM FavoriteMovie f WHERE f.id.userId = :userId AND f.id.tmdbId IN :tmdbIds")
+    List<Long> findTmdbIdsByUserIdAndTmdbIdIn(Long userId, Collection<Long> tmdbIds);
+
+    /**
+     * Find the attributes aggregated by favorites statistics, for each of a user's favorites
+     */
+    @Query("SELECT f.voteAverage AS voteAverage, f.releaseDate AS releaseDate, m.language AS language " +
+            "FROM FavoriteMovie f JOIN f.movie m WHERE f.id.userId = :userId")
+    List<FavoriteStatsRow> findStatsRowsByUserId(Long userId);
+
+    /**
+     * Find the attributes the recommendation profile is built from, for each of a user's favorites
+     */
+    @Query("SELECT m.genreMask AS genreMask, m.popularity AS popularity, m.voteAverage AS voteAverage " +
+            "FROM FavoriteMovie f JOIN f.movie m WHERE f.id.userId = :userId")
+    List<FavoriteFeatureRow> findFeatureRowsByUserId(Long userId);
+
+    /**
+     * Delete the given favorites of a user with a single statement
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("DELETE FROM FavoriteMovie f WHERE f.id.userId = :userId AND f.id.tmdbId IN :tmdbIds")
+    int deleteByUserIdAndTmdbIdIn(Long userId, Collection<Long> tmdbIds);
+
+    /**
+     * Find which of the given (user, movie) keys are stored, across users
+     */
+    @Query("SELECT f.id FROM FavoriteMovie f WHERE f.id IN :ids")
+    List<FavoriteMovieId> findIdsByIdIn(Collection<FavoriteMovieId> ids);
+
+    /**
+     * Delete the favorites with the given (user, movie) keys, across users, with a single statement
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("DELETE FROM FavoriteMovie f WHERE f.id IN :ids")
+    int deleteByIdIn(Collection<FavoriteMovieId> ids);
+
+    /**
+     * Stream the keys of every favorite, for building in-memory indexes; must be consumed inside a transaction
+     */
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "10000"))
+    @Query("SELECT f.id FROM FavoriteMovie f")
+    Stream<FavoriteMovieId> streamAllIds();
+
+    /**
+     * Count a user's favorite movies
+     */
+    long countByIdUserId(Long userId);
+}
@@ -0,0 +1,82 @@
+package com.lambton.fsdo.finalproject.repositories;
+
+import com.lambton.fsdo.finalproject.entities.FavoriteMovie;
+import jakarta.persistence.criteria.Expression;
+import org.springframework.data.jpa.domain.Specification;
+
+/**
+ * Building blocks for filtered favorites queries. Only the filters that are set become predicates,
+ * so the database sees e.g. "user_id = ? AND language = ? AND release_year BETWEEN ? AND ?"
+ * and can pick the matching (user_id, ...) index, instead of "? IS NULL OR ..." which it cannot.
+ */
+public final class FavoriteMovieSpecifications {
+
+    private FavoriteMovieSpecifications() {
+    }
+
+    /**
+     * Favorites of a user, with their movie fetched in the same query (not for count queries)
+     */
+    public static Specification<FavoriteMovie> ofUser(Long userId) {
+        return (root, query, cb) -> {
+            if (query != null && query.getResultType() != Long.class && query.getResultType() != long.class) {
+                root.fetch("movie");
+            }
+            return cb.equal(root.get("id").get("userId"), userId);
+        };
+    }
+
+    public static Specification<FavoriteMovie> hasLanguage(String language) {
+        return (root, query, cb) -> cb.equal(root.get("language"), language);
+    }
+
+    public static Specification<FavoriteMovie> releasedFrom(int year) {
+        return (root, query, cb) -> cb.greaterThanOrEqualTo(root.get("releaseYear"), year);
+    }
+
+    public static Specification<FavoriteMovie> releasedUntil(int year) {
+        return (root, query, cb) -> cb.lessThanOrEqualTo(root.get("releaseYear"), year);
+    }
+
+    /**
+     * Favorites having every genre of the mask; evaluated on the rows the other predicates' index range yields
+     */
+    public static Specification<FavoriteMovie> hasGenres(long genreMask) {
+        return (root, query, cb) -> cb.equal(
+                cb.function("BITAND", Long.class, root.get("genreMask"), cb.literal(genreMask)), genreMask);
+    }
+
+    public static Specification<FavoriteMovie> minimumRating(double rating) {
+        return (root, query, cb) -> cb.greaterThanOrEqualTo(root.get("voteAverage"), rating);
+    }
+
+    // Keyset pages in "property DESC, tmdb_id" order, favorites with no value for the property last. Favorites with
+    // a value and those without are read as two runs, since an "OR property IS NULL" would keep the database from
+    // starting at the position in the per-user index.
+
+    public static Specification<FavoriteMovie> hasValue(String property) {
+        return (root, query, cb) -> cb.isNotNull(root.get(property));
+    }
+
+    /**
+     * Favorites ranked after the given position among those with a value for the property. The leading
+     * "property <= value" bounds the per-user index range, so the page starts where the previous one ended.
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    public static Specification<FavoriteMovie> rankedAfter(String property, Comparable value, Long tmdbId) {
+        return (root, query, cb) -> {
+            Expression<Comparable> key = root.get(property);
+            return cb.and(cb.lessThanOrEqualTo(key, value),
+                    cb.or(cb.lessThan(key, value), cb.greaterThan(root.get("id").get("tmdbId"), tmdbId)));
+        };
+    }
+
+    /**
+     * Favorites with no value for the property, after the given TMDb ID if it is not null
+     */
+    public static Specification<FavoriteMovie> lacksValueAfter(String property, Long tmdbId) {
+        return (root, query, cb) -> tmdbId == null
+                ? cb.isNull(root.get(property))
+                : cb.and(cb.isNull(root.get(property)), cb.greaterThan(root.get("id").get("tmdbId"), tmdbId));
+    }
+}
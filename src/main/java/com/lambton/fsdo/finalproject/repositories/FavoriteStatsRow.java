@@ -0,0 +1,15 @@
+package com.lambton.fsdo.finalproject.repositories;
+
+import java.time.LocalDate;
+
+/**
+ * Attributes of one favorite that favorites statistics are aggregated over
+ */
+public interface FavoriteStatsRow {
+
+    Double getVoteAverage();
+
+    LocalDate getReleaseDate();
+
+    String getLanguage();
+}
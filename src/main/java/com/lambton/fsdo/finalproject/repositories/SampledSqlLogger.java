@@ -0,0 +1,38 @@
+package com.lambton.fsdo.finalproject.repositories;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Logs every n-th SQL statement Hibernate prepares, as a cheap stand-in for spring.jpa.show-sql
+ * where printing every statement would cost more than the query itself. The statement is never changed.
+ */
+public class SampledSqlLogger implements StatementInspector {
+
+    private static final Logger logger = LoggerFactory.getLogger(SampledSqlLogger.class);
+
+    private final long sampleRate;
+    private final AtomicLong statements = new AtomicLong();
+
+    /**
+     * @param sampleRate log one statement out of this many; 1 logs all of them
+     */
+    public SampledSqlLogger(long sampleRate) {
+        if (sampleRate <= 0) {
+            throw new IllegalArgumentException("sampleRate must be positive");
+        }
+        this.sampleRate = sampleRate;
+    }
+
+    @Override
+    public String inspect(String sql) {
+        long count = statements.incrementAndGet();
+        if (count % sampleRate == 0 && logger.isInfoEnabled()) {
+            logger.info("SQL #{} (1 in {}): {}", count, sampleRate, sql);
+        }
+        return sql;
+    }
+}
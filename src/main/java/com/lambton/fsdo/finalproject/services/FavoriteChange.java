@@ -0,0 +1,9 @@
+package com.lambton.fsdo.finalproject.services;
+
+/**
+ * Outcome of adding, removing or toggling one favorite. UNCHANGED means the favorite already was in the
+ * requested state; FAILED that the change could not be made, e.g. because TMDb had no details for a new movie.
+ */
+public enum FavoriteChange {
+    ADDED, REMOVED, UNCHANGED, FAILED
+}
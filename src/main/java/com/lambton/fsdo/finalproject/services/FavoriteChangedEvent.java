@@ -0,0 +1,34 @@
+package com.lambton.fsdo.finalproject.services;
+
+import com.lambton.fsdo.finalproject.entities.Movie;
+
+import java.io.Serializable;
+import java.time.LocalDate;
+
+/**
+ * Published by {@link MovieService} when a movie is added to or removed from a user's favorites.
+ * Carries the movie attributes aggregated by {@link FavoritesStatsService}, so listeners need no lookup.
+ * Listeners that mirror favorites state should react after commit, so a rolled back change is never seen.
+ * In clustered mode the event is relayed to the other nodes, where it is published again with {@code remote} set.
+ */
+public record FavoriteChangedEvent(Long userId, Long tmdbId, boolean added,
+                                   Double voteAverage, LocalDate releaseDate, String language,
+                                   boolean remote) implements Serializable {
+
+    public static FavoriteChangedEvent added(Long userId, Movie movie) {
+        return new FavoriteChangedEvent(userId, movie.getTmdbId(), true,
+                movie.getVoteAverage(), movie.getReleaseDate(), movie.getLanguage(), false);
+    }
+
+    public static FavoriteChangedEvent removed(Long userId, Movie movie) {
+        return new FavoriteChangedEvent(userId, movie.getTmdbId(), false,
+                movie.getVoteAverage(), movie.getReleaseDate(), movie.getLanguage(), false);
+    }
+
+    /**
+     * The same change, as received by another node
+     */
+    public FavoriteChangedEvent asRemote() {
+        return new FavoriteChangedEvent(userId, tmdbId, added, voteAverage, releaseDate, language, true);
+    }
+}
@@ -0,0 +1,9 @@
+package com.lambton.fsdo.finalproject.services;
+
+import java.util.List;
+
+/**
+ * Outcome of adding several movies to a user's favorites at once, in request order per list
+ */
+public record FavoritesBulkResult(List<Long> added, List<Long> alreadyExisting, List<Long> failed) {
+}
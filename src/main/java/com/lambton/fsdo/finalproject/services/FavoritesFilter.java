@@ -0,0 +1,17 @@
+package com.lambton.fsdo.finalproject.services;
+
+import com.lambton.fsdo.finalproject.entities.Genre;
+
+/**
+ * Optional filters over a user's favorites; null fields do not filter
+ */
+public record FavoritesFilter(String language, Integer yearFrom, Integer yearTo, Genre genre, Double minRating) {
+
+    public static FavoritesFilter none() {
+        return new FavoritesFilter(null, null, null, null, null);
+    }
+
+    public boolean isEmpty() {
+        return language == null && yearFrom == null && yearTo == null && genre == null && minRating == null;
+    }
+}
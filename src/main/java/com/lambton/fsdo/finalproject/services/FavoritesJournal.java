@@ -0,0 +1,221 @@
+package com.lambton.fsdo.finalproject.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of favorite changes that have not reached the database yet, kept as numbered segment
+ * files in one directory. Each write-behind flush starts a new segment, and the segments before it are
+ * deleted once the flush has committed, so the directory only ever holds unflushed changes.
+ * <p>
+ * A segment is a 4-byte magic number followed by fixed-size records:
+ * <pre>
+ * byte  added (1) or removed (0)
+ * long  user id
+ * long  TMDb id
+ * int   CRC32 of the 17 bytes above
+ * </pre>
+ * A record cut short by a crash fails its checksum; reading stops there, since nothing after it was
+ * acknowledged.
+ */
+final class FavoritesJournal implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(FavoritesJournal.class);
+
+    private static final int MAGIC = 0x46564A31; // "FVJ1"
+    private static final int RECORD_BYTES = 1 + 8 + 8 + 4;
+    private static final String PREFIX = "favorites-";
+    private static final String SUFFIX = ".journal";
+
+    private final Path directory;
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD_BYTES);
+    private final CRC32 crc = new CRC32();
+
+    private volatile FileChannel channel;
+    private long segment;
+    // Bytes appended and bytes known to be on disk, counted across segments
+    private volatile long written;
+    private volatile long synced;
+    private final Object syncLock = new Object();
+
+    private FavoritesJournal(Path directory, long firstSegment) throws IOException {
+        this.directory = directory;
+        this.segment = firstSegment - 1;
+        rotate();
+    }
+
+    /**
+     * Open the journal for appending in a segment after any existing ones; read those with {@link #replay} first
+     */
+    static FavoritesJournal open(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        List<Path> existing = segments(directory);
+        long next = existing.isEmpty() ? 1 : segmentNumber(existing.get(existing.size() - 1)) + 1;
+        return new FavoritesJournal(directory, next);
+    }
+
+    /**
+     * Read every change in the existing segments, oldest first
+     *
+     * @return the segments that were read, to delete once their changes are in the database
+     */
+    static List<Path> replay(Path directory, Consumer<Change> changes) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return List.of();
+        }
+        List<Path> segments = segments(directory);
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_BYTES);
+        CRC32 crc = new CRC32();
+        for (Path segment : segments) {
+            try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+                ByteBuffer magic = ByteBuffer.allocate(4);
+                if (readFully(channel, magic) < 4 || magic.getInt(0) != MAGIC) {
+                    logger.warn("Skipping favorites journal segment {} without a valid header", segment);
+                    continue;
+                }
+                while (true) {
+                    buffer.clear();
+                    int read = readFully(channel, buffer);
+                    if (read == 0) {
+                        break;
+                    }
+                    crc.reset();
+                    crc.update(buffer.array(), 0, RECORD_BYTES - 4);
+                    if (read < RECORD_BYTES || (int) crc.getValue() != buffer.getInt(RECORD_BYTES - 4)) {
+                        logger.warn("Favorites journal segment {} ends with a torn record at byte {}, ignoring the rest",
+                                segment, channel.position() - read);
+                        break;
+                    }
+                    changes.accept(new Change(buffer.getLong(1), buffer.getLong(9), buffer.get(0) == 1));
+                }
+            }
+        }
+        return segments;
+    }
+
+    /**
+     * Append a change; it reaches the operating system at once and the disk at the next {@link #sync}
+     *
+     * @return the position to pass to {@link #sync} to wait for this change to be on disk
+     */
+    synchronized long append(long userId, long tmdbId, boolean added) throws IOException {
+        record.clear();
+        record.put(added ? (byte) 1 : (byte) 0).putLong(userId).putLong(tmdbId);
+        crc.reset();
+        crc.update(record.array(), 0, RECORD_BYTES - 4);
+        record.putInt((int) crc.getValue());
+        record.flip();
+        while (record.hasRemaining()) {
+            channel.write(record);
+        }
+        written += RECORD_BYTES;
+        return written;
+    }
+
+    /**
+     * Wait until everything up to {@code position} is on disk. Callers arriving while a force is running
+     * wait for it and are usually covered by it, so concurrent appends share one fsync (group commit).
+     */
+    void sync(long position) throws IOException {
+        if (synced >= position) {
+            return;
+        }
+        synchronized (syncLock) {
+            if (synced >= position) {
+                return;
+            }
+            // Read after the check: a rotation forces and closes the old segment while holding syncLock
+            long target = written;
+            channel.force(false);
+            synced = target;
+        }
+    }
+
+    /**
+     * Continue in a new segment; the previous one is forced to disk and closed
+     *
+     * @return the number of the new segment; segments before it may be deleted once their changes are stored
+     */
+    synchronized long rotate() throws IOException {
+        if (channel != null) {
+            synchronized (syncLock) {
+                channel.force(false);
+                synced = written;
+                channel.close();
+            }
+        }
+        segment++;
+        Path path = directory.resolve(PREFIX + segment + SUFFIX);
+        channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        ByteBuffer magic = ByteBuffer.allocate(4).putInt(MAGIC).flip();
+        while (magic.hasRemaining()) {
+            channel.write(magic);
+        }
+        return segment;
+    }
+
+    /**
+     * Delete the segments numbered below {@code segment}
+     */
+    void deleteBefore(long segment) throws IOException {
+        for (Path path : segments(directory)) {
+            if (segmentNumber(path) < segment) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        synchronized (syncLock) {
+            channel.force(false);
+            synced = written;
+            channel.close();
+        }
+    }
+
+    private static List<Path> segments(Path directory) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            files.forEach(segments::add);
+        }
+        segments.sort((a, b) -> Long.compare(segmentNumber(a), segmentNumber(b)));
+        return segments;
+    }
+
+    private static long segmentNumber(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+
+    private static int readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    /**
+     * One journaled change
+     */
+    record Change(long userId, long tmdbId, boolean added) {
+    }
+}
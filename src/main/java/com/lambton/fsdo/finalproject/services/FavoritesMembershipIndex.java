@@ -0,0 +1,305 @@
+package com.lambton.fsdo.finalproject.services;
+
+import com.lambton.fsdo.finalproject.entities.FavoriteMovieId;
+import com.lambton.fsdo.finalproject.repositories.FavoriteMovieRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.roaringbitmap.RoaringBitmap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * In-memory copy of every user's favorite TMDb IDs, one compressed bitmap per user, so membership
+ * checks for cards and detail pages never reach the database.
+ * <p>
+ * The index is loaded from favorite_movies before the web server starts and then follows committed
+ * {@link FavoriteChangedEvent}s. Bitmaps are copy-on-write: a change replaces the user's bitmap, so
+ * readers never see one that is being modified and need no locking.
+ * Until loading has finished (or if it failed) {@link #isReady()} is false and callers ask the database.
+ * IDs a bitmap cannot hold (outside 0..Integer.MAX_VALUE) are never indexed; lookups for them go to the
+ * database.
+ * <p>
+ * Changes relayed from other nodes (clustered mode) are not applied as sent: two nodes' messages can arrive in
+ * another order than their changes committed in, so the favorite's committed state is read from the shared
+ * database instead.
+ */
+@Component
+@Lazy(false) // must load at startup even when lazy initialization is on, see afterSingletonsInstantiated
+public class FavoritesMembershipIndex implements SmartInitializingSingleton {
+
+    private static final Logger logger = LoggerFactory.getLogger(FavoritesMembershipIndex.class);
+
+    private static final int CHANGE_STRIPES = 64;
+
+    private final FavoriteMovieRepository favoriteMovieRepository;
+    private final TransactionTemplate readOnlyTransaction;
+    private final boolean enabled;
+
+    private volatile Map<Long, RoaringBitmap> favoritesByUser = new ConcurrentHashMap<>();
+    private final AtomicLong bitmapBytes = new AtomicLong();
+    private volatile boolean ready;
+
+    // Orders changes against the swap at the end of a reload; holds the changes committed while one runs
+    private final Object changeLock = new Object();
+    private List<FavoriteChangedEvent> changesDuringReload;
+    // Changes applied per stripe of users, so a relayed change can tell whether its database read is outdated
+    private final long[] appliedChanges = new long[CHANGE_STRIPES];
+
+    private final Timer lookupTimer;
+
+    public FavoritesMembershipIndex(FavoriteMovieRepository favoriteMovieRepository,
+                                    PlatformTransactionManager transactionManager,
+                                    MeterRegistry meterRegistry,
+                                    @Value("${favorites.index.enabled:true}") boolean enabled) {
+        this.favoriteMovieRepository = favoriteMovieRepository;
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.enabled = enabled;
+
+        this.lookupTimer = Timer.builder("favorites.index.lookup")
+                .description("Time spent answering favorites membership from the in-memory index")
+                .register(meterRegistry);
+        Gauge.builder("favorites.index.users", this, index -> index.favoritesByUser.size())
+                .description("Users with at least one favorite in the in-memory index")
+                .register(meterRegistry);
+        Gauge.builder("favorites.index.bytes", bitmapBytes, AtomicLong::get)
+                .description("Serialized size of the favorites bitmaps, excluding map overhead")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Load the index after all singletons exist and before the web server accepts requests
+     */
+    @Override
+    public void afterSingletonsInstantiated() {
+        if (!enabled) {
+            logger.info("Favorites membership index is disabled");
+            return;
+        }
+        reload();
+    }
+
+    /**
+     * Rebuild the index from the database in one streamed pass, e.g. after favorites were written
+     * bypassing {@link MovieService}. Lookups go to the database while it runs.
+     * <p>
+     * The rows are loaded into a new map that nothing else sees. Changes committed meanwhile are applied to
+     * the current map as usual and also queued; once the pass is done they are replayed onto the new map in
+     * commit order and the new map replaces the current one. A favorite removed after the pass read it, or
+     * added after the pass went by, therefore ends up as the table has it.
+     */
+    public synchronized void reload() {
+        ready = false;
+        synchronized (changeLock) {
+            changesDuringReload = new ArrayList<>();
+        }
+
+        long start = System.nanoTime();
+        try {
+            Map<Long, RoaringBitmap> loaded = new HashMap<>();
+            long rows = readOnlyTransaction.execute(status -> {
+                long count = 0;
+                try (Stream<FavoriteMovieId> ids = favoriteMovieRepository.streamAllIds()) {
+                    for (FavoriteMovieId id : (Iterable<FavoriteMovieId>) ids::iterator) {
+                        if (isIndexable(id.getTmdbId())) {
+                            loaded.computeIfAbsent(id.getUserId(), user -> new RoaringBitmap())
+                                    .add(id.getTmdbId().intValue());
+                            count++;
+                        }
+                    }
+                }
+                return count;
+            });
+
+            synchronized (changeLock) {
+                for (FavoriteChangedEvent event : changesDuringReload) {
+                    loaded.compute(event.userId(), (userId, current) -> changed(current, event));
+                }
+                long bytes = 0;
+                for (RoaringBitmap bitmap : loaded.values()) {
+                    bitmap.runOptimize();
+                    bytes += bitmap.getSizeInBytes();
+                }
+                favoritesByUser = new ConcurrentHashMap<>(loaded);
+                bitmapBytes.set(bytes);
+                changesDuringReload = null;
+                for (int stripe = 0; stripe < CHANGE_STRIPES; stripe++) {
+                    appliedChanges[stripe]++;
+                }
+                ready = true;
+
+                logger.info("Loaded favorites membership index: {} favorites of {} users, {} bytes in {} ms",
+                        rows, loaded.size(), bytes, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            }
+        } catch (Exception e) {
+            synchronized (changeLock) {
+                favoritesByUser = new ConcurrentHashMap<>();
+                bitmapBytes.set(0);
+                changesDuringReload = null;
+            }
+            logger.error("Could not load favorites membership index, falling back to database lookups", e);
+        }
+    }
+
+    /**
+     * Whether lookups can be answered from memory
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Check if a movie is in a user's favorites
+     */
+    public boolean contains(Long userId, Long tmdbId) {
+        if (!isIndexable(tmdbId)) {
+            return tmdbId != null && Boolean.TRUE.equals(readOnlyTransaction.execute(status ->
+                    favoriteMovieRepository.existsById(new FavoriteMovieId(userId, tmdbId))));
+        }
+        long start = System.nanoTime();
+        RoaringBitmap bitmap = favoritesByUser.get(userId);
+        boolean found = bitmap != null && bitmap.contains(tmdbId.intValue());
+        lookupTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return found;
+    }
+
+    /**
+     * Get the IDs among the given ones that are in a user's favorites
+     */
+    public Set<Long> retainFavorites(Long userId, Collection<Long> tmdbIds) {
+        long start = System.nanoTime();
+        RoaringBitmap bitmap = favoritesByUser.get(userId);
+        Set<Long> favorites = new HashSet<>();
+        List<Long> notIndexable = new ArrayList<>();
+        for (Long tmdbId : tmdbIds) {
+            if (!isIndexable(tmdbId)) {
+                if (tmdbId != null) {
+                    notIndexable.add(tmdbId);
+                }
+            } else if (bitmap != null && bitmap.contains(tmdbId.intValue())) {
+                favorites.add(tmdbId);
+            }
+        }
+        lookupTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        if (!notIndexable.isEmpty()) {
+            favorites.addAll(readOnlyTransaction.execute(status ->
+                    favoriteMovieRepository.findTmdbIdsByUserIdAndTmdbIdIn(userId, notIndexable)));
+        }
+        return favorites;
+    }
+
+    /**
+     * Apply a committed add or remove. Without a surrounding transaction the event is applied immediately.
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onFavoriteChanged(FavoriteChangedEvent event) {
+        if (!isIndexable(event.tmdbId())) {
+            return;
+        }
+        if (event.remote()) {
+            applyStored(event);
+            return;
+        }
+        synchronized (changeLock) {
+            apply(event);
+        }
+    }
+
+    /**
+     * Apply a change relayed from another node as the shared database has the favorite now. If a change of a
+     * user in the same stripe was applied while the row was read, it may be newer than the read, so the row is
+     * read again. When the database cannot be read the change is applied as sent.
+     */
+    private void applyStored(FavoriteChangedEvent event) {
+        int stripe = changeStripe(event.userId());
+        while (true) {
+            long before;
+            synchronized (changeLock) {
+                before = appliedChanges[stripe];
+            }
+            boolean stored;
+            try {
+                stored = Boolean.TRUE.equals(readOnlyTransaction.execute(status ->
+                        favoriteMovieRepository.existsById(new FavoriteMovieId(event.userId(), event.tmdbId()))));
+            } catch (Exception e) {
+                logger.warn("Could not read favorite {} of user {}, applying the relayed change as sent",
+                        event.tmdbId(), event.userId(), e);
+                synchronized (changeLock) {
+                    apply(event);
+                }
+                return;
+            }
+            synchronized (changeLock) {
+                if (appliedChanges[stripe] == before) {
+                    apply(new FavoriteChangedEvent(event.userId(), event.tmdbId(), stored, event.voteAverage(),
+                            event.releaseDate(), event.language(), true));
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Apply a change to the current map, and queue it for the new one while a reload runs. Called holding
+     * changeLock.
+     */
+    private void apply(FavoriteChangedEvent event) {
+        appliedChanges[changeStripe(event.userId())]++;
+        if (changesDuringReload != null) {
+            changesDuringReload.add(event);
+        }
+        favoritesByUser.compute(event.userId(), (userId, current) -> {
+            RoaringBitmap next = changed(current, event);
+            long previousBytes = current == null ? 0 : current.getSizeInBytes();
+            long nextBytes = next == null ? 0 : next.getSizeInBytes();
+            bitmapBytes.addAndGet(nextBytes - previousBytes);
+            return next;
+        });
+    }
+
+    /**
+     * Copy of a user's bitmap with the change applied, or null once it is empty
+     */
+    private static RoaringBitmap changed(RoaringBitmap current, FavoriteChangedEvent event) {
+        RoaringBitmap next = current == null ? new RoaringBitmap() : current.clone();
+        if (event.added()) {
+            next.add(event.tmdbId().intValue());
+        } else {
+            next.remove(event.tmdbId().intValue());
+        }
+        return next.isEmpty() ? null : next;
+    }
+
+    private static int changeStripe(Long userId) {
+        return (Long.hashCode(userId) & 0x7fffffff) % CHANGE_STRIPES;
+    }
+
+    /**
+     * Whether the index holds this ID. TMDb IDs fit in 32 bits, but an ID from a request or a row written
+     * elsewhere may not.
+     */
+    public static boolean isIndexable(Long tmdbId) {
+        return tmdbId != null && tmdbId >= 0 && tmdbId <= Integer.MAX_VALUE;
+    }
+}
@@ -0,0 +1,18 @@
+package com.lambton.fsdo.finalproject.services;
+
+import java.util.Map;
+
+/**
+ * Aggregates over a user's favorites. Rating buckets are keyed by their lower bound: 7 counts ratings in [7, 8).
+ * Movies without a rating, release date or language are counted in {@code count} but not in that breakdown.
+ */
+public record FavoritesStats(long count,
+                             Double averageRating,
+                             Map<String, Long> byLanguage,
+                             Map<Integer, Long> byReleaseYear,
+                             Map<Integer, Long> byRatingBucket) {
+
+    public static FavoritesStats empty() {
+        return new FavoritesStats(0, null, Map.of(), Map.of(), Map.of());
+    }
+}
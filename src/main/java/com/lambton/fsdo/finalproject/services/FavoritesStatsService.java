@@ -0,0 +1,221 @@
+package com.lambton.fsdo.finalproject.services;
+
+import com.lambton.fsdo.finalproject.repositories.FavoriteMovieRepository;
+import com.lambton.fsdo.finalproject.repositories.FavoriteStatsRow;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * Per-user favorites statistics kept as running aggregates. A user's aggregates are computed once from
+ * their favorites, then updated from each committed {@link FavoriteChangedEvent}; reads return a prebuilt
+ * immutable snapshot. Only recently used users are kept in memory.
+ * <p>
+ * Aggregates can drift when a change commits while they are being computed, so a scheduled job
+ * recomputes every cached user from the table and replaces the aggregates that differ.
+ */
+@Service
+public class FavoritesStatsService {
+
+    private static final Logger logger = LoggerFactory.getLogger(FavoritesStatsService.class);
+
+    private final FavoriteMovieRepository favoriteMovieRepository;
+    private final FavoritesWriteBehind writeBehind;
+    private final Map<Long, UserStats> statsByUser;
+
+    private final Counter corrections;
+    private final Timer reconcileTimer;
+
+    public FavoritesStatsService(FavoriteMovieRepository favoriteMovieRepository,
+                                 FavoritesWriteBehind writeBehind,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${favorites.stats.max-users:10000}") int maxUsers) {
+        this.favoriteMovieRepository = favoriteMovieRepository;
+        this.writeBehind = writeBehind;
+        this.statsByUser = Collections.synchronizedMap(new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, UserStats> eldest) {
+                return size() > maxUsers;
+            }
+        });
+
+        this.corrections = Counter.builder("favorites.stats.reconcile.corrections")
+                .description("Cached favorites statistics that differed from the table and were replaced")
+                .register(meterRegistry);
+        this.reconcileTimer = Timer.builder("favorites.stats.reconcile")
+                .description("Time spent reconciling cached favorites statistics with the table")
+                .register(meterRegistry);
+        meterRegistry.gauge("favorites.stats.users", statsByUser, Map::size);
+    }
+
+    /**
+     * Get a user's favorites statistics; computed from the table only when the user is not cached
+     */
+    public FavoritesStats getStats(Long userId) {
+        UserStats cached = statsByUser.get(userId);
+        if (cached != null) {
+            return cached.snapshot;
+        }
+
+        UserStats loaded = new UserStats(compute(userId));
+        UserStats existing = statsByUser.putIfAbsent(userId, loaded);
+        return existing != null ? existing.snapshot : loaded.snapshot;
+    }
+
+    /**
+     * Apply a committed add or remove to the user's aggregates, if they are cached
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onFavoriteChanged(FavoriteChangedEvent event) {
+        UserStats stats = statsByUser.get(event.userId());
+        if (stats == null) {
+            return;
+        }
+        synchronized (stats) {
+            stats.aggregate.apply(event.voteAverage(), event.releaseDate(), event.language(), event.added() ? 1 : -1);
+            stats.snapshot = stats.aggregate.toStats();
+            stats.changes++;
+        }
+    }
+
+    /**
+     * Recompute every cached user from the table and replace the aggregates that drifted.
+     * Users changed while being recomputed are left alone until the next run.
+     */
+    @Scheduled(fixedDelayString = "${favorites.stats.reconcile-interval:PT10M}",
+            initialDelayString = "${favorites.stats.reconcile-interval:PT10M}")
+    public void reconcile() {
+        // Changes still waiting in write-behind would otherwise look like drift
+        writeBehind.flush();
+        reconcileTimer.record(() -> {
+            List<Long> userIds;
+            synchronized (statsByUser) {
+                userIds = new ArrayList<>(statsByUser.keySet());
+            }
+
+            int corrected = 0;
+            for (Long userId : userIds) {
+                UserStats stats = statsByUser.get(userId);
+                if (stats == null) {
+                    continue;
+                }
+                long changesBefore;
+                synchronized (stats) {
+                    changesBefore = stats.changes;
+                }
+
+                Aggregate fresh = compute(userId);
+                synchronized (stats) {
+                    if (stats.changes == changesBefore && !stats.aggregate.equals(fresh)) {
+                        logger.warn("Favorites statistics of user {} drifted, replacing {} with {}",
+                                userId, stats.snapshot, fresh.toStats());
+                        stats.aggregate = fresh;
+                        stats.snapshot = fresh.toStats();
+                        stats.changes++;
+                        corrected++;
+                    }
+                }
+            }
+
+            corrections.increment(corrected);
+            logger.info("Reconciled favorites statistics of {} users, {} corrected", userIds.size(), corrected);
+        });
+    }
+
+    private Aggregate compute(Long userId) {
+        Aggregate aggregate = new Aggregate();
+        for (FavoriteStatsRow row : favoriteMovieRepository.findStatsRowsByUserId(userId)) {
+            aggregate.apply(row.getVoteAverage(), row.getReleaseDate(), row.getLanguage(), 1);
+        }
+        return aggregate;
+    }
+
+    private static final class UserStats {
+
+        private Aggregate aggregate;
+        private volatile FavoritesStats snapshot;
+        private long changes;
+
+        private UserStats(Aggregate aggregate) {
+            this.aggregate = aggregate;
+            this.snapshot = aggregate.toStats();
+        }
+    }
+
+    /**
+     * Mutable running totals; ratings are summed in thousandths so adds and removes cancel out exactly
+     */
+    private static final class Aggregate {
+
+        private long count;
+        private long ratedCount;
+        private long ratingThousandths;
+        private final Map<String, Long> byLanguage = new TreeMap<>();
+        private final Map<Integer, Long> byReleaseYear = new TreeMap<>();
+        private final Map<Integer, Long> byRatingBucket = new TreeMap<>();
+
+        private void apply(Double voteAverage, LocalDate releaseDate, String language, int delta) {
+            count += delta;
+            if (voteAverage != null) {
+                ratedCount += delta;
+                ratingThousandths += delta * Math.round(voteAverage * 1000);
+                adjust(byRatingBucket, (int) Math.min(9, Math.max(0, Math.floor(voteAverage))), delta);
+            }
+            if (releaseDate != null) {
+                adjust(byReleaseYear, releaseDate.getYear(), delta);
+            }
+            if (language != null) {
+                adjust(byLanguage, language, delta);
+            }
+        }
+
+        private static <K> void adjust(Map<K, Long> counts, K key, int delta) {
+            counts.merge(key, (long) delta, (current, change) -> current + change == 0 ? null : current + change);
+        }
+
+        private FavoritesStats toStats() {
+            Double averageRating = ratedCount > 0
+                    ? Math.round((double) ratingThousandths / ratedCount) / 1000.0
+                    : null;
+            return new FavoritesStats(count, averageRating,
+                    Collections.unmodifiableMap(new TreeMap<>(byLanguage)),
+                    Collections.unmodifiableMap(new TreeMap<>(byReleaseYear)),
+                    Collections.unmodifiableMap(new TreeMap<>(byRatingBucket)));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Aggregate that)) {
+                return false;
+            }
+            return count == that.count && ratedCount == that.ratedCount
+                    && ratingThousandths == that.ratingThousandths
+                    && byLanguage.equals(that.byLanguage)
+                    && byReleaseYear.equals(that.byReleaseYear)
+                    && byRatingBucket.equals(that.byRatingBucket);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(count, ratedCount, ratingThousandths, byLanguage, byReleaseYear, byRatingBucket);
+        }
+    }
+}
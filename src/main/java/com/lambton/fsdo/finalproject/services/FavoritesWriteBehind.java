@@ -0,0 +1,415 @@
+package com.lambton.fsdo.finalproject.services;
+
+import com.lambton.fsdo.finalproject.entities.FavoriteMovie;
+import com.lambton.fsdo.finalproject.entities.FavoriteMovieId;
+import com.lambton.fsdo.finalproject.entities.Movie;
+import com.lambton.fsdo.finalproject.logging.RateLimitedLogger;
+import com.lambton.fsdo.finalproject.repositories.FavoriteMovieRepository;
+import com.lambton.fsdo.finalproject.repositories.MovieRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Write-behind mode for single favorite adds and removes (favorites.write-behind.enabled). A change is
+ * appended to the {@link FavoritesJournal} and kept in memory, and {@link MovieService} answers at once;
+ * the membership index, statistics and event streams follow the change through its event as usual.
+ * A background thread writes the accumulated changes to favorite_movies in one transaction per flush,
+ * every flush-interval or as soon as batch-size changes are waiting, so concurrent toggles share a commit.
+ * <p>
+ * How much an acknowledged change survives depends on the durability setting:
+ * <ul>
+ *     <li>{@code fsync}: the journal is forced to disk before the toggle returns (concurrent toggles share
+ *     one force); survives a crash of the process or the machine</li>
+ *     <li>{@code write}: the journal is written to the operating system; survives a crash of the process,
+ *     a power loss can drop up to one flush interval of changes</li>
+ *     <li>{@code memory}: no journal; a crash drops up to one flush interval of changes</li>
+ * </ul>
+ * Journal segments left by a crash are replayed into the database at startup, before the membership
+ * index loads. Reads that go to the database first wait for the user's pending changes to be written.
+ * Only one node can write behind, so startup fails when it is enabled together with clustered mode.
+ */
+@Component
+@Lazy(false) // must replay the journal at startup even when lazy initialization is on
+public class FavoritesWriteBehind implements InitializingBean, DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(FavoritesWriteBehind.class);
+
+    // Keys per IN list in a flush statement
+    private static final int STATEMENT_CHUNK = 500;
+
+    public enum Durability {
+        FSYNC, WRITE, MEMORY
+    }
+
+    private final FavoriteMovieRepository favoriteMovieRepository;
+    private final MovieRepository movieRepository;
+    private final TransactionTemplate flushTransaction;
+    private final boolean enabled;
+    private final Durability durability;
+    private final Path directory;
+    private final long flushIntervalNanos;
+    private final int batchSize;
+    private final RateLimitedLogger flushErrors;
+
+    private final Object appendLock = new Object();
+    // userId -> tmdbId -> added, net of the database as the running flush leaves it: toggling a movie back
+    // cancels the pending change, so adds are never for stored rows. Inner maps are guarded by appendLock.
+    private volatile Map<Long, Map<Long, Boolean>> pending = new ConcurrentHashMap<>();
+    // Changes taken by the running flush, or left by a failed one for the next
+    private volatile Map<Long, Map<Long, Boolean>> inFlight;
+    private final AtomicInteger pendingChanges = new AtomicInteger();
+    private volatile int inFlightChanges;
+
+    private FavoritesJournal journal;
+    private Thread flusher;
+    private volatile boolean running;
+
+    private final Timer flushTimer;
+    private final Counter flushedChanges;
+
+    public FavoritesWriteBehind(FavoriteMovieRepository favoriteMovieRepository,
+                                MovieRepository movieRepository,
+                                PlatformTransactionManager transactionManager,
+                                MeterRegistry meterRegistry,
+                                @Value("${favorites.write-behind.enabled:false}") boolean enabled,
+                                @Value("${favorites.write-behind.durability:fsync}") Durability durability,
+                                @Value("${favorites.write-behind.journal-dir:data/favorites-journal}") Path directory,
+                                @Value("${favorites.write-behind.flush-interval:PT0.2S}") Duration flushInterval,
+                                @Value("${favorites.write-behind.batch-size:1000}") int batchSize,
+                                @Value("${logging.error-rate-limit:PT1M}") Duration errorLogInterval,
+                                @Value("${cluster.enabled:false}") boolean clustered) {
+        if (enabled && clustered) {
+            // Other nodes would read a user's favorites from the database before this node has written them
+            throw new IllegalStateException("favorites.write-behind.enabled cannot be combined with cluster.enabled");
+        }
+        this.favoriteMovieRepository = favoriteMovieRepository;
+        this.movieRepository = movieRepository;
+        // Flushes may be triggered from inside a caller's read-only transaction
+        this.flushTransaction = new TransactionTemplate(transactionManager);
+        this.flushTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.enabled = enabled;
+        this.durability = durability;
+        this.directory = directory;
+        this.flushIntervalNanos = flushInterval.toNanos();
+        this.batchSize = batchSize;
+        this.flushErrors = new RateLimitedLogger(logger, errorLogInterval);
+
+        this.flushTimer = Timer.builder("favorites.write-behind.flush")
+                .description("Time spent writing a batch of favorite changes to the database")
+                .register(meterRegistry);
+        this.flushedChanges = Counter.builder("favorites.write-behind.flushed")
+                .description("Favorite changes written to the database by write-behind flushes")
+                .register(meterRegistry);
+        Gauge.builder("favorites.write-behind.pending", this, FavoritesWriteBehind::getPendingCount)
+                .description("Acknowledged favorite changes not yet written to the database")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Replay the journal left by the previous run, then start journaling and flushing
+     */
+    @Override
+    public void afterPropertiesSet() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        if (durability != Durability.MEMORY) {
+            recover();
+            journal = FavoritesJournal.open(directory);
+        }
+        running = true;
+        flusher = new Thread(this::runFlusher, "favorites-write-behind");
+        flusher.setDaemon(true);
+        flusher.start();
+        logger.info("Favorites write-behind enabled: durability {}, flush every {} ms or {} changes",
+                durability.name().toLowerCase(), TimeUnit.NANOSECONDS.toMillis(flushIntervalNanos), batchSize);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Record an add or remove that has already been checked against the user's current favorites.
+     * Returns once the change is as durable as the configured durability; the database is written later.
+     *
+     * @throws UncheckedIOException if the journal could not be written; the change is then not recorded
+     */
+    public void record(long userId, long tmdbId, boolean added) {
+        try {
+            long position = 0;
+            int waiting;
+            synchronized (appendLock) {
+                if (journal != null) {
+                    position = journal.append(userId, tmdbId, added);
+                }
+                waiting = addPending(userId, tmdbId, added);
+            }
+            if (durability == Durability.FSYNC) {
+                journal.sync(position);
+            }
+            if (waiting >= batchSize) {
+                LockSupport.unpark(flusher);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not journal favorite change", e);
+        }
+    }
+
+    /**
+     * Whether the user has changes that are not in the database yet
+     */
+    public boolean hasPending(long userId) {
+        // A flush publishes its batch as inFlight before it replaces pending, so reading pending first never
+        // misses changes that are moving from one to the other
+        if (pending.containsKey(userId)) {
+            return true;
+        }
+        Map<Long, Map<Long, Boolean>> flushing = inFlight;
+        return flushing != null && flushing.containsKey(userId);
+    }
+
+    /**
+     * Write the user's pending changes (with everyone else's) before their favorites are read from the database
+     */
+    public void awaitWritten(long userId) {
+        if (enabled && hasPending(userId)) {
+            flush();
+        }
+    }
+
+    /**
+     * Write every pending change to the database in one transaction. A failed flush keeps its changes and
+     * journal segments, and the next flush retries them together with newer changes.
+     */
+    public synchronized void flush() {
+        Map<Long, Map<Long, Boolean>> batch;
+        boolean retrying;
+        long segment = 0;
+        synchronized (appendLock) {
+            Map<Long, Map<Long, Boolean>> retry = inFlight;
+            if (pending.isEmpty() && retry == null) {
+                return;
+            }
+            // A failed flush rolled back, so its changes still apply; overlaid with newer ones they are no
+            // longer net of the database, and are written with existence checks
+            retrying = retry != null;
+            batch = retrying ? merge(retry, pending) : pending;
+            inFlight = batch;
+            inFlightChanges = count(batch);
+            pending = new ConcurrentHashMap<>();
+            pendingChanges.set(0);
+            if (journal != null) {
+                try {
+                    segment = journal.rotate();
+                } catch (IOException e) {
+                    flushErrors.error("rotate", e, "Could not start a new favorites journal segment in {}", directory);
+                }
+            }
+        }
+
+        long start = System.nanoTime();
+        try {
+            int written = write(batch, retrying);
+            inFlight = null;
+            inFlightChanges = 0;
+            flushedChanges.increment(written);
+            if (segment > 0) {
+                journal.deleteBefore(segment);
+            }
+        } catch (IOException | RuntimeException e) {
+            flushErrors.error("flush", e, "Could not write {} favorite changes, retrying at the next flush",
+                    inFlightChanges);
+        } finally {
+            flushTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Changes waiting for the database; a movie toggled back and forth counts once, or not at all
+     */
+    public int getPendingCount() {
+        return pendingChanges.get() + inFlightChanges;
+    }
+
+    @Override
+    public void destroy() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(flusher);
+        try {
+            flusher.join(TimeUnit.NANOSECONDS.toMillis(flushIntervalNanos) + 10_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        if (journal != null) {
+            journal.close();
+            if (getPendingCount() == 0) {
+                journal.deleteBefore(Long.MAX_VALUE);
+            } else {
+                logger.warn("{} favorite changes could not be written at shutdown; they stay in {} for the next start",
+                        getPendingCount(), directory);
+            }
+        }
+    }
+
+    private void runFlusher() {
+        while (running) {
+            LockSupport.parkNanos(this, flushIntervalNanos);
+            if (pendingChanges.get() > 0 || inFlight != null) {
+                flush();
+            }
+        }
+    }
+
+    /**
+     * Apply the journal segments of the previous run and delete them; startup fails if they cannot be
+     * written, rather than dropping acknowledged changes
+     */
+    private void recover() throws IOException {
+        Map<Long, Map<Long, Boolean>> changes = new LinkedHashMap<>();
+        int[] records = new int[1];
+        List<Path> segments = FavoritesJournal.replay(directory, change -> {
+            changes.computeIfAbsent(change.userId(), user -> new HashMap<>()).put(change.tmdbId(), change.added());
+            records[0]++;
+        });
+        if (!changes.isEmpty()) {
+            long start = System.nanoTime();
+            // The last segments may hold a flush that committed just before the crash
+            int written = write(changes, true);
+            logger.info("Replayed {} journaled favorite changes ({} after merging) in {} ms",
+                    records[0], written, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+        for (Path segment : segments) {
+            Files.deleteIfExists(segment);
+        }
+    }
+
+    /**
+     * Bring favorite_movies in line with the changes in one transaction, in chunks of statements over
+     * (user, movie) keys so the cost does not grow with the number of users in the batch
+     *
+     * @param checkExisting whether adds may already be stored (replayed or retried changes) and are only
+     *                      inserted where the row is missing
+     * @return the number of changes applied
+     */
+    private int write(Map<Long, Map<Long, Boolean>> changes, boolean checkExisting) {
+        List<FavoriteMovieId> adds = new ArrayList<>();
+        List<FavoriteMovieId> removes = new ArrayList<>();
+        changes.forEach((userId, userChanges) -> userChanges.forEach((tmdbId, added) ->
+                (added ? adds : removes).add(new FavoriteMovieId(userId, tmdbId))));
+
+        return flushTransaction.execute(status -> {
+            for (List<FavoriteMovieId> chunk : chunks(removes)) {
+                favoriteMovieRepository.deleteByIdIn(chunk);
+            }
+
+            Set<FavoriteMovieId> existing = new HashSet<>();
+            if (checkExisting) {
+                for (List<FavoriteMovieId> chunk : chunks(adds)) {
+                    existing.addAll(favoriteMovieRepository.findIdsByIdIn(chunk));
+                }
+            }
+            // Loaded after the deletes, which clear the persistence context
+            Map<Long, Movie> movies = new HashMap<>();
+            movieRepository.findAllById(adds.stream().map(FavoriteMovieId::getTmdbId).distinct().toList())
+                    .forEach(movie -> movies.put(movie.getTmdbId(), movie));
+            List<FavoriteMovie> rows = new ArrayList<>();
+            for (FavoriteMovieId id : adds) {
+                Movie movie = movies.get(id.getTmdbId());
+                if (movie == null) {
+                    logger.warn("Dropping favorite of user {} for movie {}, which is no longer stored",
+                            id.getUserId(), id.getTmdbId());
+                } else if (!existing.contains(id)) {
+                    rows.add(new FavoriteMovie(id.getUserId(), movie));
+                }
+            }
+            favoriteMovieRepository.saveAll(rows);
+            return adds.size() + removes.size();
+        });
+    }
+
+    /**
+     * Record a change in the pending map, cancelling a pending change of the same movie in the other
+     * direction
+     *
+     * @return the number of pending changes afterwards
+     */
+    private int addPending(long userId, long tmdbId, boolean added) {
+        Map<Long, Boolean> userChanges = pending.computeIfAbsent(userId, user -> new HashMap<>());
+        Boolean previous = userChanges.put(tmdbId, added);
+        if (previous == null) {
+            return pendingChanges.incrementAndGet();
+        }
+        if (previous != added) {
+            userChanges.remove(tmdbId);
+            if (userChanges.isEmpty()) {
+                pending.remove(userId);
+            }
+            return pendingChanges.decrementAndGet();
+        }
+        return pendingChanges.get();
+    }
+
+    private static List<List<FavoriteMovieId>> chunks(List<FavoriteMovieId> ids) {
+        List<List<FavoriteMovieId>> chunks = new ArrayList<>();
+        for (int from = 0; from < ids.size(); from += STATEMENT_CHUNK) {
+            chunks.add(ids.subList(from, Math.min(ids.size(), from + STATEMENT_CHUNK)));
+        }
+        return chunks;
+    }
+
+    /**
+     * Older changes overlaid with newer ones; the last change to a movie wins
+     */
+    private static Map<Long, Map<Long, Boolean>> merge(Map<Long, Map<Long, Boolean>> older,
+                                                       Map<Long, Map<Long, Boolean>> newer) {
+        Map<Long, Map<Long, Boolean>> merged = new ConcurrentHashMap<>(older);
+        newer.forEach((userId, changes) -> merged.merge(userId, changes, (a, b) -> {
+            Map<Long, Boolean> both = new HashMap<>(a);
+            both.putAll(b);
+            return both;
+        }));
+        return merged;
+    }
+
+    private static int count(Map<Long, Map<Long, Boolean>> changes) {
+        int count = 0;
+        for (Map<Long, Boolean> userChanges : changes.values()) {
+            count += userChanges.size();
+        }
+        return count;
+    }
+}
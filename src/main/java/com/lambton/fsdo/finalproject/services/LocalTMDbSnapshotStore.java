@@ -0,0 +1,51 @@
+package com.lambton.fsdo.finalproject.services;
+
+import com.lambton.fsdo.finalproject.entities.TMDbSnapshot;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Snapshots held by this JVM only. Concurrent refreshes are already collapsed by {@link TMDbService},
+ * so a refresh simply runs.
+ */
+public class LocalTMDbSnapshotStore implements TMDbSnapshotStore {
+
+    private final Map<String, TMDbSnapshot> snapshots = new ConcurrentHashMap<>();
+    private final int maxEntries;
+
+    public LocalTMDbSnapshotStore(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    @Override
+    public TMDbSnapshot get(String key) {
+        return snapshots.get(key);
+    }
+
+    @Override
+    public void put(String key, TMDbSnapshot snapshot) {
+        snapshots.put(key, snapshot);
+        if (snapshots.size() > maxEntries) {
+            // Search keys are unbounded, so drop the oldest entries once the cache is over capacity
+            snapshots.entrySet().stream()
+                    .sorted(Comparator.comparingLong(entry -> entry.getValue().getFetchedAt()))
+                    .limit(snapshots.size() - maxEntries)
+                    .map(Map.Entry::getKey)
+                    .toList()
+                    .forEach(snapshots::remove);
+        }
+    }
+
+    @Override
+    public Map<String, TMDbSnapshot> entries() {
+        return Map.copyOf(snapshots);
+    }
+
+    @Override
+    public TMDbSnapshot refresh(String key, Supplier<TMDbSnapshot> refresh) {
+        return refresh.get();
+    }
+}
@@ -0,0 +1,133 @@
+package com.lambton.fsdo.finalproject.services;
+
+import com.lambton.fsdo.finalproject.entities.Movie;
+import com.lambton.fsdo.finalproject.entities.TMDbMovieDto;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.stereotype.Service;
+import org.thymeleaf.context.Context;
+import org.thymeleaf.spring6.SpringTemplateEngine;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Renders the movie card fragment and caches the markup per (tmdbId, favorite state),
+ * so a card shown on several pages or to many visitors is only rendered once.
+ */
+@Service
+public class MovieCardRenderer {
+
+    private static final String CARD_TEMPLATE = "fragments/movie-card";
+    private static final Set<String> CARD_SELECTOR = Set.of("card");
+
+    private final SpringTemplateEngine templateEngine;
+    private final boolean cacheEnabled;
+    private final Map<String, CachedCard> cache;
+
+    private final Timer renderTimer;
+    private final Counter cacheHits;
+    private final Counter cacheMisses;
+
+    public MovieCardRenderer(SpringTemplateEngine templateEngine,
+                             MeterRegistry meterRegistry,
+                             @Value("${movie.card-cache.enabled:false}") boolean cacheEnabled,
+                             @Value("${movie.card-cache.max-entries:5000}") int maxEntries) {
+        this.templateEngine = templateEngine;
+        this.cacheEnabled = cacheEnabled;
+        this.cache = Collections.synchronizedMap(new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedCard> eldest) {
+                return size() > maxEntries;
+            }
+        });
+
+        this.renderTimer = Timer.builder("movie.card.render")
+                .description("Time spent rendering the movie card fragment")
+                .register(meterRegistry);
+        this.cacheHits = Counter.builder("movie.card.cache")
+                .tag("result", "hit")
+                .register(meterRegistry);
+        this.cacheMisses = Counter.builder("movie.card.cache")
+                .tag("result", "miss")
+                .register(meterRegistry);
+        meterRegistry.gauge("movie.card.cache.size", cache, Map::size);
+    }
+
+    /**
+     * Render the card of a TMDb movie with its favorite toggle button
+     */
+    public String renderTmdbCard(TMDbMovieDto movie, Collection<Long> favoriteIds, String imageBaseUrl) {
+        boolean favorite = favoriteIds != null && favoriteIds.contains(movie.getId());
+        CardContent content = new CardContent(movie.getId(), movie.getTitle(), movie.getPosterPath(),
+                movie.getVoteAverage(), movie.getReleaseDate(), movie.getOverview(), favorite, false, imageBaseUrl);
+        return render(content);
+    }
+
+    /**
+     * Render the card of a favorite movie with its remove button
+     */
+    public String renderFavoriteCard(Movie movie, String imageBaseUrl) {
+        CardContent content = new CardContent(movie.getTmdbId(), movie.getTitle(), movie.getPosterPath(),
+                movie.getVoteAverage(), movie.getReleaseDate(), movie.getOverview(), true, true, imageBaseUrl);
+        return render(content);
+    }
+
+    /**
+     * Drop every cached card, e.g. after the fragment template has changed
+     */
+    public void clearCache() {
+        cache.clear();
+    }
+
+    private String render(CardContent content) {
+        if (!cacheEnabled) {
+            return renderTimer.record(() -> process(content));
+        }
+
+        Locale locale = LocaleContextHolder.getLocale();
+        String key = content.movieId() + ":" + content.favorite() + ":" + content.removable() + ":" + locale;
+
+        // The key only identifies the card; a changed title or rating replaces the stale entry
+        CachedCard cached = cache.get(key);
+        if (cached != null && cached.content().equals(content)) {
+            cacheHits.increment();
+            return cached.html();
+        }
+
+        cacheMisses.increment();
+        String html = renderTimer.record(() -> process(content));
+        cache.put(key, new CachedCard(content, html));
+        return html;
+    }
+
+    private String process(CardContent content) {
+        Context context = new Context(LocaleContextHolder.getLocale());
+        context.setVariable("movieId", content.movieId());
+        context.setVariable("title", content.title());
+        context.setVariable("posterPath", content.posterPath());
+        context.setVariable("voteAverage", content.voteAverage());
+        context.setVariable("releaseDate", content.releaseDate());
+        context.setVariable("overview", content.overview());
+        context.setVariable("favorite", content.favorite());
+        context.setVariable("removable", content.removable());
+        context.setVariable("imageBaseUrl", content.imageBaseUrl());
+        return templateEngine.process(CARD_TEMPLATE, CARD_SELECTOR, context);
+    }
+
+    private record CardContent(Long movieId, String title, String posterPath, Double voteAverage,
+                               LocalDate releaseDate, String overview, boolean favorite, boolean removable,
+                               String imageBaseUrl) {
+    }
+
+    private record CachedCard(CardContent content, String html) {
+    }
+}
@@ -0,0 +1,585 @@
+package com.lambton.fsdo.finalproject.services;
+
+import com.lambton.fsdo.finalproject.entities.TMDbMovieDto;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Every TMDb movie this node has seen in a list, search or detail response, kept compact enough to hold
+ * hundreds of thousands of them.
+ * <p>
+ * As a {@link TMDbMovieDto} a movie is about 15 objects (boxed numbers, a LocalDate, a genre list and six Strings)
+ * and roughly 900 bytes of heap. Here it is one row across primitive column arrays, about 60 bytes of heap and no
+ * objects of its own. Its text is stored as UTF-8 in off-heap buffers, so the garbage collector never traces it.
+ * Language codes, genres and the directory and extension of image paths are replaced by dictionary codes.
+ * {@link #get} builds a DTO from a row when a caller needs one.
+ * <p>
+ * Rows are never removed; once {@code tmdb.catalogue.max-movies} is reached, movies not yet in the catalogue are
+ * skipped and known ones are still updated.
+ */
+@Component
+public class MovieCatalogue {
+
+    private static final Logger logger = LoggerFactory.getLogger(MovieCatalogue.class);
+
+    private static final int INITIAL_CAPACITY = 1024;
+    // Text references pack a chunk index and an offset into one int
+    private static final int CHUNK_BITS = 20;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int MAX_CHUNKS = 1 << (31 - CHUNK_BITS);
+    private static final int MAX_DICTIONARY_SIZE = Short.MAX_VALUE;
+    // Up to eight genre codes (1-254) per row, one byte each; more than that is kept in a side map
+    private static final int MAX_PACKED_GENRES = 8;
+    private static final int MAX_GENRE_CODE = 254;
+    private static final long GENRES_OVERFLOW = -1L;
+
+    private static final int ADULT_SHIFT = 0;
+    private static final int VIDEO_SHIFT = 2;
+    private static final int GENRES_NULL = 1 << 4;
+
+    private static final int TITLE = 1;
+    private static final int ORIGINAL_TITLE = 1 << 1;
+    private static final int ORIGINAL_TITLE_SAME = 1 << 2;
+    private static final int OVERVIEW = 1 << 3;
+    private static final int POSTER = 1 << 4;
+    private static final int BACKDROP = 1 << 5;
+
+    private final int maxMovies;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Numeric columns; null is NaN, Integer.MIN_VALUE or -1
+    private long[] ids = new long[INITIAL_CAPACITY];
+    private double[] voteAverages = new double[INITIAL_CAPACITY];
+    private double[] popularities = new double[INITIAL_CAPACITY];
+    private int[] voteCounts = new int[INITIAL_CAPACITY];
+    private int[] releaseDays = new int[INITIAL_CAPACITY];
+    private short[] languages = new short[INITIAL_CAPACITY];
+    private byte[] flags = new byte[INITIAL_CAPACITY];
+    private long[] genres = new long[INITIAL_CAPACITY];
+    private int[] texts = new int[INITIAL_CAPACITY];
+    private int size;
+
+    // Open addressing from movie ID to row + 1; rows are never removed, so there are no tombstones
+    private int[] index = new int[INITIAL_CAPACITY * 2];
+
+    private final List<String> dictionary = new ArrayList<>();
+    private final Map<String, Integer> dictionaryCodes = new HashMap<>();
+    private final int[] genreIdsByCode = new int[MAX_GENRE_CODE + 1];
+    private final Map<Integer, Integer> genreCodes = new HashMap<>();
+    private final Map<Integer, List<Integer>> overflowGenres = new HashMap<>();
+
+    private List<ByteBuffer> chunks = new ArrayList<>();
+    private int chunkPosition = CHUNK_SIZE;
+    private long textBytes;
+    private long wastedTextBytes;
+    private byte[] scratch = new byte[4096];
+    private int scratchStart;
+
+    public MovieCatalogue(@Value("${tmdb.catalogue.max-movies:100000}") int maxMovies, MeterRegistry meterRegistry) {
+        this.maxMovies = maxMovies;
+        Gauge.builder("tmdb.catalogue.movies", this, MovieCatalogue::size)
+                .description("Movies in the TMDb catalogue")
+                .register(meterRegistry);
+        Gauge.builder("tmdb.catalogue.bytes", this, MovieCatalogue::heapBytes)
+                .description("Memory held by the TMDb catalogue")
+                .tag("area", "heap")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("tmdb.catalogue.bytes", this, MovieCatalogue::offHeapBytes)
+                .description("Memory held by the TMDb catalogue")
+                .tag("area", "off-heap")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Add or update movies, e.g. the content of a fresh TMDb snapshot
+     */
+    public void putAll(Collection<TMDbMovieDto> movies) {
+        lock.writeLock().lock();
+        try {
+            for (TMDbMovieDto movie : movies) {
+                if (movie != null && movie.getId() != null) {
+                    write(movie);
+                }
+            }
+            if (wastedTextBytes > CHUNK_SIZE && wastedTextBytes > textBytes / 2) {
+                compact();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * A new DTO with the catalogue's copy of a movie, or null when the movie has not been seen
+     */
+    public TMDbMovieDto get(long movieId) {
+        lock.readLock().lock();
+        try {
+            int row = find(movieId);
+            return row < 0 ? null : view(row);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Heap taken by the columns and the ID index, excluding the small dictionaries
+     */
+    public long heapBytes() {
+        lock.readLock().lock();
+        try {
+            long capacity = ids.length;
+            return capacity * (Long.BYTES * 2 + Double.BYTES * 2 + Integer.BYTES * 3 + Short.BYTES + 1)
+                    + (long) index.length * Integer.BYTES;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Off-heap buffers allocated for text, including unused space at the end of the last one
+     */
+    public long offHeapBytes() {
+        lock.readLock().lock();
+        try {
+            return chunks.stream().mapToLong(ByteBuffer::capacity).sum();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void write(TMDbMovieDto movie) {
+        long id = movie.getId();
+        int row = find(id);
+        int length = encodeText(movie);
+        if (length > CHUNK_SIZE) {
+            logger.debug("Movie {} has {} bytes of text and is not added to the catalogue", id, length);
+            return;
+        }
+
+        if (row < 0) {
+            if (size >= maxMovies || (chunkPosition + length > CHUNK_SIZE && chunks.size() >= MAX_CHUNKS)) {
+                return;
+            }
+            if (size == ids.length) {
+                grow();
+            }
+            row = size++;
+            ids[row] = id;
+            insertIndex(row);
+            texts[row] = appendText(length);
+        } else {
+            updateText(row, length);
+        }
+
+        voteAverages[row] = movie.getVoteAverage() != null ? movie.getVoteAverage() : Double.NaN;
+        popularities[row] = movie.getPopularity() != null ? movie.getPopularity() : Double.NaN;
+        voteCounts[row] = movie.getVoteCount() != null ? movie.getVoteCount() : Integer.MIN_VALUE;
+        releaseDays[row] = movie.getReleaseDate() != null ? (int) movie.getReleaseDate().toEpochDay() : Integer.MIN_VALUE;
+        languages[row] = (short) intern(movie.getOriginalLanguage());
+        int rowFlags = encodeBoolean(movie.getAdult()) << ADULT_SHIFT | encodeBoolean(movie.getVideo()) << VIDEO_SHIFT;
+        if (movie.getGenreIds() == null) {
+            rowFlags |= GENRES_NULL;
+        }
+        flags[row] = (byte) rowFlags;
+        genres[row] = encodeGenres(row, movie.getGenreIds());
+    }
+
+    private TMDbMovieDto view(int row) {
+        TMDbMovieDto movie = new TMDbMovieDto();
+        movie.setId(ids[row]);
+        movie.setVoteAverage(Double.isNaN(voteAverages[row]) ? null : voteAverages[row]);
+        movie.setPopularity(Double.isNaN(popularities[row]) ? null : popularities[row]);
+        movie.setVoteCount(voteCounts[row] == Integer.MIN_VALUE ? null : voteCounts[row]);
+        movie.setReleaseDate(releaseDays[row] == Integer.MIN_VALUE ? null : LocalDate.ofEpochDay(releaseDays[row]));
+        movie.setOriginalLanguage(languages[row] < 0 ? null : dictionary.get(languages[row]));
+        movie.setAdult(decodeBoolean(flags[row] >> ADULT_SHIFT));
+        movie.setVideo(decodeBoolean(flags[row] >> VIDEO_SHIFT));
+        movie.setGenreIds((flags[row] & GENRES_NULL) != 0 ? null : decodeGenres(row));
+        decodeText(row, movie);
+        return movie;
+    }
+
+    // ID index
+
+    private int find(long id) {
+        int mask = index.length - 1;
+        for (int slot = hash(id) & mask; index[slot] != 0; slot = (slot + 1) & mask) {
+            if (ids[index[slot] - 1] == id) {
+                return index[slot] - 1;
+            }
+        }
+        return -1;
+    }
+
+    private void insertIndex(int row) {
+        if (size * 2 > index.length) {
+            int[] rows = index;
+            index = new int[rows.length * 2];
+            for (int existing : rows) {
+                if (existing != 0 && existing - 1 != row) {
+                    placeInIndex(existing - 1);
+                }
+            }
+        }
+        placeInIndex(row);
+    }
+
+    private void placeInIndex(int row) {
+        int mask = index.length - 1;
+        int slot = hash(ids[row]) & mask;
+        while (index[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        index[slot] = row + 1;
+    }
+
+    private static int hash(long id) {
+        long mixed = id * 0x9E3779B97F4A7C15L;
+        return (int) (mixed ^ (mixed >>> 32));
+    }
+
+    private void grow() {
+        int capacity = (int) Math.min(maxMovies, Math.max(INITIAL_CAPACITY, ids.length + (ids.length >> 1)));
+        ids = Arrays.copyOf(ids, capacity);
+        voteAverages = Arrays.copyOf(voteAverages, capacity);
+        popularities = Arrays.copyOf(popularities, capacity);
+        voteCounts = Arrays.copyOf(voteCounts, capacity);
+        releaseDays = Arrays.copyOf(releaseDays, capacity);
+        languages = Arrays.copyOf(languages, capacity);
+        flags = Arrays.copyOf(flags, capacity);
+        genres = Arrays.copyOf(genres, capacity);
+        texts = Arrays.copyOf(texts, capacity);
+    }
+
+    // Dictionaries
+
+    /**
+     * Dictionary code of a repeated string, or -1 for null or once the dictionary is full
+     */
+    private int intern(String value) {
+        if (value == null) {
+            return -1;
+        }
+        Integer code = dictionaryCodes.get(value);
+        if (code == null) {
+            if (dictionary.size() >= MAX_DICTIONARY_SIZE) {
+                return -1;
+            }
+            code = dictionary.size();
+            dictionary.add(value);
+            dictionaryCodes.put(value, code);
+        }
+        return code;
+    }
+
+    private long encodeGenres(int row, List<Integer> genreIds) {
+        overflowGenres.remove(row);
+        if (genreIds == null) {
+            return 0L;
+        }
+        long packed = 0L;
+        if (genreIds.size() <= MAX_PACKED_GENRES) {
+            for (int i = 0; i < genreIds.size(); i++) {
+                int code = genreCode(genreIds.get(i));
+                if (code < 0) {
+                    packed = GENRES_OVERFLOW;
+                    break;
+                }
+                packed |= (long) code << (i * 8);
+            }
+        } else {
+            packed = GENRES_OVERFLOW;
+        }
+        if (packed == GENRES_OVERFLOW) {
+            overflowGenres.put(row, List.copyOf(genreIds));
+        }
+        return packed;
+    }
+
+    private int genreCode(Integer genreId) {
+        if (genreId == null) {
+            return -1;
+        }
+        Integer code = genreCodes.get(genreId);
+        if (code == null) {
+            if (genreCodes.size() >= MAX_GENRE_CODE) {
+                return -1;
+            }
+            code = genreCodes.size() + 1;
+            genreCodes.put(genreId, code);
+            genreIdsByCode[code] = genreId;
+        }
+        return code;
+    }
+
+    private List<Integer> decodeGenres(int row) {
+        long packed = genres[row];
+        if (packed == GENRES_OVERFLOW) {
+            return overflowGenres.get(row);
+        }
+        List<Integer> genreIds = new ArrayList<>(2);
+        for (; packed != 0; packed >>>= 8) {
+            genreIds.add(genreIdsByCode[(int) (packed & 0xFF)]);
+        }
+        return genreIds;
+    }
+
+    private static int encodeBoolean(Boolean value) {
+        return value == null ? 0 : value ? 2 : 1;
+    }
+
+    private static Boolean decodeBoolean(int bits) {
+        return switch (bits & 3) {
+            case 1 -> Boolean.FALSE;
+            case 2 -> Boolean.TRUE;
+            default -> null;
+        };
+    }
+
+    // Text records: varint length, presence bits, then each present field
+
+    /**
+     * Encode the text of a movie into the scratch buffer and return the record length
+     */
+    private int encodeText(TMDbMovieDto movie) {
+        String title = movie.getTitle();
+        String originalTitle = movie.getOriginalTitle();
+        int present = (title != null ? TITLE : 0)
+                | (originalTitle != null ? ORIGINAL_TITLE : 0)
+                | (originalTitle != null && originalTitle.equals(title) ? ORIGINAL_TITLE_SAME : 0)
+                | (movie.getOverview() != null ? OVERVIEW : 0)
+                | (movie.getPosterPath() != null ? POSTER : 0)
+                | (movie.getBackdropPath() != null ? BACKDROP : 0);
+
+        // Leave room for the length prefix, written once the body is known
+        int position = writeVarint(5, present);
+        if (title != null) {
+            position = writeString(position, title);
+        }
+        if ((present & ORIGINAL_TITLE) != 0 && (present & ORIGINAL_TITLE_SAME) == 0) {
+            position = writeString(position, originalTitle);
+        }
+        if (movie.getOverview() != null) {
+            position = writeString(position, movie.getOverview());
+        }
+        if (movie.getPosterPath() != null) {
+            position = writePath(position, movie.getPosterPath());
+        }
+        if (movie.getBackdropPath() != null) {
+            position = writePath(position, movie.getBackdropPath());
+        }
+
+        int bodyLength = position - 5;
+        int prefixLength = varintLength(bodyLength);
+        scratchStart = 5 - prefixLength;
+        writeVarint(scratchStart, bodyLength);
+        return prefixLength + bodyLength;
+    }
+
+    /**
+     * An image path such as /kqjL17yufvn9OVLyXYpvtyrFfak.jpg is stored as the codes of its directory and
+     * extension plus the unique part; a path the dictionary cannot take is stored whole
+     */
+    private int writePath(int position, String path) {
+        int nameStart = path.lastIndexOf('/') + 1;
+        int extensionStart = path.lastIndexOf('.');
+        if (extensionStart < nameStart) {
+            extensionStart = path.length();
+        }
+        int directory = intern(path.substring(0, nameStart));
+        int extension = intern(path.substring(extensionStart));
+        if (directory < 0 || extension < 0) {
+            position = writeVarint(position, 0);
+            position = writeVarint(position, 0);
+            return writeString(position, path);
+        }
+        position = writeVarint(position, directory + 1);
+        position = writeVarint(position, extension + 1);
+        return writeString(position, path.substring(nameStart, extensionStart));
+    }
+
+    private int writeString(int position, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        position = writeVarint(position, bytes.length);
+        ensureScratch(position + bytes.length);
+        System.arraycopy(bytes, 0, scratch, position, bytes.length);
+        return position + bytes.length;
+    }
+
+    private int writeVarint(int position, int value) {
+        ensureScratch(position + 5);
+        while ((value & ~0x7F) != 0) {
+            scratch[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        scratch[position++] = (byte) value;
+        return position;
+    }
+
+    private static int varintLength(int value) {
+        int length = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            length++;
+        }
+        return length;
+    }
+
+    private void ensureScratch(int length) {
+        if (length > scratch.length) {
+            scratch = Arrays.copyOf(scratch, Math.max(length, scratch.length * 2));
+        }
+    }
+
+    /**
+     * Copy the encoded record at the start of the scratch buffer to the end of the text buffers
+     */
+    private int appendText(int length) {
+        if (chunkPosition + length > CHUNK_SIZE) {
+            chunks.add(ByteBuffer.allocateDirect(CHUNK_SIZE));
+            chunkPosition = 0;
+        }
+        int chunk = chunks.size() - 1;
+        chunks.get(chunk).put(chunkPosition, scratch, scratchStart, length);
+        int reference = chunk << CHUNK_BITS | chunkPosition;
+        chunkPosition += length;
+        textBytes += length;
+        return reference;
+    }
+
+    /**
+     * Overwrite a row's record when the new one fits in its place, otherwise append it; unchanged text
+     * (the common case when a list is refetched) is left alone
+     */
+    private void updateText(int row, int length) {
+        ByteBuffer chunk = chunks.get(texts[row] >>> CHUNK_BITS);
+        int offset = texts[row] & (CHUNK_SIZE - 1);
+        int oldLength = recordLength(chunk, offset);
+        if (oldLength == length && chunk.slice(offset, length).equals(ByteBuffer.wrap(scratch, scratchStart, length))) {
+            return;
+        }
+        if (length <= oldLength) {
+            chunk.put(offset, scratch, scratchStart, length);
+            wastedTextBytes += oldLength - length;
+        } else if (chunkPosition + length <= CHUNK_SIZE || chunks.size() < MAX_CHUNKS) {
+            texts[row] = appendText(length);
+            wastedTextBytes += oldLength;
+        }
+    }
+
+    private static int recordLength(ByteBuffer chunk, int offset) {
+        int bodyLength = 0;
+        int prefixLength = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = chunk.get(offset + prefixLength++);
+            bodyLength |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return prefixLength + bodyLength;
+            }
+        }
+    }
+
+    private void decodeText(int row, TMDbMovieDto movie) {
+        ByteBuffer chunk = chunks.get(texts[row] >>> CHUNK_BITS);
+        int offset = texts[row] & (CHUNK_SIZE - 1);
+        int length = recordLength(chunk, offset);
+        byte[] record = new byte[length];
+        chunk.get(offset, record);
+
+        int[] position = {0};
+        readVarint(record, position);
+        int present = readVarint(record, position);
+        if ((present & TITLE) != 0) {
+            movie.setTitle(readString(record, position));
+        }
+        if ((present & ORIGINAL_TITLE_SAME) != 0) {
+            movie.setOriginalTitle(movie.getTitle());
+        } else if ((present & ORIGINAL_TITLE) != 0) {
+            movie.setOriginalTitle(readString(record, position));
+        }
+        if ((present & OVERVIEW) != 0) {
+            movie.setOverview(readString(record, position));
+        }
+        if ((present & POSTER) != 0) {
+            movie.setPosterPath(readPath(record, position));
+        }
+        if ((present & BACKDROP) != 0) {
+            movie.setBackdropPath(readPath(record, position));
+        }
+    }
+
+    private String readPath(byte[] record, int[] position) {
+        int directory = readVarint(record, position);
+        int extension = readVarint(record, position);
+        String name = readString(record, position);
+        if (directory == 0) {
+            return name;
+        }
+        return dictionary.get(directory - 1) + name + dictionary.get(extension - 1);
+    }
+
+    private static String readString(byte[] record, int[] position) {
+        int length = readVarint(record, position);
+        String value = new String(record, position[0], length, StandardCharsets.UTF_8);
+        position[0] += length;
+        return value;
+    }
+
+    private static int readVarint(byte[] bytes, int[] position) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = bytes[position[0]++];
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Rewrite all records into fresh buffers once updates have left too much unused space behind
+     */
+    private void compact() {
+        List<ByteBuffer> old = chunks;
+        chunks = new ArrayList<>();
+        chunkPosition = CHUNK_SIZE;
+        textBytes = 0;
+        wastedTextBytes = 0;
+        for (int row = 0; row < size; row++) {
+            ByteBuffer chunk = old.get(texts[row] >>> CHUNK_BITS);
+            int offset = texts[row] & (CHUNK_SIZE - 1);
+            int length = recordLength(chunk, offset);
+            ensureScratch(length);
+            chunk.get(offset, scratch, 0, length);
+            scratchStart = 0;
+            texts[row] = appendText(length);
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.lambton.fsdo.finalproject.services;
+
+import com.lambton.fsdo.finalproject.entities.Genre;
+import com.lambton.fsdo.finalproject.entities.TMDbMovieDto;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.LongPredicate;
+
+/**
+ * Unit-length feature vectors of a set of movies: one feature per genre, plus popularity and rating.
+ * Vectors are stored column by column, so scoring runs one multiply-add loop per feature over a
+ * contiguous float[]; the JIT compiles those loops to SIMD instructions, which it cannot do for a
+ * 21-element dot product per movie. Because all vectors are unit length, a score is the cosine similarity.
+ */
+public final class MovieFeatureMatrix {
+
+    public static final int DIMENSIONS = Genre.values().length + 2;
+
+    private static final int POPULARITY_FEATURE = DIMENSIONS - 2;
+    private static final int RATING_FEATURE = DIMENSIONS - 1;
+
+    // Popularity is log-scaled against this value, so one blockbuster does not flatten everything else
+    private static final double POPULARITY_SCALE = Math.log1p(1000);
+    private static final float POPULARITY_WEIGHT = 0.5f;
+    private static final float RATING_WEIGHT = 0.5f;
+
+    private final long[] movieIds;
+    private final float[][] columns;
+
+    private MovieFeatureMatrix(long[] movieIds, float[][] columns) {
+        this.movieIds = movieIds;
+        this.columns = columns;
+    }
+
+    public static MovieFeatureMatrix of(List<TMDbMovieDto> movies) {
+        int size = movies.size();
+        long[] movieIds = new long[size];
+        float[][] columns = new float[DIMENSIONS][size];
+        float[] vector = new float[DIMENSIONS];
+        for (int i = 0; i < size; i++) {
+            TMDbMovieDto movie = movies.get(i);
+            movieIds[i] = movie.getId();
+            encode(Genre.toMask(movie.getGenreIds()), movie.getPopularity(), movie.getVoteAverage(), vector);
+            for (int d = 0; d < DIMENSIONS; d++) {
+                columns[d][i] = vector[d];
+            }
+        }
+        return new MovieFeatureMatrix(movieIds, columns);
+    }
+
+    /**
+     * Write the unit-length feature vector of a movie into {@code out}
+     */
+    public static void encode(long genreMask, Double popularity, Double voteAverage, float[] out) {
+        Arrays.fill(out, 0f);
+        for (Genre genre : Genre.values()) {
+            if ((genreMask & genre.bit()) != 0) {
+                out[genre.ordinal()] = 1f;
+            }
+        }
+        if (popularity != null && popularity > 0) {
+            out[POPULARITY_FEATURE] = POPULARITY_WEIGHT * (float) Math.min(1.0, Math.log1p(popularity) / POPULARITY_SCALE);
+        }
+        if (voteAverage != null && voteAverage > 0) {
+            out[RATING_FEATURE] = RATING_WEIGHT * (float) Math.min(1.0, voteAverage / 10.0);
+        }
+        normalize(out);
+    }
+
+    /**
+     * Scale a vector to unit length in place; a zero vector stays zero
+     */
+    public static void normalize(float[] vector) {
+        double norm = 0;
+        for (float value : vector) {
+            norm += value * value;
+        }
+        if (norm > 0) {
+            float scale = (float) (1.0 / Math.sqrt(norm));
+            for (int d = 0; d < vector.length; d++) {
+                vector[d] *= scale;
+            }
+        }
+    }
+
+    public int size() {
+        return movieIds.length;
+    }
+
+    public long movieId(int index) {
+        return movieIds[index];
+    }
+
+    /**
+     * Cosine similarity of every movie with the profile, written into {@code scores}
+     */
+    public void score(float[] profile, float[] scores) {
+        int size = movieIds.length;
+        Arrays.fill(scores, 0, size, 0f);
+        for (int d = 0; d < DIMENSIONS; d++) {
+            float weight = profile[d];
+            if (weight == 0f) {
+                continue;
+            }
+            float[] column = columns[d];
+            for (int i = 0; i < size; i++) {
+                scores[i] += weight * column[i];
+            }
+        }
+    }
+
+    /**
+     * Indexes of the k best scoring movies, best first, skipping excluded movie IDs.
+     * Uses a k-sized min-heap, so the cost is O(n log k) and exclusion is only checked for heap candidates.
+     */
+    public int[] topK(float[] profile, int k, LongPredicate excluded) {
+        int size = movieIds.length;
+        float[] scores = new float[size];
+        score(profile, scores);
+
+        int capacity = Math.min(k, size);
+        float[] heapScores = new float[capacity];
+        int[] heapIndexes = new int[capacity];
+        int count = 0;
+
+        for (int i = 0; i < size; i++) {
+            float score = scores[i];
+            if (count == capacity && score <= heapScores[0]) {
+                continue;
+            }
+            if (excluded.test(movieIds[i])) {
+                continue;
+            }
+            if (count < capacity) {
+                heapScores[count] = score;
+                heapIndexes[count] = i;
+                siftUp(heapScores, heapIndexes, count++);
+            } else {
+                heapScores[0] = score;
+                heapIndexes[0] = i;
+                siftDown(heapScores, heapIndexes, count);
+            }
+        }
+
+        // Pop the min-heap from the back, so the result ends up best first
+        int[] result = new int[count];
+        for (int n = count; n > 0; n--) {
+            result[n - 1] = heapIndexes[0];
+            heapScores[0] = heapScores[n - 1];
+            heapIndexes[0] = heapIndexes[n - 1];
+            siftDown(heapScores, heapIndexes, n - 1);
+        }
+        return result;
+    }
+
+    private static void siftUp(float[] scores, int[] indexes, int position) {
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            if (scores[parent] <= scores[position]) {
+                return;
+            }
+            swap(scores, indexes, parent, position);
+            position = parent;
+        }
+    }
+
+    private static void siftDown(float[] scores, int[] indexes, int size) {
+        int position = 0;
+        while (true) {
+            int smallest = position;
+            int left = 2 * position + 1;
+            int right = left + 1;
+            if (left < size && scores[left] < scores[smallest]) {
+                smallest = left;
+            }
+            if (right < size && scores[right] < scores[smallest]) {
+                smallest = right;
+            }
+            if (smallest == position) {
+                return;
+            }
+            swap(scores, indexes, smallest, position);
+            position = smallest;
+        }
+    }
+
+    private static void swap(float[] scores, int[] indexes, int a, int b) {
+        float score = scores[a];
+        scores[a] = scores[b];
+        scores[b] = score;
+        int index = indexes[a];
+        indexes[a] = indexes[b];
+        indexes[b] = index;
+    }
+}
@@ -1,15 +1,48 @@
 package com.lambton.fsdo.finalproject.services;
 
+import com.lambton.fsdo.finalproject.diagnostics.RequestTimings;
+import com.lambton.fsdo.finalproject.entities.FavoriteMovie;
+import com.lambton.fsdo.finalproject.entities.FavoriteMovieId;
+import com.lambton.fsdo.finalproject.entities.Genre;
 import com.lambton.fsdo.finalproject.entities.Movie;
 import com.lambton.fsdo.finalproject.entities.TMDbMovieDto;
+import com.lambton.fsdo.finalproject.entities.TMDbSnapshot;
+import com.lambton.fsdo.finalproject.logging.RateLimitedLogger;
+import com.lambton.fsdo.finalproject.repositories.FavoriteMovieRepository;
+import com.lambton.fsdo.finalproject.repositories.FavoriteMovieSpecifications;
 import com.lambton.fsdo.finalproject.repositories.MovieRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
 
 @Service
 @Transactional
@@ -17,152 +50,719 @@ public class MovieService {
 
     private static final Logger logger = LoggerFactory.getLogger(MovieService.class);
 
+    private static final int FAVORITES_VERSION_STRIPES = 4096;
+    private static final int FAVORITE_LOCK_STRIPES = 1024;
+
     private final MovieRepository movieRepository;
+    private final FavoriteMovieRepository favoriteMovieRepository;
     private final TMDbService tmdbService;
+    private final FavoritesMembershipIndex favoritesIndex;
+    private final FavoritesWriteBehind writeBehind;
+    private final FavoritesStatsService favoritesStatsService;
+    private final RecommendationService recommendationService;
+    private final ApplicationEventPublisher eventPublisher;
+    private final RateLimitedLogger favoriteErrors;
+
+    @Value("${favorites.streaming.page-size:50}")
+    private int streamingPageSize;
 
-    public MovieService(MovieRepository movieRepository, TMDbService tmdbService) {
+    // Bumped after every favorites change commits; the boot id keeps versions from colliding across restarts
+    private final String favoritesBootId = Long.toHexString(ThreadLocalRandom.current().nextLong());
+    private final AtomicLongArray favoritesVersions = new AtomicLongArray(FAVORITES_VERSION_STRIPES);
+    private final ReentrantLock[] favoriteLocks = new ReentrantLock[FAVORITE_LOCK_STRIPES];
+    private final TransactionTemplate favoriteTransaction;
+
+    public MovieService(MovieRepository movieRepository, FavoriteMovieRepository favoriteMovieRepository,
+                        TMDbService tmdbService, FavoritesMembershipIndex favoritesIndex,
+                        FavoritesWriteBehind writeBehind,
+                        FavoritesStatsService favoritesStatsService, RecommendationService recommendationService,
+                        ApplicationEventPublisher eventPublisher, PlatformTransactionManager transactionManager,
+                        @Value("${logging.error-rate-limit:PT1M}") Duration errorLogInterval) {
         this.movieRepository = movieRepository;
+        this.favoriteMovieRepository = favoriteMovieRepository;
         this.tmdbService = tmdbService;
+        this.favoritesIndex = favoritesIndex;
+        this.writeBehind = writeBehind;
+        this.favoritesStatsService = favoritesStatsService;
+        this.recommendationService = recommendationService;
+        this.eventPublisher = eventPublisher;
+        this.favoriteErrors = new RateLimitedLogger(logger, errorLogInterval);
+        this.favoriteTransaction = new TransactionTemplate(transactionManager);
+        for (int i = 0; i < FAVORITE_LOCK_STRIPES; i++) {
+            favoriteLocks[i] = new ReentrantLock();
+        }
     }
 
+    // TMDb calls and in-memory lookups run outside a transaction: holding a pooled connection while TMDb is
+    // slow would leave none for the database-only routes
+
     /**
      * Get trending movies from TMDb API
      */
+    @Transactional(propagation = Propagation.SUPPORTS)
     public List<TMDbMovieDto> getTrendingMovies() {
-        logger.info("Fetching trending movies");
+        logger.debug("Fetching trending movies");
         return tmdbService.getTrendingMovies();
     }
 
     /**
      * Search movies using TMDb API
      */
+    @Transactional(propagation = Propagation.SUPPORTS)
     public List<TMDbMovieDto> searchMovies(String query) {
-        logger.info("Searching movies with query: {}", query);
+        logger.debug("Searching movies with query: {}", query);
         return tmdbService.searchMovies(query);
     }
 
     /**
      * Get movie details from TMDb API
      */
+    @Transactional(propagation = Propagation.SUPPORTS)
     public TMDbMovieDto getMovieDetails(Long movieId) {
-        logger.info("Fetching movie details for ID: {}", movieId);
+        logger.debug("Fetching movie details for ID: {}", movieId);
         return tmdbService.getMovieDetails(movieId);
     }
 
     /**
      * Get popular movies from TMDb API
      */
+    @Transactional(propagation = Propagation.SUPPORTS)
     public List<TMDbMovieDto> getPopularMovies() {
-        logger.info("Fetching popular movies");
+        logger.debug("Fetching popular movies");
         return tmdbService.getPopularMovies();
     }
 
     /**
      * Get now playing movies from TMDb API
      */
+    @Transactional(propagation = Propagation.SUPPORTS)
     public List<TMDbMovieDto> getNowPlayingMovies() {
-        logger.info("Fetching now playing movies");
+        logger.debug("Fetching now playing movies");
         return tmdbService.getNowPlayingMovies();
     }
 
     /**
-     * Add a movie to favorites
+     * Get the snapshot behind the trending page
+     */
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public TMDbSnapshot getTrendingSnapshot() {
+        return tmdbService.getTrendingSnapshot();
+    }
+
+    /**
+     * Get the snapshot behind the popular page
+     */
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public TMDbSnapshot getPopularSnapshot() {
+        return tmdbService.getPopularSnapshot();
+    }
+
+    /**
+     * Get the snapshot behind the now playing page
      */
-    public boolean addToFavorites(Long tmdbId) {
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public TMDbSnapshot getNowPlayingSnapshot() {
+        return tmdbService.getNowPlayingSnapshot();
+    }
+
+    /**
+     * Get the snapshot behind a search results page
+     */
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public TMDbSnapshot getSearchSnapshot(String query) {
+        return tmdbService.getSearchSnapshot(query);
+    }
+
+    /**
+     * Get the snapshot behind a movie detail page
+     */
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public TMDbSnapshot getMovieDetailsSnapshot(Long movieId) {
+        return tmdbService.getMovieDetailsSnapshot(movieId);
+    }
+
+    /**
+     * Get what climbed, entered, fell and dropped out between the latest two rankings of the trending or
+     * popular list
+     */
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public RankMovers getMovers(String list) {
+        return tmdbService.getMovers(list);
+    }
+
+    /**
+     * Get a movie's rank over the kept rankings of the trending or popular list
+     */
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public RankHistory.RankTrajectory getRankTrajectory(String list, Long movieId) {
+        return tmdbService.getRankTrajectory(list, movieId);
+    }
+
+    /**
+     * Get movies from the trending, popular and now playing lists that match a user's favorites, best first
+     */
+    @Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+    public List<TMDbMovieDto> getRecommendedMovies(Long userId, int limit) {
+        writeBehind.awaitWritten(userId);
+        return recommendationService.recommend(userId, limit);
+    }
+
+    /**
+     * Version of the movies recommendations are picked from; combine with the favorites version for an entity tag
+     */
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public String getRecommendationCandidatesVersion() {
+        return recommendationService.getCandidatesVersion();
+    }
+
+    /**
+     * Version of a user's favorites list, changed by every add and remove of that user.
+     * Counters are striped by user, so a change can also bump an unrelated user's version;
+     * that only costs them one full response instead of a 304.
+     */
+    @Transactional(propagation = Propagation.SUPPORTS)
+    public String getFavoritesVersion(Long userId) {
+        return favoritesBootId + "-" + favoritesVersions.get(versionStripe(userId));
+    }
+
+    /**
+     * Changes the user's favorites version once a change has committed, including changes made through another
+     * node (clustered mode). Bumped any earlier, a concurrent GET could pair the new version with the old rows
+     * and the browser would keep that page until the next change.
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public void onFavoriteChanged(FavoriteChangedEvent event) {
+        favoritesVersions.incrementAndGet(versionStripe(event.userId()));
+    }
+
+    /**
+     * Add a movie to a user's favorites. Movie metadata is fetched from TMDb only the first time any user
+     * adds the movie; afterwards the stored row is shared. In write-behind mode the favorite row is written
+     * by a later flush.
+     *
+     * @return false when the movie already was a favorite, or could not be added
+     * @see #addFavorite
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public boolean addToFavorites(Long userId, Long tmdbId) {
+        return addFavorite(userId, tmdbId) == FavoriteChange.ADDED;
+    }
+
+    /**
+     * Add a movie to a user's favorites, telling a favorite that already existed (UNCHANGED) from one that
+     * could not be added (FAILED)
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public FavoriteChange addFavorite(Long userId, Long tmdbId) {
+        ReentrantLock lock = favoriteLock(userId, tmdbId);
+        lock.lock();
         try {
-            if (movieRepository.existsByTmdbId(tmdbId)) {
-                logger.info("Movie with TMDb ID {} is already in favorites", tmdbId);
-                return false;
+            return add(userId, tmdbId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Remove a movie from a user's favorites; the shared movie metadata is kept
+     *
+     * @return false when the movie was not a favorite, or could not be removed
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public boolean removeFromFavorites(Long userId, Long tmdbId) {
+        ReentrantLock lock = favoriteLock(userId, tmdbId);
+        lock.lock();
+        try {
+            return remove(userId, tmdbId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Remove the movie from the user's favorites if it is one, add it otherwise. Concurrent toggles of the
+     * same favorite take turns, so two quick clicks add and then remove it.
+     *
+     * @return ADDED, REMOVED or FAILED
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public FavoriteChange toggleFavorite(Long userId, Long tmdbId) {
+        ReentrantLock lock = favoriteLock(userId, tmdbId);
+        lock.lock();
+        try {
+            if (isInFavorites(userId, tmdbId)) {
+                return remove(userId, tmdbId) ? FavoriteChange.REMOVED : FavoriteChange.FAILED;
+            }
+            FavoriteChange change = add(userId, tmdbId);
+            return change == FavoriteChange.ADDED ? change : FavoriteChange.FAILED;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Single adds, removes and toggles hold the favorite's lock from the membership check until the change has
+    // committed and its event has updated the index, so two requests for the same favorite cannot both pass the
+    // check. The lock is per node: across nodes the primary key rejects the second add, and the conditional
+    // delete lets only one remove count.
+
+    private FavoriteChange add(Long userId, Long tmdbId) {
+        try {
+            boolean writeBehindActive = useWriteBehind(userId, tmdbId);
+            boolean exists = writeBehindActive
+                    ? favoritesIndex.contains(userId, tmdbId)
+                    : favoriteMovieRepository.existsById(new FavoriteMovieId(userId, tmdbId));
+            if (exists) {
+                logger.debug("Movie with TMDb ID {} is already in favorites of user {}", tmdbId, userId);
+                return FavoriteChange.UNCHANGED;
+            }
+
+            Movie movie = storedMovie(tmdbId);
+            if (movie == null) {
+                return FavoriteChange.FAILED;
             }
 
-            TMDbMovieDto movieDto = tmdbService.getMovieDetails(tmdbId);
-            if (movieDto == null) {
-                logger.error("Could not fetch movie details for TMDb ID: {}", tmdbId);
-                return false;
+            if (writeBehindActive) {
+                writeBehind.record(userId, tmdbId, true);
+                eventPublisher.publishEvent(FavoriteChangedEvent.added(userId, movie));
+            } else {
+                favoriteTransaction.executeWithoutResult(status -> {
+                    // The movie was read outside this transaction; the L2 cache serves the managed copy.
+                    // Flushed here, so a row added concurrently through another node fails before the event
+                    Movie managed = movieRepository.findById(tmdbId).orElseThrow();
+                    favoriteMovieRepository.saveAndFlush(new FavoriteMovie(userId, managed));
+                    eventPublisher.publishEvent(FavoriteChangedEvent.added(userId, movie));
+                });
             }
 
-            Movie movie = convertToEntity(movieDto);
-            movieRepository.save(movie);
+            logger.debug("Added movie '{}' to favorites of user {}", movie.getTitle(), userId);
+            return FavoriteChange.ADDED;
 
-            logger.info("Added movie '{}' to favorites", movie.getTitle());
-            return true;
+        } catch (DataIntegrityViolationException e) {
+            logger.debug("Movie with TMDb ID {} was added to favorites of user {} concurrently", tmdbId, userId);
+            return FavoriteChange.UNCHANGED;
+        } catch (Exception e) {
+            favoriteErrors.error("addToFavorites", e, "Error adding movie to favorites with TMDb ID: {}", tmdbId);
+            return FavoriteChange.FAILED;
+        }
+    }
 
+    private boolean remove(Long userId, Long tmdbId) {
+        try {
+            if (useWriteBehind(userId, tmdbId)) {
+                Movie movie = favoritesIndex.contains(userId, tmdbId)
+                        ? movieRepository.findById(tmdbId).orElse(null)
+                        : null;
+                if (movie == null) {
+                    logger.debug("Movie with TMDb ID {} not found in favorites of user {}", tmdbId, userId);
+                    return false;
+                }
+                writeBehind.record(userId, tmdbId, false);
+                eventPublisher.publishEvent(FavoriteChangedEvent.removed(userId, movie));
+                logger.debug("Removed movie with TMDb ID {} from favorites of user {}", tmdbId, userId);
+                return true;
+            }
+
+            Boolean removed = favoriteTransaction.execute(status -> {
+                if (favoriteMovieRepository.deleteByUserIdAndTmdbIdIn(userId, List.of(tmdbId)) == 0) {
+                    return false;
+                }
+                Movie movie = movieRepository.findById(tmdbId).orElseThrow();
+                eventPublisher.publishEvent(FavoriteChangedEvent.removed(userId, movie));
+                return true;
+            });
+            if (Boolean.TRUE.equals(removed)) {
+                logger.debug("Removed movie with TMDb ID {} from favorites of user {}", tmdbId, userId);
+                return true;
+            }
+            logger.debug("Movie with TMDb ID {} not found in favorites of user {}", tmdbId, userId);
+            return false;
         } catch (Exception e) {
-            logger.error("Error adding movie to favorites with TMDb ID: {}", tmdbId, e);
+            favoriteErrors.error("removeFromFavorites", e, "Error removing movie from favorites with TMDb ID: {}",
+                    tmdbId);
             return false;
         }
     }
 
     /**
-     * Remove a movie from favorites
+     * The stored movie, created from TMDb details the first time any user adds it. Users adding a new movie at
+     * the same time may each insert it; the primary key keeps the first row and the others read it back.
+     *
+     * @return null when the movie is not stored and TMDb has no details for it
      */
-    public boolean removeFromFavorites(Long tmdbId) {
+    private Movie storedMovie(Long tmdbId) {
+        Movie movie = movieRepository.findById(tmdbId).orElse(null);
+        if (movie != null) {
+            return movie;
+        }
+        TMDbMovieDto movieDto = tmdbService.getMovieDetails(tmdbId);
+        if (movieDto == null) {
+            logger.warn("Could not fetch movie details for TMDb ID: {}", tmdbId);
+            return null;
+        }
+        return insertMovie(tmdbId, movieDto);
+    }
+
+    private Movie insertMovie(Long tmdbId, TMDbMovieDto movieDto) {
         try {
-            Optional<Movie> movieOpt = movieRepository.findByTmdbId(tmdbId);
-            if (movieOpt.isPresent()) {
-                movieRepository.delete(movieOpt.get());
-                logger.info("Removed movie '{}' from favorites", movieOpt.get().getTitle());
-                return true;
+            return favoriteTransaction.execute(status -> movieRepository.save(convertToEntity(movieDto)));
+        } catch (DataIntegrityViolationException e) {
+            logger.debug("Movie with TMDb ID {} was stored concurrently", tmdbId);
+            return movieRepository.findById(tmdbId).orElseThrow(() -> e);
+        }
+    }
+
+    /**
+     * Add several movies to a user's favorites. Existing favorites and stored metadata are found with one
+     * query each. Movies no user has added yet are fetched from TMDb first, outside any transaction, and
+     * stored in one batch. The favorite rows are then written in one transaction as JDBC batches
+     * (hibernate.jdbc.batch_size), holding the lock of every favorite as a single add does.
+     * A movie or favorite stored concurrently (e.g. through another node) fails the batch; the rows are then
+     * written one at a time, and only the conflicting ones are reported, as already stored or existing.
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public FavoritesBulkResult addAllToFavorites(Long userId, Collection<Long> tmdbIds) {
+        writeBehind.awaitWritten(userId);
+        Set<Long> requested = tmdbIds.stream()
+                .filter(Objects::nonNull)
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+        if (requested.isEmpty()) {
+            return new FavoritesBulkResult(List.of(), List.of(), List.of());
+        }
+
+        Set<Long> existing = findFavoriteIds(userId, requested);
+        List<Long> missing = requested.stream()
+                .filter(tmdbId -> !existing.contains(tmdbId))
+                .toList();
+
+        Map<Long, Movie> movies = new HashMap<>();
+        movieRepository.findAllById(missing).forEach(movie -> movies.put(movie.getTmdbId(), movie));
+
+        Map<Long, TMDbMovieDto> fetched = new LinkedHashMap<>();
+        Set<Long> failed = new HashSet<>();
+        for (Long tmdbId : missing) {
+            if (!movies.containsKey(tmdbId)) {
+                TMDbMovieDto movieDto = tmdbService.getMovieDetails(tmdbId);
+                if (movieDto == null) {
+                    logger.warn("Could not fetch movie details for TMDb ID: {}", tmdbId);
+                    failed.add(tmdbId);
+                } else {
+                    fetched.put(tmdbId, movieDto);
+                }
+            }
+        }
+        movies.putAll(insertMovies(fetched));
+        fetched.keySet().stream()
+                .filter(tmdbId -> !movies.containsKey(tmdbId))
+                .forEach(failed::add);
+
+        Set<Long> added = new HashSet<>();
+        List<ReentrantLock> locks = favoriteLocks(userId, movies.keySet());
+        locks.forEach(ReentrantLock::lock);
+        try {
+            // Checked again under the locks: a single add may have stored some of them meanwhile
+            Set<Long> addedMeanwhile = findFavoriteIds(userId, movies.keySet());
+            List<Movie> newFavorites = new ArrayList<>();
+            for (Long tmdbId : missing) {
+                Movie movie = movies.get(tmdbId);
+                if (movie != null && !addedMeanwhile.contains(tmdbId)) {
+                    newFavorites.add(movie);
+                }
+            }
+            added.addAll(insertFavorites(userId, newFavorites));
+        } finally {
+            locks.forEach(ReentrantLock::unlock);
+        }
+
+        List<Long> addedInOrder = new ArrayList<>();
+        List<Long> alreadyExisting = new ArrayList<>();
+        List<Long> failedInOrder = new ArrayList<>();
+        for (Long tmdbId : requested) {
+            if (added.contains(tmdbId)) {
+                addedInOrder.add(tmdbId);
+            } else if (failed.contains(tmdbId)) {
+                failedInOrder.add(tmdbId);
             } else {
-                logger.info("Movie with TMDb ID {} not found in favorites", tmdbId);
-                return false;
+                alreadyExisting.add(tmdbId);
             }
-        } catch (Exception e) {
-            logger.error("Error removing movie from favorites with TMDb ID: {}", tmdbId, e);
-            return false;
         }
+        logger.debug("Added {} movies to favorites of user {} ({} already present, {} failed)",
+                addedInOrder.size(), userId, alreadyExisting.size(), failedInOrder.size());
+        return new FavoritesBulkResult(addedInOrder, alreadyExisting, failedInOrder);
+    }
+
+    /**
+     * Store movies fetched from TMDb in one transaction, or one by one when another request stored one of them
+     * first
+     */
+    private Map<Long, Movie> insertMovies(Map<Long, TMDbMovieDto> fetched) {
+        Map<Long, Movie> stored = new HashMap<>();
+        if (fetched.isEmpty()) {
+            return stored;
+        }
+        try {
+            favoriteTransaction.executeWithoutResult(status -> movieRepository.saveAll(
+                    fetched.values().stream().map(this::convertToEntity).toList()).forEach(movie ->
+                    stored.put(movie.getTmdbId(), movie)));
+        } catch (DataIntegrityViolationException e) {
+            logger.debug("Some of {} movies were stored concurrently, storing them one by one", fetched.size());
+            stored.clear();
+            fetched.forEach((tmdbId, movieDto) -> {
+                try {
+                    stored.put(tmdbId, insertMovie(tmdbId, movieDto));
+                } catch (Exception ex) {
+                    favoriteErrors.error("addAllToFavorites", ex, "Error storing movie with TMDb ID: {}", tmdbId);
+                }
+            });
+        }
+        return stored;
     }
 
     /**
-     * Check if a movie is in favorites
+     * Insert a user's new favorites in one transaction, or one by one when some of them were added concurrently
+     * through another node
+     *
+     * @return the IDs of the favorites that were inserted
      */
-    public boolean isInFavorites(Long tmdbId) {
-        return movieRepository.existsByTmdbId(tmdbId);
+    private List<Long> insertFavorites(Long userId, List<Movie> movies) {
+        if (movies.isEmpty()) {
+            return List.of();
+        }
+        try {
+            favoriteTransaction.executeWithoutResult(status -> {
+                // The movies were read or stored outside this transaction; a reference stands in for each
+                // without a SELECT
+                List<FavoriteMovie> favorites = new ArrayList<>();
+                for (Movie movie : movies) {
+                    FavoriteMovie favorite = new FavoriteMovie(userId, movie);
+                    favorite.setMovie(movieRepository.getReferenceById(movie.getTmdbId()));
+                    favorites.add(favorite);
+                }
+                favoriteMovieRepository.saveAllAndFlush(favorites);
+                movies.forEach(movie -> eventPublisher.publishEvent(FavoriteChangedEvent.added(userId, movie)));
+            });
+            return movies.stream().map(Movie::getTmdbId).toList();
+        } catch (DataIntegrityViolationException e) {
+            logger.debug("Some of {} favorites of user {} were added concurrently, adding them one by one",
+                    movies.size(), userId);
+        }
+        List<Long> inserted = new ArrayList<>();
+        for (Movie movie : movies) {
+            try {
+                favoriteTransaction.executeWithoutResult(status -> {
+                    FavoriteMovie favorite = new FavoriteMovie(userId, movie);
+                    favorite.setMovie(movieRepository.getReferenceById(movie.getTmdbId()));
+                    favoriteMovieRepository.saveAndFlush(favorite);
+                    eventPublisher.publishEvent(FavoriteChangedEvent.added(userId, movie));
+                });
+                inserted.add(movie.getTmdbId());
+            } catch (DataIntegrityViolationException e) {
+                logger.debug("Movie with TMDb ID {} was added to favorites of user {} concurrently",
+                        movie.getTmdbId(), userId);
+            }
+        }
+        return inserted;
     }
 
     /**
-     * Get all favorite movies
+     * Remove several movies from a user's favorites with a single DELETE; returns the IDs that were removed
      */
-    public List<Movie> getFavoriteMovies() {
-        logger.info("Fetching all favorite movies");
-        return movieRepository.findAllByOrderByVoteAverageDesc();
+    public List<Long> removeAllFromFavorites(Long userId, Collection<Long> tmdbIds) {
+        writeBehind.awaitWritten(userId);
+        List<Long> requested = tmdbIds.stream()
+                .filter(Objects::nonNull)
+                .distinct()
+                .toList();
+        if (requested.isEmpty()) {
+            return List.of();
+        }
+
+        List<Long> removed = new ArrayList<>(findFavoriteIds(userId, requested));
+        if (!removed.isEmpty()) {
+            List<Movie> movies = movieRepository.findAllById(removed);
+            favoriteMovieRepository.deleteByUserIdAndTmdbIdIn(userId, removed);
+            movies.forEach(movie -> eventPublisher.publishEvent(FavoriteChangedEvent.removed(userId, movie)));
+        }
+
+        logger.debug("Removed {} of {} movies from favorites of user {}", removed.size(), requested.size(), userId);
+        return removed;
     }
 
     /**
-     * Get favorite movies ordered by release date
+     * Check if a movie is in a user's favorites, from the in-memory index once it is loaded
      */
-    public List<Movie> getFavoriteMoviesByReleaseDate() {
-        logger.info("Fetching favorite movies ordered by release date");
-        return movieRepository.findAllByOrderByReleaseDateDesc();
+    @Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+    public boolean isInFavorites(Long userId, Long tmdbId) {
+        return RequestTimings.time("favorites", () -> {
+            if (favoritesIndex.isReady()) {
+                return favoritesIndex.contains(userId, tmdbId);
+            }
+            writeBehind.awaitWritten(userId);
+            return favoriteMovieRepository.existsById(new FavoriteMovieId(userId, tmdbId));
+        });
     }
 
     /**
-     * Search favorite movies by title
+     * Get the IDs of the given movies that are in a user's favorites, from the in-memory index once it is loaded
+     * and otherwise with a single query
      */
-    public List<Movie> searchFavoriteMovies(String title) {
-        logger.info("Searching favorite movies with title: {}", title);
-        return movieRepository.findByTitleContainingIgnoreCase(title);
+    @Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+    public Set<Long> getFavoriteIds(Long userId, Collection<TMDbMovieDto> movies) {
+        List<Long> tmdbIds = movies.stream()
+                .map(TMDbMovieDto::getId)
+                .filter(Objects::nonNull)
+                .toList();
+        if (tmdbIds.isEmpty()) {
+            return Set.of();
+        }
+        return RequestTimings.time("favorites", () -> findFavoriteIds(userId, tmdbIds));
     }
 
     /**
-     * Get favorite movies count
+     * Get all favorite movies of a user
      */
-    public long getFavoriteMoviesCount() {
-        return movieRepository.countFavoriteMovies();
+    public List<Movie> getFavoriteMovies(Long userId) {
+        logger.debug("Fetching all favorite movies of user {}", userId);
+        writeBehind.awaitWritten(userId);
+        return favoriteMovieRepository.findMoviesByUserId(userId, favoritesSort("rating"));
     }
 
     /**
-     * Get top rated favorite movies
+     * Get favorite movies of a user ordered by release date
      */
-    public List<Movie> getTopRatedFavorites() {
-        return movieRepository.findTopRatedMovies();
+    public List<Movie> getFavoriteMoviesByReleaseDate(Long userId) {
+        logger.debug("Fetching favorite movies of user {} ordered by release date", userId);
+        writeBehind.awaitWritten(userId);
+        return favoriteMovieRepository.findMoviesByUserId(userId, favoritesSort("date"));
     }
 
     /**
-     * Get favorite movies with minimum rating
+     * Get one page of a user's favorite movies ordered by rating or by release date ("date")
      */
-    public List<Movie> getFavoriteMoviesByMinRating(Double minRating) {
-        return movieRepository.findMoviesByMinimumRating(minRating);
+    public Page<Movie> getFavoriteMoviesPage(Long userId, String sortBy, int page, int size) {
+        writeBehind.awaitWritten(userId);
+        return favoriteMovieRepository.findMoviePageByUserId(userId, PageRequest.of(page, size, favoritesSort(sortBy)));
+    }
+
+    /**
+     * Get one page of a user's favorite movies matching the filter, ordered by rating or by release date ("date").
+     * Each combination of filters narrows an index range bounded by the user, see {@link FavoriteMovieSpecifications}.
+     */
+    public Page<Movie> filterFavoriteMovies(Long userId, FavoritesFilter filter, String sortBy, int page, int size) {
+        writeBehind.awaitWritten(userId);
+        Specification<FavoriteMovie> specification = FavoriteMovieSpecifications.ofUser(userId);
+        if (filter.language() != null) {
+            specification = specification.and(FavoriteMovieSpecifications.hasLanguage(filter.language()));
+        }
+        if (filter.yearFrom() != null) {
+            specification = specification.and(FavoriteMovieSpecifications.releasedFrom(filter.yearFrom()));
+        }
+        if (filter.yearTo() != null) {
+            specification = specification.and(FavoriteMovieSpecifications.releasedUntil(filter.yearTo()));
+        }
+        if (filter.genre() != null) {
+            specification = specification.and(FavoriteMovieSpecifications.hasGenres(filter.genre().bit()));
+        }
+        if (filter.minRating() != null) {
+            specification = specification.and(FavoriteMovieSpecifications.minimumRating(filter.minRating()));
+        }
+        return favoriteMovieRepository.findAll(specification, PageRequest.of(page, size, favoritesSort(sortBy)))
+                .map(FavoriteMovie::getMovie);
+    }
+
+    /**
+     * Iterate a user's favorite movies lazily, one page per query, ordered by rating or by release date ("date").
+     * Meant for views that render while iterating, so memory does not grow with the number of favorites.
+     * Each page continues from the (sort key, TMDb ID) of the previous one.
+     */
+    public Iterable<Movie> streamFavoriteMovies(Long userId, String sortBy) {
+        writeBehind.awaitWritten(userId);
+        Sort sort = favoritesSort(sortBy);
+        String property = sortProperty(sortBy);
+        Iterable<FavoriteMovie> favorites = new PagedIterable<>(
+                (last, size) -> favoritesAfter(userId, property, sort, last, size), streamingPageSize);
+        return () -> StreamSupport.stream(favorites.spliterator(), false).map(FavoriteMovie::getMovie).iterator();
+    }
+
+    /**
+     * The page of a user's favorites that follows the given one in the sort's order: first those with a value for
+     * the sort property, then those without
+     */
+    private List<FavoriteMovie> favoritesAfter(Long userId, String property, Sort sort, FavoriteMovie last,
+                                               int size) {
+        Specification<FavoriteMovie> ofUser = FavoriteMovieSpecifications.ofUser(userId);
+        Comparable<?> lastValue = last == null ? null : sortValue(last, property);
+        if (last != null && lastValue == null) {
+            return favoritesPage(ofUser.and(
+                    FavoriteMovieSpecifications.lacksValueAfter(property, last.getId().getTmdbId())), sort, size);
+        }
+
+        List<FavoriteMovie> page = favoritesPage(ofUser.and(last == null
+                ? FavoriteMovieSpecifications.hasValue(property)
+                : FavoriteMovieSpecifications.rankedAfter(property, lastValue, last.getId().getTmdbId())), sort, size);
+        if (page.size() == size) {
+            return page;
+        }
+        List<FavoriteMovie> joined = new ArrayList<>(page);
+        joined.addAll(favoritesPage(ofUser.and(FavoriteMovieSpecifications.lacksValueAfter(property, null)), sort,
+                size - page.size()));
+        return joined;
+    }
+
+    private List<FavoriteMovie> favoritesPage(Specification<FavoriteMovie> specification, Sort sort, int size) {
+        return favoriteMovieRepository.findBy(specification, query -> query.sortBy(sort).limit(size).all());
+    }
+
+    /**
+     * Search a user's favorite movies by title
+     */
+    public List<Movie> searchFavoriteMovies(Long userId, String title) {
+        logger.debug("Searching favorite movies of user {} with title: {}", userId, title);
+        writeBehind.awaitWritten(userId);
+        return favoriteMovieRepository.findMoviesByUserIdAndTitleContaining(userId, title);
+    }
+
+    /**
+     * Get one page of a user's favorite movies whose title contains the search term, ordered by rating or by
+     * release date ("date")
+     */
+    public Page<Movie> searchFavoriteMoviesPage(Long userId, String title, String sortBy, int page, int size) {
+        writeBehind.awaitWritten(userId);
+        return favoriteMovieRepository.findMoviePageByUserIdAndTitleContaining(userId, title,
+                PageRequest.of(page, size, favoritesSort(sortBy)));
+    }
+
+    /**
+     * Get a user's favorite movies count
+     */
+    public long getFavoriteMoviesCount(Long userId) {
+        writeBehind.awaitWritten(userId);
+        return favoriteMovieRepository.countByIdUserId(userId);
+    }
+
+    /**
+     * Get statistics over a user's favorites (count, average rating, breakdowns), served from running aggregates
+     */
+    @Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+    public FavoritesStats getFavoritesStats(Long userId) {
+        writeBehind.awaitWritten(userId);
+        return favoritesStatsService.getStats(userId);
+    }
+
+    /**
+     * Get a user's top rated favorite movies
+     */
+    public List<Movie> getTopRatedFavorites(Long userId) {
+        writeBehind.awaitWritten(userId);
+        return favoriteMovieRepository.findMoviesByUserId(userId, favoritesSort("rating"));
+    }
+
+    /**
+     * Get a user's favorite movies with minimum rating
+     */
+    public List<Movie> getFavoriteMoviesByMinRating(Long userId, Double minRating) {
+        writeBehind.awaitWritten(userId);
+        return favoriteMovieRepository.findMoviesByUserIdAndMinimumRating(userId, minRating);
     }
 
     /**
@@ -172,6 +772,74 @@ public class MovieService {
         return tmdbService.getImageBaseUrl();
     }
 
+    /**
+     * Sort for favorites pages over the denormalized keys of the per-user indexes;
+     * the TMDb ID tie-breaker keeps page boundaries stable. The constant user ID leads so that H2 recognises
+     * the (user_id, key DESC, tmdb_id) index order and stops reading at the page size instead of sorting.
+     */
+    private Sort favoritesSort(String sortBy) {
+        return Sort.by("id.userId")
+                .and(Sort.by(Sort.Direction.DESC, sortProperty(sortBy)))
+                .and(Sort.by("id.tmdbId"));
+    }
+
+    private static String sortProperty(String sortBy) {
+        return "date".equals(sortBy) ? "releaseDate" : "voteAverage";
+    }
+
+    private static Comparable<?> sortValue(FavoriteMovie favorite, String property) {
+        return "releaseDate".equals(property) ? favorite.getReleaseDate() : favorite.getVoteAverage();
+    }
+
+    private Set<Long> findFavoriteIds(Long userId, Collection<Long> tmdbIds) {
+        if (favoritesIndex.isReady()) {
+            return favoritesIndex.retainFavorites(userId, tmdbIds);
+        }
+        writeBehind.awaitWritten(userId);
+        return new HashSet<>(favoriteMovieRepository.findTmdbIdsByUserIdAndTmdbIdIn(userId, tmdbIds));
+    }
+
+    /**
+     * Whether a single add or remove goes through the write-behind journal. That needs the membership index
+     * to know the user's current favorites; without it, or for a movie the index cannot hold, the user's
+     * pending changes are written first, so the database can be asked.
+     */
+    private boolean useWriteBehind(Long userId, Long tmdbId) {
+        if (!writeBehind.isEnabled()) {
+            return false;
+        }
+        if (favoritesIndex.isReady() && FavoritesMembershipIndex.isIndexable(tmdbId)) {
+            return true;
+        }
+        writeBehind.awaitWritten(userId);
+        return false;
+    }
+
+    private ReentrantLock favoriteLock(Long userId, Long tmdbId) {
+        return favoriteLocks[favoriteLockStripe(userId, tmdbId)];
+    }
+
+    /**
+     * The locks of several favorites, each stripe once and in stripe order, so that two bulk adds cannot
+     * deadlock
+     */
+    private List<ReentrantLock> favoriteLocks(Long userId, Collection<Long> tmdbIds) {
+        return tmdbIds.stream()
+                .map(tmdbId -> favoriteLockStripe(userId, tmdbId))
+                .distinct()
+                .sorted()
+                .map(stripe -> favoriteLocks[stripe])
+                .toList();
+    }
+
+    private static int favoriteLockStripe(Long userId, Long tmdbId) {
+        return (Objects.hash(userId, tmdbId) & 0x7fffffff) % FAVORITE_LOCK_STRIPES;
+    }
+
+    private static int versionStripe(Long userId) {
+        return (Long.hashCode(userId) & 0x7fffffff) % FAVORITES_VERSION_STRIPES;
+    }
+
     /**
      * Convert TMDbMovieDto to Movie entity
      */
@@ -189,6 +857,7 @@ public class MovieService {
         movie.setOriginalTitle(dto.getOriginalTitle());
         movie.setAdult(dto.getAdult());
         movie.setPopularity(dto.getPopularity());
+        movie.setGenreMask(Genre.toMask(dto.getGenreIds()));
         return movie;
     }
 }
\ No newline at end of file
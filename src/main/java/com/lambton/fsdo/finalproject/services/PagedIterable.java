@@ -0,0 +1,65 @@
+package com.lambton.fsdo.finalproject.services;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.BiFunction;
+
+/**
+ * Iterable that loads its elements one page at a time while it is being iterated.
+ * Only the current page is held in memory, so a view can walk a large result set
+ * without materialising it first.
+ * <p>
+ * Pages are keyset pages: each is loaded from the last element of the previous one, not from an offset,
+ * so a page costs the same wherever it is in the result and rows added or removed between pages neither
+ * shift the rest nor are seen twice.
+ */
+public class PagedIterable<T> implements Iterable<T> {
+
+    private final BiFunction<T, Integer, List<T>> pageLoader;
+    private final int pageSize;
+
+    /**
+     * @param pageLoader given the last element of the previous page (null for the first page) and the page size,
+     *                   returns up to that many of the elements that follow it; a shorter page ends the iteration
+     */
+    public PagedIterable(BiFunction<T, Integer, List<T>> pageLoader, int pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("pageSize must be positive");
+        }
+        this.pageLoader = pageLoader;
+        this.pageSize = pageSize;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return new Iterator<>() {
+
+            private Iterator<T> current = Collections.emptyIterator();
+            private T last;
+            private boolean exhausted;
+
+            @Override
+            public boolean hasNext() {
+                if (!current.hasNext() && !exhausted) {
+                    List<T> page = pageLoader.apply(last, pageSize);
+                    exhausted = page.size() < pageSize;
+                    if (!page.isEmpty()) {
+                        last = page.get(page.size() - 1);
+                    }
+                    current = page.iterator();
+                }
+                return current.hasNext();
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return current.next();
+            }
+        };
+    }
+}
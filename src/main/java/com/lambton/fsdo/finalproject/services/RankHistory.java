@@ -0,0 +1,219 @@
+package com.lambton.fsdo.finalproject.services;
+
+import com.lambton.fsdo.finalproject.entities.TMDbMovieDto;
+import com.lambton.fsdo.finalproject.entities.TMDbSnapshot;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rankings of the trending and popular lists over time, and what moved between the latest two.
+ * <p>
+ * Each snapshot of a tracked list is passed through {@link #observe} on its way to the caller. When its order
+ * of movies differs from the latest ranking, it becomes a new ranking and the movers are worked out then, once,
+ * so {@link #getMovers} is a field read and makes no TMDb call. A refreshed snapshot with the same order
+ * (votes and popularity change on every fetch) only renews the latest ranking.
+ * <p>
+ * Rankings are kept as arrays of movie IDs in rank order, the last tmdb.rank-history.max-versions per list in a
+ * ring; only the latest one keeps its movies, which the next movers need for the ones that dropped out.
+ * Rankings come from the snapshots this node serves, whichever node fetched them, and are not persisted.
+ */
+@Component
+public class RankHistory {
+
+    public static final String TRENDING = "trending";
+    public static final String POPULAR = "popular";
+
+    private static final Comparator<RankMovers.Mover> BY_RANK =
+            Comparator.comparing(mover -> mover.rank() != null ? mover.rank() : mover.previousRank());
+
+    private final Map<String, ListHistory> lists;
+
+    public RankHistory(@Value("${tmdb.rank-history.max-versions:288}") int maxVersions, MeterRegistry meterRegistry) {
+        this.lists = Map.of(TRENDING, new ListHistory(TRENDING, maxVersions),
+                POPULAR, new ListHistory(POPULAR, maxVersions));
+        lists.values().forEach(history -> Gauge.builder("tmdb.rank-history.versions", history, ListHistory::size)
+                .description("Rankings kept of a TMDb list")
+                .tag("list", history.name)
+                .register(meterRegistry));
+    }
+
+    /**
+     * Record the snapshot as the list's latest ranking if its order is new; snapshots older than the latest
+     * ranking, empty ones and lists that are not tracked are ignored
+     *
+     * @return the snapshot, for chaining
+     */
+    public TMDbSnapshot observe(String list, TMDbSnapshot snapshot) {
+        ListHistory history = lists.get(list);
+        if (history != null && !snapshot.getMovies().isEmpty() && history.isNewer(snapshot)) {
+            history.record(snapshot);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Movers between the list's latest two rankings
+     *
+     * @throws IllegalArgumentException if the list is not tracked
+     */
+    public RankMovers getMovers(String list) {
+        return history(list).movers;
+    }
+
+    /**
+     * A movie's rank in each kept ranking of the list, oldest first; 0 where it was not listed
+     *
+     * @return fetch times (epoch millis) and ranks at matching positions
+     * @throws IllegalArgumentException if the list is not tracked
+     */
+    public RankTrajectory getTrajectory(String list, long movieId) {
+        return history(list).trajectory(movieId);
+    }
+
+    private ListHistory history(String list) {
+        ListHistory history = lists.get(list);
+        if (history == null) {
+            throw new IllegalArgumentException("Untracked list: " + list);
+        }
+        return history;
+    }
+
+    /**
+     * Fetch times and the movie's rank in each ranking at the same index
+     */
+    public record RankTrajectory(long[] fetchedAt, int[] ranks) {
+    }
+
+    private static final class ListHistory {
+
+        private final String name;
+        private final long[][] rankings;
+        private final long[] fetchedAts;
+        // Ring of rankings: the latest is at head - 1
+        private int head;
+        private int size;
+
+        private List<TMDbMovieDto> latestMovies = List.of();
+        // Read without locking by isNewer and getMovers
+        private volatile String latestVersion;
+        private volatile long latestFetchedAt;
+        private volatile RankMovers movers;
+
+        ListHistory(String name, int maxVersions) {
+            this.name = name;
+            this.rankings = new long[Math.max(maxVersions, 2)][];
+            this.fetchedAts = new long[rankings.length];
+            this.movers = RankMovers.empty(name);
+        }
+
+        boolean isNewer(TMDbSnapshot snapshot) {
+            return snapshot.getFetchedAt() > latestFetchedAt && !snapshot.getVersion().equals(latestVersion);
+        }
+
+        synchronized void record(TMDbSnapshot snapshot) {
+            if (!isNewer(snapshot)) {
+                return;
+            }
+            List<TMDbMovieDto> movies = snapshot.getMovies();
+            long[] ranking = new long[movies.size()];
+            for (int i = 0; i < ranking.length; i++) {
+                Long id = movies.get(i).getId();
+                ranking[i] = id != null ? id : -1;
+            }
+
+            if (size > 0 && Arrays.equals(ranking, latest())) {
+                // Same order: the movers stay those of the last change
+                fetchedAts[slot(size - 1)] = snapshot.getFetchedAt();
+            } else {
+                long[] previous = size > 0 ? latest() : null;
+                long previousFetchedAt = size > 0 ? fetchedAts[slot(size - 1)] : 0L;
+                rankings[head] = ranking;
+                fetchedAts[head] = snapshot.getFetchedAt();
+                head = (head + 1) % rankings.length;
+                size = Math.min(size + 1, rankings.length);
+                if (previous != null) {
+                    movers = compare(previous, previousFetchedAt, latestMovies, ranking, snapshot.getFetchedAt(),
+                            movies);
+                }
+            }
+            latestMovies = movies;
+            latestFetchedAt = snapshot.getFetchedAt();
+            latestVersion = snapshot.getVersion();
+        }
+
+        private RankMovers compare(long[] previous, long previousFetchedAt, List<TMDbMovieDto> previousMovies,
+                                   long[] current, long fetchedAt, List<TMDbMovieDto> currentMovies) {
+            Map<Long, Integer> previousRanks = new HashMap<>(previous.length * 2);
+            for (int i = 0; i < previous.length; i++) {
+                previousRanks.putIfAbsent(previous[i], i + 1);
+            }
+
+            List<RankMovers.Mover> climbing = new ArrayList<>();
+            List<RankMovers.Mover> entered = new ArrayList<>();
+            List<RankMovers.Mover> falling = new ArrayList<>();
+            for (int i = 0; i < current.length; i++) {
+                Integer previousRank = previousRanks.remove(current[i]);
+                RankMovers.Mover mover = new RankMovers.Mover(currentMovies.get(i), i + 1, previousRank);
+                if (previousRank == null) {
+                    entered.add(mover);
+                } else if (previousRank > i + 1) {
+                    climbing.add(mover);
+                } else if (previousRank < i + 1) {
+                    falling.add(mover);
+                }
+            }
+            // Whatever is left in previousRanks dropped out
+            List<RankMovers.Mover> dropped = new ArrayList<>();
+            for (int i = 0; i < previous.length; i++) {
+                if (previousRanks.remove(previous[i]) != null) {
+                    dropped.add(new RankMovers.Mover(previousMovies.get(i), null, i + 1));
+                }
+            }
+
+            climbing.sort(Comparator.comparing(RankMovers.Mover::change).reversed().thenComparing(BY_RANK));
+            falling.sort(Comparator.comparing(RankMovers.Mover::change).thenComparing(BY_RANK));
+            return new RankMovers(name, fetchedAt, previousFetchedAt, List.copyOf(climbing), List.copyOf(entered),
+                    List.copyOf(falling), List.copyOf(dropped));
+        }
+
+        synchronized RankTrajectory trajectory(long movieId) {
+            long[] times = new long[size];
+            int[] ranks = new int[size];
+            for (int i = 0; i < size; i++) {
+                long[] ranking = rankings[slot(i)];
+                times[i] = fetchedAts[slot(i)];
+                for (int rank = 0; rank < ranking.length; rank++) {
+                    if (ranking[rank] == movieId) {
+                        ranks[i] = rank + 1;
+                        break;
+                    }
+                }
+            }
+            return new RankTrajectory(times, ranks);
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        private long[] latest() {
+            return rankings[slot(size - 1)];
+        }
+
+        /**
+         * Array index of the i-th kept ranking, oldest first
+         */
+        private int slot(int i) {
+            return Math.floorMod(head - size + i, rankings.length);
+        }
+    }
+}
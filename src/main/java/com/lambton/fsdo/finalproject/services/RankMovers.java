@@ -0,0 +1,36 @@
+package com.lambton.fsdo.finalproject.services;
+
+import com.lambton.fsdo.finalproject.entities.TMDbMovieDto;
+
+import java.util.List;
+
+/**
+ * How a ranked TMDb list changed between its two latest rankings. Ranks start at 1. Climbing and falling
+ * are ordered by the size of the move, then by rank; entered and dropped by rank.
+ * An empty instance (previousFetchedAt 0) means fewer than two rankings have been seen.
+ */
+public record RankMovers(String list,
+                         long fetchedAt,
+                         long previousFetchedAt,
+                         List<Mover> climbing,
+                         List<Mover> entered,
+                         List<Mover> falling,
+                         List<Mover> dropped) {
+
+    public static RankMovers empty(String list) {
+        return new RankMovers(list, 0L, 0L, List.of(), List.of(), List.of(), List.of());
+    }
+
+    /**
+     * A movie's rank in the latest ranking and the one before; null where it was not listed
+     */
+    public record Mover(TMDbMovieDto movie, Integer rank, Integer previousRank) {
+
+        /**
+         * Places gained (positive) or lost (negative), or null when the movie entered or dropped out
+         */
+        public Integer change() {
+            return rank == null || previousRank == null ? null : previousRank - rank;
+        }
+    }
+}
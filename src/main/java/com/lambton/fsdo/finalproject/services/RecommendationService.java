@@ -0,0 +1,120 @@
+package com.lambton.fsdo.finalproject.services;
+
+import com.lambton.fsdo.finalproject.entities.FavoriteMovieId;
+import com.lambton.fsdo.finalproject.entities.TMDbMovieDto;
+import com.lambton.fsdo.finalproject.entities.TMDbSnapshot;
+import com.lambton.fsdo.finalproject.repositories.FavoriteFeatureRow;
+import com.lambton.fsdo.finalproject.repositories.FavoriteMovieRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.LongPredicate;
+
+/**
+ * "Recommended for you": scores the movies of the trending, popular and now playing snapshots against
+ * a profile built from the user's favorites and returns the best ones the user has not favorited yet.
+ * <p>
+ * The profile is the normalized sum of the favorites' feature vectors (see {@link MovieFeatureMatrix}).
+ * The candidate matrix is rebuilt only when one of the snapshots changes.
+ */
+@Service
+public class RecommendationService {
+
+    private final TMDbService tmdbService;
+    private final FavoriteMovieRepository favoriteMovieRepository;
+    private final FavoritesMembershipIndex favoritesIndex;
+    private final Timer scoreTimer;
+
+    private volatile Candidates candidates = new Candidates("", List.of(), MovieFeatureMatrix.of(List.of()));
+
+    public RecommendationService(TMDbService tmdbService, FavoriteMovieRepository favoriteMovieRepository,
+                                 FavoritesMembershipIndex favoritesIndex, MeterRegistry meterRegistry) {
+        this.tmdbService = tmdbService;
+        this.favoriteMovieRepository = favoriteMovieRepository;
+        this.favoritesIndex = favoritesIndex;
+        this.scoreTimer = Timer.builder("recommendations.score")
+                .description("Time spent scoring and ranking recommendation candidates")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Version of the candidate set, for entity tags of pages built from recommendations
+     */
+    public String getCandidatesVersion() {
+        return candidates().version();
+    }
+
+    /**
+     * Up to {@code limit} recommended movies for a user, best first; empty when the user has no favorites
+     */
+    public List<TMDbMovieDto> recommend(Long userId, int limit) {
+        float[] profile = buildProfile(userId);
+        if (profile == null) {
+            return List.of();
+        }
+
+        LongPredicate isFavorite = favoritesIndex.isReady()
+                ? tmdbId -> favoritesIndex.contains(userId, tmdbId)
+                : tmdbId -> favoriteMovieRepository.existsById(new FavoriteMovieId(userId, tmdbId));
+        Candidates current = candidates();
+        int[] best = scoreTimer.record(() -> current.matrix().topK(profile, limit, isFavorite));
+
+        List<TMDbMovieDto> recommendations = new ArrayList<>(best.length);
+        for (int index : best) {
+            recommendations.add(current.movies().get(index));
+        }
+        return recommendations;
+    }
+
+    private float[] buildProfile(Long userId) {
+        List<FavoriteFeatureRow> favorites = favoriteMovieRepository.findFeatureRowsByUserId(userId);
+        if (favorites.isEmpty()) {
+            return null;
+        }
+
+        float[] profile = new float[MovieFeatureMatrix.DIMENSIONS];
+        float[] vector = new float[MovieFeatureMatrix.DIMENSIONS];
+        for (FavoriteFeatureRow favorite : favorites) {
+            MovieFeatureMatrix.encode(favorite.getGenreMask(), favorite.getPopularity(), favorite.getVoteAverage(),
+                    vector);
+            for (int d = 0; d < vector.length; d++) {
+                profile[d] += vector[d];
+            }
+        }
+        MovieFeatureMatrix.normalize(profile);
+        return profile;
+    }
+
+    private Candidates candidates() {
+        TMDbSnapshot trending = tmdbService.getTrendingSnapshot();
+        TMDbSnapshot popular = tmdbService.getPopularSnapshot();
+        TMDbSnapshot nowPlaying = tmdbService.getNowPlayingSnapshot();
+        String version = trending.getVersion() + "-" + popular.getVersion() + "-" + nowPlaying.getVersion();
+
+        Candidates current = candidates;
+        if (current.version().equals(version)) {
+            return current;
+        }
+
+        // A movie can be on several lists; keep its first occurrence
+        Map<Long, TMDbMovieDto> movies = new LinkedHashMap<>();
+        for (TMDbSnapshot snapshot : List.of(trending, popular, nowPlaying)) {
+            snapshot.getMovies().stream()
+                    .filter(movie -> Objects.nonNull(movie.getId()))
+                    .forEach(movie -> movies.putIfAbsent(movie.getId(), movie));
+        }
+        List<TMDbMovieDto> movieList = List.copyOf(movies.values());
+        Candidates rebuilt = new Candidates(version, movieList, MovieFeatureMatrix.of(movieList));
+        candidates = rebuilt;
+        return rebuilt;
+    }
+
+    private record Candidates(String version, List<TMDbMovieDto> movies, MovieFeatureMatrix matrix) {
+    }
+}
@@ -1,7 +1,11 @@
 package com.lambton.fsdo.finalproject.services;
+import com.lambton.fsdo.finalproject.diagnostics.RequestTimings;
 import com.lambton.fsdo.finalproject.entities.TMDbMovieDto;
+import com.lambton.fsdo.finalproject.entities.TMDbSnapshot;
+import com.lambton.fsdo.finalproject.logging.RateLimitedLogger;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.HttpMethod;
@@ -11,9 +15,15 @@ import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.util.UriComponentsBuilder;
 
+import java.time.Duration;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
 
 @Service
 public class TMDbService {
@@ -21,6 +31,7 @@ public class TMDbService {
     private static final Logger logger = LoggerFactory.getLogger(TMDbService.class);
 
     private final RestTemplate restTemplate;
+    private final RateLimitedLogger upstreamErrors;
 
     @Value("${tmdb.api.key}")
     private String apiKey;
@@ -31,144 +42,157 @@ public class TMDbService {
     @Value("${tmdb.api.image-base-url}")
     private String imageBaseUrl;
 
-    public TMDbService(RestTemplate restTemplate) {
+    @Value("${tmdb.cache.list-ttl:PT5M}")
+    private Duration listTtl;
+
+    @Value("${tmdb.cache.detail-ttl:PT1H}")
+    private Duration detailTtl;
+
+    private final TMDbSnapshotStore snapshots;
+    private final Map<String, CompletableFuture<TMDbSnapshot>> inFlight = new ConcurrentHashMap<>();
+    private final Set<String> restoredKeys = ConcurrentHashMap.newKeySet();
+    private final Executor backgroundRefresh;
+    private final MovieCatalogue catalogue;
+    private final RankHistory rankHistory;
+
+    public TMDbService(RestTemplate restTemplate, TMDbSnapshotStore snapshots, MovieCatalogue catalogue,
+                       RankHistory rankHistory,
+                       @Qualifier("applicationTaskExecutor") Executor backgroundRefresh,
+                       @Value("${logging.error-rate-limit:PT1M}") Duration errorLogInterval) {
         this.restTemplate = restTemplate;
+        this.snapshots = snapshots;
+        this.catalogue = catalogue;
+        this.rankHistory = rankHistory;
+        this.backgroundRefresh = backgroundRefresh;
+        this.upstreamErrors = new RateLimitedLogger(logger, errorLogInterval);
     }
 
     /**
      * Get trending movies for the day
      */
     public List<TMDbMovieDto> getTrendingMovies() {
-        try {
-            String url = UriComponentsBuilder.fromUriString(baseUrl + "/trending/movie/day")
-                    .queryParam("api_key", apiKey)
-                    .toUriString();
-
-            logger.debug("Fetching trending movies from: {}", url);
-
-            ResponseEntity<Map<String, Object>> response = restTemplate.exchange(
-                    url,
-                    HttpMethod.GET,
-                    null,
-                    new ParameterizedTypeReference<Map<String, Object>>() {}
-            );
-
-            return extractMoviesFromResponse(response.getBody());
+        return getTrendingSnapshot().getMovies();
+    }
 
-        } catch (RestClientException e) {
-            logger.error("Error fetching trending movies", e);
-            return Collections.emptyList();
-        }
+    /**
+     * Get the cached snapshot of trending movies, refreshing it from TMDb once it has expired
+     */
+    public TMDbSnapshot getTrendingSnapshot() {
+        return rankHistory.observe(RankHistory.TRENDING,
+                getListSnapshot(RankHistory.TRENDING, "/trending/movie/day", Map.of()));
     }
 
     /**
      * Search movies by query
      */
     public List<TMDbMovieDto> searchMovies(String query) {
+        return getSearchSnapshot(query).getMovies();
+    }
+
+    /**
+     * Get the cached snapshot of search results for a query
+     */
+    public TMDbSnapshot getSearchSnapshot(String query) {
         if (query == null || query.trim().isEmpty()) {
-            return Collections.emptyList();
+            return TMDbSnapshot.empty();
         }
 
-        try {
-            String url = UriComponentsBuilder.fromUriString(baseUrl + "/search/movie")
-                    .queryParam("api_key", apiKey)
-                    .queryParam("query", query.trim())
-                    .queryParam("include_adult", false)
-                    .toUriString();
-
-            logger.debug("Searching movies with query '{}' from: {}", query, url);
-
-            ResponseEntity<Map<String, Object>> response = restTemplate.exchange(
-                    url,
-                    HttpMethod.GET,
-                    null,
-                    new ParameterizedTypeReference<Map<String, Object>>() {}
-            );
-
-            return extractMoviesFromResponse(response.getBody());
-
-        } catch (RestClientException e) {
-            logger.error("Error searching movies with query: {}", query, e);
-            return Collections.emptyList();
-        }
+        String trimmed = query.trim();
+        return getListSnapshot("search:" + trimmed.toLowerCase(), "/search/movie",
+                Map.of("query", trimmed, "include_adult", false));
     }
 
     /**
      * Get movie details by ID
      */
     public TMDbMovieDto getMovieDetails(Long movieId) {
-        try {
-            String url = UriComponentsBuilder.fromUriString(baseUrl + "/movie/" + movieId)
-                    .queryParam("api_key", apiKey)
-                    .toUriString();
+        return getMovieDetailsSnapshot(movieId).getMovie();
+    }
+
+    /**
+     * Get the cached snapshot of a movie's details. When TMDb cannot be reached and nothing is cached, the movie
+     * is served from the catalogue if a list or search result carried it; the snapshot is empty otherwise.
+     */
+    public TMDbSnapshot getMovieDetailsSnapshot(Long movieId) {
+        TMDbSnapshot snapshot = getDetailsSnapshot(movieId);
+        if (snapshot.getMovie() == null && movieId != null) {
+            TMDbMovieDto known = catalogue.get(movieId);
+            if (known != null) {
+                // Not stored: the next request tries TMDb again
+                return new TMDbSnapshot(List.of(known), System.currentTimeMillis());
+            }
+        }
+        return snapshot;
+    }
+
+    private TMDbSnapshot getDetailsSnapshot(Long movieId) {
+        return getSnapshot("movie:" + movieId, detailTtl.toMillis(), () -> {
+            try {
+                String url = UriComponentsBuilder.fromUriString(baseUrl + "/movie/" + movieId)
+                        .queryParam("api_key", apiKey)
+                        .toUriString();
 
-            logger.debug("Fetching movie details for ID {} from: {}", movieId, url);
+                logger.debug("Fetching movie details for ID {}", movieId);
 
-            ResponseEntity<TMDbMovieDto> response = restTemplate.exchange(
-                    url,
-                    HttpMethod.GET,
-                    null,
-                    TMDbMovieDto.class
-            );
+                ResponseEntity<TMDbMovieDto> response = restTemplate.exchange(
+                        url,
+                        HttpMethod.GET,
+                        null,
+                        TMDbMovieDto.class
+                );
 
-            return response.getBody();
+                TMDbMovieDto movie = response.getBody();
+                return movie != null ? List.of(movie) : List.of();
 
-        } catch (RestClientException e) {
-            logger.error("Error fetching movie details for ID: {}", movieId, e);
-            return null;
-        }
+            } catch (RestClientException e) {
+                upstreamErrors.error("/movie/{id}", e, "Error fetching movie details for ID {}", movieId);
+                return null;
+            }
+        });
     }
 
     /**
      * Get popular movies
      */
     public List<TMDbMovieDto> getPopularMovies() {
-        try {
-            String url = UriComponentsBuilder.fromUriString(baseUrl + "/movie/popular")
-                    .queryParam("api_key", apiKey)
-                    .toUriString();
-
-            logger.debug("Fetching popular movies from: {}", url);
-
-            ResponseEntity<Map<String, Object>> response = restTemplate.exchange(
-                    url,
-                    HttpMethod.GET,
-                    null,
-                    new ParameterizedTypeReference<Map<String, Object>>() {}
-            );
-
-            return extractMoviesFromResponse(response.getBody());
+        return getPopularSnapshot().getMovies();
+    }
 
-        } catch (RestClientException e) {
-            logger.error("Error fetching popular movies", e);
-            return Collections.emptyList();
-        }
+    /**
+     * Get the cached snapshot of popular movies
+     */
+    public TMDbSnapshot getPopularSnapshot() {
+        return rankHistory.observe(RankHistory.POPULAR,
+                getListSnapshot(RankHistory.POPULAR, "/movie/popular", Map.of()));
     }
 
     /**
      * Get now playing movies
      */
     public List<TMDbMovieDto> getNowPlayingMovies() {
-        try {
-            String url = UriComponentsBuilder.fromUriString(baseUrl + "/movie/now_playing")
-                    .queryParam("api_key", apiKey)
-                    .toUriString();
-
-            logger.debug("Fetching now playing movies from: {}", url);
+        return getNowPlayingSnapshot().getMovies();
+    }
 
-            ResponseEntity<Map<String, Object>> response = restTemplate.exchange(
-                    url,
-                    HttpMethod.GET,
-                    null,
-                    new ParameterizedTypeReference<Map<String, Object>>() {}
-            );
+    /**
+     * Get the cached snapshot of now playing movies
+     */
+    public TMDbSnapshot getNowPlayingSnapshot() {
+        return getListSnapshot("now-playing", "/movie/now_playing", Map.of());
+    }
 
-            return extractMoviesFromResponse(response.getBody());
+    /**
+     * Movers between the latest two rankings of the trending or popular list, worked out when the newer one
+     * arrived; never calls TMDb
+     */
+    public RankMovers getMovers(String list) {
+        return rankHistory.getMovers(list);
+    }
 
-        } catch (RestClientException e) {
-            logger.error("Error fetching now playing movies", e);
-            return Collections.emptyList();
-        }
+    /**
+     * A movie's rank in each kept ranking of the trending or popular list; never calls TMDb
+     */
+    public RankHistory.RankTrajectory getRankTrajectory(String list, long movieId) {
+        return rankHistory.getTrajectory(list, movieId);
     }
 
     /**
@@ -178,6 +202,117 @@ public class TMDbService {
         return imageBaseUrl;
     }
 
+    /**
+     * Copy of the cached snapshots by cache key, for writing them to a warm-start file
+     */
+    public Map<String, TMDbSnapshot> getCachedSnapshots() {
+        return snapshots.entries();
+    }
+
+    /**
+     * Put snapshots read from a warm-start file into the cache, skipping keys that are already cached.
+     * A restored snapshot is served even once expired: the first request for it gets it right away
+     * and triggers a refresh from TMDb in the background.
+     *
+     * @return the number of snapshots restored
+     */
+    public int restoreSnapshots(Map<String, TMDbSnapshot> restored) {
+        int count = 0;
+        for (Map.Entry<String, TMDbSnapshot> entry : restored.entrySet()) {
+            if (snapshots.get(entry.getKey()) == null) {
+                snapshots.put(entry.getKey(), entry.getValue());
+                catalogue.putAll(entry.getValue().getMovies());
+                // The ranking before the restart, for the movers of the first refresh
+                rankHistory.observe(entry.getKey(), entry.getValue());
+                restoredKeys.add(entry.getKey());
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Fetch a movie list endpoint through the snapshot cache
+     */
+    private TMDbSnapshot getListSnapshot(String key, String path, Map<String, Object> params) {
+        return getSnapshot(key, listTtl.toMillis(), () -> {
+            try {
+                UriComponentsBuilder builder = UriComponentsBuilder.fromUriString(baseUrl + path)
+                        .queryParam("api_key", apiKey);
+                params.forEach(builder::queryParam);
+                String url = builder.toUriString();
+
+                logger.debug("Fetching movie list '{}' from: {}", key, path);
+
+                ResponseEntity<Map<String, Object>> response = restTemplate.exchange(
+                        url,
+                        HttpMethod.GET,
+                        null,
+                        new ParameterizedTypeReference<Map<String, Object>>() {}
+                );
+
+                return extractMoviesFromResponse(response.getBody());
+
+            } catch (RestClientException e) {
+                // Keyed by path rather than cache key: search keys are unbounded
+                upstreamErrors.error(path, e, "Error fetching movie list '{}'", key);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Return the cached snapshot for a key, or load it when missing or expired.
+     * Concurrent misses for the same key share one upstream call (across nodes when the store is shared),
+     * and a failed refresh keeps serving the stale snapshot instead of an empty page.
+     */
+    private TMDbSnapshot getSnapshot(String key, long ttlMillis, Supplier<List<TMDbMovieDto>> loader) {
+        TMDbSnapshot cached = snapshots.get(key);
+        if (cached != null && !cached.isExpired(ttlMillis, System.currentTimeMillis())) {
+            return cached;
+        }
+
+        if (cached != null && restoredKeys.remove(key)) {
+            // Restored at startup: answer from it now and reconcile with TMDb without making this request wait
+            backgroundRefresh.execute(() -> load(key, ttlMillis, loader));
+            return cached;
+        }
+        return RequestTimings.time("tmdb", () -> load(key, ttlMillis, loader));
+    }
+
+    private TMDbSnapshot load(String key, long ttlMillis, Supplier<List<TMDbMovieDto>> loader) {
+        CompletableFuture<TMDbSnapshot> pending = new CompletableFuture<>();
+        CompletableFuture<TMDbSnapshot> existing = inFlight.putIfAbsent(key, pending);
+        if (existing != null) {
+            return existing.join();
+        }
+
+        try {
+            TMDbSnapshot snapshot = snapshots.refresh(key, () -> {
+                // Another node may have refreshed the key while this one waited for its turn
+                TMDbSnapshot current = snapshots.get(key);
+                if (current != null && !current.isExpired(ttlMillis, System.currentTimeMillis())) {
+                    return current;
+                }
+                List<TMDbMovieDto> movies = loader.get();
+                if (movies == null) {
+                    return current != null ? current : TMDbSnapshot.empty();
+                }
+                TMDbSnapshot fetched = new TMDbSnapshot(movies, System.currentTimeMillis());
+                snapshots.put(key, fetched);
+                catalogue.putAll(fetched.getMovies());
+                return fetched;
+            });
+            pending.complete(snapshot);
+            return snapshot;
+        } catch (RuntimeException e) {
+            pending.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, pending);
+        }
+    }
+
     /**
      * Extract movies list from API response
      */
@@ -193,7 +328,7 @@ public class TMDbService {
                     .map(this::mapToMovieDto)
                     .toList();
         } catch (Exception e) {
-            logger.error("Error extracting movies from response", e);
+            upstreamErrors.error("response", e, "Error extracting movies from response");
             return Collections.emptyList();
         }
     }
@@ -215,6 +350,7 @@ public class TMDbService {
         movie.setOriginalTitle(getStringValue(movieData, "original_title"));
         movie.setAdult(getBooleanValue(movieData, "adult"));
         movie.setPopularity(getDoubleValue(movieData, "popularity"));
+        movie.setGenreIds(getIntegerListValue(movieData, "genre_ids"));
 
         // Handle release date
         String releaseDateStr = getStringValue(movieData, "release_date");
@@ -222,7 +358,7 @@ public class TMDbService {
             try {
                 movie.setReleaseDate(java.time.LocalDate.parse(releaseDateStr));
             } catch (Exception e) {
-                logger.warn("Could not parse release date: {}", releaseDateStr);
+                logger.debug("Could not parse release date: {}", releaseDateStr);
             }
         }
 
@@ -230,6 +366,17 @@ public class TMDbService {
     }
 
     // Helper methods for safe type conversion
+    private List<Integer> getIntegerListValue(Map<String, Object> map, String key) {
+        Object value = map.get(key);
+        if (value instanceof List<?> list) {
+            return list.stream()
+                    .filter(Number.class::isInstance)
+                    .map(item -> ((Number) item).intValue())
+                    .toList();
+        }
+        return null;
+    }
+
     private String getStringValue(Map<String, Object> map, String key) {
         Object value = map.get(key);
         return value != null ? value.toString() : null;
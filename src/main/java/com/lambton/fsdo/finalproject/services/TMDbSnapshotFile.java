@@ -0,0 +1,303 @@
+package com.lambton.fsdo.finalproject.services;
+
+import com.lambton.fsdo.finalproject.entities.TMDbMovieDto;
+import com.lambton.fsdo.finalproject.entities.TMDbSnapshot;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Binary file of TMDb snapshots, used to start warm after a restart.
+ * <p>
+ * The movies of all snapshots are stored as one table, column by column: fixed-width columns for numbers and dates,
+ * a length column plus one UTF-8 blob for each text field, and dictionary codes for languages and genres,
+ * which repeat across thousands of movies. The file is memory-mapped when read. Layout (big-endian):
+ * <pre>
+ * header      int magic, short format version
+ * dictionary  languages: int count, strings; genres: int count, int TMDb genre IDs
+ * snapshots   int count, then per snapshot: string key, long fetchedAt, string version, int movie count (rows in table order)
+ * table       int rows, then columns: long id, double vote average, double popularity, int vote count,
+ *             int release epoch day, short language code, byte adult/video flags, short genre count,
+ *             short genre codes (all rows), then per text field: int byte lengths, UTF-8 blob
+ * </pre>
+ * Nulls are NaN, MIN_VALUE, -1 or a zero flag, depending on the column.
+ */
+public final class TMDbSnapshotFile {
+
+    private static final int MAGIC = 0x544D4442; // "TMDB"
+    private static final short FORMAT_VERSION = 1;
+
+    private static final List<Function<TMDbMovieDto, String>> TEXT_COLUMNS = List.of(
+            TMDbMovieDto::getTitle, TMDbMovieDto::getOriginalTitle, TMDbMovieDto::getOverview,
+            TMDbMovieDto::getPosterPath, TMDbMovieDto::getBackdropPath);
+
+    private TMDbSnapshotFile() {
+    }
+
+    /**
+     * Write snapshots to a file, replacing it atomically so that a reader never sees a partial file
+     */
+    public static void write(Path file, Map<String, TMDbSnapshot> snapshots) throws IOException {
+        List<TMDbMovieDto> rows = new ArrayList<>();
+        Map<String, Integer> languages = new LinkedHashMap<>();
+        Map<Integer, Integer> genres = new LinkedHashMap<>();
+        for (TMDbSnapshot snapshot : snapshots.values()) {
+            for (TMDbMovieDto movie : snapshot.getMovies()) {
+                rows.add(movie);
+                if (movie.getOriginalLanguage() != null) {
+                    languages.putIfAbsent(movie.getOriginalLanguage(), languages.size());
+                }
+                if (movie.getGenreIds() != null) {
+                    movie.getGenreIds().forEach(genre -> genres.putIfAbsent(genre, genres.size()));
+                }
+            }
+        }
+
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temporary = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary),
+                    1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeShort(FORMAT_VERSION);
+
+                out.writeInt(languages.size());
+                for (String language : languages.keySet()) {
+                    writeString(out, language);
+                }
+                out.writeInt(genres.size());
+                for (Integer genre : genres.keySet()) {
+                    out.writeInt(genre);
+                }
+
+                out.writeInt(snapshots.size());
+                for (Map.Entry<String, TMDbSnapshot> entry : snapshots.entrySet()) {
+                    writeString(out, entry.getKey());
+                    out.writeLong(entry.getValue().getFetchedAt());
+                    writeString(out, entry.getValue().getVersion());
+                    out.writeInt(entry.getValue().getMovies().size());
+                }
+
+                writeTable(out, rows, languages, genres);
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Read all snapshots of a file, in the order they were written
+     */
+    public static Map<String, TMDbSnapshot> read(Path file) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if (buffer.getInt() != MAGIC || buffer.getShort() != FORMAT_VERSION) {
+            throw new IOException("Not a TMDb snapshot file of format " + FORMAT_VERSION + ": " + file);
+        }
+
+        String[] languages = new String[buffer.getInt()];
+        for (int i = 0; i < languages.length; i++) {
+            languages[i] = readString(buffer);
+        }
+        Integer[] genres = new Integer[buffer.getInt()];
+        for (int i = 0; i < genres.length; i++) {
+            genres[i] = buffer.getInt();
+        }
+
+        int snapshotCount = buffer.getInt();
+        String[] keys = new String[snapshotCount];
+        long[] fetchedAt = new long[snapshotCount];
+        String[] versions = new String[snapshotCount];
+        int[] sizes = new int[snapshotCount];
+        for (int i = 0; i < snapshotCount; i++) {
+            keys[i] = readString(buffer);
+            fetchedAt[i] = buffer.getLong();
+            versions[i] = readString(buffer);
+            sizes[i] = buffer.getInt();
+        }
+
+        List<TMDbMovieDto> rows = readTable(buffer, languages, genres);
+
+        Map<String, TMDbSnapshot> snapshots = new LinkedHashMap<>(snapshotCount * 2);
+        int row = 0;
+        for (int i = 0; i < snapshotCount; i++) {
+            snapshots.put(keys[i], TMDbSnapshot.restored(rows.subList(row, row + sizes[i]), fetchedAt[i], versions[i]));
+            row += sizes[i];
+        }
+        return snapshots;
+    }
+
+    private static void writeTable(DataOutputStream out, List<TMDbMovieDto> rows, Map<String, Integer> languages,
+                                   Map<Integer, Integer> genres) throws IOException {
+        out.writeInt(rows.size());
+        for (TMDbMovieDto movie : rows) {
+            out.writeLong(movie.getId() != null ? movie.getId() : Long.MIN_VALUE);
+        }
+        for (TMDbMovieDto movie : rows) {
+            out.writeDouble(movie.getVoteAverage() != null ? movie.getVoteAverage() : Double.NaN);
+        }
+        for (TMDbMovieDto movie : rows) {
+            out.writeDouble(movie.getPopularity() != null ? movie.getPopularity() : Double.NaN);
+        }
+        for (TMDbMovieDto movie : rows) {
+            out.writeInt(movie.getVoteCount() != null ? movie.getVoteCount() : Integer.MIN_VALUE);
+        }
+        for (TMDbMovieDto movie : rows) {
+            out.writeInt(movie.getReleaseDate() != null ? (int) movie.getReleaseDate().toEpochDay() : Integer.MIN_VALUE);
+        }
+        for (TMDbMovieDto movie : rows) {
+            out.writeShort(movie.getOriginalLanguage() != null ? languages.get(movie.getOriginalLanguage()) : -1);
+        }
+        for (TMDbMovieDto movie : rows) {
+            out.writeByte(flag(movie.getAdult()) | flag(movie.getVideo()) << 2);
+        }
+        for (TMDbMovieDto movie : rows) {
+            out.writeShort(movie.getGenreIds() != null ? movie.getGenreIds().size() : -1);
+        }
+        for (TMDbMovieDto movie : rows) {
+            if (movie.getGenreIds() != null) {
+                for (Integer genre : movie.getGenreIds()) {
+                    out.writeShort(genres.get(genre));
+                }
+            }
+        }
+
+        for (Function<TMDbMovieDto, String> column : TEXT_COLUMNS) {
+            List<byte[]> values = new ArrayList<>(rows.size());
+            for (TMDbMovieDto movie : rows) {
+                String value = column.apply(movie);
+                byte[] bytes = value != null ? value.getBytes(StandardCharsets.UTF_8) : null;
+                values.add(bytes);
+                out.writeInt(bytes != null ? bytes.length : -1);
+            }
+            for (byte[] bytes : values) {
+                if (bytes != null) {
+                    out.write(bytes);
+                }
+            }
+        }
+    }
+
+    private static List<TMDbMovieDto> readTable(ByteBuffer buffer, String[] languages, Integer[] genres) {
+        int rows = buffer.getInt();
+        List<TMDbMovieDto> movies = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            movies.add(new TMDbMovieDto());
+        }
+
+        for (TMDbMovieDto movie : movies) {
+            long id = buffer.getLong();
+            movie.setId(id != Long.MIN_VALUE ? id : null);
+        }
+        for (TMDbMovieDto movie : movies) {
+            double voteAverage = buffer.getDouble();
+            movie.setVoteAverage(Double.isNaN(voteAverage) ? null : voteAverage);
+        }
+        for (TMDbMovieDto movie : movies) {
+            double popularity = buffer.getDouble();
+            movie.setPopularity(Double.isNaN(popularity) ? null : popularity);
+        }
+        for (TMDbMovieDto movie : movies) {
+            int voteCount = buffer.getInt();
+            movie.setVoteCount(voteCount != Integer.MIN_VALUE ? voteCount : null);
+        }
+        for (TMDbMovieDto movie : movies) {
+            int epochDay = buffer.getInt();
+            movie.setReleaseDate(epochDay != Integer.MIN_VALUE ? LocalDate.ofEpochDay(epochDay) : null);
+        }
+        for (TMDbMovieDto movie : movies) {
+            short language = buffer.getShort();
+            movie.setOriginalLanguage(language >= 0 ? languages[language] : null);
+        }
+        for (TMDbMovieDto movie : movies) {
+            byte flags = buffer.get();
+            movie.setAdult(unflag(flags & 3));
+            movie.setVideo(unflag(flags >> 2 & 3));
+        }
+        int genreCountsStart = buffer.position();
+        int genreCodes = genreCountsStart + rows * Short.BYTES;
+        for (int i = 0; i < rows; i++) {
+            short count = buffer.getShort(genreCountsStart + i * Short.BYTES);
+            if (count >= 0) {
+                Integer[] movieGenres = new Integer[count];
+                for (int k = 0; k < count; k++) {
+                    movieGenres[k] = genres[buffer.getShort(genreCodes)];
+                    genreCodes += Short.BYTES;
+                }
+                movies.get(i).setGenreIds(List.of(movieGenres));
+            }
+        }
+        buffer.position(genreCodes);
+
+        List<String[]> texts = new ArrayList<>(TEXT_COLUMNS.size());
+        for (int column = 0; column < TEXT_COLUMNS.size(); column++) {
+            int lengths = buffer.position();
+            int blob = lengths + rows * Integer.BYTES;
+            String[] values = new String[rows];
+            for (int i = 0; i < rows; i++) {
+                int length = buffer.getInt(lengths + i * Integer.BYTES);
+                if (length >= 0) {
+                    values[i] = decode(buffer, blob, length);
+                    blob += length;
+                }
+            }
+            buffer.position(blob);
+            texts.add(values);
+        }
+        for (int i = 0; i < rows; i++) {
+            TMDbMovieDto movie = movies.get(i);
+            movie.setTitle(texts.get(0)[i]);
+            movie.setOriginalTitle(texts.get(1)[i]);
+            movie.setOverview(texts.get(2)[i]);
+            movie.setPosterPath(texts.get(3)[i]);
+            movie.setBackdropPath(texts.get(4)[i]);
+        }
+        return movies;
+    }
+
+    private static int flag(Boolean value) {
+        return value == null ? 0 : value ? 2 : 1;
+    }
+
+    private static Boolean unflag(int flag) {
+        return flag == 0 ? null : flag == 2;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        String value = decode(buffer, buffer.position(), length);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    private static String decode(ByteBuffer buffer, int offset, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,80 @@
+package com.lambton.fsdo.finalproject.services;
+
+import com.lambton.fsdo.finalproject.entities.TMDbSnapshot;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * Keeps the TMDb snapshot cache on local disk ({@link TMDbSnapshotFile}), so a restarted node serves
+ * warm pages at once instead of rebuilding its cache with a burst of TMDb calls.
+ * The file is loaded before the node takes requests, written periodically and written again on shutdown.
+ */
+@Component
+@Lazy(false)
+@ConditionalOnProperty(name = "tmdb.cache.snapshot-file")
+public class TMDbSnapshotPersister implements InitializingBean, DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(TMDbSnapshotPersister.class);
+
+    private final TMDbService tmdbService;
+    private final Path file;
+
+    public TMDbSnapshotPersister(TMDbService tmdbService, @Value("${tmdb.cache.snapshot-file}") Path file) {
+        this.tmdbService = tmdbService;
+        this.file = file;
+    }
+
+    /**
+     * Restore the snapshots of the previous run; a missing or unreadable file only means a cold start
+     */
+    @Override
+    public void afterPropertiesSet() {
+        if (!Files.exists(file)) {
+            logger.info("No TMDb snapshot file at {}, starting with an empty cache", file);
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            Map<String, TMDbSnapshot> snapshots = TMDbSnapshotFile.read(file);
+            int restored = tmdbService.restoreSnapshots(snapshots);
+            logger.info("Restored {} TMDb snapshots from {} ({} KB) in {} ms", restored, file,
+                    Files.size(file) / 1024, (System.nanoTime() - start) / 1_000_000);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Could not read TMDb snapshot file {}, starting with an empty cache", file, e);
+        }
+    }
+
+    @Scheduled(initialDelayString = "${tmdb.cache.snapshot-interval:PT5M}",
+            fixedDelayString = "${tmdb.cache.snapshot-interval:PT5M}")
+    public void writeSnapshots() {
+        Map<String, TMDbSnapshot> snapshots = tmdbService.getCachedSnapshots();
+        if (snapshots.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            TMDbSnapshotFile.write(file, snapshots);
+            logger.debug("Wrote {} TMDb snapshots to {} in {} ms", snapshots.size(), file,
+                    (System.nanoTime() - start) / 1_000_000);
+        } catch (IOException e) {
+            logger.warn("Could not write TMDb snapshot file {}", file, e);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        writeSnapshots();
+    }
+}
@@ -0,0 +1,31 @@
+package com.lambton.fsdo.finalproject.services;
+
+import com.lambton.fsdo.finalproject.entities.TMDbSnapshot;
+
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Where {@link TMDbService} keeps its response snapshots: a map in this JVM by default,
+ * or a map shared by all nodes in clustered mode, so a response fetched by one node serves every node.
+ */
+public interface TMDbSnapshotStore {
+
+    /**
+     * Stored snapshot for a key, expired or not, or null
+     */
+    TMDbSnapshot get(String key);
+
+    void put(String key, TMDbSnapshot snapshot);
+
+    /**
+     * Copy of the snapshots held here; for a shared store, those this node is responsible for
+     */
+    Map<String, TMDbSnapshot> entries();
+
+    /**
+     * Run a refresh of a key so that at most one refresh of it runs at a time across everything
+     * sharing this store. The refresh should check the store again first: another one may have just finished.
+     */
+    TMDbSnapshot refresh(String key, Supplier<TMDbSnapshot> refresh);
+}
@@ -0,0 +1,190 @@
+// Toast utility function
+function showToast(message, type = 'success') {
+    const toastHtml = `
+            <div class="toast align-items-center text-bg-${type} border-0" role="alert" aria-live="assertive" aria-atomic="true">
+                <div class="d-flex">
+                    <div class="toast-body">
+                        ${message}
+                    </div>
+                    <button type="button" class="btn-close btn-close-white me-2 m-auto" data-bs-dismiss="toast"></button>
+                </div>
+            </div>
+        `;
+
+    const toastContainer = document.querySelector('.toast-container');
+    toastContainer.insertAdjacentHTML('beforeend', toastHtml);
+
+    const toastElement = toastContainer.lastElementChild;
+    const toast = new bootstrap.Toast(toastElement);
+    toast.show();
+
+    // Remove toast element after it's hidden
+    toastElement.addEventListener('hidden.bs.toast', () => {
+        toastElement.remove();
+    });
+}
+
+// Loading spinner utility
+function showLoading() {
+    document.getElementById('loadingSpinner').style.display = 'block';
+}
+
+function hideLoading() {
+    document.getElementById('loadingSpinner').style.display = 'none';
+}
+
+// Show a favorite button as favorited or not; the detail page button also carries a label
+function setFavoriteButtonState(buttonElement, favorited) {
+    buttonElement.classList.toggle('favorited', favorited);
+
+    const label = buttonElement.querySelector('span');
+    if (label) {
+        buttonElement.querySelector('i').className = favorited ? 'fas fa-heart me-2' : 'far fa-heart me-2';
+        label.textContent = favorited ? 'Remove from Favorites' : 'Add to Favorites';
+    } else {
+        buttonElement.innerHTML = favorited ? '<i class="fas fa-heart"></i>' : '<i class="far fa-heart"></i>';
+    }
+}
+
+// Favorite functionality
+function toggleFavorite(movieId, buttonElement) {
+    showLoading();
+
+    fetch(`/favorites/toggle/${movieId}`, {
+        method: 'POST',
+        headers: {
+            'Content-Type': 'application/json',
+        },
+    })
+        .then(response => response.text())
+        .then(result => {
+            hideLoading();
+
+            if (result === 'added') {
+                setFavoriteButtonState(buttonElement, true);
+                showToast('Movie added to favorites!', 'success');
+            } else if (result === 'removed') {
+                setFavoriteButtonState(buttonElement, false);
+                showToast('Movie removed from favorites!', 'info');
+            } else if (result === 'busy') {
+                showToast('The site is busy, please try again in a moment.', 'warning');
+            } else {
+                showToast('Error updating favorites!', 'danger');
+            }
+        })
+        .catch(error => {
+            hideLoading();
+            console.error('Error:', error);
+            showToast('Error updating favorites!', 'danger');
+        });
+}
+
+// Remove from favorites functionality
+function removeFromFavorites(movieId, buttonElement) {
+    if (confirm('Are you sure you want to remove this movie from your favorites?')) {
+        showLoading();
+
+        fetch(`/favorites/remove/${movieId}`, {
+            method: 'DELETE',
+            headers: {
+                'Content-Type': 'application/json',
+            },
+        })
+            .then(response => response.text())
+            .then(result => {
+                hideLoading();
+
+                if (result === 'success') {
+                    // Remove the movie card with animation
+                    const movieCard = buttonElement.closest('.col-lg-3, .col-md-4, .col-sm-6');
+                    movieCard.style.transition = 'opacity 0.3s ease, transform 0.3s ease';
+                    movieCard.style.opacity = '0';
+                    movieCard.style.transform = 'scale(0.8)';
+
+                    setTimeout(() => {
+                        movieCard.remove();
+                        // Update the favorites count
+                        updateFavoritesCount();
+                    }, 300);
+
+                    showToast('Movie removed from favorites!', 'info');
+                } else if (result === 'busy') {
+                    showToast('The site is busy, please try again in a moment.', 'warning');
+                } else {
+                    showToast('Error removing movie from favorites!', 'danger');
+                }
+            })
+            .catch(error => {
+                hideLoading();
+                console.error('Error:', error);
+                showToast('Error removing movie from favorites!', 'danger');
+            });
+    }
+}
+
+// Update favorites count
+function updateFavoritesCount() {
+    const movieCards = document.querySelectorAll('.movie-card');
+    const countElement = document.querySelector('.stats-number');
+    if (countElement) {
+        countElement.textContent = movieCards.length;
+    }
+
+    // Show empty state if no movies left
+    if (movieCards.length === 0) {
+        setTimeout(() => {
+            location.reload();
+        }, 500);
+    }
+}
+
+// Delay before reopening a stream the browser gave up on; doubled after each failed attempt
+const FAVORITE_EVENTS_MIN_RETRY_MS = 2000;
+const FAVORITE_EVENTS_MAX_RETRY_MS = 60000;
+let favoriteEventsRetryMs = FAVORITE_EVENTS_MIN_RETRY_MS;
+
+// Live favorite state: changes made in other tabs, or through other nodes, arrive as server-sent events
+function subscribeToFavoriteEvents() {
+    if (!window.EventSource) {
+        return;
+    }
+
+    const events = new EventSource('/favorites/events');
+
+    events.addEventListener('open', () => {
+        favoriteEventsRetryMs = FAVORITE_EVENTS_MIN_RETRY_MS;
+    });
+
+    // A dropped connection is retried by the browser (readyState CONNECTING), but a non-200 response such as
+    // the 503 of a node at its stream limit closes the stream for good; reopen it later, with jitter so the
+    // pages turned away together do not all come back at once
+    events.addEventListener('error', () => {
+        if (events.readyState !== EventSource.CLOSED) {
+            return;
+        }
+        const delay = favoriteEventsRetryMs / 2 + Math.random() * favoriteEventsRetryMs / 2;
+        favoriteEventsRetryMs = Math.min(favoriteEventsRetryMs * 2, FAVORITE_EVENTS_MAX_RETRY_MS);
+        setTimeout(subscribeToFavoriteEvents, delay);
+    });
+
+    events.addEventListener('favorite', event => {
+        const change = JSON.parse(event.data);
+
+        document.querySelectorAll(`.favorite-btn[data-movie-id="${change.id}"], .favorite-btn-large[data-movie-id="${change.id}"]`)
+            .forEach(button => setFavoriteButtonState(button, change.favorite));
+
+        // Favorites page: drop removed cards; an added movie needs a new card, so reload
+        const removeButtons = document.querySelectorAll(`.remove-btn[data-movie-id="${change.id}"]`);
+        if (!change.favorite && removeButtons.length > 0) {
+            removeButtons.forEach(button => button.closest('.col-lg-3, .col-md-4, .col-sm-6').remove());
+            updateFavoritesCount();
+        } else if (change.favorite && removeButtons.length === 0 && document.body.classList.contains('page-favorites')) {
+            location.reload();
+        }
+    });
+
+    // Changes were dropped because this page fell behind; its state can no longer be trusted
+    events.addEventListener('resync', () => location.reload());
+}
+
+document.addEventListener('DOMContentLoaded', subscribeToFavoriteEvents);
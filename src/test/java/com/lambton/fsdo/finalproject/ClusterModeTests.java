@@ -0,0 +1,201 @@
+package com.lambton.fsdo.finalproject;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hazelcast.core.HazelcastInstance;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs two clustered nodes in this JVM, sharing one in-memory database and a Hazelcast cluster,
+ * and checks that TMDb responses are fetched once for both and that favorites changes reach the other node.
+ */
+class ClusterModeTests {
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+    private static final Map<String, AtomicInteger> TMDB_CALLS = new ConcurrentHashMap<>();
+
+    private static HttpServer tmdb;
+    private static ConfigurableApplicationContext nodeA;
+    private static ConfigurableApplicationContext nodeB;
+    private static TestRestTemplate clientA;
+    private static TestRestTemplate clientB;
+
+    @BeforeAll
+    static void startCluster() throws IOException {
+        tmdb = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        tmdb.createContext("/3/", ClusterModeTests::handleTmdbRequest);
+        tmdb.start();
+
+        String clusterName = "movies-test-" + UUID.randomUUID();
+        String database = "jdbc:h2:mem:cluster-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1";
+        nodeA = startNode(clusterName, database);
+        nodeB = startNode(clusterName, database);
+        clientA = client(nodeA);
+        clientB = client(nodeB);
+
+        awaitTrue(() -> nodeA.getBean(HazelcastInstance.class).getCluster().getMembers().size() == 2);
+    }
+
+    @AfterAll
+    static void stopCluster() {
+        nodeB.close();
+        nodeA.close();
+        tmdb.stop(0);
+    }
+
+    @Test
+    void tmdbResponsesAreFetchedOnceForAllNodes() {
+        assertThat(clientA.getForEntity("/popular", String.class).getBody()).contains("Movie 100");
+        assertThat(clientB.getForEntity("/popular", String.class).getBody()).contains("Movie 100");
+        assertThat(clientB.getForEntity("/movie/7", String.class).getBody()).contains("Movie 7");
+        assertThat(clientA.getForEntity("/movie/7", String.class).getBody()).contains("Movie 7");
+
+        assertThat(calls("/3/movie/popular")).isEqualTo(1);
+        assertThat(calls("/3/movie/7")).isEqualTo(1);
+    }
+
+    @Test
+    void favoritesChangesReachTheOtherNode() throws IOException {
+        HttpEntity<Void> user = userRequest("7777");
+        ResponseEntity<String> statsBefore = clientB.exchange("/api/v1/favorites/stats", HttpMethod.GET, user,
+                String.class);
+
+        ResponseEntity<String> added = clientA.exchange("/api/v1/favorites/42", HttpMethod.POST, user, String.class);
+        assertThat(added.getStatusCode()).isEqualTo(HttpStatus.CREATED);
+
+        awaitTrue(() -> isFavorite(clientB, user, 42));
+        ResponseEntity<String> statsAfter = clientB.exchange("/api/v1/favorites/stats", HttpMethod.GET, user,
+                String.class);
+        assertThat(statsAfter.getHeaders().getETag()).isNotEqualTo(statsBefore.getHeaders().getETag());
+        assertThat(JSON.readTree(statsAfter.getBody()).get("count").asInt()).isEqualTo(1);
+        assertThat(clientB.exchange("/favorites", HttpMethod.GET, user, String.class).getBody()).contains("Movie 42");
+
+        ResponseEntity<String> removed = clientB.exchange("/api/v1/favorites/42", HttpMethod.DELETE, user,
+                String.class);
+        assertThat(removed.getStatusCode()).isEqualTo(HttpStatus.NO_CONTENT);
+
+        awaitTrue(() -> !isFavorite(clientA, user, 42));
+        JsonNode statsOnA = JSON.readTree(clientA.exchange("/api/v1/favorites/stats", HttpMethod.GET, user,
+                String.class).getBody());
+        assertThat(statsOnA.get("count").asInt()).isZero();
+    }
+
+    private static ConfigurableApplicationContext startNode(String clusterName, String database) {
+        return new SpringApplicationBuilder(FinalProjectApplication.class)
+                .profiles("cluster")
+                .run("--server.port=0",
+                        "--cluster.name=" + clusterName,
+                        "--cluster.members=127.0.0.1",
+                        "--cluster.port=5801",
+                        "--spring.datasource.url=" + database,
+                        // Both nodes would share this JVM's one JCache manager; separate JVMs each have their own
+                        "--spring.jpa.properties.hibernate.cache.use_second_level_cache=false",
+                        "--tmdb.api.base-url=http://127.0.0.1:" + tmdb.getAddress().getPort() + "/3",
+                        "--tmdb.api.key=cluster-test-key");
+    }
+
+    private static TestRestTemplate client(ConfigurableApplicationContext node) {
+        String port = node.getEnvironment().getProperty("local.server.port");
+        return new TestRestTemplate(new RestTemplateBuilder().rootUri("http://127.0.0.1:" + port));
+    }
+
+    private static HttpEntity<Void> userRequest(String userId) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("X-User-Id", userId);
+        return new HttpEntity<>(headers);
+    }
+
+    private static boolean isFavorite(TestRestTemplate client, HttpEntity<Void> user, long tmdbId) {
+        String body = client.exchange("/api/v1/favorites/" + tmdbId, HttpMethod.GET, user, String.class).getBody();
+        try {
+            return JSON.readTree(body).get("favorite").asBoolean();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static int calls(String path) {
+        AtomicInteger count = TMDB_CALLS.get(path);
+        return count == null ? 0 : count.get();
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (!condition.getAsBoolean()) {
+            assertThat(System.currentTimeMillis()).as("condition met within 30 s").isLessThan(deadline);
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private static void handleTmdbRequest(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        TMDB_CALLS.computeIfAbsent(path, key -> new AtomicInteger()).incrementAndGet();
+        Object body;
+        if (path.matches("/3/movie/\\d+")) {
+            body = movie(Long.parseLong(path.substring(path.lastIndexOf('/') + 1)));
+        } else {
+            long base = path.equals("/3/movie/popular") ? 100 : 1;
+            List<Map<String, Object>> results = new ArrayList<>();
+            for (long id = base; id < base + 20; id++) {
+                results.add(movie(id));
+            }
+            body = Map.of("page", 1, "results", results, "total_pages", 1, "total_results", results.size());
+        }
+
+        byte[] data = JSON.writeValueAsString(body).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, data.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(data);
+        }
+    }
+
+    private static Map<String, Object> movie(long id) {
+        Map<String, Object> movie = new LinkedHashMap<>();
+        movie.put("id", id);
+        movie.put("title", "Movie " + id);
+        movie.put("overview", "Overview " + id);
+        movie.put("poster_path", "/p" + id + ".jpg");
+        movie.put("release_date", "199" + (id % 10) + "-01-01");
+        movie.put("vote_average", id % 10 + 0.5);
+        movie.put("vote_count", id * 10);
+        movie.put("original_language", "en");
+        movie.put("original_title", "Movie " + id);
+        movie.put("popularity", id * 1.5);
+        movie.put("genre_ids", List.of(18));
+        return movie;
+    }
+}
@@ -0,0 +1,60 @@
+package com.lambton.fsdo.finalproject;
+
+import com.lambton.fsdo.finalproject.filters.CurrentUserFilter;
+import jakarta.servlet.http.Cookie;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The X-User-Id header picks the user only on requests from a trusted proxy; any other client is the user
+ * in its cookie, or a new anonymous one.
+ */
+class CurrentUserFilterTests {
+
+    @Test
+    void headerIsBelievedOnlyFromTrustedProxies() throws Exception {
+        CurrentUserFilter filter = new CurrentUserFilter(List.of("10.0.0.5", " ::1 "));
+
+        assertThat(userId(filter, "10.0.0.5", "42", null)).isEqualTo(42L);
+        assertThat(userId(filter, "0:0:0:0:0:0:0:1", "42", null)).isEqualTo(42L);
+
+        // Another client's header is ignored: its cookie decides, and without one it gets a new user
+        assertThat(userId(filter, "10.0.0.6", "42", "7")).isEqualTo(7L);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        Long anonymous = userId(filter, "203.0.113.9", "42", null, response);
+        assertThat(anonymous).isNotEqualTo(42L);
+        assertThat(response.getHeader(HttpHeaders.SET_COOKIE))
+                .startsWith(CurrentUserFilter.USER_ID_COOKIE + "=" + anonymous);
+    }
+
+    @Test
+    void withoutTrustedProxiesNoHeaderIsBelieved() throws Exception {
+        CurrentUserFilter filter = new CurrentUserFilter(List.of());
+
+        assertThat(userId(filter, "127.0.0.1", "42", "7")).isEqualTo(7L);
+    }
+
+    private static Long userId(CurrentUserFilter filter, String remoteAddress, String header, String cookie)
+            throws Exception {
+        return userId(filter, remoteAddress, header, cookie, new MockHttpServletResponse());
+    }
+
+    private static Long userId(CurrentUserFilter filter, String remoteAddress, String header, String cookie,
+                               MockHttpServletResponse response) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/favorites");
+        request.setRemoteAddr(remoteAddress);
+        request.addHeader(CurrentUserFilter.USER_ID_HEADER, header);
+        if (cookie != null) {
+            request.setCookies(new Cookie(CurrentUserFilter.USER_ID_COOKIE, cookie));
+        }
+        filter.doFilter(request, response, new MockFilterChain());
+        return (Long) request.getAttribute(CurrentUserFilter.USER_ID_ATTRIBUTE);
+    }
+}
@@ -0,0 +1,154 @@
+package com.lambton.fsdo.finalproject;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.lambton.fsdo.finalproject.entities.Movie;
+import com.lambton.fsdo.finalproject.repositories.MovieRepository;
+import com.lambton.fsdo.finalproject.services.FavoritesBulkResult;
+import com.lambton.fsdo.finalproject.services.MovieService;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Adding several favorites at once: movies no user has added are fetched from TMDb without holding a database
+ * connection, and each ID is reported on its own, including the ones another node stored in the meantime.
+ */
+@SpringBootTest
+class FavoritesBulkAddTests {
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+    private static final long USER = 3838;
+    // Movies no other test stores: the second-level cache is shared by the contexts in the test JVM
+    private static final long STORED = 3801;
+    private static final long STORED_CONCURRENTLY = 3802;
+    private static final long NEW = 3803;
+    private static final long UNKNOWN = 3804;
+    private static final long FAVORITE = 3805;
+
+    private static final HttpServer TMDB = startTmdbStub();
+    // Busy connections of this context's pool seen by each TMDb call
+    private static final List<Integer> ACTIVE_CONNECTIONS_DURING_FETCH = new CopyOnWriteArrayList<>();
+    private static volatile HikariDataSource dataSource;
+    private static volatile JdbcTemplate concurrentNode;
+
+    @Autowired
+    private MovieService movieService;
+
+    @Autowired
+    private MovieRepository movieRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private HikariDataSource hikariDataSource;
+
+    @DynamicPropertySource
+    static void tmdbProperties(DynamicPropertyRegistry registry) {
+        registry.add("tmdb.api.base-url", () -> "http://127.0.0.1:" + TMDB.getAddress().getPort() + "/3");
+    }
+
+    @AfterAll
+    static void stopTmdbStub() {
+        TMDB.stop(0);
+    }
+
+    @Test
+    void fetchesOutsideTransactionsAndReportsEveryIdOnItsOwn() {
+        dataSource = hikariDataSource;
+        concurrentNode = jdbcTemplate;
+        store(STORED);
+        store(FAVORITE);
+        assertThat(movieService.addToFavorites(USER, FAVORITE)).isTrue();
+
+        // While TMDb is asked about NEW, another node stores STORED_CONCURRENTLY and makes it a favorite of USER
+        FavoritesBulkResult result = movieService.addAllToFavorites(USER,
+                Arrays.asList(STORED, STORED_CONCURRENTLY, NEW, UNKNOWN, FAVORITE, STORED, null));
+
+        assertThat(result.added()).containsExactly(STORED, NEW);
+        assertThat(result.alreadyExisting()).containsExactly(STORED_CONCURRENTLY, FAVORITE);
+        assertThat(result.failed()).containsExactly(UNKNOWN);
+        assertThat(ACTIVE_CONNECTIONS_DURING_FETCH).hasSize(3).containsOnly(0);
+
+        Set<Long> stored = new HashSet<>(jdbcTemplate.queryForList(
+                "SELECT tmdb_id FROM favorite_movies WHERE user_id = ?", Long.class, USER));
+        assertThat(stored).containsExactlyInAnyOrder(STORED, STORED_CONCURRENTLY, NEW, FAVORITE);
+        assertThat(movieRepository.findById(NEW)).hasValueSatisfying(movie ->
+                assertThat(movie.getTitle()).isEqualTo("Movie " + NEW));
+        assertThat(movieService.isInFavorites(USER, STORED)).isTrue();
+        assertThat(movieService.isInFavorites(USER, NEW)).isTrue();
+
+        // Nothing left to add
+        FavoritesBulkResult again = movieService.addAllToFavorites(USER, List.of(STORED, NEW, FAVORITE));
+        assertThat(again.added()).isEmpty();
+        assertThat(again.alreadyExisting()).containsExactly(STORED, NEW, FAVORITE);
+    }
+
+    private void store(long tmdbId) {
+        Movie movie = new Movie();
+        movie.setTmdbId(tmdbId);
+        movie.setTitle("Movie " + tmdbId);
+        movieRepository.save(movie);
+    }
+
+    private static HttpServer startTmdbStub() {
+        try {
+            HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            server.createContext("/3/movie/", FavoritesBulkAddTests::handleTmdbRequest);
+            server.start();
+            return server;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void handleTmdbRequest(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        long tmdbId = Long.parseLong(path.substring(path.lastIndexOf('/') + 1));
+        if (dataSource != null) {
+            ACTIVE_CONNECTIONS_DURING_FETCH.add(dataSource.getHikariPoolMXBean().getActiveConnections());
+        }
+        if (tmdbId == NEW && concurrentNode != null) {
+            concurrentNode.update("INSERT INTO movies (tmdb_id, title, genre_mask) VALUES (?, ?, 0)",
+                    STORED_CONCURRENTLY, "Movie " + STORED_CONCURRENTLY);
+            concurrentNode.update("INSERT INTO favorite_movies (user_id, tmdb_id, genre_mask, added_at) "
+                    + "VALUES (?, ?, 0, ?)", USER, STORED_CONCURRENTLY, Timestamp.from(Instant.now()));
+        }
+        if (tmdbId == UNKNOWN) {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+            return;
+        }
+
+        Map<String, Object> movie = Map.of("id", tmdbId, "title", "Movie " + tmdbId,
+                "genres", List.of(Map.of("id", 18, "name", "Drama")));
+        byte[] data = JSON.writeValueAsBytes(movie);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, data.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(data);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.lambton.fsdo.finalproject;
+
+import com.lambton.fsdo.finalproject.entities.Movie;
+import com.lambton.fsdo.finalproject.repositories.MovieRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.time.LocalDate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * The favorites page is revalidated with its ETag, and a toggle changes the ETag once it has committed.
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+class FavoritesETagTests {
+
+    private static final String USER = "2626";
+    // A movie no other test stores: the second-level cache is shared by the contexts in the test JVM
+    private static final long MOVIE = 2601;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private MovieRepository movieRepository;
+
+    @Test
+    void favoritesPageIsNotModifiedUntilAToggle() throws Exception {
+        Movie movie = new Movie();
+        movie.setTmdbId(MOVIE);
+        movie.setTitle("Movie " + MOVIE);
+        movie.setReleaseDate(LocalDate.of(2001, 1, 1));
+        movie.setVoteAverage(7.5);
+        movieRepository.save(movie);
+
+        String etag = mockMvc.perform(get("/favorites").header("X-User-Id", USER))
+                .andExpect(status().isOk())
+                .andExpect(header().exists(HttpHeaders.ETAG))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        mockMvc.perform(get("/favorites").header("X-User-Id", USER).header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified());
+
+        mockMvc.perform(post("/favorites/toggle/" + MOVIE).header("X-User-Id", USER))
+                .andExpect(status().isOk())
+                .andExpect(content().string("added"));
+
+        String changed = mockMvc.perform(get("/favorites").header("X-User-Id", USER)
+                        .header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString("Movie " + MOVIE)))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        assertThat(changed).isNotEqualTo(etag);
+    }
+}
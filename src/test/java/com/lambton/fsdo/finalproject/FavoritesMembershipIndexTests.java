@@ -0,0 +1,172 @@
+package com.lambton.fsdo.finalproject;
+
+import com.lambton.fsdo.finalproject.entities.Movie;
+import com.lambton.fsdo.finalproject.repositories.MovieRepository;
+import com.lambton.fsdo.finalproject.services.FavoriteChangedEvent;
+import com.lambton.fsdo.finalproject.services.FavoritesMembershipIndex;
+import com.lambton.fsdo.finalproject.services.MovieService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Favorites added and removed while the membership index is being reloaded end up in the index exactly
+ * as they are in the favorite_movies table.
+ */
+@SpringBootTest
+class FavoritesMembershipIndexTests {
+
+    private static final long FIRST_USER = 3232;
+    private static final int USERS = 3;
+    // Movies no other test stores: the second-level cache is shared by the contexts in the test JVM
+    private static final long FIRST_MOVIE = 3201;
+    private static final int MOVIES = 20;
+    // Favorites of other users, written directly so that each reload streams long enough to overlap the writes
+    private static final long FIRST_FILLER_USER = 33_000;
+    private static final int FILLER_USERS = 1_000;
+
+    @Autowired
+    private MovieService movieService;
+
+    @Autowired
+    private MovieRepository movieRepository;
+
+    @Autowired
+    private FavoritesMembershipIndex favoritesIndex;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void indexMatchesTableAfterReloadsDuringWrites() throws Exception {
+        for (long tmdbId = FIRST_MOVIE; tmdbId < FIRST_MOVIE + MOVIES; tmdbId++) {
+            Movie movie = new Movie();
+            movie.setTmdbId(tmdbId);
+            movie.setTitle("Movie " + tmdbId);
+            movieRepository.save(movie);
+        }
+        List<Object[]> filler = new ArrayList<>();
+        Timestamp addedAt = Timestamp.from(Instant.now());
+        for (long userId = FIRST_FILLER_USER; userId < FIRST_FILLER_USER + FILLER_USERS; userId++) {
+            for (long tmdbId = FIRST_MOVIE; tmdbId < FIRST_MOVIE + MOVIES; tmdbId++) {
+                filler.add(new Object[]{userId, tmdbId, addedAt});
+            }
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO favorite_movies (user_id, tmdb_id, added_at) VALUES (?, ?, ?)", filler);
+
+        AtomicBoolean writing = new AtomicBoolean(true);
+        ExecutorService writers = Executors.newFixedThreadPool(2);
+        List<Future<?>> results = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            results.add(writers.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (writing.get()) {
+                    long userId = FIRST_USER + random.nextInt(USERS);
+                    long tmdbId = FIRST_MOVIE + random.nextInt(MOVIES);
+                    if (random.nextBoolean()) {
+                        movieService.addToFavorites(userId, tmdbId);
+                    } else {
+                        movieService.removeFromFavorites(userId, tmdbId);
+                    }
+                }
+            }));
+        }
+        try {
+            for (int i = 0; i < 20; i++) {
+                favoritesIndex.reload();
+                assertThat(favoritesIndex.isReady()).isTrue();
+            }
+        } finally {
+            writing.set(false);
+            writers.shutdown();
+        }
+        for (Future<?> result : results) {
+            result.get();
+        }
+
+        List<Long> movies = new ArrayList<>();
+        for (long tmdbId = FIRST_MOVIE; tmdbId < FIRST_MOVIE + MOVIES; tmdbId++) {
+            movies.add(tmdbId);
+        }
+        for (long userId = FIRST_USER; userId < FIRST_USER + USERS; userId++) {
+            Set<Long> stored = new HashSet<>(jdbcTemplate.queryForList(
+                    "SELECT tmdb_id FROM favorite_movies WHERE user_id = ? AND tmdb_id BETWEEN ? AND ?",
+                    Long.class, userId, FIRST_MOVIE, FIRST_MOVIE + MOVIES - 1));
+            assertThat(favoritesIndex.retainFavorites(userId, movies)).as("user %d", userId).isEqualTo(stored);
+        }
+    }
+
+    @Test
+    void idsOutsideTheBitmapRangeAreLookedUpInTheTable() {
+        long userId = 3239;
+        long beyondInt = 5_000_000_000L;
+        long negative = -3201;
+        long indexable = FIRST_MOVIE + MOVIES;
+        for (long tmdbId : new long[]{beyondInt, negative, indexable}) {
+            Movie movie = new Movie();
+            movie.setTmdbId(tmdbId);
+            movie.setTitle("Movie " + tmdbId);
+            movieRepository.save(movie);
+        }
+        assertThat(movieService.addToFavorites(userId, beyondInt)).isTrue();
+        jdbcTemplate.update("INSERT INTO favorite_movies (user_id, tmdb_id, added_at) VALUES (?, ?, ?)",
+                userId, negative, Timestamp.from(Instant.now()));
+        assertThat(movieService.addToFavorites(userId, indexable)).isTrue();
+
+        assertThat(favoritesIndex.isReady()).isTrue();
+        assertThat(favoritesIndex.contains(userId, beyondInt)).isTrue();
+        assertThat(favoritesIndex.contains(userId, negative)).isTrue();
+        assertThat(favoritesIndex.contains(userId, beyondInt + 1)).isFalse();
+        assertThat(favoritesIndex.retainFavorites(userId, List.of(beyondInt, negative, indexable, FIRST_MOVIE)))
+                .containsExactlyInAnyOrder(beyondInt, negative, indexable);
+
+        assertThat(movieService.removeFromFavorites(userId, beyondInt)).isTrue();
+        assertThat(movieService.isInFavorites(userId, beyondInt)).isFalse();
+    }
+
+    @Test
+    void relayedChangesFollowTheTableWhateverOrderTheyArriveIn() {
+        long userId = 3240;
+        long tmdbId = FIRST_MOVIE + MOVIES + 1;
+        Movie movie = new Movie();
+        movie.setTmdbId(tmdbId);
+        movie.setTitle("Movie " + tmdbId);
+        movieRepository.save(movie);
+        FavoriteChangedEvent added = FavoriteChangedEvent.added(userId, movie).asRemote();
+        FavoriteChangedEvent removed = FavoriteChangedEvent.removed(userId, movie).asRemote();
+
+        // One node added the favorite and another removed it, but the removal is relayed first
+        jdbcTemplate.update("INSERT INTO favorite_movies (user_id, tmdb_id, added_at) VALUES (?, ?, ?)",
+                userId, tmdbId, Timestamp.from(Instant.now()));
+        jdbcTemplate.update("DELETE FROM favorite_movies WHERE user_id = ? AND tmdb_id = ?", userId, tmdbId);
+        eventPublisher.publishEvent(removed);
+        eventPublisher.publishEvent(added);
+        assertThat(favoritesIndex.contains(userId, tmdbId)).isFalse();
+
+        // Removed and added again, the addition relayed first
+        jdbcTemplate.update("INSERT INTO favorite_movies (user_id, tmdb_id, added_at) VALUES (?, ?, ?)",
+                userId, tmdbId, Timestamp.from(Instant.now()));
+        eventPublisher.publishEvent(added);
+        eventPublisher.publishEvent(removed);
+        assertThat(favoritesIndex.contains(userId, tmdbId)).isTrue();
+    }
+}
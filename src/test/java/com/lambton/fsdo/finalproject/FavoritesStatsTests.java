@@ -0,0 +1,115 @@
+package com.lambton.fsdo.finalproject;
+
+import com.lambton.fsdo.finalproject.entities.Movie;
+import com.lambton.fsdo.finalproject.repositories.MovieRepository;
+import com.lambton.fsdo.finalproject.services.FavoritesStats;
+import com.lambton.fsdo.finalproject.services.FavoritesStatsService;
+import com.lambton.fsdo.finalproject.services.MovieService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+/**
+ * Favorites statistics kept up to date from add and remove events agree with the same aggregates computed
+ * by the database, and a reconcile corrects statistics that missed a change written behind the service's back.
+ */
+@SpringBootTest
+class FavoritesStatsTests {
+
+    private static final long USER = 3434;
+
+    @Autowired
+    private MovieService movieService;
+
+    @Autowired
+    private FavoritesStatsService statsService;
+
+    @Autowired
+    private MovieRepository movieRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void statsFollowAddsAndRemovesAndReconcileWithTheTable() {
+        // Movies no other test stores: the second-level cache is shared by the contexts in the test JVM
+        store(3401, 7.25, LocalDate.of(1999, 3, 1), "en");
+        store(3402, 7.9, LocalDate.of(1999, 7, 1), "fr");
+        store(3403, 4.0, LocalDate.of(2010, 1, 1), "en");
+        store(3404, null, LocalDate.of(2010, 5, 1), null);
+        store(3405, 9.75, null, "ja");
+        store(3406, 0.5, LocalDate.of(2021, 1, 1), "en");
+        store(3407, 10.0, LocalDate.of(2021, 9, 1), "fr");
+
+        // Cache the empty statistics first, so everything after this comes from the events
+        assertThat(statsService.getStats(USER).count()).isZero();
+
+        for (long tmdbId = 3401; tmdbId <= 3407; tmdbId++) {
+            movieService.addToFavorites(USER, tmdbId);
+        }
+        assertMatchesTable(statsService.getStats(USER));
+
+        movieService.removeFromFavorites(USER, 3402L);
+        movieService.removeFromFavorites(USER, 3404L);
+        movieService.removeFromFavorites(USER, 3406L);
+        movieService.addToFavorites(USER, 3404L);
+        assertMatchesTable(statsService.getStats(USER));
+
+        // A favorite written directly to the table is missed by the running aggregates until a reconcile
+        store(3408, 6.5, LocalDate.of(1985, 6, 1), "de");
+        jdbcTemplate.update("INSERT INTO favorite_movies (user_id, tmdb_id, vote_average, release_date, added_at) " +
+                "VALUES (?, ?, ?, ?, ?)", USER, 3408L, 6.5, Date.valueOf(LocalDate.of(1985, 6, 1)),
+                Timestamp.from(Instant.now()));
+        assertThat(statsService.getStats(USER).count()).isEqualTo(5);
+
+        statsService.reconcile();
+        FavoritesStats reconciled = statsService.getStats(USER);
+        assertThat(reconciled.count()).isEqualTo(6);
+        assertMatchesTable(reconciled);
+    }
+
+    private void assertMatchesTable(FavoritesStats stats) {
+        String from = " FROM favorite_movies f JOIN movies m ON m.tmdb_id = f.tmdb_id WHERE f.user_id = ?";
+        assertThat(stats.count()).isEqualTo(jdbcTemplate.queryForObject("SELECT COUNT(*)" + from, Long.class, USER));
+
+        Double averageRating = jdbcTemplate.queryForObject("SELECT AVG(f.vote_average)" + from, Double.class, USER);
+        assertThat(stats.averageRating()).isCloseTo(averageRating, within(0.0005));
+
+        assertThat(stats.byLanguage()).isEqualTo(counts("SELECT m.language, COUNT(*)" + from +
+                " AND m.language IS NOT NULL GROUP BY m.language"));
+        assertThat(stats.byReleaseYear()).isEqualTo(counts("SELECT EXTRACT(YEAR FROM f.release_date), COUNT(*)" + from +
+                " AND f.release_date IS NOT NULL GROUP BY EXTRACT(YEAR FROM f.release_date)"));
+        assertThat(stats.byRatingBucket()).isEqualTo(counts("SELECT LEAST(9, FLOOR(f.vote_average)), COUNT(*)" + from +
+                " AND f.vote_average IS NOT NULL GROUP BY LEAST(9, FLOOR(f.vote_average))"));
+    }
+
+    private Map<Object, Long> counts(String sql) {
+        Map<Object, Long> counts = new HashMap<>();
+        jdbcTemplate.query(sql, row -> {
+            Object key = row.getObject(1);
+            counts.put(key instanceof Number number ? (Object) number.intValue() : key, row.getLong(2));
+        }, USER);
+        return counts;
+    }
+
+    private void store(long tmdbId, Double voteAverage, LocalDate releaseDate, String language) {
+        Movie movie = new Movie();
+        movie.setTmdbId(tmdbId);
+        movie.setTitle("Movie " + tmdbId);
+        movie.setVoteAverage(voteAverage);
+        movie.setReleaseDate(releaseDate);
+        movie.setLanguage(language);
+        movieRepository.save(movie);
+    }
+}
@@ -0,0 +1,73 @@
+package com.lambton.fsdo.finalproject;
+
+import com.lambton.fsdo.finalproject.entities.Movie;
+import com.lambton.fsdo.finalproject.repositories.MovieRepository;
+import com.lambton.fsdo.finalproject.services.MovieService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The streamed favorites page walks the favorites in keyset pages: ties and missing sort keys come out in
+ * the order of the paged queries, and a favorite removed mid-way shifts nothing.
+ */
+@SpringBootTest(properties = "favorites.streaming.page-size=2")
+class FavoritesStreamingTests {
+
+    private static final long USER = 2828;
+
+    @Autowired
+    private MovieService movieService;
+
+    @Autowired
+    private MovieRepository movieRepository;
+
+    @Test
+    void pagesFollowTheSortKeyAndTmdbId() {
+        // Movies no other test stores: the second-level cache is shared by the contexts in the test JVM
+        store(2807, 7.0, LocalDate.of(2001, 1, 1));
+        store(2801, 7.0, LocalDate.of(1999, 1, 1));
+        store(2803, null, LocalDate.of(2005, 1, 1));
+        store(2802, 8.5, null);
+        store(2806, null, null);
+        store(2805, 7.0, LocalDate.of(2001, 1, 1));
+        store(2804, 5.0, LocalDate.of(2010, 1, 1));
+
+        assertThat(ids(movieService.streamFavoriteMovies(USER, "rating")))
+                .containsExactly(2802L, 2801L, 2805L, 2807L, 2804L, 2803L, 2806L);
+        assertThat(ids(movieService.streamFavoriteMovies(USER, "date")))
+                .containsExactly(2804L, 2803L, 2805L, 2807L, 2801L, 2802L, 2806L);
+
+        // A favorite removed from an earlier page while iterating does not make the next page skip one
+        Iterator<Movie> iterator = movieService.streamFavoriteMovies(USER, "rating").iterator();
+        List<Long> seen = new ArrayList<>();
+        seen.add(iterator.next().getTmdbId());
+        seen.add(iterator.next().getTmdbId());
+        movieService.removeFromFavorites(USER, 2802L);
+        iterator.forEachRemaining(movie -> seen.add(movie.getTmdbId()));
+        assertThat(seen).containsExactly(2802L, 2801L, 2805L, 2807L, 2804L, 2803L, 2806L);
+    }
+
+    private void store(long tmdbId, Double voteAverage, LocalDate releaseDate) {
+        Movie movie = new Movie();
+        movie.setTmdbId(tmdbId);
+        movie.setTitle("Movie " + tmdbId);
+        movie.setVoteAverage(voteAverage);
+        movie.setReleaseDate(releaseDate);
+        movieRepository.save(movie);
+        assertThat(movieService.addToFavorites(USER, tmdbId)).isTrue();
+    }
+
+    private static List<Long> ids(Iterable<Movie> movies) {
+        List<Long> ids = new ArrayList<>();
+        movies.forEach(movie -> ids.add(movie.getTmdbId()));
+        return ids;
+    }
+}
@@ -0,0 +1,223 @@
+package com.lambton.fsdo.finalproject;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.lambton.fsdo.finalproject.services.FavoritesWriteBehind;
+import com.lambton.fsdo.finalproject.services.MovieService;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.transaction.CannotCreateTransactionException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.AbstractPlatformTransactionManager;
+import org.springframework.transaction.support.DefaultTransactionStatus;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Write-behind favorites: toggles are answered before favorite_movies is written, reads of the user's list
+ * see them, and a journal left behind by a crash is replayed into the database at the next start.
+ * Changes a flush has taken stay pending until they are written. A clustered node refuses to write behind.
+ */
+class FavoritesWriteBehindTests {
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+    private static final long USER = 5151;
+
+    private static HttpServer tmdb;
+
+    @TempDir
+    Path temp;
+
+    @BeforeAll
+    static void startTmdbStub() throws IOException {
+        tmdb = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        tmdb.createContext("/3/", FavoritesWriteBehindTests::handleTmdbRequest);
+        tmdb.start();
+    }
+
+    @AfterAll
+    static void stopTmdbStub() {
+        tmdb.stop(0);
+    }
+
+    @Test
+    void journaledTogglesAreWrittenLaterAndReplayedAfterACrash() throws IOException {
+        // The database outlives both runs, as a file or server database would
+        String database = "jdbc:h2:mem:write-behind-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1";
+        JdbcTemplate jdbc = new JdbcTemplate(new DriverManagerDataSource(database, "sa", "password"));
+        Path journal = temp.resolve("journal");
+        Path crashedJournal = temp.resolve("crashed");
+
+        try (ConfigurableApplicationContext node = startNode(database, journal)) {
+            MovieService movieService = node.getBean(MovieService.class);
+            // Movies no other test stores: the second-level cache is shared by the contexts in the test JVM,
+            // and a movie cached by another test would not be written to this database
+            assertThat(movieService.addToFavorites(USER, 517L)).isTrue();
+            assertThat(movieService.addToFavorites(USER, 518L)).isTrue();
+            assertThat(movieService.addToFavorites(USER, 519L)).isTrue();
+            assertThat(movieService.removeFromFavorites(USER, 518L)).isTrue();
+
+            // Answered from memory, not written yet
+            assertThat(movieService.isInFavorites(USER, 517L)).isTrue();
+            assertThat(movieService.isInFavorites(USER, 518L)).isFalse();
+            assertThat(favoriteRows(jdbc)).isEmpty();
+            assertThat(node.getBean(FavoritesWriteBehind.class).getPendingCount()).isEqualTo(2);
+
+            // The journal as a crash at this point would leave it, with a record cut short at the end
+            copyDirectory(journal, crashedJournal);
+            try (Stream<Path> segments = Files.list(crashedJournal)) {
+                Files.write(segments.findFirst().orElseThrow(), new byte[]{1, 0, 0, 0, 0, 0, 0, 0, 0, 0},
+                        StandardOpenOption.APPEND);
+            }
+
+            // Reading the list writes the user's pending changes first
+            assertThat(movieService.getFavoriteMovies(USER)).extracting("tmdbId").containsExactlyInAnyOrder(517L, 519L);
+            assertThat(favoriteRows(jdbc)).containsExactlyInAnyOrder(517L, 519L);
+        }
+
+        // The crash lost the flush: only the movie rows, written synchronously, are in the database
+        jdbc.update("DELETE FROM favorite_movies WHERE user_id = ?", USER);
+
+        try (ConfigurableApplicationContext node = startNode(database, crashedJournal)) {
+            assertThat(favoriteRows(jdbc)).containsExactlyInAnyOrder(517L, 519L);
+            MovieService movieService = node.getBean(MovieService.class);
+            assertThat(movieService.isInFavorites(USER, 519L)).isTrue();
+            assertThat(movieService.isInFavorites(USER, 518L)).isFalse();
+        }
+        try (Stream<Path> segments = Files.list(crashedJournal)) {
+            assertThat(segments).isEmpty();
+        }
+    }
+
+    @Test
+    void changesBeingFlushedStayPendingUntilWritten() throws Exception {
+        // A database that holds each flush after it has taken its batch, then fails it
+        CountDownLatch flushing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        PlatformTransactionManager heldDatabase = new AbstractPlatformTransactionManager() {
+            @Override
+            protected Object doGetTransaction() {
+                flushing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new CannotCreateTransactionException("Database is down");
+            }
+
+            @Override
+            protected void doBegin(Object transaction, TransactionDefinition definition) {
+            }
+
+            @Override
+            protected void doCommit(DefaultTransactionStatus status) {
+            }
+
+            @Override
+            protected void doRollback(DefaultTransactionStatus status) {
+            }
+        };
+        FavoritesWriteBehind writeBehind = new FavoritesWriteBehind(null, null, heldDatabase,
+                new SimpleMeterRegistry(), false, FavoritesWriteBehind.Durability.MEMORY, temp,
+                Duration.ofHours(1), 1000, Duration.ofMinutes(1), false);
+        writeBehind.record(USER, 517L, true);
+        assertThat(writeBehind.hasPending(USER)).isTrue();
+
+        Thread flush = new Thread(writeBehind::flush);
+        flush.start();
+        assertThat(flushing.await(10, TimeUnit.SECONDS)).isTrue();
+        // The change has left the pending map for the flush's batch
+        assertThat(writeBehind.hasPending(USER)).isTrue();
+        assertThat(writeBehind.hasPending(USER + 1)).isFalse();
+        writeBehind.record(USER + 1, 517L, true);
+        assertThat(writeBehind.hasPending(USER + 1)).isTrue();
+
+        // A failed flush keeps its batch for the next one
+        release.countDown();
+        flush.join(10_000);
+        assertThat(flush.isAlive()).isFalse();
+        assertThat(writeBehind.hasPending(USER)).isTrue();
+        assertThat(writeBehind.getPendingCount()).isEqualTo(2);
+    }
+
+    @Test
+    void clusteredNodesCannotWriteBehind() {
+        assertThatThrownBy(() -> new FavoritesWriteBehind(null, null, null, new SimpleMeterRegistry(), true,
+                FavoritesWriteBehind.Durability.FSYNC, temp, Duration.ofMillis(200), 1000, Duration.ofMinutes(1), true))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("cluster.enabled");
+    }
+
+    private static ConfigurableApplicationContext startNode(String database, Path journal) {
+        return new SpringApplicationBuilder(FinalProjectApplication.class)
+                .run("--server.port=0",
+                        "--spring.datasource.url=" + database,
+                        "--spring.jpa.hibernate.ddl-auto=update",
+                        "--favorites.write-behind.enabled=true",
+                        "--favorites.write-behind.durability=fsync",
+                        "--favorites.write-behind.journal-dir=" + journal,
+                        // Only reads and shutdown flush in this test
+                        "--favorites.write-behind.flush-interval=PT1H",
+                        "--tmdb.api.base-url=http://127.0.0.1:" + tmdb.getAddress().getPort() + "/3",
+                        "--tmdb.api.key=write-behind-test-key");
+    }
+
+    private static List<Long> favoriteRows(JdbcTemplate jdbc) {
+        return jdbc.queryForList("SELECT tmdb_id FROM favorite_movies WHERE user_id = ?", Long.class, USER);
+    }
+
+    private static void copyDirectory(Path from, Path to) throws IOException {
+        Files.createDirectories(to);
+        try (Stream<Path> files = Files.list(from)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.copy(file, to.resolve(file.getFileName()));
+            }
+        }
+    }
+
+    private static void handleTmdbRequest(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        long id = Long.parseLong(path.substring(path.lastIndexOf('/') + 1));
+        Map<String, Object> movie = new LinkedHashMap<>();
+        movie.put("id", id);
+        movie.put("title", "Movie " + id);
+        movie.put("release_date", "199" + (id % 10) + "-01-01");
+        movie.put("vote_average", id % 10 + 0.5);
+        movie.put("original_language", "en");
+        movie.put("genres", List.of(Map.of("id", 18, "name", "Drama")));
+
+        byte[] data = JSON.writeValueAsString(movie).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, data.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(data);
+        }
+    }
+}
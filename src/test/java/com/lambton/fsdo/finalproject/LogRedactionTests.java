@@ -0,0 +1,91 @@
+package com.lambton.fsdo.finalproject;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.PatternLayout;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import com.lambton.fsdo.finalproject.logging.LogRedaction;
+import com.lambton.fsdo.finalproject.logging.RedactingJsonMembersCustomizer;
+import com.lambton.fsdo.finalproject.logging.RedactingMessageConverter;
+import com.lambton.fsdo.finalproject.logging.RedactingThrowableConverter;
+import org.junit.jupiter.api.Test;
+import org.slf4j.MDC;
+import org.springframework.boot.logging.logback.StructuredLogEncoder;
+import org.springframework.core.env.Environment;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * A TMDb URL with its api_key is masked wherever logback-spring.xml prints it: in the message, in the
+ * exception messages of the stack trace, and in every member of the JSON written in prod.
+ */
+class LogRedactionTests {
+
+    private static final String URL = "https://api.themoviedb.org/3/movie/42?api_key=SECRET123&language=en-US";
+
+    @Test
+    void redactsSecretParametersOnly() {
+        assertThat(LogRedaction.redact(URL))
+                .isEqualTo("https://api.themoviedb.org/3/movie/42?api_key=***&language=en-US");
+        assertThat(LogRedaction.redact("\"/3/search?APIKEY=abc\" session_id=s1 access_token=t1 page=2"))
+                .isEqualTo("\"/3/search?APIKEY=***\" session_id=*** access_token=*** page=2");
+        assertThat(LogRedaction.redact("no secrets here")).isEqualTo("no secrets here");
+        assertThat(LogRedaction.redact(null)).isNull();
+    }
+
+    @Test
+    void textLinesMaskTheMessageAndTheStackTrace() {
+        LoggerContext context = new LoggerContext();
+        PatternLayout layout = new PatternLayout();
+        layout.setContext(context);
+        layout.setPattern("%m%n%wEx");
+        layout.getInstanceConverterMap().put("m", RedactingMessageConverter::new);
+        layout.getInstanceConverterMap().put("wEx", RedactingThrowableConverter::new);
+        layout.start();
+
+        String line = layout.doLayout(event(context));
+
+        assertThat(line).doesNotContain("SECRET123")
+                .contains("Error fetching " + LogRedaction.redact(URL))
+                .contains("ResourceAccessException: I/O error on GET request for \"https://api.themoviedb.org/3/movie/42?api_key=***")
+                .contains("Caused by: java.io.IOException: refused " + LogRedaction.redact(URL))
+                .contains("at ");
+    }
+
+    @Test
+    void jsonLinesMaskEveryMember() {
+        LoggerContext context = new LoggerContext();
+        context.setMDCAdapter(MDC.getMDCAdapter());
+        context.putObject(Environment.class.getName(), new MockEnvironment()
+                .withProperty("logging.structured.json.customizer", RedactingJsonMembersCustomizer.class.getName()));
+        StructuredLogEncoder encoder = new StructuredLogEncoder();
+        encoder.setContext(context);
+        encoder.setFormat("logstash");
+        encoder.setCharset(StandardCharsets.UTF_8);
+        encoder.start();
+
+        String json = new String(encoder.encode(event(context)), StandardCharsets.UTF_8);
+
+        assertThat(json).doesNotContain("SECRET123")
+                .contains("\"message\":\"Error fetching " + LogRedaction.redact(URL) + "\"")
+                .contains("\"stack_trace\":\"org.springframework.web.client.ResourceAccessException: "
+                        + "I/O error on GET request for \\\"" + LogRedaction.redact(URL) + "\\\"")
+                .contains("Caused by: java.io.IOException: refused " + LogRedaction.redact(URL));
+    }
+
+    private static ILoggingEvent event(LoggerContext context) {
+        Logger logger = context.getLogger("com.lambton.fsdo.finalproject.services.TMDbService");
+        ResourceAccessException failure = new ResourceAccessException(
+                "I/O error on GET request for \"" + URL + "\": Connection refused",
+                new IOException("refused " + URL));
+        return new LoggingEvent(Logger.class.getName(), logger, Level.ERROR, "Error fetching {}", failure,
+                new Object[]{URL});
+    }
+}
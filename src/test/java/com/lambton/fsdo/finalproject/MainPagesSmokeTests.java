@@ -0,0 +1,348 @@
+package com.lambton.fsdo.finalproject;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.lambton.fsdo.finalproject.bulkheads.Bulkhead;
+import com.lambton.fsdo.finalproject.bulkheads.Bulkheads;
+import com.lambton.fsdo.finalproject.bulkheads.Compartment;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+/**
+ * Drives the main pages and API calls end to end against a stub TMDb server.
+ * Also meant to run as a native image (mvn -PnativeTest test), where it catches missing runtime hints.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "diagnostics.slow-requests.route-budgets=/movie/{id}=PT0S",
+        "diagnostics.slow-requests.trace-sample-rate=1"})
+class MainPagesSmokeTests {
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+    private static final HttpServer TMDB = startTmdbStub();
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Autowired
+    private Bulkheads bulkheads;
+
+    @DynamicPropertySource
+    static void tmdbProperties(DynamicPropertyRegistry registry) {
+        registry.add("tmdb.api.base-url", () -> "http://127.0.0.1:" + TMDB.getAddress().getPort() + "/3");
+        registry.add("tmdb.api.key", () -> "smoke-test-key");
+    }
+
+    @AfterAll
+    static void stopTmdbStub() {
+        TMDB.stop(0);
+    }
+
+    @Test
+    void mainPagesRender() {
+        String home = getPage("/");
+        assertThat(home).contains("Movie 1");
+        assertThat(getPage("/popular")).contains("Movie 100");
+        assertThat(getPage("/now-playing")).contains("Movie 200");
+        assertThat(getPage("/search?q=movie")).contains("Movie 300");
+        assertThat(getPage("/movie/7")).contains("Movie 7");
+        assertThat(getPage("/recommended")).contains("For You");
+
+        Matcher stylesheet = Pattern.compile("/css/app-[0-9a-f]+\\.css").matcher(home);
+        assertThat(stylesheet.find()).isTrue();
+        assertThat(restTemplate.getForEntity(stylesheet.group(), String.class).getStatusCode())
+                .isEqualTo(HttpStatus.OK);
+    }
+
+    @Test
+    void onlyFingerprintedAssetsAreImmutableAndAllAreCompressed() throws Exception {
+        Matcher stylesheet = Pattern.compile("/css/app-[0-9a-f]+\\.css").matcher(getPage("/"));
+        assertThat(stylesheet.find()).isTrue();
+
+        HttpResponse<byte[]> fingerprinted = getGzip(stylesheet.group());
+        assertThat(fingerprinted.statusCode()).isEqualTo(200);
+        assertThat(fingerprinted.headers().firstValue(HttpHeaders.CACHE_CONTROL)).hasValueSatisfying(
+                value -> assertThat(value).contains("max-age=31536000", "immutable"));
+        assertThat(fingerprinted.headers().firstValue(HttpHeaders.CONTENT_ENCODING)).hasValue("gzip");
+        assertThat(gunzip(fingerprinted.body())).contains("{");
+
+        HttpResponse<byte[]> plain = getGzip("/css/app.css");
+        assertThat(plain.statusCode()).isEqualTo(200);
+        assertThat(plain.headers().firstValue(HttpHeaders.CACHE_CONTROL)).hasValueSatisfying(
+                value -> assertThat(value).contains("no-cache").doesNotContain("immutable"));
+        assertThat(plain.headers().firstValue(HttpHeaders.CONTENT_ENCODING)).hasValue("gzip");
+
+        // Pages are compressed on the fly
+        HttpResponse<byte[]> page = getGzip("/popular");
+        assertThat(page.headers().firstValue(HttpHeaders.CONTENT_ENCODING)).hasValue("gzip");
+        assertThat(gunzip(page.body())).contains("Movie 100");
+    }
+
+    @Test
+    void popularRankingsAreKept() throws IOException {
+        restTemplate.getForEntity("/api/v1/movies/popular", String.class);
+
+        JsonNode ranks = JSON.readTree(restTemplate.getForEntity("/api/v1/movies/popular/ranks/103", String.class)
+                .getBody());
+        assertThat(ranks.get("rankings").get(0).get("rank").asInt()).isEqualTo(4);
+        // A single ranking has no movers yet
+        JsonNode movers = JSON.readTree(restTemplate.getForEntity("/api/v1/movies/popular/movers", String.class)
+                .getBody());
+        assertThat(movers.get("climbing")).isEmpty();
+        assertThat(restTemplate.getForEntity("/api/v1/movies/search/movers", String.class).getStatusCode())
+                .isEqualTo(HttpStatus.NOT_FOUND);
+    }
+
+    @Test
+    void favoritesRoundTrip() throws IOException {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("X-User-Id", "4242");
+        HttpEntity<Void> request = new HttpEntity<>(headers);
+
+        ResponseEntity<String> added = restTemplate.exchange("/api/v1/favorites/7", HttpMethod.POST, request, String.class);
+        assertThat(added.getStatusCode()).isEqualTo(HttpStatus.CREATED);
+        assertThat(added.getHeaders().getFirst("X-Request-Id")).isNotBlank();
+
+        ResponseEntity<String> favorites = restTemplate.exchange("/api/v1/favorites?genre=18", HttpMethod.GET, request,
+                String.class);
+        JsonNode body = JSON.readTree(favorites.getBody());
+        assertThat(body.get("total").asInt()).isEqualTo(1);
+        assertThat(body.get("results").get(0).get("title").asText()).isEqualTo("Movie 7");
+
+        ResponseEntity<String> page = restTemplate.exchange("/favorites", HttpMethod.GET, request, String.class);
+        assertThat(page.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(page.getBody()).contains("Movie 7");
+
+        ResponseEntity<String> stats = restTemplate.exchange("/api/v1/favorites/stats", HttpMethod.GET, request,
+                String.class);
+        assertThat(JSON.readTree(stats.getBody()).get("count").asInt()).isEqualTo(1);
+    }
+
+    @Test
+    void apiItemsKeepOnlyRequestedAndNonNullFields() throws IOException {
+        JsonNode full = JSON.readTree(restTemplate.getForEntity("/api/v1/movies/popular?size=2", String.class)
+                .getBody());
+        assertThat(full.get("total").asInt()).isEqualTo(20);
+        assertThat(full.get("results")).hasSize(2);
+        JsonNode first = full.get("results").get(0);
+        assertThat(first.get("title").asText()).isEqualTo("Movie 100");
+        // The stub sends no "video": a null field is left out rather than written as null
+        assertThat(first.has("vote_average")).isTrue();
+        assertThat(first.has("video")).isFalse();
+
+        JsonNode trimmed = JSON.readTree(restTemplate.getForEntity(
+                "/api/v1/movies/popular?page=1&size=3&fields=id,title,video", String.class).getBody());
+        assertThat(trimmed.get("results")).hasSize(3);
+        assertThat(trimmed.get("results").get(0).get("id").asLong()).isEqualTo(103);
+        for (JsonNode item : trimmed.get("results")) {
+            assertThat(item.fieldNames()).toIterable().containsExactlyInAnyOrder("id", "title");
+        }
+    }
+
+    @Test
+    void favoritesSearchIsPagedByTheDatabase() throws IOException {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("X-User-Id", "4545");
+        HttpEntity<Void> request = new HttpEntity<>(headers);
+        for (long id = 12; id <= 14; id++) {
+            restTemplate.exchange("/api/v1/favorites/" + id, HttpMethod.POST, request, String.class);
+        }
+
+        // Ordered by rating: 14, 13, 12
+        JsonNode page = JSON.readTree(restTemplate.exchange("/api/v1/favorites?search={q}&size=2&page=1",
+                HttpMethod.GET, request, String.class, "MOVIE 1").getBody());
+        assertThat(page.get("total").asInt()).isEqualTo(3);
+        assertThat(page.get("results")).hasSize(1);
+        assertThat(page.get("results").get(0).get("id").asLong()).isEqualTo(12);
+    }
+
+    @Test
+    void favoriteChangesArePushedToEventStreams() {
+        assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+            HttpRequest subscribe = HttpRequest.newBuilder(URI.create(restTemplate.getRootUri() + "/favorites/events"))
+                    .header("X-User-Id", "4343")
+                    .header("Accept", "text/event-stream")
+                    .build();
+            HttpResponse<Stream<String>> stream = HttpClient.newHttpClient().send(subscribe,
+                    HttpResponse.BodyHandlers.ofLines());
+            assertThat(stream.statusCode()).isEqualTo(200);
+            Iterator<String> lines = stream.body().iterator();
+
+            HttpHeaders headers = new HttpHeaders();
+            headers.set("X-User-Id", "4343");
+            restTemplate.exchange("/api/v1/favorites/8", HttpMethod.POST, new HttpEntity<>(headers), String.class);
+
+            String line;
+            do {
+                line = lines.next();
+            } while (!line.startsWith("data:{\"id\":8"));
+            assertThat(line).isEqualTo("data:{\"id\":8,\"favorite\":true}");
+            stream.body().close();
+        });
+    }
+
+    @Test
+    void stageTimingsAreReportedAndSlowRequestsKept() throws IOException {
+        ResponseEntity<String> page = restTemplate.getForEntity("/movie/9", String.class);
+        assertThat(page.getHeaders().getFirst("Server-Timing"))
+                .contains("tmdb;dur=", "favorites;dur=", "total;dur=");
+
+        JsonNode report = JSON.readTree(restTemplate.getForObject("/actuator/slowrequests", String.class));
+        JsonNode slow = null;
+        for (JsonNode request : report.get("requests")) {
+            if (request.get("path").asText().equals("/movie/9")) {
+                slow = request;
+            }
+        }
+        assertThat(slow).isNotNull();
+        assertThat(slow.get("route").asText()).isEqualTo("/movie/{id}");
+        assertThat(slow.get("stages").has("tmdb")).isTrue();
+        assertThat(slow.get("stages").has("render")).isTrue();
+        assertThat(slow.get("trace").size()).isGreaterThanOrEqualTo(3);
+    }
+
+    @Test
+    void fullBulkheadShedsOnlyItsOwnRoutes() {
+        Compartment toggles = bulkheads.get(Bulkhead.TOGGLE);
+        int held = 0;
+        try {
+            while (toggles.tryEnter()) {
+                held++;
+            }
+            HttpHeaders headers = new HttpHeaders();
+            headers.set("X-User-Id", "4444");
+            HttpEntity<Void> request = new HttpEntity<>(headers);
+
+            ResponseEntity<String> shed = restTemplate.exchange("/favorites/toggle/11", HttpMethod.POST, request,
+                    String.class);
+            assertThat(shed.getStatusCode()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE);
+            assertThat(shed.getHeaders().getFirst(HttpHeaders.RETRY_AFTER)).isEqualTo("1");
+            assertThat(shed.getBody()).isEqualTo("busy");
+
+            ResponseEntity<String> page = restTemplate.exchange("/favorites", HttpMethod.GET, request, String.class);
+            assertThat(page.getStatusCode()).isEqualTo(HttpStatus.OK);
+        } finally {
+            for (; held > 0; held--) {
+                toggles.exit();
+            }
+        }
+        assertThat(toggles.getActive()).isZero();
+    }
+
+    private HttpResponse<byte[]> getGzip(String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(restTemplate.getRootUri() + path))
+                .header(HttpHeaders.ACCEPT_ENCODING, "gzip")
+                .build();
+        return HttpClient.newHttpClient().send(request, HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private static String gunzip(byte[] body) throws IOException {
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(body))) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private String getPage(String path) {
+        ResponseEntity<String> response = restTemplate.getForEntity(path, String.class);
+        assertThat(response.getStatusCode()).as(path).isEqualTo(HttpStatus.OK);
+        return response.getBody();
+    }
+
+    /**
+     * Serves the TMDb endpoints the app calls: lists of 20 movies numbered from a per-list base ID, and details
+     */
+    private static HttpServer startTmdbStub() {
+        try {
+            HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            server.createContext("/3/", MainPagesSmokeTests::handleTmdbRequest);
+            server.start();
+            return server;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void handleTmdbRequest(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        Object body;
+        if (path.matches("/3/movie/\\d+")) {
+            Map<String, Object> movie = movie(Long.parseLong(path.substring(path.lastIndexOf('/') + 1)));
+            movie.remove("genre_ids");
+            movie.put("genres", List.of(Map.of("id", 18, "name", "Drama")));
+            body = movie;
+        } else {
+            long base = switch (path) {
+                case "/3/trending/movie/day" -> 1;
+                case "/3/movie/popular" -> 100;
+                case "/3/movie/now_playing" -> 200;
+                case "/3/search/movie" -> 300;
+                default -> 400;
+            };
+            List<Map<String, Object>> results = new ArrayList<>();
+            for (long id = base; id < base + 20; id++) {
+                results.add(movie(id));
+            }
+            body = Map.of("page", 1, "results", results, "total_pages", 1, "total_results", results.size());
+        }
+
+        byte[] data = JSON.writeValueAsString(body).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, data.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(data);
+        }
+    }
+
+    private static Map<String, Object> movie(long id) {
+        Map<String, Object> movie = new LinkedHashMap<>();
+        movie.put("id", id);
+        movie.put("title", "Movie " + id);
+        movie.put("overview", "Overview " + id);
+        movie.put("poster_path", "/p" + id + ".jpg");
+        movie.put("backdrop_path", "/b" + id + ".jpg");
+        movie.put("release_date", "199" + (id % 10) + "-01-01");
+        movie.put("vote_average", id % 10 + 0.5);
+        movie.put("vote_count", id * 10);
+        movie.put("original_language", "en");
+        movie.put("original_title", "Movie " + id);
+        movie.put("adult", false);
+        movie.put("popularity", id * 1.5);
+        movie.put("genre_ids", id % 2 == 0 ? List.of(28) : List.of(18, 35));
+        return movie;
+    }
+}
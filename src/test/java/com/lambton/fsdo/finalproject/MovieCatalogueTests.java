@@ -0,0 +1,178 @@
+package com.lambton.fsdo.finalproject;
+
+import com.lambton.fsdo.finalproject.entities.TMDbMovieDto;
+import com.lambton.fsdo.finalproject.services.MovieCatalogue;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Movies read back from the catalogue's columns and text buffers equal the DTOs that were put in,
+ * through every encoding it falls back to and after updates and compaction.
+ */
+class MovieCatalogueTests {
+
+    private final MovieCatalogue catalogue = new MovieCatalogue(100_000, new SimpleMeterRegistry());
+
+    @Test
+    void missingFieldsStayMissing() {
+        TMDbMovieDto empty = new TMDbMovieDto();
+        empty.setId(1L);
+        TMDbMovieDto emptyGenres = movie(2, "No genres", "/a.jpg");
+        emptyGenres.setGenreIds(List.of());
+        emptyGenres.setAdult(false);
+        emptyGenres.setVideo(false);
+        TMDbMovieDto complete = movie(3, "Complete", "/kqjL17yufvn9OVLyXYpvtyrFfak.jpg");
+        catalogue.putAll(List.of(empty, emptyGenres, complete));
+
+        assertRoundTrips(empty, emptyGenres, complete);
+        assertThat(catalogue.get(1).getGenreIds()).isNull();
+        assertThat(catalogue.get(2).getGenreIds()).isEmpty();
+        assertThat(catalogue.get(4)).isNull();
+        assertThat(catalogue.size()).isEqualTo(3);
+    }
+
+    @Test
+    void genresBeyondEightPerMovieOrTheCodeLimitGoToTheOverflowMap() {
+        TMDbMovieDto many = movie(10, "Many genres", null);
+        many.setGenreIds(List.of(28, 12, 16, 35, 80, 99, 18, 10751, 14, 36));
+        catalogue.putAll(List.of(many));
+        assertRoundTrips(many);
+
+        // Back to a packed list: the overflow entry must not shadow it
+        many.setGenreIds(List.of(27, 28));
+        catalogue.putAll(List.of(many));
+        assertRoundTrips(many);
+
+        // Genre codes are one byte; IDs seen after the first 254 distinct ones are kept in the overflow map too
+        List<TMDbMovieDto> movies = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            TMDbMovieDto movie = movie(1_000 + i, "Genre " + i, null);
+            movie.setGenreIds(List.of(28, 100_000 + i));
+            movies.add(movie);
+        }
+        catalogue.putAll(movies);
+        assertRoundTrips(movies.toArray(TMDbMovieDto[]::new));
+    }
+
+    @Test
+    void imagePathsRoundTripWithAndWithoutDictionaryCodes() {
+        TMDbMovieDto noExtension = movie(20, "No extension", "/t/p/original/abcdef");
+        TMDbMovieDto dotInDirectory = movie(21, "Dot in directory", "/t.p/abcdef");
+        dotInDirectory.setBackdropPath("relative.png");
+        TMDbMovieDto empty = movie(22, "Empty path", "");
+        catalogue.putAll(List.of(noExtension, dotInDirectory, empty));
+        assertRoundTrips(noExtension, dotInDirectory, empty);
+
+        // Fill the dictionary (languages share it), so new directories and extensions are stored whole
+        List<TMDbMovieDto> fillers = new ArrayList<>();
+        for (int i = 0; i < Short.MAX_VALUE; i++) {
+            TMDbMovieDto filler = new TMDbMovieDto();
+            filler.setId(100_000L + i);
+            filler.setOriginalLanguage("l" + i);
+            fillers.add(filler);
+        }
+        catalogue.putAll(fillers);
+        TMDbMovieDto whole = movie(23, "After the dictionary filled up", "/never/seen/before.webp");
+        whole.setOriginalLanguage(null);
+        TMDbMovieDto coded = movie(24, "Known directory", "/t/p/original/xyz");
+        coded.setOriginalLanguage(null);
+        catalogue.putAll(List.of(whole, coded));
+        assertRoundTrips(whole, coded, noExtension, dotInDirectory, empty);
+    }
+
+    @Test
+    void multiByteTextRoundTrips() {
+        TMDbMovieDto japanese = movie(30, "千と千尋の神隠し", "/千.jpg");
+        japanese.setOriginalTitle("Sen to Chihiro no kamikakushi");
+        japanese.setOverview("🐉 ".repeat(5_000) + "fin");
+        TMDbMovieDto sameTitle = movie(31, "Amélie", null);
+        sameTitle.setOriginalTitle("Amélie");
+        sameTitle.setOverview("é".repeat(100));
+        catalogue.putAll(List.of(japanese, sameTitle));
+        assertRoundTrips(japanese, sameTitle);
+    }
+
+    @Test
+    void updatesOverwriteInPlaceOrAppend() {
+        List<TMDbMovieDto> movies = IntStream.range(40, 50)
+                .mapToObj(id -> movie(id, "Movie " + id, "/p" + id + ".jpg"))
+                .toList();
+        catalogue.putAll(movies);
+
+        // Shorter text is written over the old record, longer text is appended elsewhere
+        TMDbMovieDto shrunk = movies.get(3);
+        shrunk.setOverview("short");
+        TMDbMovieDto grown = movies.get(4);
+        grown.setOverview("A much longer overview than before, ".repeat(20));
+        grown.setVoteAverage(9.5);
+        catalogue.putAll(List.of(shrunk, grown));
+        assertRoundTrips(movies.toArray(TMDbMovieDto[]::new));
+
+        // Unchanged text, changed numbers
+        TMDbMovieDto numbers = movies.get(5);
+        numbers.setVoteCount(12);
+        numbers.setReleaseDate(null);
+        catalogue.putAll(List.of(numbers));
+        assertRoundTrips(movies.toArray(TMDbMovieDto[]::new));
+        assertThat(catalogue.size()).isEqualTo(10);
+    }
+
+    @Test
+    void compactionKeepsEveryRecord() {
+        // Ten records of 200 KB grown to 300 KB (appended) and then shrunk to a few bytes (in place)
+        // leave most of the buffers unused, which triggers a compaction
+        List<TMDbMovieDto> movies = IntStream.range(60, 70)
+                .mapToObj(id -> movie(id, "Movie " + id, "/p" + id + ".jpg"))
+                .toList();
+        movies.forEach(movie -> movie.setOverview("a".repeat(200_000)));
+        catalogue.putAll(movies);
+        movies.forEach(movie -> movie.setOverview("b".repeat(300_000)));
+        catalogue.putAll(movies);
+        long grownBytes = catalogue.offHeapBytes();
+        assertRoundTrips(movies.toArray(TMDbMovieDto[]::new));
+
+        movies.forEach(movie -> movie.setOverview("c" + movie.getId()));
+        catalogue.putAll(movies);
+
+        assertThat(catalogue.offHeapBytes()).isLessThan(grownBytes).isEqualTo(1 << 20);
+        assertRoundTrips(movies.toArray(TMDbMovieDto[]::new));
+
+        // Records appended after the compaction go after the compacted ones
+        TMDbMovieDto added = movie(70, "Added", "/p70.jpg");
+        catalogue.putAll(List.of(added));
+        assertRoundTrips(added, movies.get(0), movies.get(9));
+    }
+
+    private void assertRoundTrips(TMDbMovieDto... movies) {
+        for (TMDbMovieDto movie : movies) {
+            assertThat(catalogue.get(movie.getId())).as("movie %d", movie.getId())
+                    .usingRecursiveComparison().isEqualTo(movie);
+        }
+    }
+
+    private static TMDbMovieDto movie(long id, String title, String posterPath) {
+        TMDbMovieDto movie = new TMDbMovieDto();
+        movie.setId(id);
+        movie.setTitle(title);
+        movie.setOriginalTitle(title + " (original)");
+        movie.setOverview("Overview of " + title);
+        movie.setPosterPath(posterPath);
+        movie.setBackdropPath(posterPath);
+        movie.setReleaseDate(LocalDate.of(2000, 1, 1).plusDays(id));
+        movie.setVoteAverage(id % 10 + 0.5);
+        movie.setPopularity(id * 1.25);
+        movie.setVoteCount((int) id * 3);
+        movie.setOriginalLanguage(id % 2 == 0 ? "en" : "ja");
+        movie.setAdult(id % 3 == 0);
+        movie.setVideo(id % 4 == 0 ? null : Boolean.TRUE);
+        movie.setGenreIds(List.of(28, 18));
+        return movie;
+    }
+}
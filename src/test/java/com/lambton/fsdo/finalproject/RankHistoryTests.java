@@ -0,0 +1,81 @@
+package com.lambton.fsdo.finalproject;
+
+import com.lambton.fsdo.finalproject.entities.TMDbMovieDto;
+import com.lambton.fsdo.finalproject.entities.TMDbSnapshot;
+import com.lambton.fsdo.finalproject.services.RankHistory;
+import com.lambton.fsdo.finalproject.services.RankMovers;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Rankings are recorded when the order of a list changes, and the movers between the latest two are
+ * ready without looking at older rankings.
+ */
+class RankHistoryTests {
+
+    @Test
+    void moversAreWorkedOutWhenTheOrderChanges() {
+        RankHistory history = new RankHistory(3, new SimpleMeterRegistry());
+        assertThat(history.getMovers(RankHistory.TRENDING).previousFetchedAt()).isZero();
+
+        history.observe(RankHistory.TRENDING, snapshot(1_000, 1, 0.5, 10, 20, 30, 40));
+        // Refreshed votes, same order: not a new ranking
+        history.observe(RankHistory.TRENDING, snapshot(2_000, 1, 0.9, 10, 20, 30, 40));
+        history.observe(RankHistory.TRENDING, snapshot(3_000, 1, 0.9, 30, 10, 50, 20));
+
+        RankMovers movers = history.getMovers(RankHistory.TRENDING);
+        assertThat(movers.fetchedAt()).isEqualTo(3_000);
+        assertThat(movers.previousFetchedAt()).isEqualTo(2_000);
+        assertThat(ids(movers.climbing())).containsExactly(30L);
+        assertThat(movers.climbing().get(0).change()).isEqualTo(2);
+        assertThat(ids(movers.entered())).containsExactly(50L);
+        assertThat(ids(movers.falling())).containsExactly(20L, 10L);
+        assertThat(ids(movers.dropped())).containsExactly(40L);
+        assertThat(movers.dropped().get(0).previousRank()).isEqualTo(4);
+
+        // An older snapshot arriving late changes nothing, and popular is tracked separately
+        history.observe(RankHistory.TRENDING, snapshot(1_500, 2, 0.5, 40, 30, 20, 10));
+        assertThat(history.getMovers(RankHistory.TRENDING)).isSameAs(movers);
+        assertThat(history.getMovers(RankHistory.POPULAR).climbing()).isEmpty();
+    }
+
+    @Test
+    void keepsTheLatestRankingsInARing() {
+        RankHistory history = new RankHistory(3, new SimpleMeterRegistry());
+        for (int i = 1; i <= 5; i++) {
+            // Movie 7 moves down one place per ranking
+            long[] ids = new long[i + 1];
+            for (int j = 0; j < i; j++) {
+                ids[j] = 100 + j;
+            }
+            ids[i] = 7;
+            history.observe(RankHistory.POPULAR, snapshot(i * 1_000L, i, 0.5, ids));
+        }
+
+        RankHistory.RankTrajectory trajectory = history.getTrajectory(RankHistory.POPULAR, 7);
+        assertThat(trajectory.fetchedAt()).containsExactly(3_000, 4_000, 5_000);
+        assertThat(trajectory.ranks()).containsExactly(4, 5, 6);
+        assertThat(history.getTrajectory(RankHistory.POPULAR, 999).ranks()).containsExactly(0, 0, 0);
+    }
+
+    private static TMDbSnapshot snapshot(long fetchedAt, int voteCount, double popularity, long... ids) {
+        List<TMDbMovieDto> movies = Arrays.stream(ids).mapToObj(id -> {
+            TMDbMovieDto movie = new TMDbMovieDto();
+            movie.setId(id);
+            movie.setTitle("Movie " + id);
+            movie.setVoteCount(voteCount);
+            movie.setPopularity(popularity);
+            return movie;
+        }).toList();
+        return new TMDbSnapshot(movies, fetchedAt);
+    }
+
+    private static List<Long> ids(List<RankMovers.Mover> movers) {
+        return movers.stream().map(mover -> mover.movie().getId()).toList();
+    }
+}
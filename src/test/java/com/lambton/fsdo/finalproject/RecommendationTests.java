@@ -0,0 +1,158 @@
+package com.lambton.fsdo.finalproject;
+
+import com.lambton.fsdo.finalproject.entities.Genre;
+import com.lambton.fsdo.finalproject.entities.Movie;
+import com.lambton.fsdo.finalproject.entities.TMDbMovieDto;
+import com.lambton.fsdo.finalproject.entities.TMDbSnapshot;
+import com.lambton.fsdo.finalproject.repositories.MovieRepository;
+import com.lambton.fsdo.finalproject.services.MovieFeatureMatrix;
+import com.lambton.fsdo.finalproject.services.MovieService;
+import com.lambton.fsdo.finalproject.services.RankHistory;
+import com.lambton.fsdo.finalproject.services.RecommendationService;
+import com.lambton.fsdo.finalproject.services.TMDbService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Recommendations are the candidates closest to the user's favorites, best first, without the movies the
+ * user has already favorited; a user without favorites gets none.
+ */
+@SpringBootTest(properties = "tmdb.cache.list-ttl=PT1H")
+class RecommendationTests {
+
+    private static final long USER = 3636;
+    private static final long USER_WITHOUT_FAVORITES = 3637;
+
+    @Autowired
+    private RecommendationService recommendationService;
+
+    @Autowired
+    private TMDbService tmdbService;
+
+    @Autowired
+    private MovieService movieService;
+
+    @Autowired
+    private MovieRepository movieRepository;
+
+    @Test
+    void topKMatchesAFullSortOfTheScores() {
+        List<TMDbMovieDto> movies = new ArrayList<>();
+        Genre[] genres = Genre.values();
+        for (int i = 0; i < 200; i++) {
+            movies.add(movie(10_000 + i, 1 + i % 97 * 3.0, i % 11 * 0.9,
+                    genres[i % genres.length], genres[i * 7 % genres.length]));
+        }
+        MovieFeatureMatrix matrix = MovieFeatureMatrix.of(movies);
+        float[] profile = profile(List.of(movies.get(3), movies.get(42), movies.get(150)));
+        float[] scores = new float[matrix.size()];
+        matrix.score(profile, scores);
+
+        // Every third movie is excluded, the way favorites are
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < matrix.size(); i++) {
+            if (matrix.movieId(i) % 3 != 0) {
+                expected.add(i);
+            }
+        }
+        expected.sort(Comparator.comparingDouble((Integer i) -> scores[i]).reversed());
+
+        int[] best = matrix.topK(profile, 10, tmdbId -> tmdbId % 3 == 0);
+        assertThat(best).hasSize(10);
+        for (int rank = 0; rank < best.length; rank++) {
+            // Compared by score: movies with equal scores may come out in either order
+            assertThat(scores[best[rank]]).as("rank %d", rank).isEqualTo(scores[expected.get(rank)]);
+            assertThat(matrix.movieId(best[rank]) % 3).isNotZero();
+        }
+
+        // Asking for more than there are returns every movie that is not excluded
+        assertThat(matrix.topK(profile, 1_000, tmdbId -> tmdbId % 3 == 0)).hasSize(expected.size());
+    }
+
+    @Test
+    void recommendsTheClosestMoviesTheUserHasNotFavorited() {
+        TMDbMovieDto actionThriller = movie(3601, 120.0, 8.0, Genre.ACTION, Genre.THRILLER);
+        TMDbMovieDto action = movie(3602, 60.0, 7.0, Genre.ACTION);
+        TMDbMovieDto actionThrillerCrime = movie(3603, 90.0, 7.5, Genre.ACTION, Genre.THRILLER, Genre.CRIME);
+        TMDbMovieDto romanticComedy = movie(3604, 80.0, 6.5, Genre.COMEDY, Genre.ROMANCE);
+        TMDbMovieDto horror = movie(3605, 15.0, 5.0, Genre.HORROR);
+        TMDbMovieDto thriller = movie(3606, 40.0, 6.0, Genre.THRILLER);
+        TMDbMovieDto notACandidate = movie(3607, 100.0, 8.0, Genre.ACTION, Genre.THRILLER);
+        long now = System.currentTimeMillis();
+        // A movie on two lists is one candidate
+        tmdbService.restoreSnapshots(Map.of(
+                RankHistory.TRENDING, new TMDbSnapshot(List.of(actionThriller, romanticComedy, action), now),
+                RankHistory.POPULAR, new TMDbSnapshot(List.of(horror, actionThriller, thriller), now),
+                "now-playing", new TMDbSnapshot(List.of(actionThrillerCrime), now)));
+
+        assertThat(recommendationService.recommend(USER_WITHOUT_FAVORITES, 10)).isEmpty();
+
+        // Movies no other test stores: the second-level cache is shared by the contexts in the test JVM
+        favorite(actionThriller);
+        favorite(notACandidate);
+
+        List<TMDbMovieDto> recommended = recommendationService.recommend(USER, 10);
+        assertThat(ids(recommended)).containsExactly(3603L, 3602L, 3606L, 3604L, 3605L);
+        assertThat(ids(recommendationService.recommend(USER, 2))).containsExactly(3603L, 3602L);
+
+        // The order is the order of the scores
+        float[] profile = profile(List.of(actionThriller, notACandidate));
+        MovieFeatureMatrix matrix = MovieFeatureMatrix.of(recommended);
+        float[] scores = new float[matrix.size()];
+        matrix.score(profile, scores);
+        for (int i = 1; i < scores.length; i++) {
+            assertThat(scores[i]).isLessThanOrEqualTo(scores[i - 1]);
+        }
+
+        movieService.removeFromFavorites(USER, 3601L);
+        assertThat(ids(recommendationService.recommend(USER, 1))).containsExactly(3601L);
+    }
+
+    private void favorite(TMDbMovieDto dto) {
+        Movie movie = new Movie();
+        movie.setTmdbId(dto.getId());
+        movie.setTitle(dto.getTitle());
+        movie.setPopularity(dto.getPopularity());
+        movie.setVoteAverage(dto.getVoteAverage());
+        movie.setGenreMask(Genre.toMask(dto.getGenreIds()));
+        movieRepository.save(movie);
+        assertThat(movieService.addToFavorites(USER, dto.getId())).isTrue();
+    }
+
+    private static float[] profile(List<TMDbMovieDto> favorites) {
+        float[] profile = new float[MovieFeatureMatrix.DIMENSIONS];
+        float[] vector = new float[MovieFeatureMatrix.DIMENSIONS];
+        for (TMDbMovieDto favorite : favorites) {
+            MovieFeatureMatrix.encode(Genre.toMask(favorite.getGenreIds()), favorite.getPopularity(),
+                    favorite.getVoteAverage(), vector);
+            for (int d = 0; d < vector.length; d++) {
+                profile[d] += vector[d];
+            }
+        }
+        MovieFeatureMatrix.normalize(profile);
+        return profile;
+    }
+
+    private static TMDbMovieDto movie(long id, Double popularity, Double voteAverage, Genre... genres) {
+        TMDbMovieDto movie = new TMDbMovieDto();
+        movie.setId(id);
+        movie.setTitle("Movie " + id);
+        movie.setPopularity(popularity);
+        movie.setVoteAverage(voteAverage);
+        movie.setGenreIds(Arrays.stream(genres).distinct().map(Genre::getTmdbId).toList());
+        return movie;
+    }
+
+    private static List<Long> ids(List<TMDbMovieDto> movies) {
+        return movies.stream().map(TMDbMovieDto::getId).toList();
+    }
+}
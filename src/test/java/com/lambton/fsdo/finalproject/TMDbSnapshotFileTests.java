@@ -0,0 +1,116 @@
+package com.lambton.fsdo.finalproject;
+
+import com.lambton.fsdo.finalproject.entities.TMDbMovieDto;
+import com.lambton.fsdo.finalproject.entities.TMDbSnapshot;
+import com.lambton.fsdo.finalproject.services.TMDbSnapshotFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Snapshots written to the warm-start file read back field for field, including missing values,
+ * empty snapshots and text outside ASCII.
+ */
+class TMDbSnapshotFileTests {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void snapshotsReadBackAsWritten() throws IOException {
+        TMDbMovieDto complete = movie(603L, "The Matrix", "en", List.of(28, 878));
+        complete.setOriginalTitle("The Matrix");
+        complete.setOverview("A hacker learns the truth about his reality.");
+        complete.setPosterPath("/f89U3ADr1oiB1s9GkdPOEpXUk5H.jpg");
+        complete.setBackdropPath("/ncEsesgOJDNrTUED89hYbA117wo.jpg");
+        complete.setReleaseDate(LocalDate.of(1999, 3, 30));
+        complete.setVoteAverage(8.2);
+        complete.setPopularity(85.125);
+        complete.setVoteCount(26_000);
+        complete.setAdult(false);
+        complete.setVideo(true);
+
+        // Every field that can be missing is missing, the ID included
+        TMDbMovieDto empty = new TMDbMovieDto();
+
+        // Multi-byte UTF-8 in every text column, and an empty rather than missing genre list
+        TMDbMovieDto nonAscii = movie(129L, "千と千尋の神隠し", "ja", List.of());
+        nonAscii.setOriginalTitle("Sen to Chihiro no kamikakushi – 🐉");
+        nonAscii.setOverview("Une fillette de dix ans découvre un monde peuplé d'esprits. Ça commence…");
+        nonAscii.setPosterPath("/ç.jpg");
+        nonAscii.setBackdropPath("");
+        nonAscii.setReleaseDate(LocalDate.of(1, 1, 1));
+        nonAscii.setVoteAverage(0.0);
+        nonAscii.setPopularity(-0.5);
+        nonAscii.setVoteCount(0);
+        nonAscii.setAdult(true);
+
+        // Languages and genres shared across snapshots go through the dictionaries
+        TMDbMovieDto again = movie(604L, "The Matrix Reloaded", "en", List.of(878, 28, 12));
+
+        Map<String, TMDbSnapshot> written = new LinkedHashMap<>();
+        written.put("trending", new TMDbSnapshot(List.of(complete, empty), 1_700_000_000_000L));
+        written.put("search:nothing", new TMDbSnapshot(List.of(), 1_700_000_001_000L));
+        written.put("details:129", new TMDbSnapshot(List.of(nonAscii), 1_700_000_002_000L));
+        written.put("popular", new TMDbSnapshot(List.of(again, complete), 0L));
+
+        Path file = directory.resolve("snapshots.bin");
+        TMDbSnapshotFile.write(file, written);
+        Map<String, TMDbSnapshot> read = TMDbSnapshotFile.read(file);
+
+        assertThat(read.keySet()).containsExactlyElementsOf(written.keySet());
+        for (Map.Entry<String, TMDbSnapshot> entry : written.entrySet()) {
+            TMDbSnapshot expected = entry.getValue();
+            TMDbSnapshot actual = read.get(entry.getKey());
+            assertThat(actual.getFetchedAt()).isEqualTo(expected.getFetchedAt());
+            assertThat(actual.getVersion()).isEqualTo(expected.getVersion());
+            assertThat(actual.getMovies()).usingRecursiveFieldByFieldElementComparator()
+                    .containsExactlyElementsOf(expected.getMovies());
+            // The version is recomputed from the fields that were read back
+            assertThat(new TMDbSnapshot(actual.getMovies(), 0L).getVersion()).isEqualTo(expected.getVersion());
+        }
+        assertThat(read.get("trending").getMovies().get(1).getGenreIds()).isNull();
+        assertThat(read.get("details:129").getMovie().getGenreIds()).isEmpty();
+    }
+
+    @Test
+    void emptyFileHasNoSnapshots() throws IOException {
+        Path file = directory.resolve("nested/empty.bin");
+        TMDbSnapshotFile.write(file, Map.of());
+        assertThat(TMDbSnapshotFile.read(file)).isEmpty();
+
+        // A rewrite replaces the file and leaves no temporary file behind
+        TMDbSnapshotFile.write(file, Map.of("popular", new TMDbSnapshot(List.of(movie(1L, "One", null, null)), 5L)));
+        assertThat(TMDbSnapshotFile.read(file).get("popular").getMovie().getTitle()).isEqualTo("One");
+        try (var files = Files.list(file.getParent())) {
+            assertThat(files.toList()).containsExactly(file);
+        }
+    }
+
+    @Test
+    void rejectsOtherFiles() throws IOException {
+        Path file = directory.resolve("other.bin");
+        Files.write(file, new byte[]{'J', 'U', 'N', 'K', 0, 1, 0, 0});
+        assertThatThrownBy(() -> TMDbSnapshotFile.read(file)).isInstanceOf(IOException.class);
+    }
+
+    private static TMDbMovieDto movie(Long id, String title, String language, List<Integer> genreIds) {
+        TMDbMovieDto movie = new TMDbMovieDto();
+        movie.setId(id);
+        movie.setTitle(title);
+        movie.setOriginalLanguage(language);
+        movie.setGenreIds(genreIds == null ? null : new ArrayList<>(genreIds));
+        return movie;
+    }
+}
@@ -0,0 +1,109 @@
+package com.lambton.fsdo.finalproject.benchmarks;
+
+import com.lambton.fsdo.finalproject.controllers.FavoriteEventsHub;
+import com.lambton.fsdo.finalproject.services.FavoriteChangedEvent;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Opens many idle favorites event streams against one node, then measures what they cost
+ * (heap and threads) and how long one change per stream takes to reach every client.
+ * Client and server sockets live in the same JVM, so each stream takes two file descriptors.
+ * Run with: mvn test -Pbenchmark -Dtest=FavoriteEventsBenchmark -Dbenchmark.streams=5000
+ */
+@Tag("benchmark")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "favorites.events.max-connections=100000",
+        "server.tomcat.max-connections=100000"})
+class FavoriteEventsBenchmark {
+
+    private static final int STREAMS = Integer.getInteger("benchmark.streams", 5_000);
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private FavoriteEventsHub favoriteEventsHub;
+
+    @Test
+    void idleStreamsAndFanOut() throws IOException {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        long heapBefore = runtime.totalMemory() - runtime.freeMemory();
+        int threadsBefore = Thread.activeCount();
+
+        List<Socket> clients = new ArrayList<>(STREAMS);
+        long start = System.nanoTime();
+        try {
+            for (int i = 0; i < STREAMS; i++) {
+                clients.add(openStream(i + 1));
+            }
+            for (Socket client : clients) {
+                readUntil(client, "event:connected");
+            }
+            long openMillis = (System.nanoTime() - start) / 1_000_000;
+
+            System.gc();
+            long heapAfter = runtime.totalMemory() - runtime.freeMemory();
+            int threadsAfter = Thread.activeCount();
+            assertThat(favoriteEventsHub.getConnectionCount()).isEqualTo(STREAMS);
+
+            // One change per user, each to be pushed down that user's stream
+            start = System.nanoTime();
+            for (int i = 0; i < STREAMS; i++) {
+                favoriteEventsHub.onFavoriteChanged(new FavoriteChangedEvent((long) i + 1, 42L, true,
+                        7.5, null, "en", false));
+            }
+            long queuedNanos = System.nanoTime() - start;
+            for (Socket client : clients) {
+                readUntil(client, "\"favorite\":true");
+            }
+            long deliveredMillis = (System.nanoTime() - start) / 1_000_000;
+
+            System.out.printf("%,d streams opened in %,d ms%n", STREAMS, openMillis);
+            System.out.printf("heap: %,d KB total, ~%,d bytes per stream (client and server side)%n",
+                    (heapAfter - heapBefore) / 1024, (heapAfter - heapBefore) / STREAMS);
+            System.out.printf("threads: %d before, %d with all streams open%n", threadsBefore, threadsAfter);
+            System.out.printf("fan-out: %,d events queued in %,.1f ms (%,.2f us each), all delivered after %,d ms%n",
+                    STREAMS, queuedNanos / 1e6, queuedNanos / 1e3 / STREAMS, deliveredMillis);
+        } finally {
+            for (Socket client : clients) {
+                client.close();
+            }
+        }
+    }
+
+    private Socket openStream(long userId) throws IOException {
+        Socket socket = new Socket("127.0.0.1", port);
+        socket.setSoTimeout(30_000);
+        OutputStream out = socket.getOutputStream();
+        out.write(("GET /favorites/events HTTP/1.1\r\nHost: localhost\r\nAccept: text/event-stream\r\n"
+                + "X-User-Id: " + userId + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+        return socket;
+    }
+
+    private static void readUntil(Socket socket, String marker) throws IOException {
+        InputStream in = socket.getInputStream();
+        StringBuilder received = new StringBuilder();
+        byte[] buffer = new byte[1024];
+        while (received.indexOf(marker) < 0) {
+            int read = in.read(buffer);
+            assertThat(read).as("stream closed before " + marker).isPositive();
+            received.append(new String(buffer, 0, read, StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.lambton.fsdo.finalproject.benchmarks;
+
+import com.lambton.fsdo.finalproject.services.MovieService;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput of the per-user favorites listings while another user adds and removes favorites.
+ * Run with: mvn test -Pbenchmark -Dtest=FavoritesReadBenchmark
+ */
+@Tag("benchmark")
+@ActiveProfiles("prod")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@SpringBootTest(properties = "persistence.sql-log.sample-rate=1000000")
+class FavoritesReadBenchmark {
+
+    private static final int USERS = Integer.getInteger("benchmark.users", 200);
+    private static final int FAVORITES_PER_USER = Integer.getInteger("benchmark.favorites-per-user", 50);
+    private static final int MOVIES = 1000;
+    private static final int READERS = Integer.getInteger("benchmark.readers", 4);
+    private static final long SECONDS = Long.getLong("benchmark.seconds", 5);
+    // The writer works on its own user, whose pages the readers never load
+    private static final long WRITER_USER = USERS + 1;
+
+    @Autowired
+    private MovieService movieService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @BeforeAll
+    void createFavorites() {
+        List<Object[]> movies = new ArrayList<>();
+        for (long tmdbId = 1; tmdbId <= MOVIES; tmdbId++) {
+            movies.add(new Object[]{tmdbId, "Movie " + tmdbId, (tmdbId % 100) / 10.0});
+        }
+        List<Object[]> favorites = new ArrayList<>();
+        Timestamp addedAt = Timestamp.from(Instant.now());
+        for (long userId = 1; userId <= USERS; userId++) {
+            for (int i = 0; i < FAVORITES_PER_USER; i++) {
+                long tmdbId = (userId * 7 + i * 13L) % MOVIES + 1;
+                favorites.add(new Object[]{userId, tmdbId, (tmdbId % 100) / 10.0, addedAt});
+            }
+        }
+        // The prod pool hands out connections with auto-commit off
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.batchUpdate("INSERT INTO movies (tmdb_id, title, vote_average) VALUES (?, ?, ?)", movies);
+            jdbcTemplate.batchUpdate("INSERT INTO favorite_movies (user_id, tmdb_id, vote_average, added_at) " +
+                    "VALUES (?, ?, ?, ?)", favorites);
+        });
+    }
+
+    @Test
+    void favoritesReadsUnderWrites() throws Exception {
+        // Warm-up, not reported
+        measure(0);
+
+        System.out.printf("Favorites listings of %d users, %d readers, %d s per run:%n", USERS, READERS, SECONDS);
+        for (int writesPerSecond : new int[]{0, 1, 10, 100, -1}) {
+            long[] result = measure(writesPerSecond);
+            System.out.printf("  writer %-9s %,7d writes, %,8d page reads/s%n",
+                    writesPerSecond < 0 ? "unpaced:" : writesPerSecond + "/s:", result[1], result[0] / SECONDS);
+        }
+    }
+
+    /**
+     * @param writesPerSecond how often the writer adds or removes a favorite; 0 for no writer, -1 for as fast as it can
+     * @return the number of page reads and of writes
+     */
+    private long[] measure(int writesPerSecond) throws Exception {
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicLong reads = new AtomicLong();
+        AtomicLong writes = new AtomicLong();
+        ExecutorService executor = Executors.newFixedThreadPool(READERS + 1);
+        List<Future<?>> tasks = new ArrayList<>();
+        for (int i = 0; i < READERS; i++) {
+            tasks.add(executor.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (running.get()) {
+                    long userId = random.nextLong(1, USERS + 1);
+                    movieService.getFavoriteMoviesPage(userId, "rating", 0, 20);
+                    movieService.getFavoriteMoviesCount(userId);
+                    reads.incrementAndGet();
+                }
+            }));
+        }
+        if (writesPerSecond != 0) {
+            tasks.add(executor.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (running.get()) {
+                    long tmdbId = random.nextLong(1, MOVIES + 1);
+                    if (!movieService.addToFavorites(WRITER_USER, tmdbId)) {
+                        movieService.removeFromFavorites(WRITER_USER, tmdbId);
+                    }
+                    writes.incrementAndGet();
+                    if (writesPerSecond > 0) {
+                        TimeUnit.MICROSECONDS.sleep(1_000_000 / writesPerSecond);
+                    }
+                }
+                return null;
+            }));
+        }
+        TimeUnit.SECONDS.sleep(SECONDS);
+        running.set(false);
+        executor.shutdown();
+        for (Future<?> task : tasks) {
+            task.get();
+        }
+        return new long[]{reads.get(), writes.get()};
+    }
+}
@@ -0,0 +1,219 @@
+package com.lambton.fsdo.finalproject.benchmarks;
+
+import com.lambton.fsdo.finalproject.entities.FavoriteMovieId;
+import com.lambton.fsdo.finalproject.entities.Genre;
+import com.lambton.fsdo.finalproject.repositories.FavoriteMovieRepository;
+import com.lambton.fsdo.finalproject.services.FavoritesFilter;
+import com.lambton.fsdo.finalproject.services.FavoritesMembershipIndex;
+import com.lambton.fsdo.finalproject.services.MovieService;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Generates a large multi-user favorites table and measures the per-user queries against it.
+ * Run with: mvn test -Pbenchmark -Dbenchmark.users=1000000
+ */
+@Tag("benchmark")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@SpringBootTest(properties = "spring.jpa.show-sql=false")
+class FavoritesScaleBenchmark {
+
+    private static final int USERS = Integer.getInteger("benchmark.users", 100_000);
+    private static final int FAVORITES_PER_USER = Integer.getInteger("benchmark.favorites-per-user", 10);
+    private static final int MOVIES = Integer.getInteger("benchmark.movies", 20_000);
+    private static final int LOOKUPS = 20_000;
+    private static final int BATCH_SIZE = 10_000;
+    private static final String[] LANGUAGES = {"en", "fr", "ja", "es", "de", "ko", "it"};
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private MovieService movieService;
+
+    @Autowired
+    private FavoritesMembershipIndex favoritesIndex;
+
+    @Autowired
+    private FavoriteMovieRepository favoriteMovieRepository;
+
+    private final Random random = new Random(42);
+
+    @BeforeAll
+    void generateData() {
+        long start = System.nanoTime();
+
+        List<Object[]> movies = new ArrayList<>(BATCH_SIZE);
+        for (long tmdbId = 1; tmdbId <= MOVIES; tmdbId++) {
+            movies.add(new Object[]{tmdbId, "Movie " + tmdbId, rating(tmdbId), releaseDate(tmdbId),
+                    language(tmdbId), genreMask(tmdbId)});
+            if (movies.size() == BATCH_SIZE || tmdbId == MOVIES) {
+                jdbcTemplate.batchUpdate("INSERT INTO movies (tmdb_id, title, vote_average, release_date, language, " +
+                        "genre_mask) VALUES (?, ?, ?, ?, ?, ?)", movies);
+                movies.clear();
+            }
+        }
+
+        Timestamp addedAt = Timestamp.from(Instant.now());
+        List<Object[]> favorites = new ArrayList<>(BATCH_SIZE);
+        for (long userId = 1; userId <= USERS; userId++) {
+            int first = random.nextInt(MOVIES);
+            for (int k = 0; k < FAVORITES_PER_USER; k++) {
+                long tmdbId = (first + k) % MOVIES + 1;
+                favorites.add(new Object[]{userId, tmdbId, rating(tmdbId), releaseDate(tmdbId),
+                        language(tmdbId), releaseDate(tmdbId).toLocalDate().getYear(), genreMask(tmdbId), addedAt});
+                if (favorites.size() == BATCH_SIZE) {
+                    insertFavorites(favorites);
+                }
+            }
+        }
+        insertFavorites(favorites);
+
+        System.out.printf("Generated %,d users x %d favorites over %,d movies in %,d ms%n",
+                USERS, FAVORITES_PER_USER, MOVIES, (System.nanoTime() - start) / 1_000_000);
+
+        // The rows were written behind MovieService's back, so the membership index has to be rebuilt
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        long heapBefore = runtime.totalMemory() - runtime.freeMemory();
+        start = System.nanoTime();
+        favoritesIndex.reload();
+        long reloadMillis = (System.nanoTime() - start) / 1_000_000;
+        System.gc();
+        long heapAfter = runtime.totalMemory() - runtime.freeMemory();
+        System.out.printf("Loaded membership index in %,d ms, heap delta ~%,d KB%n",
+                reloadMillis, (heapAfter - heapBefore) / 1024);
+    }
+
+    @Test
+    void perUserQueriesUseIndexes() {
+        String ratingPlan = jdbcTemplate.queryForObject(
+                "EXPLAIN SELECT tmdb_id FROM favorite_movies WHERE user_id = 42 " +
+                        "ORDER BY vote_average DESC, tmdb_id LIMIT 20", String.class);
+        String releasePlan = jdbcTemplate.queryForObject(
+                "EXPLAIN SELECT tmdb_id FROM favorite_movies WHERE user_id = 42 " +
+                        "ORDER BY release_date DESC, tmdb_id LIMIT 20", String.class);
+        String existsPlan = jdbcTemplate.queryForObject(
+                "EXPLAIN SELECT 1 FROM favorite_movies WHERE user_id = 42 AND tmdb_id = 7", String.class);
+
+        System.out.println("Rating page plan:  " + ratingPlan.replaceAll("\\s+", " "));
+        System.out.println("Release page plan: " + releasePlan.replaceAll("\\s+", " "));
+        System.out.println("Exists plan:       " + existsPlan.replaceAll("\\s+", " "));
+
+        // Filters: each combination the filter API generates is served by a user_id-led index
+        String languageYearPlan = explain("SELECT tmdb_id FROM favorite_movies WHERE user_id = 42 " +
+                "AND language = 'fr' AND release_year >= 1990 AND release_year <= 1999 ORDER BY vote_average DESC");
+        String yearPlan = explain("SELECT tmdb_id FROM favorite_movies WHERE user_id = 42 " +
+                "AND release_year >= 1990 AND release_year <= 1999");
+        String genrePlan = explain("SELECT tmdb_id FROM favorite_movies WHERE user_id = 42 " +
+                "AND BITAND(genre_mask, 64) = 64 ORDER BY vote_average DESC, tmdb_id");
+        String moviesLanguagePlan = explain("SELECT tmdb_id FROM movies WHERE language = 'fr' " +
+                "AND release_date >= DATE '1990-01-01'");
+        System.out.println("Language+year plan: " + languageYearPlan);
+        System.out.println("Year plan:          " + yearPlan);
+        System.out.println("Genre plan:         " + genrePlan);
+        System.out.println("Movies by language: " + moviesLanguagePlan);
+
+        assertThat(ratingPlan).containsIgnoringCase("IDX_FAVORITE_MOVIES_USER_RATING");
+        assertThat(languageYearPlan).containsIgnoringCase("IDX_FAVORITE_MOVIES_USER_LANGUAGE_YEAR");
+        assertThat(yearPlan).containsIgnoringCase("IDX_FAVORITE_MOVIES_USER_YEAR");
+        assertThat(genrePlan).doesNotContainIgnoringCase("tableScan").containsIgnoringCase("USER_ID = ");
+        assertThat(moviesLanguagePlan).containsIgnoringCase("IDX_MOVIES_LANGUAGE_RELEASE");
+        assertThat(releasePlan).containsIgnoringCase("IDX_FAVORITE_MOVIES_USER_RELEASE");
+        assertThat(existsPlan).containsIgnoringCase("PRIMARY_KEY");
+    }
+
+    @Test
+    void membershipIndexMatchesDatabase() {
+        assertThat(favoritesIndex.isReady()).isTrue();
+        for (int i = 0; i < LOOKUPS / 10; i++) {
+            long userId = randomUser();
+            long tmdbId = random.nextInt(MOVIES) + 1L;
+            assertThat(favoritesIndex.contains(userId, tmdbId))
+                    .isEqualTo(favoriteMovieRepository.existsById(new FavoriteMovieId(userId, tmdbId)));
+        }
+    }
+
+    @Test
+    void perUserQueryLatency() {
+        // Warm up the JIT and the query plan cache before measuring
+        runLookups(LOOKUPS / 4);
+        runPages(LOOKUPS / 20);
+
+        long existsNanos = runLookups(LOOKUPS);
+        long existsSqlNanos = time(LOOKUPS, () -> favoriteMovieRepository.existsById(
+                new FavoriteMovieId(randomUser(), (long) random.nextInt(MOVIES) + 1)));
+        long pageNanos = runPages(LOOKUPS / 10);
+        long countNanos = time(LOOKUPS / 10, () -> movieService.getFavoriteMoviesCount(randomUser()));
+        FavoritesFilter frenchNineties = new FavoritesFilter("fr", 1990, 1999, null, null);
+        long filterNanos = time(LOOKUPS / 10, () ->
+                movieService.filterFavoriteMovies(randomUser(), frenchNineties, "rating", 0, 20));
+
+        System.out.printf("isInFavorites (index): %,8.1f us/op%n", existsNanos / 1_000.0 / LOOKUPS);
+        System.out.printf("isInFavorites (SQL):   %,8.1f us/op%n", existsSqlNanos / 1_000.0 / LOOKUPS);
+        System.out.printf("favorites page (20):   %,8.1f us/op%n", pageNanos / 1_000.0 / (LOOKUPS / 10));
+        System.out.printf("favorites count:       %,8.1f us/op%n", countNanos / 1_000.0 / (LOOKUPS / 10));
+        System.out.printf("filtered page (20):    %,8.1f us/op%n", filterNanos / 1_000.0 / (LOOKUPS / 10));
+    }
+
+    private String explain(String sql) {
+        return jdbcTemplate.queryForObject("EXPLAIN " + sql, String.class).replaceAll("\\s+", " ");
+    }
+
+    private long runLookups(int count) {
+        return time(count, () -> movieService.isInFavorites(randomUser(), (long) random.nextInt(MOVIES) + 1));
+    }
+
+    private long runPages(int count) {
+        return time(count, () -> movieService.getFavoriteMoviesPage(randomUser(), "rating", 0, 20));
+    }
+
+    private static long time(int count, Runnable operation) {
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            operation.run();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private long randomUser() {
+        return random.nextInt(USERS) + 1L;
+    }
+
+    private void insertFavorites(List<Object[]> favorites) {
+        jdbcTemplate.batchUpdate("INSERT INTO favorite_movies (user_id, tmdb_id, vote_average, release_date, " +
+                "language, release_year, genre_mask, added_at) VALUES (?, ?, ?, ?, ?, ?, ?, ?)", favorites);
+        favorites.clear();
+    }
+
+    private static double rating(long tmdbId) {
+        return (tmdbId * 37 % 100) / 10.0;
+    }
+
+    private static String language(long tmdbId) {
+        return LANGUAGES[(int) (tmdbId % LANGUAGES.length)];
+    }
+
+    private static long genreMask(long tmdbId) {
+        return Genre.values()[(int) (tmdbId % 19)].bit() | Genre.values()[(int) (tmdbId * 7 % 19)].bit();
+    }
+
+    private static Date releaseDate(long tmdbId) {
+        return Date.valueOf(LocalDate.of(1950, 1, 1).plusDays(tmdbId * 13 % 27_000));
+    }
+}
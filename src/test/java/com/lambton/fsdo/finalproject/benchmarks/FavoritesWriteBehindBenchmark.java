@@ -0,0 +1,148 @@
+package com.lambton.fsdo.finalproject.benchmarks;
+
+import com.lambton.fsdo.finalproject.FinalProjectApplication;
+import com.lambton.fsdo.finalproject.services.FavoritesWriteBehind;
+import com.lambton.fsdo.finalproject.services.MovieService;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Favorite toggles from many concurrent users, as the AJAX button sends them (check, then add or remove),
+ * with one transaction per toggle against write-behind at each durability. Runs under the prod persistence
+ * profile, one application context per mode. Each thread toggles its own users' favorites, and the rows
+ * left in favorite_movies are checked against what the toggles should have produced.
+ * Run with: mvn test -Pbenchmark -Dtest=FavoritesWriteBehindBenchmark -Dbenchmark.threads=16
+ */
+@Tag("benchmark")
+class FavoritesWriteBehindBenchmark {
+
+    private static final int THREADS = Integer.getInteger("benchmark.threads", 16);
+    private static final int TOGGLES = Integer.getInteger("benchmark.toggles", 1000);
+    private static final int MOVIES = 500;
+    private static final int USERS_PER_THREAD = 20;
+
+    @TempDir
+    Path journals;
+
+    @Test
+    void concurrentToggles() throws Exception {
+        List<String> results = new ArrayList<>();
+        results.add(run("one transaction per toggle", "--favorites.write-behind.enabled=false"));
+        for (String durability : List.of("fsync", "write", "memory")) {
+            results.add(run("write-behind, " + durability,
+                    "--favorites.write-behind.enabled=true",
+                    "--favorites.write-behind.durability=" + durability,
+                    "--favorites.write-behind.journal-dir=" + journals.resolve(durability)));
+        }
+
+        System.out.printf("%,d toggles on %d threads:%n", THREADS * TOGGLES, THREADS);
+        results.forEach(System.out::println);
+    }
+
+    private String run(String mode, String... arguments) throws Exception {
+        List<String> args = new ArrayList<>(List.of(arguments));
+        args.add("--spring.datasource.url=jdbc:h2:mem:toggles-" + UUID.randomUUID() + ";QUERY_CACHE_SIZE=64");
+        args.add("--server.port=0");
+        args.add("--persistence.sql-log.sample-rate=1000000");
+        args.add("--tmdb.cache.snapshot-file=" + journals.resolve("snapshots.bin"));
+
+        try (ConfigurableApplicationContext node = new SpringApplicationBuilder(FinalProjectApplication.class)
+                .profiles("prod")
+                .run(args.toArray(String[]::new))) {
+            createMovies(node);
+            MovieService movieService = node.getBean(MovieService.class);
+
+            // Warm-up, then the measured run with fresh users
+            toggle(movieService, 1_000_000, TOGGLES / 4);
+            node.getBean(FavoritesWriteBehind.class).flush();
+
+            long start = System.nanoTime();
+            long[] expected = toggle(movieService, 0, TOGGLES);
+            long elapsed = System.nanoTime() - start;
+
+            long flushStart = System.nanoTime();
+            node.getBean(FavoritesWriteBehind.class).flush();
+            long flush = System.nanoTime() - flushStart;
+
+            JdbcTemplate jdbc = node.getBean(JdbcTemplate.class);
+            long expectedRows = 0;
+            for (long rows : expected) {
+                expectedRows += rows;
+            }
+            Long rows = node.getBean(TransactionTemplate.class).execute(status -> jdbc.queryForObject(
+                    "SELECT COUNT(*) FROM favorite_movies WHERE user_id < 1000000", Long.class));
+            assertThat(rows).isEqualTo(expectedRows);
+
+            double seconds = elapsed / 1e9;
+            return String.format("  %-28s %,8.0f toggles/s, %,7.1f µs per toggle per thread, final flush %,d ms",
+                    mode, THREADS * TOGGLES / seconds, elapsed / 1e3 / TOGGLES, flush / 1_000_000);
+        }
+    }
+
+    /**
+     * Each thread toggles random movies of its own users
+     *
+     * @return per thread, the number of favorites its users should have at the end
+     */
+    private static long[] toggle(MovieService movieService, long firstUser, int toggles) throws Exception {
+        ExecutorService threads = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Long>> results = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            long users = firstUser + (long) t * USERS_PER_THREAD;
+            Random random = new Random(t);
+            results.add(threads.submit(() -> {
+                start.await();
+                long count = 0;
+                for (int i = 0; i < toggles; i++) {
+                    int user = random.nextInt(USERS_PER_THREAD);
+                    int movie = 1 + random.nextInt(MOVIES);
+                    long userId = users + user;
+                    if (movieService.isInFavorites(userId, (long) movie)) {
+                        assertThat(movieService.removeFromFavorites(userId, (long) movie)).isTrue();
+                        count--;
+                    } else {
+                        assertThat(movieService.addToFavorites(userId, (long) movie)).isTrue();
+                        count++;
+                    }
+                }
+                return count;
+            }));
+        }
+        start.countDown();
+        long[] expected = new long[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            expected[t] = results.get(t).get();
+        }
+        threads.shutdown();
+        return expected;
+    }
+
+    private static void createMovies(ConfigurableApplicationContext node) {
+        List<Object[]> movies = new ArrayList<>();
+        for (long tmdbId = 1; tmdbId <= MOVIES; tmdbId++) {
+            movies.add(new Object[]{tmdbId, "Movie " + tmdbId, (tmdbId % 100) / 10.0});
+        }
+        JdbcTemplate jdbc = node.getBean(JdbcTemplate.class);
+        // The prod pool hands out connections with auto-commit off
+        node.getBean(TransactionTemplate.class).executeWithoutResult(status -> jdbc.batchUpdate(
+                "INSERT INTO movies (tmdb_id, title, vote_average) VALUES (?, ?, ?)", movies));
+    }
+}
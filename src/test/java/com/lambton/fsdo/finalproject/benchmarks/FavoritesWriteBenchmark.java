@@ -0,0 +1,125 @@
+package com.lambton.fsdo.finalproject.benchmarks;
+
+import com.lambton.fsdo.finalproject.services.FavoritesBulkResult;
+import com.lambton.fsdo.finalproject.services.MovieService;
+import jakarta.persistence.EntityManager;
+import org.hibernate.Session;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Compares ways of writing many favorites for one user under the prod persistence profile:
+ * one add per transaction (the AJAX path), the bulk path with JDBC batching off, and the bulk path as configured.
+ * Run with: mvn test -Pbenchmark -Dtest=FavoritesWriteBenchmark
+ */
+@Tag("benchmark")
+@ActiveProfiles("prod")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@SpringBootTest(properties = "persistence.sql-log.sample-rate=1000000")
+class FavoritesWriteBenchmark {
+
+    private static final int FAVORITES = Integer.getInteger("benchmark.favorites", 1000);
+    private static final int ROUNDS = Integer.getInteger("benchmark.rounds", 5);
+
+    @Autowired
+    private MovieService movieService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    private final AtomicLong nextUserId = new AtomicLong(1);
+    private List<Long> tmdbIds;
+
+    @BeforeAll
+    void createMovies() {
+        tmdbIds = LongStream.rangeClosed(1, FAVORITES).boxed().toList();
+        List<Object[]> movies = new ArrayList<>();
+        for (Long tmdbId : tmdbIds) {
+            movies.add(new Object[]{tmdbId, "Movie " + tmdbId, (tmdbId % 100) / 10.0});
+        }
+        // The prod pool hands out connections with auto-commit off
+        transactionTemplate.executeWithoutResult(status -> jdbcTemplate.batchUpdate(
+                "INSERT INTO movies (tmdb_id, title, vote_average) VALUES (?, ?, ?)", movies));
+    }
+
+    @Test
+    void bulkFavoriteWrites() {
+        // Warm-up round of each, not reported
+        addOneByOne();
+        addInBulk(1);
+        addInBulk(0);
+
+        long oneByOne = 0;
+        long bulkUnbatched = 0;
+        long bulkBatched = 0;
+        long removeOneByOne = 0;
+        long removeBulk = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long userId = nextUserId.getAndIncrement();
+            oneByOne += time(() -> tmdbIds.forEach(tmdbId -> movieService.addToFavorites(userId, tmdbId)));
+            removeOneByOne += time(() -> tmdbIds.forEach(tmdbId -> movieService.removeFromFavorites(userId, tmdbId)));
+
+            bulkUnbatched += addInBulk(1);
+
+            long bulkUserId = nextUserId.getAndIncrement();
+            bulkBatched += time(() -> assertThat(addAll(bulkUserId, 0).added()).hasSize(FAVORITES));
+            removeBulk += time(() -> assertThat(movieService.removeAllFromFavorites(bulkUserId, tmdbIds))
+                    .hasSize(FAVORITES));
+        }
+
+        System.out.printf("Writing %,d favorites for one user, mean of %d rounds:%n", FAVORITES, ROUNDS);
+        System.out.printf("  add one by one:            %,8d ms%n", oneByOne / ROUNDS);
+        System.out.printf("  bulk add, batching off:    %,8d ms%n", bulkUnbatched / ROUNDS);
+        System.out.printf("  bulk add, batched:         %,8d ms%n", bulkBatched / ROUNDS);
+        System.out.printf("  remove one by one:         %,8d ms%n", removeOneByOne / ROUNDS);
+        System.out.printf("  bulk remove:               %,8d ms%n", removeBulk / ROUNDS);
+    }
+
+    private void addOneByOne() {
+        long userId = nextUserId.getAndIncrement();
+        tmdbIds.forEach(tmdbId -> movieService.addToFavorites(userId, tmdbId));
+    }
+
+    private long addInBulk(int jdbcBatchSize) {
+        long userId = nextUserId.getAndIncrement();
+        return time(() -> addAll(userId, jdbcBatchSize));
+    }
+
+    /**
+     * Bulk add inside an outer transaction, so the JDBC batch size can be overridden for its session; 0 keeps the configured one
+     */
+    private FavoritesBulkResult addAll(long userId, int jdbcBatchSize) {
+        return transactionTemplate.execute(status -> {
+            if (jdbcBatchSize > 0) {
+                entityManager.unwrap(Session.class).setJdbcBatchSize(jdbcBatchSize);
+            }
+            return movieService.addAllToFavorites(userId, tmdbIds);
+        });
+    }
+
+    private static long time(Runnable operation) {
+        long start = System.nanoTime();
+        operation.run();
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+}
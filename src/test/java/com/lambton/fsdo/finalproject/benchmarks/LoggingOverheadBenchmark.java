@@ -0,0 +1,159 @@
+package com.lambton.fsdo.finalproject.benchmarks;
+
+import ch.qos.logback.classic.AsyncAppender;
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.PatternLayout;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.FileAppender;
+import ch.qos.logback.core.encoder.LayoutWrappingEncoder;
+import com.lambton.fsdo.finalproject.logging.RateLimitedLogger;
+import com.lambton.fsdo.finalproject.logging.RedactingMessageConverter;
+import com.lambton.fsdo.finalproject.logging.RedactingThrowableConverter;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.MDC;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Measures what logging costs the request thread, before and after moving per-request lines to DEBUG,
+ * writing through an async appender and rate limiting upstream errors. Events are written to a file with
+ * the same pattern and redacting converters as logback-spring.xml.
+ * Run with: mvn test -Pbenchmark -Dtest=LoggingOverheadBenchmark
+ */
+@Tag("benchmark")
+class LoggingOverheadBenchmark {
+
+    private static final int REQUESTS = Integer.getInteger("benchmark.requests", 200_000);
+    private static final String PATTERN = "%d{yyyy-MM-dd'T'HH:mm:ss.SSSXXX} %5p 1234 --- [%15.15t] [%X{requestId:-}] "
+            + "%-40.40logger{39} : %m%n%wEx";
+
+    @TempDir
+    Path logDirectory;
+
+    @Test
+    void requestPathLoggingCost() throws IOException {
+        ResourceAccessException upstreamFailure = new ResourceAccessException(
+                "I/O error on GET request for \"https://api.themoviedb.org/3/movie/42?api_key=SECRET\": Connection refused",
+                new ConnectException("Connection refused"));
+
+        // Before: two INFO lines per request, written synchronously
+        Path syncFile = logDirectory.resolve("sync.log");
+        LoggerContext sync = newContext(syncFile, false);
+        Logger syncLogger = sync.getLogger("com.lambton.fsdo.finalproject.services.MovieService");
+        simulateRequests(syncLogger, REQUESTS / 10);
+        long syncInfoNanos = simulateRequests(syncLogger, REQUESTS);
+        long syncErrorNanos = time(REQUESTS / 20, i -> syncLogger.error("Error fetching movie details for ID: {}", i,
+                upstreamFailure));
+        sync.stop();
+
+        // After: per-request lines at DEBUG (disabled), INFO through the async appender, errors rate limited
+        Path asyncFile = logDirectory.resolve("async.log");
+        LoggerContext async = newContext(asyncFile, true);
+        Logger asyncLogger = async.getLogger("com.lambton.fsdo.finalproject.services.MovieService");
+        simulateRequests(asyncLogger, REQUESTS / 10);
+        long debugNanos = time(REQUESTS, i -> {
+            MDC.put("requestId", Long.toHexString(i));
+            asyncLogger.debug("Fetching movie details for ID: {}", i);
+            asyncLogger.debug("Loading movie details for ID: {}", i);
+            MDC.remove("requestId");
+        });
+        long asyncInfoNanos = simulateRequests(asyncLogger, REQUESTS);
+        RateLimitedLogger upstreamErrors = new RateLimitedLogger(asyncLogger, Duration.ofMinutes(1));
+        long rateLimitedNanos = time(REQUESTS / 20, i -> upstreamErrors.error("/movie/{id}", upstreamFailure,
+                "Error fetching movie details for ID {}", i));
+        long drainStart = System.nanoTime();
+        async.stop();
+        long drainMillis = (System.nanoTime() - drainStart) / 1_000_000;
+
+        System.out.printf("2 INFO lines, sync appender:      %,8.0f ns/request%n", (double) syncInfoNanos / REQUESTS);
+        System.out.printf("2 INFO lines, async appender:     %,8.0f ns/request%n", (double) asyncInfoNanos / REQUESTS);
+        System.out.printf("2 DEBUG lines, level INFO:        %,8.0f ns/request%n", (double) debugNanos / REQUESTS);
+        System.out.printf("upstream error, stack trace sync: %,8.0f ns/error%n", (double) syncErrorNanos / (REQUESTS / 20));
+        System.out.printf("upstream error, rate limited:     %,8.0f ns/error%n", (double) rateLimitedNanos / (REQUESTS / 20));
+        System.out.printf("log size: sync %,d KB, async %,d KB (async drained in %,d ms after the run)%n",
+                Files.size(syncFile) / 1024, Files.size(asyncFile) / 1024, drainMillis);
+
+        List<String> asyncLines = Files.readAllLines(asyncFile);
+        System.out.printf("async lines written: %,d of %,d INFO events (the rest were dropped when the queue was full)%n",
+                asyncLines.stream().filter(line -> line.contains(" INFO ")).count(), 2L * (REQUESTS + REQUESTS / 10));
+
+        assertThat(Files.readString(syncFile)).doesNotContain("SECRET").contains("api_key=***");
+        assertThat(asyncLines).noneMatch(line -> line.contains("SECRET"));
+        assertThat(asyncLines).filteredOn(line -> line.contains(" ERROR ")).hasSize(1);
+    }
+
+    private static long simulateRequests(Logger logger, int count) {
+        return time(count, i -> {
+            MDC.put("requestId", Long.toHexString(i));
+            logger.info("Loading movie details for ID: {}", i);
+            logger.info("Fetching movie details for ID: {}", i);
+            MDC.remove("requestId");
+        });
+    }
+
+    private static LoggerContext newContext(Path file, boolean async) {
+        LoggerContext context = new LoggerContext();
+        context.setMDCAdapter(MDC.getMDCAdapter());
+
+        PatternLayout layout = new PatternLayout();
+        layout.setContext(context);
+        layout.setPattern(PATTERN);
+        layout.getInstanceConverterMap().put("m", RedactingMessageConverter::new);
+        layout.getInstanceConverterMap().put("wEx", RedactingThrowableConverter::new);
+        layout.start();
+
+        LayoutWrappingEncoder<ILoggingEvent> encoder = new LayoutWrappingEncoder<>();
+        encoder.setContext(context);
+        encoder.setLayout(layout);
+        encoder.start();
+
+        FileAppender<ILoggingEvent> fileAppender = new FileAppender<>();
+        fileAppender.setContext(context);
+        fileAppender.setFile(file.toString());
+        fileAppender.setEncoder(encoder);
+        fileAppender.start();
+
+        Appender<ILoggingEvent> appender = fileAppender;
+        if (async) {
+            AsyncAppender asyncAppender = new AsyncAppender();
+            asyncAppender.setContext(context);
+            asyncAppender.setQueueSize(8192);
+            asyncAppender.setNeverBlock(false);
+            asyncAppender.setIncludeCallerData(false);
+            asyncAppender.addAppender(fileAppender);
+            asyncAppender.start();
+            appender = asyncAppender;
+        }
+
+        Logger root = context.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME);
+        root.setLevel(Level.INFO);
+        root.addAppender(appender);
+        return context;
+    }
+
+    private static long time(int count, IntOperation operation) {
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            operation.run(i);
+        }
+        return System.nanoTime() - start;
+    }
+
+    @FunctionalInterface
+    private interface IntOperation {
+        void run(int i);
+    }
+}
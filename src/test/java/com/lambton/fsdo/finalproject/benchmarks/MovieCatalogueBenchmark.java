@@ -0,0 +1,185 @@
+package com.lambton.fsdo.finalproject.benchmarks;
+
+import com.lambton.fsdo.finalproject.entities.TMDbMovieDto;
+import com.lambton.fsdo.finalproject.services.MovieCatalogue;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Memory per movie of the catalogue against the same movies held as TMDbMovieDto objects in a map,
+ * and the cost of building a DTO view. Movies are generated with TMDb-like field lengths
+ * (overviews of 150-600 characters, 27-character image names) and, as after JSON parsing, no shared Strings.
+ * Run with: mvn test -Pbenchmark -Dtest=MovieCatalogueBenchmark -Dbenchmark.movies=200000
+ */
+@Tag("benchmark")
+class MovieCatalogueBenchmark {
+
+    private static final int MOVIES = Integer.getInteger("benchmark.movies", 200_000);
+    private static final int LOOKUPS = 1_000_000;
+    private static final String[] LANGUAGES = {"en", "fr", "ja", "es", "de", "ko", "it", "hi", "zh", "ru"};
+    private static final int[] GENRES = {28, 12, 16, 35, 80, 99, 18, 10751, 14, 36, 27, 10402, 9648, 10749, 878,
+            10770, 53, 10752, 37};
+    private static final String LETTERS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+
+    @Test
+    void memoryPerMovieAndViews() {
+        long objectBytes = objectLayoutBytes();
+
+        long heapBefore = usedHeap();
+        long directBefore = directMemory();
+        MovieCatalogue catalogue = fillCatalogue();
+        long catalogueHeap = usedHeap() - heapBefore;
+        long catalogueDirect = directMemory() - directBefore;
+
+        // Refetching the same movies leaves the text alone and allocates nothing in the catalogue
+        Random random = new Random(42);
+        List<TMDbMovieDto> again = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            again.add(movie(random, i));
+        }
+        long start = System.nanoTime();
+        catalogue.putAll(again);
+        long updateNanos = (System.nanoTime() - start) / again.size();
+
+        // Every field survives, so a view renders like the DTO it came from
+        for (TMDbMovieDto expected : again) {
+            TMDbMovieDto actual = catalogue.get(expected.getId());
+            assertThat(actual).usingRecursiveComparison().isEqualTo(expected);
+        }
+        assertThat(catalogue.offHeapBytes()).isEqualTo(catalogueDirect);
+
+        Random lookups = new Random(7);
+        long checksum = 0;
+        for (int i = 0; i < LOOKUPS / 10; i++) {
+            checksum += catalogue.get(lookups.nextInt(MOVIES) + 1).getTitle().length();
+        }
+        start = System.nanoTime();
+        for (int i = 0; i < LOOKUPS; i++) {
+            checksum += catalogue.get(lookups.nextInt(MOVIES) + 1).getTitle().length();
+        }
+        long viewNanos = (System.nanoTime() - start) / LOOKUPS;
+
+        long catalogueTotal = catalogueHeap + catalogueDirect;
+        System.out.printf("%,d movies%n", MOVIES);
+        System.out.printf("TMDbMovieDto in a HashMap: %,6d bytes per movie (heap)%n", objectBytes / MOVIES);
+        System.out.printf("catalogue:                 %,6d bytes per movie on heap (%,d by its own count), "
+                        + "%,d off-heap, %,d total%n",
+                catalogueHeap / MOVIES, catalogue.heapBytes() / MOVIES, catalogueDirect / MOVIES,
+                catalogueTotal / MOVIES);
+        System.out.printf("heap cut %.1fx, total cut %.1fx%n",
+                (double) objectBytes / catalogueHeap, (double) objectBytes / catalogueTotal);
+        System.out.printf("view: %,d ns per get, unchanged update: %,d ns per movie (checksum %d)%n",
+                viewNanos, updateNanos, checksum);
+
+        assertThat(objectBytes).isGreaterThan(3 * catalogueHeap);
+    }
+
+    private static long objectLayoutBytes() {
+        long heapBefore = usedHeap();
+        Map<Long, TMDbMovieDto> objects = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < MOVIES; i++) {
+            TMDbMovieDto movie = movie(random, i);
+            objects.put(movie.getId(), movie);
+        }
+        long bytes = usedHeap() - heapBefore;
+        assertThat(objects).hasSize(MOVIES);
+        return bytes;
+    }
+
+    /**
+     * Fill the catalogue 20 movies at a time, the size of a TMDb result page
+     */
+    private static MovieCatalogue fillCatalogue() {
+        MovieCatalogue catalogue = new MovieCatalogue(MOVIES, new SimpleMeterRegistry());
+        Random random = new Random(42);
+        List<TMDbMovieDto> page = new ArrayList<>(20);
+        for (int i = 0; i < MOVIES; i++) {
+            page.add(movie(random, i));
+            if (page.size() == 20) {
+                catalogue.putAll(page);
+                page.clear();
+            }
+        }
+        catalogue.putAll(page);
+        return catalogue;
+    }
+
+    private static TMDbMovieDto movie(Random random, int i) {
+        TMDbMovieDto movie = new TMDbMovieDto();
+        movie.setId((long) i + 1);
+        String title = text(random, 8 + random.nextInt(30));
+        movie.setTitle(title);
+        movie.setOriginalTitle(random.nextInt(4) == 0 ? text(random, 8 + random.nextInt(30)) : new String(title));
+        movie.setOverview(text(random, 150 + random.nextInt(450)));
+        movie.setPosterPath(random.nextInt(20) == 0 ? null : "/" + name(random) + ".jpg");
+        movie.setBackdropPath(random.nextInt(5) == 0 ? null : "/" + name(random) + ".jpg");
+        movie.setReleaseDate(random.nextInt(20) == 0 ? null : LocalDate.of(1920, 1, 1).plusDays(random.nextInt(38_000)));
+        movie.setVoteAverage(random.nextInt(10_000) / 1000.0);
+        movie.setVoteCount(random.nextInt(30_000));
+        movie.setPopularity(random.nextInt(1_000_000) / 1000.0);
+        // Parsed JSON values are distinct Strings, not the constants
+        movie.setOriginalLanguage(new String(LANGUAGES[random.nextInt(LANGUAGES.length)]));
+        movie.setAdult(false);
+        movie.setVideo(false);
+        List<Integer> genreIds = new ArrayList<>();
+        for (int g = 1 + random.nextInt(3); g > 0; g--) {
+            genreIds.add(GENRES[random.nextInt(GENRES.length)]);
+        }
+        movie.setGenreIds(genreIds);
+        return movie;
+    }
+
+    private static String text(Random random, int length) {
+        StringBuilder text = new StringBuilder(length);
+        while (text.length() < length) {
+            text.append(text.length() % 7 == 6 ? ' ' : LETTERS.charAt(random.nextInt(26)));
+        }
+        return text.toString();
+    }
+
+    private static String name(Random random) {
+        StringBuilder name = new StringBuilder(27);
+        for (int i = 0; i < 27; i++) {
+            name.append(LETTERS.charAt(random.nextInt(LETTERS.length())));
+        }
+        return name.toString();
+    }
+
+    /**
+     * Heap in use once garbage collections stop freeing anything; a single one can leave
+     * just-dropped objects behind
+     */
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 10; i++) {
+            System.gc();
+            long now = runtime.totalMemory() - runtime.freeMemory();
+            if (now >= used) {
+                return now;
+            }
+            used = now;
+        }
+        return used;
+    }
+
+    private static long directMemory() {
+        return ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class).stream()
+                .filter(pool -> pool.getName().equals("direct"))
+                .mapToLong(BufferPoolMXBean::getTotalCapacity)
+                .sum();
+    }
+}
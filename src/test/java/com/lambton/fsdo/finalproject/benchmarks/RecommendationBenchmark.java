@@ -0,0 +1,88 @@
+package com.lambton.fsdo.finalproject.benchmarks;
+
+import com.lambton.fsdo.finalproject.entities.Genre;
+import com.lambton.fsdo.finalproject.entities.TMDbMovieDto;
+import com.lambton.fsdo.finalproject.services.MovieFeatureMatrix;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Scores and ranks a large candidate set against a favorites profile.
+ * Run with: mvn test -Pbenchmark -Dtest=RecommendationBenchmark -Dbenchmark.candidates=100000
+ */
+@Tag("benchmark")
+class RecommendationBenchmark {
+
+    private static final int CANDIDATES = Integer.getInteger("benchmark.candidates", 100_000);
+    private static final int TOP_K = 20;
+    private static final int ITERATIONS = 500;
+
+    private final Random random = new Random(42);
+
+    @Test
+    void topKOverCandidates() {
+        List<Integer> genreIds = new ArrayList<>();
+        for (Genre genre : Genre.values()) {
+            genreIds.add(genre.getTmdbId());
+        }
+
+        List<TMDbMovieDto> movies = new ArrayList<>(CANDIDATES);
+        for (long id = 1; id <= CANDIDATES; id++) {
+            TMDbMovieDto movie = new TMDbMovieDto();
+            movie.setId(id);
+            movie.setGenreIds(List.of(genreIds.get(random.nextInt(genreIds.size())),
+                    genreIds.get(random.nextInt(genreIds.size()))));
+            movie.setPopularity(random.nextDouble() * 500);
+            movie.setVoteAverage(random.nextDouble() * 10);
+            movies.add(movie);
+        }
+
+        long buildStart = System.nanoTime();
+        MovieFeatureMatrix matrix = MovieFeatureMatrix.of(movies);
+        long buildNanos = System.nanoTime() - buildStart;
+
+        float[] profile = new float[MovieFeatureMatrix.DIMENSIONS];
+        float[] vector = new float[MovieFeatureMatrix.DIMENSIONS];
+        for (int i = 0; i < 25; i++) {
+            TMDbMovieDto favorite = movies.get(random.nextInt(CANDIDATES));
+            MovieFeatureMatrix.encode(Genre.toMask(favorite.getGenreIds()), favorite.getPopularity(),
+                    favorite.getVoteAverage(), vector);
+            for (int d = 0; d < vector.length; d++) {
+                profile[d] += vector[d];
+            }
+        }
+        MovieFeatureMatrix.normalize(profile);
+
+        // Warm up so the scoring loops are compiled (and vectorized) before measuring
+        for (int i = 0; i < ITERATIONS; i++) {
+            matrix.topK(profile, TOP_K, tmdbId -> tmdbId % 7 == 0);
+        }
+
+        long start = System.nanoTime();
+        int[] best = null;
+        for (int i = 0; i < ITERATIONS; i++) {
+            best = matrix.topK(profile, TOP_K, tmdbId -> tmdbId % 7 == 0);
+        }
+        double millisPerQuery = (System.nanoTime() - start) / 1_000_000.0 / ITERATIONS;
+
+        System.out.printf("Built feature matrix of %,d movies in %,d ms%n", CANDIDATES, buildNanos / 1_000_000);
+        System.out.printf("Top-%d of %,d candidates: %.3f ms/query%n", TOP_K, CANDIDATES, millisPerQuery);
+
+        assertThat(best).hasSize(TOP_K);
+        float[] scores = new float[matrix.size()];
+        matrix.score(profile, scores);
+        for (int i = 1; i < best.length; i++) {
+            assertThat(scores[best[i]]).isLessThanOrEqualTo(scores[best[i - 1]]);
+        }
+        for (int index : best) {
+            assertThat(matrix.movieId(index) % 7).isNotZero();
+        }
+        assertThat(millisPerQuery).isLessThan(5.0);
+    }
+}
@@ -0,0 +1,147 @@
+package com.lambton.fsdo.finalproject.benchmarks;
+
+import com.lambton.fsdo.finalproject.entities.TMDbMovieDto;
+import com.lambton.fsdo.finalproject.entities.TMDbSnapshot;
+import com.lambton.fsdo.finalproject.services.TMDbSnapshotFile;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Writes a full snapshot cache (list, search and detail snapshots) to the columnar snapshot file
+ * and reads it back, compared with Java serialization of the same map.
+ * Run with: mvn test -Pbenchmark -Dtest=SnapshotFileBenchmark -Dbenchmark.snapshots=1000
+ */
+@Tag("benchmark")
+class SnapshotFileBenchmark {
+
+    private static final int SNAPSHOTS = Integer.getInteger("benchmark.snapshots", 1_000);
+    private static final int ROUNDS = 10;
+    private static final String[] LANGUAGES = {"en", "fr", "ja", "es", "de", "ko", "it", "hi", "zh"};
+    private static final int[] GENRES = {28, 12, 16, 35, 80, 99, 18, 10751, 14, 36, 27, 10402, 9648, 10749, 878};
+
+    private final Random random = new Random(42);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void writeAndRestore() throws Exception {
+        Map<String, TMDbSnapshot> snapshots = generateSnapshots();
+        int movies = snapshots.values().stream().mapToInt(snapshot -> snapshot.getMovies().size()).sum();
+
+        Path columnar = directory.resolve("snapshots.bin");
+        Path serialized = directory.resolve("snapshots.ser");
+        for (int i = 0; i < 3; i++) {
+            TMDbSnapshotFile.write(columnar, snapshots);
+            TMDbSnapshotFile.read(columnar);
+            writeSerialized(serialized, snapshots);
+            readSerialized(serialized);
+        }
+
+        long writeNanos = time(() -> TMDbSnapshotFile.write(columnar, snapshots));
+        long readNanos = time(() -> TMDbSnapshotFile.read(columnar));
+        long serializedWriteNanos = time(() -> writeSerialized(serialized, snapshots));
+        long serializedReadNanos = time(() -> readSerialized(serialized));
+
+        System.out.printf("%,d snapshots, %,d movies%n", snapshots.size(), movies);
+        System.out.printf("columnar file:      %,8d KB, write %,6.1f ms, read %,6.1f ms%n",
+                Files.size(columnar) / 1024, writeNanos / 1e6, readNanos / 1e6);
+        System.out.printf("Java serialization: %,8d KB, write %,6.1f ms, read %,6.1f ms%n",
+                Files.size(serialized) / 1024, serializedWriteNanos / 1e6, serializedReadNanos / 1e6);
+
+        // Every rendered field survives the round trip, so restored pages keep their entity tags
+        Map<String, TMDbSnapshot> restored = TMDbSnapshotFile.read(columnar);
+        assertThat(restored.keySet()).containsExactlyElementsOf(snapshots.keySet());
+        snapshots.forEach((key, snapshot) -> {
+            assertThat(restored.get(key).getVersion()).as(key).isEqualTo(snapshot.getVersion());
+            assertThat(new TMDbSnapshot(restored.get(key).getMovies(), 0L).getVersion()).as(key)
+                    .isEqualTo(snapshot.getVersion());
+            assertThat(restored.get(key).getFetchedAt()).isEqualTo(snapshot.getFetchedAt());
+            assertThat(restored.get(key).getMovies()).extracting(TMDbMovieDto::getGenreIds)
+                    .isEqualTo(snapshot.getMovies().stream().map(TMDbMovieDto::getGenreIds).toList());
+        });
+    }
+
+    private Map<String, TMDbSnapshot> generateSnapshots() {
+        Map<String, TMDbSnapshot> snapshots = new LinkedHashMap<>();
+        long now = System.currentTimeMillis();
+        for (String list : List.of("trending", "popular", "now-playing")) {
+            snapshots.put(list, new TMDbSnapshot(movies(20), now));
+        }
+        for (int i = 0; snapshots.size() < SNAPSHOTS; i++) {
+            if (i % 4 == 0) {
+                snapshots.put("search:query " + i, new TMDbSnapshot(movies(20), now - i));
+            } else {
+                List<TMDbMovieDto> detail = movies(1);
+                snapshots.put("movie:" + detail.get(0).getId(), new TMDbSnapshot(detail, now - i));
+            }
+        }
+        return snapshots;
+    }
+
+    private List<TMDbMovieDto> movies(int count) {
+        List<TMDbMovieDto> movies = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long id = random.nextInt(1_000_000);
+            TMDbMovieDto movie = new TMDbMovieDto();
+            movie.setId(id);
+            movie.setTitle("Movie title " + id);
+            movie.setOriginalTitle(random.nextInt(4) == 0 ? "Titre original " + id : "Movie title " + id);
+            movie.setOverview(("An overview of movie " + id + " that runs for a few sentences, like TMDb's do. ")
+                    .repeat(3 + random.nextInt(3)));
+            movie.setPosterPath("/" + Long.toString(random.nextLong() & Long.MAX_VALUE, 36) + ".jpg");
+            movie.setBackdropPath(random.nextInt(10) == 0 ? null : "/" + Long.toString(id * 31, 36) + ".jpg");
+            movie.setReleaseDate(random.nextInt(20) == 0 ? null : LocalDate.of(1950, 1, 1).plusDays(random.nextInt(27_000)));
+            movie.setVoteAverage(random.nextInt(100) / 10.0);
+            movie.setVoteCount(random.nextInt(30_000));
+            movie.setPopularity(random.nextDouble() * 500);
+            movie.setOriginalLanguage(LANGUAGES[random.nextInt(LANGUAGES.length)]);
+            movie.setAdult(false);
+            movie.setGenreIds(List.of(GENRES[random.nextInt(GENRES.length)], GENRES[random.nextInt(GENRES.length)]));
+            movies.add(movie);
+        }
+        return movies;
+    }
+
+    private static void writeSerialized(Path file, Map<String, TMDbSnapshot> snapshots) throws IOException {
+        try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeObject(new LinkedHashMap<>(snapshots));
+        }
+    }
+
+    private static Object readSerialized(Path file) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            return in.readObject();
+        }
+    }
+
+    private static long time(IoOperation operation) throws Exception {
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            operation.run();
+        }
+        return (System.nanoTime() - start) / ROUNDS;
+    }
+
+    @FunctionalInterface
+    private interface IoOperation {
+        void run() throws Exception;
+    }
+}
@@ -0,0 +1,303 @@
+package com.lambton.fsdo.finalproject.stress;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.lambton.fsdo.finalproject.FinalProjectApplication;
+import com.lambton.fsdo.finalproject.services.FavoritesMembershipIndex;
+import com.lambton.fsdo.finalproject.services.FavoritesStatsService;
+import com.lambton.fsdo.finalproject.services.FavoritesWriteBehind;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Many clients adding, removing and toggling the same few favorites at once, over HTTP against a stub TMDb.
+ * Every successful add counts +1 for its (user, movie) and every successful remove -1, so afterwards each
+ * favorite_movies row, membership index entry and cached statistics count must match what the responses
+ * reported. Also fails when throughput or the 99th percentile latency regress past the given limits.
+ * Run with: mvn test -Pstress [-Dstress.threads=32 -Dstress.operations=500 -Dstress.min-throughput=100
+ * -Dstress.max-p99=PT1S]
+ */
+@Tag("stress")
+class FavoritesContentionStressTests {
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    private static final int THREADS = Integer.getInteger("stress.threads", 32);
+    private static final int OPERATIONS = Integer.getInteger("stress.operations", 500);
+    // Few users and movies, so most operations collide with another in flight
+    private static final int USERS = 3;
+    private static final int MOVIES = 8;
+    private static final double MIN_THROUGHPUT = Double.parseDouble(System.getProperty("stress.min-throughput", "100"));
+    private static final Duration MAX_P99 = Duration.parse(System.getProperty("stress.max-p99", "PT1S"));
+
+    private static HttpServer tmdb;
+
+    @TempDir
+    Path temp;
+
+    private enum Operation {
+        ADD, REMOVE, TOGGLE
+    }
+
+    @BeforeAll
+    static void startTmdbStub() throws IOException {
+        tmdb = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        tmdb.createContext("/3/", FavoritesContentionStressTests::handleTmdbRequest);
+        tmdb.setExecutor(Executors.newFixedThreadPool(8));
+        tmdb.start();
+    }
+
+    @AfterAll
+    static void stopTmdbStub() {
+        tmdb.stop(0);
+    }
+
+    // Each run uses its own movie IDs: the second-level cache is shared by the contexts in the test JVM,
+    // and a movie cached by the other run would not be written to this run's database
+
+    @Test
+    void synchronousWrites() throws Exception {
+        run("synchronous writes", 91_000, "--favorites.write-behind.enabled=false");
+    }
+
+    @Test
+    void writeBehind() throws Exception {
+        run("write-behind", 92_000, "--favorites.write-behind.enabled=true",
+                "--favorites.write-behind.durability=memory",
+                "--favorites.write-behind.journal-dir=" + temp.resolve("journal"));
+    }
+
+    private void run(String mode, long firstMovie, String... arguments) throws Exception {
+        List<String> args = new ArrayList<>(List.of(arguments));
+        args.add("--server.port=0");
+        args.add("--spring.datasource.url=jdbc:h2:mem:stress-" + UUID.randomUUID());
+        args.add("--tmdb.api.base-url=http://127.0.0.1:" + tmdb.getAddress().getPort() + "/3");
+        args.add("--tmdb.api.key=stress-test-key");
+        // Queue every request: a shed request changes nothing, but would leave contention untested
+        args.add("--bulkheads.toggle.queue=" + THREADS);
+        args.add("--bulkheads.toggle.max-wait=PT1M");
+
+        try (ConfigurableApplicationContext node = new SpringApplicationBuilder(FinalProjectApplication.class)
+                .run(args.toArray(String[]::new))) {
+            String baseUrl = "http://127.0.0.1:" + ((WebServerApplicationContext) node).getWebServer().getPort();
+            FavoritesStatsService stats = node.getBean(FavoritesStatsService.class);
+            for (long user = 1; user <= USERS; user++) {
+                // Cached before the run, so the running aggregates have to follow every change
+                assertThat(stats.getStats(user).count()).isZero();
+            }
+
+            AtomicIntegerArray expected = new AtomicIntegerArray(USERS * MOVIES);
+            List<String> errors = Collections.synchronizedList(new ArrayList<>());
+            Map<Operation, long[]> latencies = new EnumMap<>(Operation.class);
+            long start = System.nanoTime();
+            List<Map<Operation, List<Long>>> perThread = hammer(baseUrl, firstMovie, expected, errors);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            for (Operation operation : Operation.values()) {
+                latencies.put(operation, perThread.stream()
+                        .flatMap(thread -> thread.get(operation).stream())
+                        .mapToLong(Long::longValue)
+                        .sorted()
+                        .toArray());
+            }
+
+            node.getBean(FavoritesWriteBehind.class).flush();
+            JdbcTemplate jdbc = node.getBean(JdbcTemplate.class);
+            FavoritesMembershipIndex index = node.getBean(FavoritesMembershipIndex.class);
+            List<String> violations = new ArrayList<>();
+            for (long user = 1; user <= USERS; user++) {
+                int favorites = 0;
+                for (long movie = firstMovie; movie < firstMovie + MOVIES; movie++) {
+                    int net = expected.get(key(user, movie - firstMovie));
+                    Integer rows = jdbc.queryForObject(
+                            "SELECT COUNT(*) FROM favorite_movies WHERE user_id = ? AND tmdb_id = ?",
+                            Integer.class, user, movie);
+                    if (net != rows) {
+                        violations.add("user " + user + ", movie " + movie + ": responses add up to " + net
+                                + ", table has " + rows + " rows");
+                    }
+                    if (index.contains(user, movie) != (rows == 1)) {
+                        violations.add("user " + user + ", movie " + movie + ": index disagrees with the table");
+                    }
+                    favorites += rows;
+                }
+                long cached = stats.getStats(user).count();
+                if (cached != favorites) {
+                    violations.add("user " + user + ": statistics count " + cached + ", table has " + favorites);
+                }
+            }
+            Integer movies = jdbc.queryForObject("SELECT COUNT(*) FROM movies WHERE tmdb_id BETWEEN ? AND ?",
+                    Integer.class, firstMovie, firstMovie + MOVIES - 1);
+
+            int total = THREADS * OPERATIONS;
+            long[] all = latencies.values().stream().flatMapToLong(Arrays::stream).sorted().toArray();
+            System.out.printf("%s: %,d operations on %d threads, %d users x %d movies, %,.0f operations/s%n",
+                    mode, total, THREADS, USERS, MOVIES, total / seconds);
+            latencies.forEach((operation, values) -> System.out.println("  " + summary(operation.name(), values)));
+            System.out.println("  " + summary("ALL", all));
+            System.out.printf("  %d movie rows, %d errors, %d invariant violations%n",
+                    movies, errors.size(), violations.size());
+            errors.stream().limit(10).forEach(error -> System.out.println("    error: " + error));
+            violations.stream().limit(10).forEach(violation -> System.out.println("    violation: " + violation));
+
+            assertThat(errors).isEmpty();
+            assertThat(violations).isEmpty();
+            assertThat(movies).isLessThanOrEqualTo(MOVIES);
+            assertThat(total / seconds).as("operations/s").isGreaterThanOrEqualTo(MIN_THROUGHPUT);
+            assertThat(Duration.ofNanos(percentile(all, 0.99))).as("p99 latency").isLessThanOrEqualTo(MAX_P99);
+        }
+    }
+
+    /**
+     * Each thread sends random operations on the hot favorites and adds every change its responses report
+     * to {@code expected}
+     *
+     * @return per thread and operation, the latencies in nanoseconds
+     */
+    private static List<Map<Operation, List<Long>>> hammer(String baseUrl, long firstMovie,
+                                                           AtomicIntegerArray expected,
+                                                           List<String> errors) throws Exception {
+        HttpClient client = HttpClient.newBuilder()
+                .executor(Executors.newFixedThreadPool(4))
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+        ExecutorService threads = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Map<Operation, List<Long>>>> results = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            Random random = new Random(t);
+            results.add(threads.submit(() -> {
+                Map<Operation, List<Long>> latencies = new EnumMap<>(Operation.class);
+                for (Operation operation : Operation.values()) {
+                    latencies.put(operation, new ArrayList<>());
+                }
+                start.await();
+                for (int i = 0; i < OPERATIONS; i++) {
+                    long user = 1 + random.nextInt(USERS);
+                    int movieIndex = random.nextInt(MOVIES);
+                    long movie = firstMovie + movieIndex;
+                    Operation operation = Operation.values()[random.nextInt(Operation.values().length)];
+                    HttpRequest request = request(baseUrl, operation, user, movie);
+
+                    long sent = System.nanoTime();
+                    HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+                    latencies.get(operation).add(System.nanoTime() - sent);
+
+                    int change = change(operation, response);
+                    if (change == Integer.MIN_VALUE) {
+                        errors.add(operation + " user " + user + " movie " + movie + ": " + response.statusCode()
+                                + " " + response.body());
+                    } else {
+                        expected.addAndGet(key(user, movieIndex), change);
+                    }
+                }
+                return latencies;
+            }));
+        }
+        start.countDown();
+        List<Map<Operation, List<Long>>> latencies = new ArrayList<>();
+        for (Future<Map<Operation, List<Long>>> result : results) {
+            latencies.add(result.get());
+        }
+        threads.shutdown();
+        return latencies;
+    }
+
+    private static HttpRequest request(String baseUrl, Operation operation, long user, long movie) {
+        HttpRequest.Builder request = switch (operation) {
+            case ADD -> HttpRequest.newBuilder(URI.create(baseUrl + "/api/v1/favorites/" + movie))
+                    .POST(HttpRequest.BodyPublishers.noBody());
+            case REMOVE -> HttpRequest.newBuilder(URI.create(baseUrl + "/api/v1/favorites/" + movie))
+                    .DELETE();
+            case TOGGLE -> HttpRequest.newBuilder(URI.create(baseUrl + "/favorites/toggle/" + movie))
+                    .POST(HttpRequest.BodyPublishers.noBody());
+        };
+        return request.header("X-User-Id", Long.toString(user))
+                .timeout(Duration.ofSeconds(30))
+                .build();
+    }
+
+    /**
+     * The change a response reports: +1 added, -1 removed, 0 nothing to do, or MIN_VALUE for an error
+     */
+    private static int change(Operation operation, HttpResponse<String> response) {
+        int status = response.statusCode();
+        String body = response.body();
+        return switch (operation) {
+            case ADD -> status == 201 ? 1 : status == 200 && body.contains("already_exists") ? 0 : Integer.MIN_VALUE;
+            case REMOVE -> status == 204 ? -1 : status == 404 ? 0 : Integer.MIN_VALUE;
+            case TOGGLE -> status != 200 ? Integer.MIN_VALUE
+                    : body.equals("added") ? 1 : body.equals("removed") ? -1 : Integer.MIN_VALUE;
+        };
+    }
+
+    private static int key(long user, long movieIndex) {
+        return (int) ((user - 1) * MOVIES + movieIndex);
+    }
+
+    private static String summary(String name, long[] sorted) {
+        return String.format("%-7s %,6d   p50 %6.1f ms   p95 %6.1f ms   p99 %6.1f ms   max %6.1f ms", name,
+                sorted.length, percentile(sorted, 0.50) / 1e6, percentile(sorted, 0.95) / 1e6,
+                percentile(sorted, 0.99) / 1e6, sorted.length == 0 ? 0 : sorted[sorted.length - 1] / 1e6);
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(percentile * sorted.length) - 1)];
+    }
+
+    private static void handleTmdbRequest(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        long id = Long.parseLong(path.substring(path.lastIndexOf('/') + 1));
+        Map<String, Object> movie = new LinkedHashMap<>();
+        movie.put("id", id);
+        movie.put("title", "Movie " + id);
+        movie.put("release_date", "200" + (id % 10) + "-01-01");
+        movie.put("vote_average", id % 10 + 0.5);
+        movie.put("original_language", "en");
+        movie.put("genres", List.of(Map.of("id", 28, "name", "Action")));
+
+        byte[] data = JSON.writeValueAsString(movie).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, data.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(data);
+        }
+    }
+}